@@ -0,0 +1,328 @@
+package com.secureapp.dao;
+
+import com.secureapp.model.ChunkRef;
+import com.secureapp.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Access Object for content-addressed blob and chunk rows.
+ * Blob reference counts are incremented and decremented by FileDAO together
+ * with the file rows; this DAO reads them and removes blobs nobody
+ * references.
+ *
+ * A chunked blob has a manifest in blob_chunks and holds one reference on
+ * each chunk it lists. The manifest and those references are created in one
+ * transaction and dropped in one transaction, so chunk reference counts
+ * never depend on a blob write having completed.
+ */
+public class BlobDAO {
+
+    /**
+     * Get the reference count of a blob.
+     *
+     * @param contentHash Content hash
+     * @return Reference count, or 0 if the blob has no row
+     * @throws SQLException if database error occurs
+     */
+    public int getRefCount(String contentHash) throws SQLException {
+        String sql = "SELECT ref_count FROM blobs WHERE content_hash = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, contentHash);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt("ref_count") : 0;
+            }
+        }
+    }
+
+    /**
+     * Get blobs whose last reference was released.
+     *
+     * @param limit Maximum number of hashes to return
+     * @return Content hashes with a reference count of zero
+     * @throws SQLException if database error occurs
+     */
+    public List<String> getUnreferencedHashes(int limit) throws SQLException {
+        List<String> hashes = new ArrayList<>();
+        String sql = "SELECT content_hash FROM blobs WHERE ref_count <= 0 LIMIT ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, limit);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    hashes.add(rs.getString("content_hash"));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Delete a blob row if it is no longer referenced, together with its
+     * manifest and line index, releasing one reference on each chunk of the manifest.
+     *
+     * @param contentHash Content hash
+     * @return Chunk hashes whose reference was released (empty if the blob
+     *         was not chunked or is still referenced)
+     * @throws SQLException if database error occurs
+     */
+    public List<String> deleteIfUnreferenced(String contentHash) throws SQLException {
+        String deleteBlobSql = "DELETE FROM blobs WHERE content_hash = ? AND ref_count <= 0";
+        String releaseChunksSql = "UPDATE chunks c SET ref_count = ref_count - " +
+                "(SELECT COUNT(*) FROM blob_chunks bc WHERE bc.content_hash = ? AND bc.chunk_hash = c.chunk_hash) " +
+                "WHERE chunk_hash IN (SELECT chunk_hash FROM blob_chunks WHERE content_hash = ?)";
+        String deleteManifestSql = "DELETE FROM blob_chunks WHERE content_hash = ?";
+        String deleteLineIndexSql = "DELETE FROM line_indexes WHERE content_hash = ?";
+        List<String> chunkHashes = new ArrayList<>();
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement deleteBlob = conn.prepareStatement(deleteBlobSql);
+                    PreparedStatement releaseChunks = conn.prepareStatement(releaseChunksSql);
+                    PreparedStatement deleteManifest = conn.prepareStatement(deleteManifestSql);
+                    PreparedStatement deleteLineIndex = conn.prepareStatement(deleteLineIndexSql)) {
+
+                deleteBlob.setString(1, contentHash);
+                if (deleteBlob.executeUpdate() == 0) {
+                    conn.rollback();
+                    return chunkHashes;
+                }
+
+                for (ChunkRef chunk : readManifest(conn, contentHash)) {
+                    if (!chunkHashes.contains(chunk.getChunkHash())) {
+                        chunkHashes.add(chunk.getChunkHash());
+                    }
+                }
+                releaseChunks.setString(1, contentHash);
+                releaseChunks.setString(2, contentHash);
+                releaseChunks.executeUpdate();
+                deleteManifest.setString(1, contentHash);
+                deleteManifest.executeUpdate();
+                deleteLineIndex.setString(1, contentHash);
+                deleteLineIndex.executeUpdate();
+
+                conn.commit();
+                return chunkHashes;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Store the (encrypted) line index of a blob, replacing any previous one.
+     *
+     * @param contentHash Content hash
+     * @param indexData   Encrypted index
+     * @throws SQLException if database error occurs
+     */
+    public void saveLineIndex(String contentHash, byte[] indexData) throws SQLException {
+        String sql = "MERGE INTO line_indexes (content_hash, index_data) KEY (content_hash) VALUES (?, ?)";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, contentHash);
+            pstmt.setBytes(2, indexData);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Get the (encrypted) line index of a blob.
+     *
+     * @param contentHash Content hash
+     * @return Encrypted index, or null if the blob has none
+     * @throws SQLException if database error occurs
+     */
+    public byte[] getLineIndex(String contentHash) throws SQLException {
+        String sql = "SELECT index_data FROM line_indexes WHERE content_hash = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, contentHash);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getBytes("index_data") : null;
+            }
+        }
+    }
+
+    /**
+     * Get the manifest of a chunked blob.
+     *
+     * @param contentHash Content hash
+     * @return Chunks in content order, or an empty list if the blob is not
+     *         chunked
+     * @throws SQLException if database error occurs
+     */
+    public List<ChunkRef> getManifest(String contentHash) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            return readManifest(conn, contentHash);
+        }
+    }
+
+    /**
+     * Record a chunked blob: create its row (unreferenced until a file row
+     * takes a reference), write its manifest and take one reference on each
+     * listed chunk, all in one transaction.
+     *
+     * @param contentHash Content hash
+     * @param blobSize    Plaintext size of the whole blob
+     * @param manifest    Chunks in content order
+     * @throws SQLException if database error occurs (e.g. the manifest exists)
+     */
+    public void createManifest(String contentHash, long blobSize, List<ChunkRef> manifest) throws SQLException {
+        String blobSql = "MERGE INTO blobs b USING (VALUES (CAST(? AS VARCHAR(64)), CAST(? AS BIGINT), " +
+                "CAST(? AS INT))) s(content_hash, blob_size, chunk_count) ON b.content_hash = s.content_hash " +
+                "WHEN MATCHED THEN UPDATE SET chunk_count = s.chunk_count " +
+                "WHEN NOT MATCHED THEN INSERT (content_hash, ref_count, blob_size, chunk_count) " +
+                "VALUES (s.content_hash, 0, s.blob_size, s.chunk_count)";
+        String manifestSql = "INSERT INTO blob_chunks (content_hash, seq, chunk_hash, chunk_offset, chunk_length) " +
+                "VALUES (?, ?, ?, ?, ?)";
+        String acquireChunkSql = "MERGE INTO chunks c USING (VALUES (CAST(? AS VARCHAR(64)), CAST(? AS INT))) " +
+                "s(chunk_hash, chunk_size) ON c.chunk_hash = s.chunk_hash " +
+                "WHEN MATCHED THEN UPDATE SET ref_count = c.ref_count + 1 " +
+                "WHEN NOT MATCHED THEN INSERT (chunk_hash, ref_count, chunk_size) " +
+                "VALUES (s.chunk_hash, 1, s.chunk_size)";
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement blob = conn.prepareStatement(blobSql);
+                    PreparedStatement insertManifest = conn.prepareStatement(manifestSql);
+                    PreparedStatement acquireChunk = conn.prepareStatement(acquireChunkSql)) {
+
+                blob.setString(1, contentHash);
+                blob.setLong(2, blobSize);
+                blob.setInt(3, manifest.size());
+                blob.executeUpdate();
+
+                for (int seq = 0; seq < manifest.size(); seq++) {
+                    ChunkRef chunk = manifest.get(seq);
+                    insertManifest.setString(1, contentHash);
+                    insertManifest.setInt(2, seq);
+                    insertManifest.setString(3, chunk.getChunkHash());
+                    insertManifest.setLong(4, chunk.getOffset());
+                    insertManifest.setInt(5, chunk.getLength());
+                    insertManifest.addBatch();
+                }
+                insertManifest.executeBatch();
+
+                // One reference per occurrence, so repeated chunks are released symmetrically
+                for (ChunkRef chunk : manifest) {
+                    acquireChunk.setString(1, chunk.getChunkHash());
+                    acquireChunk.setInt(2, chunk.getLength());
+                    acquireChunk.addBatch();
+                }
+                acquireChunk.executeBatch();
+
+                conn.commit();
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Get the reference count of a chunk.
+     *
+     * @param chunkHash Chunk hash
+     * @return Reference count, or 0 if the chunk has no row
+     * @throws SQLException if database error occurs
+     */
+    public int getChunkRefCount(String chunkHash) throws SQLException {
+        String sql = "SELECT ref_count FROM chunks WHERE chunk_hash = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, chunkHash);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt("ref_count") : 0;
+            }
+        }
+    }
+
+    /**
+     * Get chunks whose last reference was released.
+     *
+     * @param limit Maximum number of hashes to return
+     * @return Chunk hashes with a reference count of zero
+     * @throws SQLException if database error occurs
+     */
+    public List<String> getUnreferencedChunkHashes(int limit) throws SQLException {
+        List<String> hashes = new ArrayList<>();
+        String sql = "SELECT chunk_hash FROM chunks WHERE ref_count <= 0 LIMIT ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, limit);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    hashes.add(rs.getString("chunk_hash"));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Delete a chunk row if it is no longer referenced.
+     *
+     * @param chunkHash Chunk hash
+     * @return true if the row was deleted
+     * @throws SQLException if database error occurs
+     */
+    public boolean deleteChunkIfUnreferenced(String chunkHash) throws SQLException {
+        String sql = "DELETE FROM chunks WHERE chunk_hash = ? AND ref_count <= 0";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, chunkHash);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    private static List<ChunkRef> readManifest(Connection conn, String contentHash) throws SQLException {
+        List<ChunkRef> manifest = new ArrayList<>();
+        String sql = "SELECT chunk_hash, chunk_offset, chunk_length FROM blob_chunks " +
+                "WHERE content_hash = ? ORDER BY seq";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, contentHash);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    manifest.add(new ChunkRef(
+                            rs.getString("chunk_hash"),
+                            rs.getLong("chunk_offset"),
+                            rs.getInt("chunk_length")));
+                }
+            }
+        }
+        return manifest;
+    }
+}
@@ -1,5 +1,6 @@
 package com.secureapp.dao;
 
+import com.secureapp.model.FileListingVersion;
 import com.secureapp.model.FileModel;
 import com.secureapp.util.DatabaseUtil;
 
@@ -7,36 +8,190 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Data Access Object for File operations.
  * Uses PreparedStatements to prevent SQL injection.
+ *
+ * Files with a content hash share a row in the blobs table; inserting or
+ * deleting such a file adjusts the blob's reference count in the same
+ * transaction.
  */
 public class FileDAO {
 
+    private static final String FILE_COLUMNS =
+            "id, user_id, original_filename, stored_filename, file_size, upload_date, content_hash, preview";
+
+    private static final String INSERT_FILE_SQL =
+            "INSERT INTO files (user_id, original_filename, stored_filename, file_size, content_hash, preview) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String ACQUIRE_BLOB_SQL =
+            "MERGE INTO blobs b USING (VALUES (CAST(? AS VARCHAR(64)), CAST(? AS BIGINT))) " +
+                    "s(content_hash, blob_size) ON b.content_hash = s.content_hash " +
+                    "WHEN MATCHED THEN UPDATE SET ref_count = b.ref_count + 1 " +
+                    "WHEN NOT MATCHED THEN INSERT (content_hash, ref_count, blob_size) " +
+                    "VALUES (s.content_hash, 1, s.blob_size)";
+
     /**
      * Save file metadata to database.
+     * The id assigned to the row is set on the model.
      * 
      * @param file FileModel containing metadata
      * @return true if saved successfully
      * @throws SQLException if database error occurs
      */
     public boolean saveFile(FileModel file) throws SQLException {
-        String sql = "INSERT INTO files (user_id, original_filename, stored_filename, file_size) " +
-                "VALUES (?, ?, ?, ?)";
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
 
-        try (Connection conn = DatabaseUtil.getConnection();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            try (PreparedStatement insertFile = conn.prepareStatement(INSERT_FILE_SQL, Statement.RETURN_GENERATED_KEYS);
+                    PreparedStatement acquireBlob = conn.prepareStatement(ACQUIRE_BLOB_SQL)) {
+
+                bindInsert(insertFile, file);
+                int rowsAffected = insertFile.executeUpdate();
+                readGeneratedIds(insertFile, Collections.singletonList(file));
+
+                if (file.getContentHash() != null) {
+                    acquireBlob.setString(1, file.getContentHash());
+                    acquireBlob.setLong(2, file.getFileSize());
+                    acquireBlob.executeUpdate();
+                }
+
+                conn.commit();
+                return rowsAffected > 0;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Save a group of file metadata rows in a single transaction.
+     * All rows are sent as one JDBC batch and committed together, then the
+     * database is synced once so every row in the group is durable when this
+     * method returns. The ids assigned to the rows are set on the models.
+     *
+     * @param files FileModels containing metadata
+     * @return Update count for each row, in submission order
+     * @throws SyncFailedException if the group was committed but the sync
+     *                             failed
+     * @throws SQLException        if any row fails (the whole group is rolled
+     *                             back)
+     */
+    public int[] saveFiles(List<FileModel> files) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement insertFile = conn.prepareStatement(INSERT_FILE_SQL, Statement.RETURN_GENERATED_KEYS);
+                    PreparedStatement acquireBlob = conn.prepareStatement(ACQUIRE_BLOB_SQL)) {
+                boolean hasBlobs = false;
+
+                for (FileModel file : files) {
+                    bindInsert(insertFile, file);
+                    insertFile.addBatch();
 
-            pstmt.setInt(1, file.getUserId());
-            pstmt.setString(2, file.getOriginalFilename());
-            pstmt.setString(3, file.getStoredFilename());
-            pstmt.setLong(4, file.getFileSize());
+                    if (file.getContentHash() != null) {
+                        acquireBlob.setString(1, file.getContentHash());
+                        acquireBlob.setLong(2, file.getFileSize());
+                        acquireBlob.addBatch();
+                        hasBlobs = true;
+                    }
+                }
 
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+                int[] results = insertFile.executeBatch();
+                readGeneratedIds(insertFile, files);
+                if (hasBlobs) {
+                    acquireBlob.executeBatch();
+                }
+                conn.commit();
+                try {
+                    DatabaseUtil.syncToDisk(conn);
+                } catch (SQLException e) {
+                    // Nothing left to roll back: the rows are committed
+                    throw new SyncFailedException(e, results);
+                }
+                return results;
+
+            } catch (SyncFailedException e) {
+                throw e;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Sync committed changes to disk.
+     *
+     * @throws SQLException if the checkpoint fails
+     */
+    public void syncToDisk() throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            DatabaseUtil.syncToDisk(conn);
+        }
+    }
+
+    /**
+     * Thrown by saveFiles() when the group was committed but could not be
+     * synced: the rows exist, inserting them again would violate the
+     * stored_filename constraint.
+     */
+    public static class SyncFailedException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] results;
+
+        public SyncFailedException(SQLException cause, int[] results) {
+            super("Commit succeeded but sync failed: " + cause.getMessage(), cause);
+            this.results = results;
+        }
+
+        // Update count for each committed row, in submission order.
+        public int[] getResults() {
+            return results;
+        }
+    }
+
+    /**
+     * Delete file metadata by stored filename.
+     * Used by upload recovery to drop rows whose ciphertext never reached disk.
+     * The file's blob reference, if any, is released.
+     *
+     * @param storedFilename Stored filename
+     * @return true if a row was deleted
+     * @throws SQLException if database error occurs
+     */
+    public boolean deleteFileByStoredFilename(String storedFilename) throws SQLException {
+        String releaseSql = "UPDATE blobs SET ref_count = ref_count - 1 WHERE content_hash = " +
+                "(SELECT content_hash FROM files WHERE stored_filename = ?)";
+        String deleteSql = "DELETE FROM files WHERE stored_filename = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement release = conn.prepareStatement(releaseSql);
+                    PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+
+                release.setString(1, storedFilename);
+                release.executeUpdate();
+                delete.setString(1, storedFilename);
+                boolean deleted = delete.executeUpdate() > 0;
+
+                conn.commit();
+                return deleted;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
         }
     }
 
@@ -50,8 +205,8 @@ public class FileDAO {
 
     public List<FileModel> getFilesByUserId(int userId) throws SQLException {
         List<FileModel> files = new ArrayList<>();
-        String sql = "SELECT id, user_id, original_filename, stored_filename, file_size, upload_date " +
-                "FROM files WHERE user_id = ? ORDER BY upload_date DESC";
+        String sql = "SELECT " + FILE_COLUMNS + " " +
+                "FROM files WHERE user_id = ? AND deleted_at IS NULL ORDER BY upload_date DESC";
 
         try (Connection conn = DatabaseUtil.getConnection();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -60,14 +215,7 @@ public class FileDAO {
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    FileModel file = new FileModel(
-                            rs.getInt("id"),
-                            rs.getInt("user_id"),
-                            rs.getString("original_filename"),
-                            rs.getString("stored_filename"),
-                            rs.getLong("file_size"),
-                            rs.getTimestamp("upload_date"));
-                    files.add(file);
+                    files.add(toFileModel(rs));
                 }
             }
         }
@@ -82,38 +230,92 @@ public class FileDAO {
      */
     public List<FileModel> getAllFiles() throws SQLException {
         List<FileModel> files = new ArrayList<>();
-        String sql = "SELECT id, user_id, original_filename, stored_filename, file_size, upload_date " +
-                "FROM files ORDER BY upload_date DESC";
+        String sql = "SELECT " + FILE_COLUMNS + " " +
+                "FROM files WHERE deleted_at IS NULL ORDER BY upload_date DESC";
 
         try (Connection conn = DatabaseUtil.getConnection();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    FileModel file = new FileModel(
-                            rs.getInt("id"),
-                            rs.getInt("user_id"),
-                            rs.getString("original_filename"),
-                            rs.getString("stored_filename"),
-                            rs.getLong("file_size"),
-                            rs.getTimestamp("upload_date"));
-                    files.add(file);
+                    files.add(toFileModel(rs));
                 }
             }
         }
         return files;
     }
 
+    /**
+     * Get live files of one user by id, newest first.
+     * Ids of other users' files or of deleted files are silently skipped.
+     * 
+     * @param userId  Owner user ID
+     * @param fileIds File ids
+     * @return Matching files
+     * @throws SQLException if database error occurs
+     */
+    public List<FileModel> getLiveFilesByIds(int userId, List<Integer> fileIds) throws SQLException {
+        List<FileModel> files = new ArrayList<>();
+        if (fileIds.isEmpty()) {
+            return files;
+        }
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < fileIds.size(); i++) {
+            placeholders.append(", ?");
+        }
+        String sql = "SELECT " + FILE_COLUMNS + " " +
+                "FROM files WHERE user_id = ? AND deleted_at IS NULL AND id IN (" + placeholders + ") " +
+                "ORDER BY id DESC";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            for (int i = 0; i < fileIds.size(); i++) {
+                pstmt.setInt(i + 2, fileIds.get(i));
+            }
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    files.add(toFileModel(rs));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Get a summary of the live listing (see FileListingVersion) with one
+     * aggregate query, so an unchanged dashboard can be answered without
+     * loading any rows.
+     *
+     * @return Listing version
+     * @throws SQLException if database error occurs
+     */
+    public FileListingVersion getListingVersion() throws SQLException {
+        String sql = "SELECT COUNT(CASE WHEN deleted_at IS NULL THEN 1 END), " +
+                "COALESCE(MAX(CASE WHEN deleted_at IS NULL THEN id END), 0), " +
+                "MAX(COALESCE(deleted_at, upload_date)) FROM files";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql);
+                ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return new FileListingVersion(rs.getLong(1), rs.getLong(2), rs.getTimestamp(3));
+        }
+    }
+
     /**
      * Get file by stored filename.
+     * Deleted (tombstoned) files are not returned.
      * 
      * @param storedFilename Stored filename
      * @return FileModel or null if not found
      * @throws SQLException if database error occurs
      */
     public FileModel getFileByStoredFilename(String storedFilename) throws SQLException {
-        String sql = "SELECT id, user_id, original_filename, stored_filename, file_size, upload_date " +
-                "FROM files WHERE stored_filename = ?";
+        String sql = "SELECT " + FILE_COLUMNS + " " +
+                "FROM files WHERE stored_filename = ? AND deleted_at IS NULL";
 
         try (Connection conn = DatabaseUtil.getConnection();
                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -122,16 +324,143 @@ public class FileDAO {
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return new FileModel(
-                            rs.getInt("id"),
-                            rs.getInt("user_id"),
-                            rs.getString("original_filename"),
-                            rs.getString("stored_filename"),
-                            rs.getLong("file_size"),
-                            rs.getTimestamp("upload_date"));
+                    return toFileModel(rs);
                 }
             }
         }
         return null;
     }
+
+    /**
+     * Tombstone a file owned by the given user.
+     * The row disappears from all listings immediately; the ciphertext and
+     * the row itself are removed later by the background purger.
+     * 
+     * @param storedFilename Stored filename
+     * @param userId         Owner user ID (files of other users are not touched)
+     * @return true if a live file was tombstoned
+     * @throws SQLException if database error occurs
+     */
+    public boolean markDeleted(String storedFilename, int userId) throws SQLException {
+        String sql = "UPDATE files SET deleted_at = CURRENT_TIMESTAMP " +
+                "WHERE stored_filename = ? AND user_id = ? AND deleted_at IS NULL";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, storedFilename);
+            pstmt.setInt(2, userId);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Get tombstoned files waiting for physical removal, oldest first.
+     * 
+     * @param limit Maximum number of files to return
+     * @return List of tombstoned FileModel objects
+     * @throws SQLException if database error occurs
+     */
+    public List<FileModel> getDeletedFiles(int limit) throws SQLException {
+        List<FileModel> files = new ArrayList<>();
+        String sql = "SELECT " + FILE_COLUMNS + " " +
+                "FROM files WHERE deleted_at IS NOT NULL ORDER BY deleted_at LIMIT ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, limit);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    files.add(toFileModel(rs));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Total plaintext size of tombstoned files not yet purged.
+     * 
+     * @return Bytes waiting to be reclaimed
+     * @throws SQLException if database error occurs
+     */
+    public long getDeletedBytes() throws SQLException {
+        String sql = "SELECT COALESCE(SUM(file_size), 0) FROM files WHERE deleted_at IS NOT NULL";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql);
+                ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Remove a tombstoned row once its ciphertext is gone, releasing its
+     * blob reference in the same transaction.
+     *
+     * @param fileId File ID
+     * @return true if the row was removed
+     * @throws SQLException if database error occurs
+     */
+    public boolean purgeFile(int fileId) throws SQLException {
+        String releaseSql = "UPDATE blobs SET ref_count = ref_count - 1 WHERE content_hash = " +
+                "(SELECT content_hash FROM files WHERE id = ? AND deleted_at IS NOT NULL)";
+        String deleteSql = "DELETE FROM files WHERE id = ? AND deleted_at IS NOT NULL";
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement release = conn.prepareStatement(releaseSql);
+                    PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+
+                release.setInt(1, fileId);
+                release.executeUpdate();
+                delete.setInt(1, fileId);
+                boolean purged = delete.executeUpdate() > 0;
+
+                conn.commit();
+                return purged;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Set the ids assigned by the database on the inserted models, in order.
+    private static void readGeneratedIds(PreparedStatement insert, List<FileModel> files) throws SQLException {
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+            for (FileModel file : files) {
+                if (!keys.next()) {
+                    break;
+                }
+                file.setId(keys.getInt(1));
+            }
+        }
+    }
+
+    private static void bindInsert(PreparedStatement pstmt, FileModel file) throws SQLException {
+        pstmt.setInt(1, file.getUserId());
+        pstmt.setString(2, file.getOriginalFilename());
+        pstmt.setString(3, file.getStoredFilename());
+        pstmt.setLong(4, file.getFileSize());
+        pstmt.setString(5, file.getContentHash());
+        pstmt.setBytes(6, file.getEncryptedPreview());
+    }
+
+    private static FileModel toFileModel(ResultSet rs) throws SQLException {
+        FileModel file = new FileModel(
+                rs.getInt("id"),
+                rs.getInt("user_id"),
+                rs.getString("original_filename"),
+                rs.getString("stored_filename"),
+                rs.getLong("file_size"),
+                rs.getTimestamp("upload_date"));
+        file.setContentHash(rs.getString("content_hash"));
+        file.setEncryptedPreview(rs.getBytes("preview"));
+        return file;
+    }
 }
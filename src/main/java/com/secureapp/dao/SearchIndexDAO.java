@@ -0,0 +1,212 @@
+package com.secureapp.dao;
+
+import com.secureapp.util.DatabaseUtil;
+import com.secureapp.util.PostingListUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data Access Object for the full-text search index.
+ * One row per (user, token hash) holds the compressed posting list of the
+ * user's files containing the token (see PostingListUtil), plus the
+ * largest id in it so a newer file is added by appending one delta.
+ *
+ * Writers for the same user must be serialized by the caller; reads need
+ * no coordination.
+ */
+public class SearchIndexDAO {
+
+    /**
+     * Add a file to the posting lists of its tokens, in one transaction.
+     *
+     * @param userId      Owner user ID
+     * @param fileId      File id
+     * @param tokenHashes Distinct token hashes of the file
+     * @throws SQLException if database error occurs
+     * @throws IOException  if a stored posting list is malformed
+     */
+    public void addPostings(int userId, int fileId, List<byte[]> tokenHashes) throws SQLException, IOException {
+        String appendSql = "UPDATE search_postings SET postings = postings || CAST(? AS VARBINARY), last_id = ?, " +
+                "doc_count = doc_count + 1 WHERE user_id = ? AND token = ?";
+        String rewriteSql = "UPDATE search_postings SET postings = ?, doc_count = doc_count + 1 " +
+                "WHERE user_id = ? AND token = ?";
+        String insertSql = "INSERT INTO search_postings (user_id, token, doc_count, last_id, postings) " +
+                "VALUES (?, ?, 1, ?, ?)";
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement append = conn.prepareStatement(appendSql);
+                    PreparedStatement rewrite = conn.prepareStatement(rewriteSql);
+                    PreparedStatement insert = conn.prepareStatement(insertSql)) {
+
+                Map<ByteBuffer, Integer> lastIds = readLastIds(conn, userId, tokenHashes);
+                byte[] firstPosting = PostingListUtil.encode(new int[] { fileId });
+
+                for (byte[] token : tokenHashes) {
+                    Integer lastId = lastIds.get(ByteBuffer.wrap(token));
+                    if (lastId == null) {
+                        insert.setInt(1, userId);
+                        insert.setBytes(2, token);
+                        insert.setInt(3, fileId);
+                        insert.setBytes(4, firstPosting);
+                        insert.addBatch();
+                    } else if (fileId > lastId) {
+                        append.setBytes(1, PostingListUtil.appendDelta(lastId, fileId));
+                        append.setInt(2, fileId);
+                        append.setInt(3, userId);
+                        append.setBytes(4, token);
+                        append.addBatch();
+                    } else {
+                        // Indexed out of id order (concurrent uploads): rewrite the list
+                        int[] ids = PostingListUtil.decode(readPostings(conn, userId, token));
+                        int[] updated = PostingListUtil.insert(ids, fileId);
+                        if (updated != ids) {
+                            rewrite.setBytes(1, PostingListUtil.encode(updated));
+                            rewrite.setInt(2, userId);
+                            rewrite.setBytes(3, token);
+                            rewrite.addBatch();
+                        }
+                    }
+                }
+                insert.executeBatch();
+                append.executeBatch();
+                rewrite.executeBatch();
+
+                conn.commit();
+
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Remove purged files from every posting list of their owner, in one
+     * transaction. Lists left empty are deleted. The cost grows with the
+     * owner's index only, and the lists stop growing with files that no
+     * longer exist.
+     *
+     * @param userId  Owner user ID
+     * @param fileIds Ascending ids of the purged files
+     * @return Number of posting lists changed
+     * @throws SQLException if database error occurs
+     * @throws IOException  if a stored posting list is malformed
+     */
+    public int removePostings(int userId, int[] fileIds) throws SQLException, IOException {
+        String selectSql = "SELECT token, postings FROM search_postings WHERE user_id = ?";
+        String updateSql = "UPDATE search_postings SET postings = ?, doc_count = ?, last_id = ? " +
+                "WHERE user_id = ? AND token = ?";
+        String deleteSql = "DELETE FROM search_postings WHERE user_id = ? AND token = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement select = conn.prepareStatement(selectSql);
+                    PreparedStatement update = conn.prepareStatement(updateSql);
+                    PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+
+                int changed = 0;
+                select.setInt(1, userId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        byte[] token = rs.getBytes("token");
+                        int[] ids = PostingListUtil.decode(rs.getBytes("postings"));
+                        int[] remaining = PostingListUtil.remove(ids, fileIds);
+                        if (remaining == ids) {
+                            continue;
+                        }
+                        changed++;
+                        if (remaining.length == 0) {
+                            delete.setInt(1, userId);
+                            delete.setBytes(2, token);
+                            delete.addBatch();
+                        } else {
+                            update.setBytes(1, PostingListUtil.encode(remaining));
+                            update.setInt(2, remaining.length);
+                            update.setInt(3, remaining[remaining.length - 1]);
+                            update.setInt(4, userId);
+                            update.setBytes(5, token);
+                            update.addBatch();
+                        }
+                    }
+                }
+                update.executeBatch();
+                delete.executeBatch();
+
+                conn.commit();
+                return changed;
+
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static Map<ByteBuffer, Integer> readLastIds(Connection conn, int userId, List<byte[]> tokenHashes)
+            throws SQLException {
+        // One primary-key probe per token: an IN list over the second key
+        // column is not answered from the index
+        String sql = "SELECT last_id FROM search_postings WHERE user_id = ? AND token = ?";
+
+        Map<ByteBuffer, Integer> lastIds = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            for (byte[] token : tokenHashes) {
+                pstmt.setBytes(2, token);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        lastIds.put(ByteBuffer.wrap(token), rs.getInt("last_id"));
+                    }
+                }
+            }
+        }
+        return lastIds;
+    }
+
+    private static byte[] readPostings(Connection conn, int userId, byte[] tokenHash) throws SQLException {
+        String sql = "SELECT postings FROM search_postings WHERE user_id = ? AND token = ?";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setBytes(2, tokenHash);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getBytes("postings") : new byte[0];
+            }
+        }
+    }
+
+    /**
+     * Get the posting list of a token for one user: a primary-key lookup,
+     * whose cost depends on the user's matching files only.
+     *
+     * @param userId    Owner user ID
+     * @param tokenHash Token hash
+     * @return Encoded posting list, or null if no file of the user has it
+     * @throws SQLException if database error occurs
+     */
+    public byte[] getPostings(int userId, byte[] tokenHash) throws SQLException {
+        String sql = "SELECT postings FROM search_postings WHERE user_id = ? AND token = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            pstmt.setBytes(2, tokenHash);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getBytes("postings") : null;
+            }
+        }
+    }
+}
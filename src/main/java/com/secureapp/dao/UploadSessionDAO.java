@@ -0,0 +1,149 @@
+package com.secureapp.dao;
+
+import com.secureapp.model.UploadSession;
+import com.secureapp.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Access Object for resumable upload sessions.
+ * The offset of a session only moves forward through updateProgress(),
+ * which checks the offset the caller started from, so two requests
+ * appending at the same offset cannot both succeed.
+ */
+public class UploadSessionDAO {
+
+    /**
+     * Create a session with nothing received yet.
+     *
+     * @param id               Session ID
+     * @param userId           Owner
+     * @param originalFilename Original filename
+     * @param uploadLength     Total length announced by the client
+     * @throws SQLException if database error occurs
+     */
+    public void createSession(String id, int userId, String originalFilename, long uploadLength)
+            throws SQLException {
+        String sql = "INSERT INTO upload_sessions (id, user_id, original_filename, upload_length, upload_offset, " +
+                "stored_bytes) VALUES (?, ?, ?, ?, 0, 0)";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, id);
+            pstmt.setInt(2, userId);
+            pstmt.setString(3, originalFilename);
+            pstmt.setLong(4, uploadLength);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Get a session.
+     *
+     * @param id Session ID
+     * @return Session, or null if there is none
+     * @throws SQLException if database error occurs
+     */
+    public UploadSession getSession(String id) throws SQLException {
+        String sql = "SELECT * FROM upload_sessions WHERE id = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, id);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? mapResultSetToSession(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * Record received bytes.
+     *
+     * @param id             Session ID
+     * @param expectedOffset Offset the append started from
+     * @param newOffset      Offset after the append
+     * @param storedBytes    Staging file length after the append
+     * @return False if the session is gone or its offset has moved
+     * @throws SQLException if database error occurs
+     */
+    public boolean updateProgress(String id, long expectedOffset, long newOffset, long storedBytes)
+            throws SQLException {
+        String sql = "UPDATE upload_sessions SET upload_offset = ?, stored_bytes = ?, " +
+                "updated_at = CURRENT_TIMESTAMP WHERE id = ? AND upload_offset = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, newOffset);
+            pstmt.setLong(2, storedBytes);
+            pstmt.setString(3, id);
+            pstmt.setLong(4, expectedOffset);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Delete a session.
+     *
+     * @param id Session ID
+     * @return True if a row was deleted
+     * @throws SQLException if database error occurs
+     */
+    public boolean deleteSession(String id) throws SQLException {
+        String sql = "DELETE FROM upload_sessions WHERE id = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, id);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Get sessions that received nothing since a cutoff.
+     *
+     * @param cutoff Last update before which a session is abandoned
+     * @param limit  Maximum number of IDs to return
+     * @return Session IDs, oldest first
+     * @throws SQLException if database error occurs
+     */
+    public List<String> getExpiredSessionIds(Timestamp cutoff, int limit) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        String sql = "SELECT id FROM upload_sessions WHERE updated_at < ? ORDER BY updated_at LIMIT ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setTimestamp(1, cutoff);
+            pstmt.setInt(2, limit);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString("id"));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private UploadSession mapResultSetToSession(ResultSet rs) throws SQLException {
+        return new UploadSession(
+                rs.getString("id"),
+                rs.getInt("user_id"),
+                rs.getString("original_filename"),
+                rs.getLong("upload_length"),
+                rs.getLong("upload_offset"),
+                rs.getLong("stored_bytes"),
+                rs.getTimestamp("updated_at"));
+    }
+}
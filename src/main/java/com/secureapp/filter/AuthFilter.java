@@ -13,7 +13,8 @@ import java.io.IOException;
  * protected resources.
  * Prevents access to resources after session timeout or logout.
  */
-@WebFilter(urlPatterns = { "/dashboard", "/upload", "/file-content", "/logout" })
+@WebFilter(urlPatterns = { "/dashboard", "/upload", "/file-content", "/delete", "/search", "/grep", "/logout",
+        "/uploads", "/uploads/*" })
 public class AuthFilter implements Filter {
 
     @Override
@@ -0,0 +1,406 @@
+package com.secureapp.filter;
+
+import com.secureapp.util.StorageConfig;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response Compression Filter
+ * Gzip-compresses text responses (dashboard HTML, file viewer) for clients
+ * that accept it:
+ * - Output is buffered up to a size threshold; smaller responses are sent
+ * uncompressed with a Content-Length, since gzip would not pay off
+ * - Only text, JSON and XML content types are compressed
+ * - Responses that already carry a Content-Encoding (e.g. gzip passed
+ * through from storage by FileContentServlet) are left untouched
+ * - Range requests are not compressed: their byte offsets refer to the
+ * uncompressed body
+ * - Vary: Accept-Encoding is always set so caches keep both variants
+ * - A strong ETag on a response compressed here is made weak, since it
+ * describes the uncompressed bytes
+ * - Requests that may go async are not wrapped: the buffered body is
+ * finished when the chain returns, which an async response outlives
+ * - A write listener set on the wrapped stream sends the buffered prefix
+ * uncompressed and hands non-blocking writes to the container's stream
+ *
+ * The dashboard contains a CSRF token next to user-controlled file names,
+ * the setting exploited by BREACH; CsrfFilter therefore hands out a
+ * freshly masked token on every response (see CsrfUtil.maskToken).
+ */
+@WebFilter(urlPatterns = { "/dashboard", "/file-content" })
+public class CompressionFilter implements Filter {
+
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private int minSize = DEFAULT_MIN_SIZE;
+
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder bytesBeforeCompression = new LongAdder();
+    private final LongAdder bytesAfterCompression = new LongAdder();
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        minSize = (int) StorageConfig.getInstance().getLong("response.compression.min.bytes",
+                "RESPONSE_COMPRESSION_MIN_BYTES", DEFAULT_MIN_SIZE);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        httpResponse.addHeader("Vary", "Accept-Encoding");
+        // Byte ranges refer to the uncompressed bytes
+        if (!acceptsGzip(httpRequest) || "HEAD".equalsIgnoreCase(httpRequest.getMethod())
+                || httpRequest.getHeader("Range") != null || httpRequest.isAsyncSupported()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        GzipResponseWrapper wrapper = new GzipResponseWrapper(httpResponse);
+        chain.doFilter(request, wrapper);
+        wrapper.finish();
+    }
+
+    /**
+     * Check whether the client accepts gzip content coding (RFC 7231
+     * section 5.3.4). An explicit "gzip;q=0" refuses it even if "*" is
+     * accepted.
+     *
+     * @param request HTTP request
+     * @return true if a gzip response is acceptable
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        if (headers == null) {
+            return false;
+        }
+
+        Double gzipQuality = null;
+        Double wildcardQuality = null;
+        while (headers.hasMoreElements()) {
+            for (String coding : headers.nextElement().split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim();
+                double quality = 1.0;
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2).trim());
+                        } catch (NumberFormatException e) {
+                            quality = 0.0;
+                        }
+                    }
+                }
+                if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                    gzipQuality = quality;
+                } else if ("*".equals(name)) {
+                    wildcardQuality = quality;
+                }
+            }
+        }
+
+        if (gzipQuality != null) {
+            return gzipQuality > 0;
+        }
+        return wildcardQuality != null && wildcardQuality > 0;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml");
+    }
+
+    @Override
+    public void destroy() {
+        System.out.println(String.format("Response compression: %d responses, %d bytes -> %d bytes",
+                compressedResponses.sum(), bytesBeforeCompression.sum(), bytesAfterCompression.sum()));
+    }
+
+    /*
+     * Buffers the start of the body until it is known whether the response is
+     * large enough to compress.
+     */
+    private final class GzipResponseWrapper extends HttpServletResponseWrapper {
+
+        private final HttpServletResponse response;
+        private final ThresholdOutputStream body = new ThresholdOutputStream();
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        GzipResponseWrapper(HttpServletResponse response) {
+            super(response);
+            this.response = response;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            if (outputStream == null) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        body.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        body.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        body.flush();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return body.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        try {
+                            body.startNonBlocking(writeListener);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Could not send the buffered response", e);
+                        }
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (outputStream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called");
+            }
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(body, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        // The length is only known once it is decided whether to compress.
+        @Override
+        public void setContentLength(int len) {
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!"Content-Length".equalsIgnoreCase(name)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!"Content-Length".equalsIgnoreCase(name)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            body.flush();
+        }
+
+        @Override
+        public void resetBuffer() {
+            body.discard();
+            super.resetBuffer();
+        }
+
+        @Override
+        public void reset() {
+            body.discard();
+            super.reset();
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            body.close();
+        }
+
+        /*
+         * Holds up to minSize bytes, then switches to gzip (or to the raw
+         * response when compression does not apply).
+         */
+        private final class ThresholdOutputStream extends OutputStream {
+
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream(minSize);
+            private ServletOutputStream raw;
+            private OutputStream target;
+            private GZIPOutputStream gzip;
+            private long uncompressedBytes;
+            private long compressedBytes;
+            private boolean nonBlocking;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (target == null) {
+                    buffer.write(b, off, len);
+                    if (buffer.size() >= minSize) {
+                        start();
+                    }
+                    return;
+                }
+                uncompressedBytes += len;
+                target.write(b, off, len);
+            }
+
+            // Headers are not final until the body is large enough or closed.
+            @Override
+            public void flush() throws IOException {
+                if (target != null) {
+                    target.flush();
+                }
+            }
+
+            private void start() throws IOException {
+                start(response.isCommitted() || response.getHeader("Content-Encoding") != null
+                        || !isCompressible(response.getContentType()));
+            }
+
+            private void start(boolean identity) throws IOException {
+                raw = response.getOutputStream();
+                if (identity) {
+                    target = raw;
+                } else {
+                    response.setHeader("Content-Encoding", "gzip");
+                    weakenEtag();
+                    OutputStream counted = new OutputStream() {
+                        private final OutputStream out = raw;
+
+                        @Override
+                        public void write(int b) throws IOException {
+                            compressedBytes++;
+                            out.write(b);
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            compressedBytes += len;
+                            out.write(b, off, len);
+                        }
+
+                        @Override
+                        public void flush() throws IOException {
+                            out.flush();
+                        }
+                    };
+                    gzip = new GZIPOutputStream(counted, BUFFER_SIZE, true);
+                    target = gzip;
+                }
+                byte[] buffered = buffer.toByteArray();
+                buffer = null;
+                uncompressedBytes += buffered.length;
+                target.write(buffered);
+            }
+
+            // The gzip bytes differ from the identity bytes the tag was computed for
+            private void weakenEtag() {
+                String etag = response.getHeader("ETag");
+                if (etag != null && !etag.startsWith("W/")) {
+                    response.setHeader("ETag", "W/" + etag);
+                }
+            }
+
+            boolean isReady() {
+                return raw == null || raw.isReady();
+            }
+
+            /*
+             * One gzip write can turn into several writes on the container's
+             * stream, which a non-blocking stream does not allow, so the body
+             * goes out uncompressed from here on.
+             */
+            void startNonBlocking(WriteListener writeListener) throws IOException {
+                if (gzip != null) {
+                    throw new IllegalStateException("Response compression has already started");
+                }
+                if (target == null) {
+                    start(true);
+                }
+                raw.setWriteListener(writeListener);
+                nonBlocking = true;
+            }
+
+            void discard() {
+                if (target == null) {
+                    buffer.reset();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+
+                // The listener's writes complete on their own
+                if (nonBlocking) {
+                    return;
+                }
+                if (target == null) {
+                    // Nothing written (redirect, error page) or below the threshold: send as is
+                    if (buffer.size() == 0) {
+                        return;
+                    }
+                    if (!response.isCommitted()) {
+                        response.setContentLength(buffer.size());
+                    }
+                    buffer.writeTo(response.getOutputStream());
+                    return;
+                }
+                if (gzip != null) {
+                    gzip.finish();
+                    compressedResponses.increment();
+                    bytesBeforeCompression.add(uncompressedBytes);
+                    bytesAfterCompression.add(compressedBytes);
+                }
+                target.flush();
+            }
+        }
+    }
+}
@@ -15,7 +15,8 @@ import java.io.IOException;
  * This filter implements CSRF protection for all HTTP requests:
  * - GET requests: Generates CSRF token if not present in session, makes it
  * available to JSP
- * - POST requests: Validates CSRF token before allowing request to proceed
+ * - POST, PUT, PATCH and DELETE requests: Validates CSRF token (parameter,
+ * or X-CSRF-Token header) before allowing request to proceed
  * 
  * Security rationale:
  * - Prevents attackers from forging state-changing requests from malicious
@@ -47,8 +48,8 @@ public class CsrfFilter implements Filter {
 
             handleGetRequest(httpRequest);
 
-            // Token validation for POST requests
-        } else if ("POST".equalsIgnoreCase(method)) {
+            // Token validation for state-changing requests
+        } else if (isStateChanging(method)) {
             if (!validateCsrfToken(httpRequest)) {
                 handleCsrfFailure(httpRequest, httpResponse);
                 return;
@@ -58,6 +59,11 @@ public class CsrfFilter implements Filter {
         chain.doFilter(request, response);
     }
 
+    private static boolean isStateChanging(String method) {
+        return "POST".equalsIgnoreCase(method) || "PUT".equalsIgnoreCase(method)
+                || "PATCH".equalsIgnoreCase(method) || "DELETE".equalsIgnoreCase(method);
+    }
+
     private void handleGetRequest(HttpServletRequest request) {
         HttpSession session = request.getSession(false);
 
@@ -69,7 +75,7 @@ public class CsrfFilter implements Filter {
             token = CsrfUtil.getTokenFromSession(session);
         }
 
-        request.setAttribute(CsrfUtil.CSRF_TOKEN_REQUEST_ATTR, token);
+        request.setAttribute(CsrfUtil.CSRF_TOKEN_REQUEST_ATTR, CsrfUtil.maskToken(token));
     }
 
     /*
@@ -83,7 +89,8 @@ public class CsrfFilter implements Filter {
 
     /*
      * Handle CSRF validation failure.
-     * Redirects to appropriate page based on authentication status:
+     * Requests other than POST come from scripts and get 403 Forbidden.
+     * Form posts are redirected based on authentication status:
      * - Authenticated users: redirect to dashboard with error
      * - Unauthenticated users: redirect to login with error
      * 
@@ -98,6 +105,11 @@ public class CsrfFilter implements Filter {
         System.err.println("CSRF validation failed - IP: " + clientIp +
                 ", URI: " + requestUri);
 
+        if (!"POST".equalsIgnoreCase(request.getMethod())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
         HttpSession session = request.getSession(false);
         boolean isAuthenticated = (session != null && session.getAttribute("userId") != null);
 
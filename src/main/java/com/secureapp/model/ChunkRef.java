@@ -0,0 +1,29 @@
+package com.secureapp.model;
+
+/**
+ * One entry of a chunked blob's manifest: which chunk holds the bytes at
+ * [offset, offset + length) of the original content.
+ */
+public class ChunkRef {
+    private final String chunkHash;
+    private final long offset;
+    private final int length;
+
+    public ChunkRef(String chunkHash, long offset, int length) {
+        this.chunkHash = chunkHash;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public String getChunkHash() {
+        return chunkHash;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,35 @@
+package com.secureapp.model;
+
+import java.sql.Timestamp;
+
+/**
+ * Cheap summary of the live file listing, used as a cache validator.
+ * Ids are never reused, so every upload raises maxId and every delete
+ * lowers liveCount: two equal versions describe the same listing.
+ */
+public class FileListingVersion {
+    private final long liveCount;
+    private final long maxId;
+    private final Timestamp lastModified;
+
+    public FileListingVersion(long liveCount, long maxId, Timestamp lastModified) {
+        this.liveCount = liveCount;
+        this.maxId = maxId;
+        this.lastModified = lastModified != null ? new Timestamp(lastModified.getTime()) : null;
+    }
+
+    public long getLiveCount() {
+        return liveCount;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * @return Latest upload or delete time, or null if there never was a file
+     */
+    public Timestamp getLastModified() {
+        return lastModified != null ? new Timestamp(lastModified.getTime()) : null;
+    }
+}
@@ -13,6 +13,10 @@ public class FileModel {
     private String storedFilename;
     private long fileSize;
     private Timestamp uploadDate;
+    // Keyed hash of the plaintext; null for files stored before deduplication
+    private String contentHash;
+    // Encrypted FilePreview (see FilePreviewUtil); null for older files
+    private byte[] encryptedPreview;
 
     public FileModel() {
     }
@@ -59,6 +63,14 @@ public class FileModel {
         return uploadDate != null ? new Timestamp(uploadDate.getTime()) : null;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public byte[] getEncryptedPreview() {
+        return encryptedPreview != null ? encryptedPreview.clone() : null;
+    }
+
     // Setters
     public void setId(int id) {
         this.id = id;
@@ -83,4 +95,12 @@ public class FileModel {
     public void setUploadDate(Timestamp uploadDate) {
         this.uploadDate = uploadDate != null ? new Timestamp(uploadDate.getTime()) : null;
     }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public void setEncryptedPreview(byte[] encryptedPreview) {
+        this.encryptedPreview = encryptedPreview != null ? encryptedPreview.clone() : null;
+    }
 }
@@ -0,0 +1,41 @@
+package com.secureapp.model;
+
+/**
+ * Preview and text statistics of an uploaded file, computed once at upload
+ * time so listings never have to read file content.
+ */
+public class FilePreview {
+    private final String snippet;
+    private final long lineCount;
+    private final long wordCount;
+    private final String charset;
+
+    public FilePreview(String snippet, long lineCount, long wordCount, String charset) {
+        this.snippet = snippet;
+        this.lineCount = lineCount;
+        this.wordCount = wordCount;
+        this.charset = charset;
+    }
+
+    /**
+     * @return First lines of the file (empty for binary content)
+     */
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public long getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * @return Detected charset name, or "binary"
+     */
+    public String getCharset() {
+        return charset;
+    }
+}
@@ -0,0 +1,61 @@
+package com.secureapp.model;
+
+import java.sql.Timestamp;
+
+/**
+ * A resumable upload in progress: uploadOffset bytes of uploadLength have
+ * been received and stored as storedBytes of encrypted records in the
+ * session's staging file.
+ */
+public class UploadSession {
+    private final String id;
+    private final int userId;
+    private final String originalFilename;
+    private final long uploadLength;
+    private final long uploadOffset;
+    private final long storedBytes;
+    private final Timestamp updatedAt;
+
+    public UploadSession(String id, int userId, String originalFilename, long uploadLength, long uploadOffset,
+            long storedBytes, Timestamp updatedAt) {
+        this.id = id;
+        this.userId = userId;
+        this.originalFilename = originalFilename;
+        this.uploadLength = uploadLength;
+        this.uploadOffset = uploadOffset;
+        this.storedBytes = storedBytes;
+        this.updatedAt = updatedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public long getUploadLength() {
+        return uploadLength;
+    }
+
+    public long getUploadOffset() {
+        return uploadOffset;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public Timestamp getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public boolean isComplete() {
+        return uploadOffset == uploadLength;
+    }
+}
@@ -0,0 +1,296 @@
+package com.secureapp.service;
+
+import com.secureapp.util.ContentHashUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Several files uploaded in one request, as separate parts or as a ZIP of
+ * .txt files (see ConcurrentUploadService.newBulkUpload).
+ *
+ * - Files are read one at a time on the calling thread, hashed while read,
+ * and submitted to the upload pipeline; at most maxConcurrent of them are
+ * in the pipeline at once, so reading the next file waits for a slot
+ * - ZIP archives are expanded entry by entry from the request stream,
+ * nothing is written to disk
+ * - Limits on files, bytes per file and expanded bytes per request guard
+ * against ZIP bombs: every entry, skipped ones included, is inflated
+ * through the same counted read, and an archive that exceeds a limit is
+ * abandoned (files already submitted still complete)
+ *
+ * One instance per request, used from one thread; finish() waits for the
+ * submitted files and returns the aggregate result.
+ */
+public class BulkUpload {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 8;
+    public static final int DEFAULT_MAX_FILES = 1000;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 64L * 1024 * 1024;
+    public static final int MAX_FILE_BYTES = 5 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Outcome of one file.
+     */
+    public enum Outcome {
+        UPLOADED, INVALID_EXTENSION, INVALID_CONTENT_TYPE, TOO_LARGE, FAILED
+    }
+
+    private final ConcurrentUploadService uploadService;
+    private final int userId;
+    private final int maxFiles;
+    private final long maxTotalBytes;
+    private final Semaphore slots;
+
+    private final List<CompletableFuture<Outcome>> submitted = new ArrayList<>();
+    private final List<Outcome> outcomes = new ArrayList<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int files;
+    private long totalBytes;
+    private boolean limitExceeded;
+
+    /**
+     * @param uploadService Service the files are submitted to
+     * @param userId        Owner of the files
+     * @param maxConcurrent Files in the pipeline at once
+     * @param maxFiles      Files per request, ZIP entries included
+     * @param maxTotalBytes Bytes read per request, after ZIP expansion
+     */
+    public BulkUpload(ConcurrentUploadService uploadService, int userId, int maxConcurrent, int maxFiles,
+            long maxTotalBytes) {
+        this.uploadService = uploadService;
+        this.userId = userId;
+        this.maxFiles = maxFiles;
+        this.maxTotalBytes = maxTotalBytes;
+        this.slots = new Semaphore(Math.max(1, maxConcurrent));
+    }
+
+    /**
+     * Read and submit one file.
+     *
+     * @param filename Original filename
+     * @param in       Content, read to the end
+     * @return False once a request limit is exceeded (later files are
+     *         ignored)
+     * @throws IOException if the stream cannot be read
+     */
+    public boolean addFile(String filename, InputStream in) throws IOException {
+        if (!countFile()) {
+            return false;
+        }
+        if (!isTextFilename(filename)) {
+            outcomes.add(Outcome.INVALID_EXTENSION);
+            return true;
+        }
+        ReadResult read = read(in);
+        if (read == null) {
+            return false;
+        }
+        if (read.content == null) {
+            outcomes.add(Outcome.TOO_LARGE);
+            return true;
+        }
+        submit(filename, read);
+        return true;
+    }
+
+    /**
+     * Expand a ZIP archive and submit its .txt entries, named after their
+     * last path element. Directories are skipped; other entries are counted
+     * as INVALID_EXTENSION.
+     *
+     * @param in Archive, read as far as the limits allow
+     * @return False once a request limit is exceeded
+     * @throws IOException if the archive is malformed or cannot be read
+     */
+    public boolean addZip(InputStream in) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (!countFile()) {
+                    return false;
+                }
+                String filename = baseName(entry.getName());
+                ReadResult read = read(zip);
+                if (read == null) {
+                    return false;
+                }
+                if (read.content == null) {
+                    // Oversized entry: stop before inflating any more of the archive
+                    outcomes.add(Outcome.TOO_LARGE);
+                    limitExceeded = true;
+                    return false;
+                }
+                if (!isTextFilename(filename)) {
+                    outcomes.add(Outcome.INVALID_EXTENSION);
+                    continue;
+                }
+                submit(filename, read);
+            }
+        } catch (IllegalArgumentException e) {
+            // Entry name not valid UTF-8
+            throw new ZipException("Malformed entry name");
+        }
+        return true;
+    }
+
+    /**
+     * Wait for every submitted file.
+     *
+     * @return Aggregate result
+     */
+    public Result finish() {
+        for (CompletableFuture<Outcome> file : submitted) {
+            outcomes.add(file.join());
+        }
+        submitted.clear();
+        return new Result(outcomes, limitExceeded);
+    }
+
+    private boolean countFile() {
+        if (limitExceeded || files >= maxFiles) {
+            limitExceeded = true;
+            return false;
+        }
+        files++;
+        return true;
+    }
+
+    // Content and hash, content null if over MAX_FILE_BYTES; null once the request total is exceeded.
+    private ReadResult read(InputStream in) throws IOException {
+        ContentHashUtil.Hasher hasher;
+        try {
+            hasher = ContentHashUtil.newHasher();
+        } catch (Exception e) {
+            throw new IOException("Content hash unavailable: " + e.getMessage(), e);
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int bytesRead;
+        while ((bytesRead = in.read(buffer, 0, buffer.length)) != -1) {
+            totalBytes += bytesRead;
+            if (totalBytes > maxTotalBytes) {
+                limitExceeded = true;
+                return null;
+            }
+            if (content.size() + bytesRead > MAX_FILE_BYTES) {
+                return new ReadResult(null, null);
+            }
+            content.write(buffer, 0, bytesRead);
+            hasher.update(buffer, 0, bytesRead);
+        }
+        return new ReadResult(content.toByteArray(), hasher.hexDigest());
+    }
+
+    private void submit(String filename, ReadResult read) throws IOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an upload slot", e);
+        }
+        CompletableFuture<String> upload;
+        try {
+            upload = uploadService.processUploadAsync(userId, filename, read.content, read.content.length,
+                    read.contentHash);
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        submitted.add(upload.handle((storedFilename, error) -> {
+            slots.release();
+            if (error == null) {
+                return Outcome.UPLOADED;
+            }
+            Throwable cause = error instanceof CompletionException || error instanceof ExecutionException
+                    ? error.getCause()
+                    : error;
+            if (cause instanceof ConcurrentUploadService.UnsupportedContentException) {
+                return Outcome.INVALID_CONTENT_TYPE;
+            }
+            System.err.println("Bulk upload of " + filename + " failed: " + cause.getMessage());
+            return Outcome.FAILED;
+        }));
+    }
+
+    private static boolean isTextFilename(String filename) {
+        return filename != null && filename.length() > 4 && filename.toLowerCase().endsWith(".txt");
+    }
+
+    private static String baseName(String entryName) {
+        int slash = Math.max(entryName.lastIndexOf('/'), entryName.lastIndexOf('\\'));
+        return entryName.substring(slash + 1);
+    }
+
+    private static final class ReadResult {
+        final byte[] content;
+        final String contentHash;
+
+        ReadResult(byte[] content, String contentHash) {
+            this.content = content;
+            this.contentHash = contentHash;
+        }
+    }
+
+    /**
+     * Aggregate result of a bulk upload.
+     */
+    public static final class Result {
+        private final List<Outcome> outcomes;
+        private final boolean limitExceeded;
+
+        Result(List<Outcome> outcomes, boolean limitExceeded) {
+            this.outcomes = Collections.unmodifiableList(new ArrayList<>(outcomes));
+            this.limitExceeded = limitExceeded;
+        }
+
+        // Outcome of every file: refused ones first, then submitted ones in order.
+        public List<Outcome> getOutcomes() {
+            return outcomes;
+        }
+
+        public int count(Outcome outcome) {
+            return Collections.frequency(outcomes, outcome);
+        }
+
+        public int getUploaded() {
+            return count(Outcome.UPLOADED);
+        }
+
+        // Files refused for their name, content or size.
+        public int getRejected() {
+            return outcomes.size() - getUploaded() - getFailed();
+        }
+
+        public int getFailed() {
+            return count(Outcome.FAILED);
+        }
+
+        // True if files were left out because a request limit was reached.
+        public boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Bulk upload: %d uploaded, %d rejected, %d failed%s", getUploaded(),
+                    getRejected(), getFailed(), limitExceeded ? " (limit exceeded)" : "");
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.model.FileModel;
+import com.secureapp.storage.DictionaryStore;
+import com.secureapp.util.StorageConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Offline tool that trains a Deflate preset dictionary from stored files.
+ *
+ * Training:
+ * - A sample of stored files is decrypted (at most SAMPLE_BYTES of each)
+ * - Every sample is cut into fixed-length segments and each distinct
+ * segment is counted once per file it appears in
+ * - Segments found in at least two files are taken, most common first,
+ * until the dictionary is full
+ * - The most common segments are placed at the end of the dictionary, where
+ * Deflate reaches them with the shortest distances
+ *
+ * The dictionary is written to the dictionary directory and becomes the
+ * current one for new uploads after a restart. Existing files keep the
+ * dictionary they were compressed with.
+ *
+ * Usage: CompressionDictionaryTrainer [maxFiles] [dictionarySize]
+ */
+public class CompressionDictionaryTrainer {
+
+    public static final int DEFAULT_MAX_FILES = 1000;
+    // Deflate only looks back 32 KB, so a larger dictionary is never used
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int SAMPLE_BYTES = 16 * 1024;
+    private static final int SEGMENT_LENGTH = 32;
+    private static final int SEGMENT_STEP = 8;
+    private static final int MIN_DOCUMENT_FREQUENCY = 2;
+    private static final String DICTIONARY_DIR = System.getProperty("user.home") + File.separator
+            + "secure-app-config" + File.separator + "dictionaries";
+
+    private CompressionDictionaryTrainer() {
+    }
+
+    /**
+     * Build a dictionary from sample plaintexts.
+     *
+     * @param samples        Sample file contents
+     * @param dictionarySize Maximum dictionary size in bytes
+     * @return Dictionary bytes (empty if the samples share nothing)
+     */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        Map<ByteBuffer, Integer> documentFrequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<ByteBuffer> segments = new HashSet<>();
+            for (int i = 0; i + SEGMENT_LENGTH <= sample.length; i += SEGMENT_STEP) {
+                segments.add(ByteBuffer.wrap(sample, i, SEGMENT_LENGTH).slice());
+            }
+            for (ByteBuffer segment : segments) {
+                documentFrequency.merge(segment, 1, Integer::sum);
+            }
+        }
+
+        List<Map.Entry<ByteBuffer, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<ByteBuffer, Integer> entry : documentFrequency.entrySet()) {
+            if (entry.getValue() >= MIN_DOCUMENT_FREQUENCY) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+        List<ByteBuffer> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<ByteBuffer, Integer> candidate : candidates) {
+            if (size + SEGMENT_LENGTH > dictionarySize) {
+                break;
+            }
+            selected.add(candidate.getKey());
+            size += SEGMENT_LENGTH;
+        }
+
+        // Most common segments last, closest to the data being compressed
+        Collections.reverse(selected);
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (ByteBuffer segment : selected) {
+            byte[] bytes = new byte[segment.remaining()];
+            segment.duplicate().get(bytes);
+            dictionary.write(bytes, 0, bytes.length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * Total Deflate output size of the samples, with or without dictionary.
+     *
+     * @param samples    Sample file contents
+     * @param dictionary Preset dictionary, or null
+     * @return Compressed bytes over all samples
+     */
+    public static long compressedSize(List<byte[]> samples, byte[] dictionary) {
+        long total = 0;
+        byte[] buffer = new byte[8192];
+        for (byte[] sample : samples) {
+            Deflater deflater = new Deflater();
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(sample);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    total += deflater.deflate(buffer);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Read a sample of the stored files: the first SAMPLE_BYTES of up to
+     * maxFiles files, most recent first.
+     */
+    private static List<byte[]> readSamples(ConcurrentUploadService uploadService, int maxFiles)
+            throws Exception {
+        List<byte[]> samples = new ArrayList<>();
+        for (FileModel file : new FileDAO().getAllFiles()) {
+            if (samples.size() >= maxFiles) {
+                break;
+            }
+            try (InputStream in = uploadService.openFileContent(file)) {
+                ByteArrayOutputStream sample = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while (sample.size() < SAMPLE_BYTES && (read = in.read(buffer)) != -1) {
+                    sample.write(buffer, 0, Math.min(read, SAMPLE_BYTES - sample.size()));
+                }
+                samples.add(sample.toByteArray());
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable file " + file.getStoredFilename() + ": " + e.getMessage());
+            }
+        }
+        return samples;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxFiles = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_FILES;
+        int dictionarySize = args.length > 1
+                ? Math.min(Integer.parseInt(args[1]), MAX_DICTIONARY_SIZE)
+                : MAX_DICTIONARY_SIZE;
+
+        ConcurrentUploadService uploadService = ConcurrentUploadService.getInstance();
+        try {
+            List<byte[]> samples = readSamples(uploadService, maxFiles);
+            byte[] dictionary = train(samples, dictionarySize);
+            if (dictionary.length == 0) {
+                System.out.println("Not enough shared content in " + samples.size()
+                        + " files to train a dictionary");
+                return;
+            }
+
+            long plain = 0;
+            for (byte[] sample : samples) {
+                plain += sample.length;
+            }
+            long withoutDictionary = compressedSize(samples, null);
+            long withDictionary = compressedSize(samples, dictionary);
+
+            String dictionaryDir = StorageConfig.getInstance().getString("storage.compression.dictionary.dir",
+                    "STORAGE_COMPRESSION_DICTIONARY_DIR", DICTIONARY_DIR);
+            DictionaryStore store = new DictionaryStore(Paths.get(dictionaryDir));
+            int id = store.saveAsCurrent(dictionary);
+
+            System.out.println(String.format("Trained dictionary %s (%d bytes) from %d files",
+                    DictionaryStore.hex(id), dictionary.length, samples.size()));
+            System.out.println(String.format("Sample: %d bytes, deflate %d bytes, deflate + dictionary %d bytes",
+                    plain, withoutDictionary, withDictionary));
+            System.out.println("Dictionary saved to " + store.getDirectory() + ", restart to use it for new uploads");
+        } finally {
+            uploadService.shutdown();
+        }
+    }
+}
@@ -1,19 +1,46 @@
 package com.secureapp.service;
 
+import com.secureapp.dao.BlobDAO;
 import com.secureapp.dao.FileDAO;
+import com.secureapp.dao.SearchIndexDAO;
+import com.secureapp.dao.UploadSessionDAO;
 import com.secureapp.model.FileModel;
-import com.secureapp.util.AesEncryptionUtil;
+import com.secureapp.storage.AsyncBlobWriter;
+import com.secureapp.storage.BlobCodec;
+import com.secureapp.storage.BlobStore;
+import com.secureapp.storage.CompressionMode;
+import com.secureapp.storage.ContentDefinedChunker;
+import com.secureapp.storage.DecryptedContentCache;
+import com.secureapp.storage.DictionaryStore;
+import com.secureapp.storage.DirectBufferPool;
+import com.secureapp.storage.DurabilityMode;
+import com.secureapp.storage.FileSyncService;
+import com.secureapp.storage.LineIndex;
+import com.secureapp.storage.LocalFileBlobStore;
+import com.secureapp.storage.ParallelChunkCodec;
+import com.secureapp.storage.SegmentBlobStore;
+import com.secureapp.util.ContentHashUtil;
+import com.secureapp.util.FilePreviewUtil;
+import com.secureapp.util.LatencyHistogram;
+import com.secureapp.util.SingleFlight;
+import com.secureapp.util.StorageConfig;
+import com.secureapp.util.TextContentSniffer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -22,27 +49,253 @@ import java.util.concurrent.atomic.AtomicLong;
  * synchronization.
  * Manages concurrent access to file resources using:
  * - ReentrantLock for synchronized access to shared resources
- * - ExecutorService for concurrent file processing
+ * - UploadPipeline for concurrent file processing in stages (detect, hash,
+ * compress, encrypt, persist, index), each with its own executor and
+ * bounded queue
  * - AtomicLong for thread-safe file naming counter
+ * - FileMetadataGroupCommitter for batching metadata inserts across uploads
+ * - UploadJournal for crash-consistent two-phase uploads
+ * - FileSyncService for the configured durability mode (upload.durability)
+ * - BlobStore for ciphertext storage (storage.backend): one sharded file
+ * per upload, or memory-mapped segment files for many small blobs
+ * - ContentAddressedStore so identical uploads share one encrypted blob
+ * - DeletedFilePurger for removing deleted files in the background
+ * - SearchIndexService for the encrypted full-text index, updated on upload
+ * - GrepService for budgeted regex searches over a user's files
+ * - SingleFlight so concurrent reads of one file share a single decrypt,
+ * and DecryptedContentCache for popular content (cache.max.bytes)
  * 
  * This service prevents race conditions, file overwrites, and inconsistent
- * states during concurrent upload operations.
+ * states during concurrent upload operations, including after a crash.
  */
 public class ConcurrentUploadService {
 
     private static final String UPLOAD_DIR = System.getProperty("user.home") + File.separator + "secure-app-uploads";
+    private static final String RESUMABLE_DIR = System.getProperty("user.home") + File.separator
+            + "secure-app-resumable";
+    private static final String JOURNAL_FILE = System.getProperty("user.home") + File.separator
+            + "secure-app-journal" + File.separator + "upload.journal";
+    private static final String SEGMENT_DIR = System.getProperty("user.home") + File.separator
+            + "secure-app-segments";
+    private static final String DICTIONARY_DIR = System.getProperty("user.home") + File.separator
+            + "secure-app-config" + File.separator + "dictionaries";
+    private static final char INTENT_SEPARATOR = ':';
+    private static final int BUFFER_SIZE = 8192;
 
-    private final ExecutorService executorService;
+    private final UploadPipeline<UploadJob> uploadPipeline;
+    private final int bulkMaxConcurrent;
+    private final int bulkMaxFiles;
+    private final long bulkMaxBytes;
+    private final ResumableUploadService resumableUploads;
     private final ReentrantLock fileSystemLock;
     private final AtomicLong fileCounter;
+    private final FileMetadataGroupCommitter metadataCommitter;
+    private final FileDAO fileDAO;
+    private final UploadJournal journal;
+    private final FileSyncService syncService;
+    private final BlobStore blobStore;
+    private final ContentAddressedStore contentStore;
+    private final DeletedFilePurger deletedFilePurger;
+    private final SearchIndexService searchIndex;
+    private final GrepService grepService;
+    private final SingleFlight<String, String> contentReads = new SingleFlight<>("Coalesced file content reads");
     private static volatile ConcurrentUploadService instance;
 
     private ConcurrentUploadService() {
-        this.executorService = Executors.newFixedThreadPool(5);
         this.fileSystemLock = new ReentrantLock(true);
         this.fileCounter = new AtomicLong(System.currentTimeMillis());
+        this.fileDAO = new FileDAO();
+        this.metadataCommitter = new FileMetadataGroupCommitter(fileDAO);
+
+        StorageConfig config = StorageConfig.getInstance();
+        DurabilityMode durabilityMode = DurabilityMode.fromConfig(
+                config.getString("upload.durability", "UPLOAD_DURABILITY", "per_file"));
+        long fsyncIntervalMs = config.getLong("upload.fsync.interval.ms", "UPLOAD_FSYNC_INTERVAL_MS", 10);
+        this.syncService = new FileSyncService(durabilityMode, fsyncIntervalMs);
+        System.out.println("Upload durability mode: " + durabilityMode);
 
         initializeUploadDirectory();
+
+        try {
+            this.blobStore = createBlobStore(config, durabilityMode);
+            this.journal = new UploadJournal(Paths.get(JOURNAL_FILE), durabilityMode != DurabilityMode.NONE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open upload storage: " + e.getMessage(), e);
+        }
+        BlobCodec codec = createBlobCodec(config);
+        this.contentStore = new ContentAddressedStore(blobStore, new BlobDAO(), codec,
+                new ContentDefinedChunker(), createContentCache(config),
+                new DirectBufferPool(DirectBufferPool.DEFAULT_MAX_RETAINED_BYTES), createParallelCodec(config, codec));
+        this.searchIndex = new SearchIndexService(new SearchIndexDAO(), fileDAO);
+        this.grepService = createGrepService(config);
+        this.uploadPipeline = createUploadPipeline(config);
+        this.bulkMaxConcurrent = (int) config.getLong("upload.bulk.concurrency", "UPLOAD_BULK_CONCURRENCY",
+                BulkUpload.DEFAULT_MAX_CONCURRENT);
+        this.bulkMaxFiles = (int) config.getLong("upload.bulk.max.files", "UPLOAD_BULK_MAX_FILES",
+                BulkUpload.DEFAULT_MAX_FILES);
+        this.bulkMaxBytes = config.getLong("upload.bulk.max.bytes", "UPLOAD_BULK_MAX_BYTES",
+                BulkUpload.DEFAULT_MAX_TOTAL_BYTES);
+        this.resumableUploads = createResumableUploads(config);
+        recoverIncompleteUploads();
+
+        if (blobStore instanceof LocalFileBlobStore) {
+            ((LocalFileBlobStore) blobStore).startMigration();
+        }
+
+        int purgeBatchSize = (int) config.getLong("delete.purge.batch.size", "DELETE_PURGE_BATCH_SIZE",
+                DeletedFilePurger.DEFAULT_BATCH_SIZE);
+        long purgeIntervalMs = config.getLong("delete.purge.interval.ms", "DELETE_PURGE_INTERVAL_MS",
+                DeletedFilePurger.DEFAULT_INTERVAL_MS);
+        this.deletedFilePurger = new DeletedFilePurger(fileDAO, blobStore, contentStore, searchIndex,
+                purgeBatchSize, purgeIntervalMs);
+        deletedFilePurger.start();
+        resumableUploads.start();
+    }
+
+    /**
+     * Create the resumable upload service from upload.resumable.max.bytes,
+     * upload.resumable.expiry.ms and upload.resumable.gc.interval.ms.
+     */
+    private ResumableUploadService createResumableUploads(StorageConfig config) {
+        long maxBytes = config.getLong("upload.resumable.max.bytes", "UPLOAD_RESUMABLE_MAX_BYTES",
+                ResumableUploadService.DEFAULT_MAX_UPLOAD_BYTES);
+        long expiryMs = config.getLong("upload.resumable.expiry.ms", "UPLOAD_RESUMABLE_EXPIRY_MS",
+                ResumableUploadService.DEFAULT_EXPIRY_MS);
+        long gcIntervalMs = config.getLong("upload.resumable.gc.interval.ms", "UPLOAD_RESUMABLE_GC_INTERVAL_MS",
+                ResumableUploadService.DEFAULT_GC_INTERVAL_MS);
+        try {
+            return new ResumableUploadService(new UploadSessionDAO(), this, Paths.get(RESUMABLE_DIR), maxBytes,
+                    expiryMs, gcIntervalMs);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open resumable upload directory: " + e.getMessage(), e);
+        }
+    }
+
+    // Sessions of resumable (chunked) uploads.
+    public ResumableUploadService getResumableUploads() {
+        return resumableUploads;
+    }
+
+    /**
+     * Create the configured storage backend.
+     * - file (default): one file per upload in the sharded upload directory
+     * - segment: uploads appended into memory-mapped segment files
+     */
+    private BlobStore createBlobStore(StorageConfig config, DurabilityMode durabilityMode) throws IOException {
+        String backend = config.getString("storage.backend", "STORAGE_BACKEND", "file");
+
+        if ("segment".equalsIgnoreCase(backend.trim())) {
+            String segmentDir = config.getString("storage.segment.dir", "STORAGE_SEGMENT_DIR", SEGMENT_DIR);
+            long segmentSizeMb = config.getLong("storage.segment.size.mb", "STORAGE_SEGMENT_SIZE_MB", 64);
+            System.out.println("Upload storage backend: segment (" + segmentDir + ", " + segmentSizeMb + " MB)");
+            return new SegmentBlobStore(Paths.get(segmentDir), segmentSizeMb * 1024 * 1024, durabilityMode);
+        }
+
+        System.out.println("Upload storage backend: file (" + UPLOAD_DIR + ")");
+        return new LocalFileBlobStore(Paths.get(UPLOAD_DIR), syncService, createAsyncWriter(config));
+    }
+
+    /**
+     * Create the asynchronous blob writer from upload.async.max.inflight.bytes
+     * and upload.async.io.threads, or none (synchronous writes) if the
+     * budget is 0.
+     */
+    private AsyncBlobWriter createAsyncWriter(StorageConfig config) {
+        long maxInFlightBytes = config.getLong("upload.async.max.inflight.bytes", "UPLOAD_ASYNC_MAX_INFLIGHT_BYTES",
+                AsyncBlobWriter.DEFAULT_MAX_IN_FLIGHT_BYTES);
+        int ioThreads = (int) config.getLong("upload.async.io.threads", "UPLOAD_ASYNC_IO_THREADS",
+                AsyncBlobWriter.DEFAULT_IO_THREADS);
+        if (maxInFlightBytes <= 0) {
+            System.out.println("Async blob writes: disabled");
+            return null;
+        }
+        System.out.println("Async blob writes: " + ioThreads + " I/O threads, " + maxInFlightBytes
+                + " bytes in flight");
+        return new AsyncBlobWriter(syncService, maxInFlightBytes, ioThreads);
+    }
+
+    /**
+     * Create the fork/join chunk codec from codec.parallel.threads (default:
+     * one per core) and codec.parallel.threshold.bytes.
+     */
+    private ParallelChunkCodec createParallelCodec(StorageConfig config, BlobCodec codec) {
+        int threads = (int) config.getLong("codec.parallel.threads", "CODEC_PARALLEL_THREADS",
+                Runtime.getRuntime().availableProcessors());
+        long threshold = config.getLong("codec.parallel.threshold.bytes", "CODEC_PARALLEL_THRESHOLD_BYTES",
+                ParallelChunkCodec.DEFAULT_PARALLEL_THRESHOLD);
+        System.out.println("Parallel chunk codec: " + threads + " workers, threshold " + threshold + " bytes");
+        return new ParallelChunkCodec(codec, threads, threshold);
+    }
+
+    /**
+     * Create the decrypted content cache from cache.max.bytes and
+     * cache.ttl.seconds, or none if the budget is 0.
+     */
+    private DecryptedContentCache createContentCache(StorageConfig config) {
+        long maxBytes = config.getLong("cache.max.bytes", "CACHE_MAX_BYTES",
+                DecryptedContentCache.DEFAULT_MAX_BYTES);
+        long ttlSeconds = config.getLong("cache.ttl.seconds", "CACHE_TTL_SECONDS",
+                DecryptedContentCache.DEFAULT_TTL_SECONDS);
+        if (maxBytes <= 0 || ttlSeconds <= 0) {
+            System.out.println("Decrypted content cache: disabled");
+            return null;
+        }
+        System.out.println("Decrypted content cache: " + maxBytes + " bytes, TTL " + ttlSeconds + " s");
+        return new DecryptedContentCache(maxBytes, ttlSeconds);
+    }
+
+    /**
+     * Create the grep service from the grep.* settings. The default
+     * parallelism leaves half of the cores to uploads and downloads.
+     */
+    private GrepService createGrepService(StorageConfig config) {
+        int parallelism = (int) config.getLong("grep.parallelism", "GREP_PARALLELISM",
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int maxQueries = (int) config.getLong("grep.max.queries", "GREP_MAX_QUERIES",
+                GrepService.DEFAULT_MAX_QUERIES);
+        long timeBudgetMs = config.getLong("grep.time.budget.ms", "GREP_TIME_BUDGET_MS",
+                GrepService.DEFAULT_TIME_BUDGET_MS);
+        long cpuBudgetMs = config.getLong("grep.cpu.budget.ms", "GREP_CPU_BUDGET_MS",
+                GrepService.DEFAULT_CPU_BUDGET_MS);
+        int maxMatches = (int) config.getLong("grep.max.matches", "GREP_MAX_MATCHES",
+                GrepService.DEFAULT_MAX_MATCHES);
+        return new GrepService(fileDAO, this::openFileContent, parallelism, maxQueries, timeBudgetMs,
+                cpuBudgetMs, maxMatches);
+    }
+
+    /**
+     * Create the codec for stored blobs from the compression settings.
+     * - deflate (default): compress before encrypting, priming Deflate with
+     * the current trained dictionary if one exists
+     * - gzip: compress without dictionary so gzip responses need no
+     * recompression
+     * - none: encrypt only
+     * Dictionaries are always loaded so existing compressed blobs stay
+     * readable when compression is switched off.
+     */
+    private BlobCodec createBlobCodec(StorageConfig config) {
+        CompressionMode mode = CompressionMode.fromConfig(
+                config.getString("storage.compression", "STORAGE_COMPRESSION", "deflate"));
+        String dictionaryDir = config.getString("storage.compression.dictionary.dir",
+                "STORAGE_COMPRESSION_DICTIONARY_DIR", DICTIONARY_DIR);
+
+        DictionaryStore dictionaryStore = new DictionaryStore(Paths.get(dictionaryDir));
+        try {
+            Map<Integer, byte[]> dictionaries = dictionaryStore.loadAll();
+            Integer currentId = dictionaryStore.getCurrentId();
+            if (currentId != null && !dictionaries.containsKey(currentId)) {
+                System.err.println("Current compression dictionary " + DictionaryStore.hex(currentId)
+                        + " not found, compressing without dictionary");
+                currentId = null;
+            }
+            String dictionary = mode == CompressionMode.DEFLATE && currentId != null
+                    ? " (dictionary " + DictionaryStore.hex(currentId) + ")"
+                    : "";
+            System.out.println("Upload compression: " + mode + dictionary);
+            return new BlobCodec(mode, dictionaries, currentId);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load compression dictionaries: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -81,112 +334,583 @@ public class ConcurrentUploadService {
 
     /**
      * Process file upload concurrently.
-     * This method executes the file save operation in a separate thread,
+     * The upload goes through the staged pipeline (see createUploadPipeline),
      * with proper synchronization to prevent TOCTOU and race conditions.
+     * Blocks while the pipeline is full.
      * 
      * @param userId           User ID
      * @param originalFilename Original filename
      * @param fileContent      File content as bytes
      * @param fileSize         File size
-     * @return Future<String> containing stored filename
+     * @return Future containing the stored filename; fails with
+     *         UnsupportedContentException if the content is not text
      */
-    public Future<String> processUploadAsync(int userId, String originalFilename,
+    public CompletableFuture<String> processUploadAsync(int userId, String originalFilename,
             byte[] fileContent, long fileSize) {
-        return executorService.submit(() -> {
-            return saveFileSecurely(userId, originalFilename, fileContent, fileSize);
-        });
+        return processUploadAsync(userId, originalFilename, fileContent, fileSize, null);
     }
 
     /**
-     * Save file securely with proper synchronization.
-     * Critical section protected by ReentrantLock to prevent:
-     * - Concurrent access to file naming
-     * - Race conditions in file creation
-     * - TOCTOU vulnerabilities
+     * Process file upload concurrently, with the content hash already
+     * computed while the upload was read (see ContentHashUtil).
      * 
      * @param userId           User ID
      * @param originalFilename Original filename
-     * @param fileContent      File content
+     * @param fileContent      File content as bytes
      * @param fileSize         File size
-     * @return Stored filename
+     * @param contentHash      Keyed hash of fileContent, or null to compute
+     *                         it in the hash stage
+     * @return Future containing the stored filename; fails with
+     *         UnsupportedContentException if the content is not text
+     */
+    public CompletableFuture<String> processUploadAsync(int userId, String originalFilename,
+            byte[] fileContent, long fileSize, String contentHash) {
+        String storedFilename = "file_" + fileCounter.incrementAndGet() + ".txt";
+        UploadJob job = new UploadJob(userId, originalFilename, storedFilename, fileContent, fileSize, contentHash);
+        return uploadPipeline.submit(job).thenApply(done -> done.storedFilename);
+    }
+
+    /**
+     * Start a bulk upload of several files in one request, limited by
+     * upload.bulk.concurrency (files in the pipeline at once),
+     * upload.bulk.max.files and upload.bulk.max.bytes (after ZIP expansion).
+     *
+     * @param userId User ID
+     * @return Bulk upload, to be fed and finished by the request thread
+     */
+    public BulkUpload newBulkUpload(int userId) {
+        return new BulkUpload(this, userId, bulkMaxConcurrent, bulkMaxFiles, bulkMaxBytes);
+    }
+
+    /**
+     * Build the upload pipeline. Stage thread counts come from
+     * upload.pipeline.<stage>.threads; the CPU-bound stages together default
+     * to about the number of cores, persist (which waits on disk and database
+     * syncs) and index to small fixed pools.
+     * - detect: text check (TextContentSniffer) and sealed preview
+     * - hash: content hash if not given, chunking and chunk hashes
+     * - compress / encrypt: blobs or chunks that are not stored yet
+     * - persist: two-phase commit of ciphertext and metadata
+     * - index: encrypted full-text index
+     */
+    private UploadPipeline<UploadJob> createUploadPipeline(StorageConfig config) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = (int) config.getLong("upload.pipeline.queue.capacity", "UPLOAD_PIPELINE_QUEUE_CAPACITY",
+                UploadPipeline.DEFAULT_QUEUE_CAPACITY);
+        UploadPipeline<UploadJob> pipeline = new UploadPipeline<UploadJob>("upload")
+                .addStage("detect", stageThreads(config, "detect", Math.max(1, cores / 4)), queueCapacity,
+                        this::detect)
+                .addStage("hash", stageThreads(config, "hash", Math.max(1, cores / 4)), queueCapacity, job -> {
+                    if (job.contentHash == null) {
+                        job.contentHash = ContentHashUtil.hash(job.content);
+                    }
+                    job.prepared = contentStore.prepare(job.contentHash, job.content);
+                })
+                .addStage("compress", stageThreads(config, "compress", Math.max(1, cores / 2)), queueCapacity,
+                        job -> contentStore.compress(job.prepared))
+                .addStage("encrypt", stageThreads(config, "encrypt", Math.max(1, cores / 4)), queueCapacity,
+                        job -> contentStore.encrypt(job.prepared))
+                .addStage("persist", stageThreads(config, "persist", 4), queueCapacity, this::saveFileSecurely)
+                .addStage("index", stageThreads(config, "index", 2), queueCapacity, this::indexFile);
+        StringBuilder sizes = new StringBuilder();
+        for (UploadPipeline<UploadJob>.Stage stage : pipeline.getStages()) {
+            sizes.append(sizes.length() == 0 ? "" : ", ").append(stage.getName()).append('=').append(stage.getThreads());
+        }
+        System.out.println("Upload pipeline: " + sizes + " threads, queues of " + queueCapacity);
+        return pipeline;
+    }
+
+    private static int stageThreads(StorageConfig config, String stage, int defaultThreads) {
+        return (int) config.getLong("upload.pipeline." + stage + ".threads",
+                "UPLOAD_PIPELINE_" + stage.toUpperCase() + "_THREADS", defaultThreads);
+    }
+
+    /**
+     * Detect stage: reject content that is not text, and seal the listing
+     * preview. The charset found by the sniffer is reused for the preview.
+     */
+    private void detect(UploadJob job) throws Exception {
+        TextContentSniffer sniffer = TextContentSniffer.sniff(job.content);
+        if (!sniffer.isText()) {
+            throw new UnsupportedContentException(sniffer.getDetectedType());
+        }
+        job.encryptedPreview = FilePreviewUtil.seal(FilePreviewUtil.compute(job.content, sniffer.getCharset()),
+                job.storedFilename);
+    }
+
+    /**
+     * Persist stage: save file securely using a two-phase commit.
+     * 
+     * Phase 1 (ciphertext):
+     * - INTENT record for the stored filename and content hash is synced to
+     * the journal
+     * - Unless a blob with the same content exists, the ciphertext prepared
+     * by the earlier stages is stored in the BlobStore, and phase 2 waits
+     * until it is durable under the configured DurabilityMode
+     * 
+     * Phase 2 (metadata):
+     * - Metadata row and blob reference are group-committed and synced
+     * - COMMIT record closes the intent
+     * 
+     * A duplicate upload costs one hash plus one metadata insert. The content
+     * lock is held from the blob check until the reference is committed, so
+     * a concurrent delete cannot remove the blob in between. A crash at any
+     * point leaves an open intent that startup recovery resolves.
+     * 
+     * @param job Upload, through the encrypt stage
      * @throws Exception if save fails
      */
-    private String saveFileSecurely(int userId, String originalFilename,
-            byte[] fileContent, long fileSize) throws Exception {
-        String storedFilename = null;
-        File targetFile = null;
+    private void saveFileSecurely(UploadJob job) throws Exception {
+        String contentHash = job.contentHash;
+        String intent = intentName(job.storedFilename, contentHash);
 
-        fileSystemLock.lock();
+        journal.logIntent(intent);
+        FileModel fileModel = new FileModel(job.userId, job.originalFilename, job.storedFilename, job.fileSize);
+        ReentrantLock contentLock = contentStore.lockFor(contentHash);
+        contentLock.lock();
+        CompletableFuture<Boolean> stored = null;
         try {
-            long uniqueId = fileCounter.incrementAndGet();
-            storedFilename = "file_" + uniqueId + ".txt";
-
-            Path filePath = Paths.get(UPLOAD_DIR, storedFilename);
-            targetFile = filePath.toFile();
+            stored = contentStore.storeIfAbsentAsync(job.prepared);
+            fileModel.setContentHash(contentHash);
+            fileModel.setEncryptedPreview(job.encryptedPreview);
+            ContentAddressedStore.awaitStored(stored);
 
-            if (targetFile.exists()) {
-                throw new IOException("File already exists: " + storedFilename);
+            boolean saved = awaitMetadataCommit(fileModel);
+            if (!saved) {
+                throw new SQLException("Failed to save file metadata to database");
             }
-            byte[] encryptedContent = AesEncryptionUtil.encrypt(fileContent);
-
-            try (FileOutputStream fos = new FileOutputStream(targetFile)) {
-                fos.write(encryptedContent);
-                fos.flush();
+        } catch (Exception e) {
+            if (stored != null) {
+                // No write may land after the release
+                stored.exceptionally(error -> false).join();
             }
+            contentStore.releaseIfUnreferenced(contentHash);
+            journal.logAbort(intent);
+            throw e;
+        } finally {
+            contentLock.unlock();
+        }
 
-            if (!targetFile.exists()) {
-                throw new IOException("File write failed - file does not exist");
-            }
+        journal.logCommit(intent);
+        job.fileModel = fileModel;
+        job.prepared = null;
+    }
 
-        } finally {
-            fileSystemLock.unlock();
+    /**
+     * Index stage. The file is saved; a failed index update only makes it
+     * unsearchable.
+     */
+    private void indexFile(UploadJob job) {
+        try {
+            searchIndex.indexFile(job.fileModel, job.content);
+        } catch (Exception e) {
+            System.err.println("Search indexing failed for " + job.storedFilename + ": "
+                    + e.getClass().getSimpleName());
         }
+    }
 
-        FileModel fileModel = new FileModel(userId, originalFilename, storedFilename, fileSize);
-        FileDAO fileDAO = new FileDAO();
+    // One upload on its way through the pipeline; each stage fills in its part.
+    private static final class UploadJob {
+        final int userId;
+        final String originalFilename;
+        final String storedFilename;
+        final byte[] content;
+        final long fileSize;
+        String contentHash;
+        byte[] encryptedPreview;
+        ContentAddressedStore.PreparedContent prepared;
+        FileModel fileModel;
 
+        UploadJob(int userId, String originalFilename, String storedFilename, byte[] content, long fileSize,
+                String contentHash) {
+            this.userId = userId;
+            this.originalFilename = originalFilename;
+            this.storedFilename = storedFilename;
+            this.content = content;
+            this.fileSize = fileSize;
+            this.contentHash = contentHash;
+        }
+    }
+
+    /**
+     * Upload rejected by the detect stage because its content is not text.
+     */
+    public static class UnsupportedContentException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedContentException(String detectedType) {
+            super("Unsupported content type: " + detectedType);
+        }
+    }
+
+    /**
+     * Journal name of an upload: stored filename and content hash. Neither
+     * part can contain the separator.
+     */
+    private static String intentName(String storedFilename, String contentHash) {
+        return storedFilename + INTENT_SEPARATOR + contentHash;
+    }
+
+    /**
+     * Reconcile uploads interrupted by a crash.
+     * Only the intents left open in the journal are examined:
+     * - Without a metadata row, the blob (and any partial write) is deleted
+     * unless other files reference the same content (orphan)
+     * - A metadata row without ciphertext is deleted (dangling)
+     * - Ciphertext with its row is kept (only the COMMIT record was lost)
+     * 
+     * Intents written before deduplication carry only the stored filename,
+     * which is then also the blob key.
+     */
+    private void recoverIncompleteUploads() {
         try {
-            boolean saved = fileDAO.saveFile(fileModel);
-            if (!saved) {
-                if (targetFile != null && targetFile.exists()) {
-                    targetFile.delete();
+            Set<String> unresolved = journal.readUnresolvedIntents();
+            int orphans = 0;
+            int dangling = 0;
+
+            for (String intent : unresolved) {
+                int separator = intent.indexOf(INTENT_SEPARATOR);
+                String storedFilename = separator < 0 ? intent : intent.substring(0, separator);
+                String contentHash = separator < 0 ? null : intent.substring(separator + 1);
+                FileModel row = fileDAO.getFileByStoredFilename(storedFilename);
+
+                if (row == null) {
+                    boolean deleted = contentHash == null
+                            ? blobStore.delete(storedFilename)
+                            : contentStore.releaseIfUnreferenced(contentHash);
+                    if (deleted) {
+                        orphans++;
+                    }
+                } else if (!isContentStored(row)) {
+                    fileDAO.deleteFileByStoredFilename(storedFilename);
+                    dangling++;
                 }
-                throw new SQLException("Failed to save file metadata to database");
             }
-        } catch (SQLException e) {
-            if (targetFile != null && targetFile.exists()) {
-                targetFile.delete();
+
+            journal.compact();
+
+            if (!unresolved.isEmpty()) {
+                System.out.println(String.format(
+                        "Upload recovery: %d interrupted uploads, %d orphan files removed, %d dangling rows removed",
+                        unresolved.size(), orphans, dangling));
             }
-            throw e;
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException("Upload recovery failed: " + e.getMessage(), e);
         }
+    }
 
-        return storedFilename;
+    /**
+     * Hand the metadata row to the group committer and wait until it is
+     * durable. SQL failures are unwrapped so callers see the same exception
+     * type as a direct DAO call.
+     */
+    private boolean awaitMetadataCommit(FileModel fileModel) throws Exception {
+        try {
+            return metadataCommitter.submit(fileModel).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Failed to save file metadata to database", cause);
+        }
     }
 
     /**
      * Get file content for viewing.
-     * Reads encrypted file from disk and decrypts it before returning.
+     * Looks up the file's blob, reads it from the BlobStore and decrypts it
+     * before returning.
      * 
      * @param storedFilename Stored filename
      * @return Decrypted file content as string
      * @throws Exception if file read or decryption fails
      */
     public String getFileContent(String storedFilename) throws Exception {
-        Path filePath = Paths.get(UPLOAD_DIR, storedFilename);
-        File file = filePath.toFile();
-
-        if (!file.exists()) {
+        FileModel fileModel = fileDAO.getFileByStoredFilename(storedFilename);
+        if (fileModel == null) {
             throw new IOException("File not found: " + storedFilename);
         }
+        return getFileContent(fileModel);
+    }
+
+    /**
+     * Get file content for viewing, for a file whose metadata the caller has
+     * already loaded. Concurrent calls for the same file share one read and
+     * decrypt and get the same String.
+     * 
+     * @param fileModel File metadata
+     * @return Decrypted file content as string
+     * @throws Exception if file read or decryption fails
+     */
+    public String getFileContent(FileModel fileModel) throws Exception {
+        return contentReads.execute(fileModel.getStoredFilename(), () -> readFileContent(fileModel));
+    }
+
+    private String readFileContent(FileModel fileModel) throws Exception {
+        if (fileModel.getContentHash() != null) {
+            try {
+                // Chunks of large files are decrypted in parallel
+                return new String(contentStore.readContent(fileModel.getContentHash()), "UTF-8");
+            } catch (NoSuchFileException e) {
+                throw new IOException("File not found: " + fileModel.getStoredFilename());
+            }
+        }
+        try (InputStream in = openFileContent(fileModel)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(0, fileModel.getFileSize()));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), "UTF-8");
+        }
+    }
+
+    /**
+     * Open decrypted file content as a stream. Chunked content is decrypted
+     * one chunk at a time, so large files are never held in memory whole.
+     * 
+     * @param fileModel File metadata
+     * @return Stream over the decrypted content (caller closes)
+     * @throws IOException if the file's ciphertext is missing
+     * @throws Exception   if file read or decryption fails
+     */
+    public InputStream openFileContent(FileModel fileModel) throws Exception {
+        try {
+            if (fileModel.getContentHash() == null) {
+                // Stored before deduplication: own blob, keyed by stored filename
+                byte[] encryptedContent = blobStore.get(fileModel.getStoredFilename());
+                return new ByteArrayInputStream(contentStore.getCodec().decode(encryptedContent));
+            }
+            return contentStore.openContent(fileModel.getContentHash());
+        } catch (NoSuchFileException e) {
+            throw new IOException("File not found: " + fileModel.getStoredFilename());
+        }
+    }
+
+    /**
+     * Open a byte range of decrypted file content. For chunked content only
+     * the chunks overlapping the range are read and decrypted; files stored
+     * before deduplication are decrypted whole and sliced.
+     * 
+     * @param fileModel File metadata
+     * @param offset    First byte
+     * @param length    Number of bytes
+     * @return Stream over the range (caller closes)
+     * @throws IOException if the file's ciphertext is missing
+     * @throws Exception   if file read or decryption fails
+     */
+    public InputStream openFileContent(FileModel fileModel, long offset, long length) throws Exception {
+        try {
+            if (fileModel.getContentHash() == null) {
+                byte[] content = contentStore.getCodec().decode(blobStore.get(fileModel.getStoredFilename()));
+                int start = (int) Math.min(offset, content.length);
+                return new ByteArrayInputStream(content, start, (int) Math.min(length, content.length - start));
+            }
+            return contentStore.openContentRange(fileModel.getContentHash(), offset, length);
+        } catch (NoSuchFileException e) {
+            throw new IOException("File not found: " + fileModel.getStoredFilename());
+        }
+    }
+
+    /**
+     * Write a byte range of decrypted file content to a channel. Content is
+     * read and decrypted through pooled direct buffers one chunk at a time;
+     * files stored before deduplication are decrypted whole and sliced.
+     * 
+     * @param fileModel File metadata
+     * @param offset    First byte
+     * @param length    Number of bytes
+     * @param out       Target channel
+     * @return Number of bytes written
+     * @throws IOException if the file's ciphertext is missing
+     * @throws Exception   if file read or decryption fails
+     */
+    public long transferFileContent(FileModel fileModel, long offset, long length, WritableByteChannel out)
+            throws Exception {
+        try {
+            if (fileModel.getContentHash() == null) {
+                byte[] content = contentStore.getCodec().decode(blobStore.get(fileModel.getStoredFilename()));
+                int start = (int) Math.min(offset, content.length);
+                ByteBuffer range = ByteBuffer.wrap(content, start, (int) Math.min(length, content.length - start));
+                int count = range.remaining();
+                while (range.hasRemaining()) {
+                    out.write(range);
+                }
+                return count;
+            }
+            return contentStore.transferContent(fileModel.getContentHash(), offset, length, out);
+        } catch (NoSuchFileException e) {
+            throw new IOException("File not found: " + fileModel.getStoredFilename());
+        }
+    }
+
+    /**
+     * Get the line index of a file's content.
+     * 
+     * @param fileModel File metadata
+     * @return Line index, or null if the file has none (stored before line
+     *         indexing or before deduplication)
+     * @throws Exception if the index cannot be read or decrypted
+     */
+    public LineIndex getLineIndex(FileModel fileModel) throws Exception {
+        return fileModel.getContentHash() != null ? contentStore.getLineIndex(fileModel.getContentHash()) : null;
+    }
+
+    /**
+     * Whether a file's content can be sent as gzip straight from storage.
+     * Files stored before deduplication have no content blob and are not
+     * eligible.
+     * 
+     * @param fileModel File metadata
+     * @return true if writeGzipContent can be used
+     */
+    public boolean supportsGzipContent(FileModel fileModel) {
+        return fileModel.getContentHash() != null;
+    }
+
+    /**
+     * Write file content as a gzip stream, passing stored gzip-ready data
+     * through without recompression.
+     * 
+     * @param fileModel File metadata (see supportsGzipContent)
+     * @param out       Target stream
+     * @throws IOException if the file's ciphertext is missing
+     * @throws Exception   if file read or decryption fails
+     */
+    public void writeGzipContent(FileModel fileModel, OutputStream out) throws Exception {
+        if (!supportsGzipContent(fileModel)) {
+            throw new IllegalArgumentException("File has no content blob: " + fileModel.getStoredFilename());
+        }
+        try {
+            contentStore.writeGzip(fileModel.getContentHash(), out);
+        } catch (NoSuchFileException e) {
+            throw new IOException("File not found: " + fileModel.getStoredFilename());
+        }
+    }
 
-        byte[] encryptedContent = Files.readAllBytes(filePath);
-        byte[] decryptedContent = AesEncryptionUtil.decrypt(encryptedContent);
-        return new String(decryptedContent, "UTF-8");
+    // Whether a file's ciphertext (its own blob, or every chunk of its content) is stored.
+    private boolean isContentStored(FileModel fileModel) throws IOException, SQLException {
+        return fileModel.getContentHash() != null
+                ? contentStore.isStored(fileModel.getContentHash())
+                : blobStore.exists(fileModel.getStoredFilename());
+    }
+
+    /**
+     * Delete a file owned by the user.
+     * The metadata row is tombstoned immediately, so the file disappears from
+     * listings and can no longer be viewed; the ciphertext is removed later by
+     * the DeletedFilePurger.
+     * 
+     * @param userId         User ID of the requester
+     * @param storedFilename Stored filename
+     * @return true if the file existed, belonged to the user and was deleted
+     * @throws SQLException if database error occurs
+     */
+    public boolean deleteFile(int userId, String storedFilename) throws SQLException {
+        return fileDAO.markDeleted(storedFilename, userId);
+    }
+
+    // Deduplication counters.
+    public ContentAddressedStore getContentStore() {
+        return contentStore;
+    }
+
+    // Full-text search over the uploaded files.
+    public SearchIndexService getSearchIndex() {
+        return searchIndex;
+    }
+
+    // Background purge of deleted files and space reclamation.
+    public DeletedFilePurger getDeletedFilePurger() {
+        return deletedFilePurger;
+    }
+
+    // Regular expression search over a user's files.
+    public GrepService getGrepService() {
+        return grepService;
+    }
+
+    // Whole-file reads, and how many were coalesced.
+    public SingleFlight<String, String> getContentReads() {
+        return contentReads;
+    }
+
+    // Latency of data fsyncs issued for uploads.
+    public LatencyHistogram getFileSyncLatency() {
+        return syncService.getFileSyncLatency();
+    }
+
+    // Latency of batched fsync runs (BATCHED durability mode).
+    public LatencyHistogram getBatchSyncLatency() {
+        return syncService.getBatchSyncLatency();
+    }
+
+    // Latency of journal intent fsyncs.
+    public LatencyHistogram getJournalSyncLatency() {
+        return journal.getSyncLatency();
     }
 
     public void shutdown() {
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
+        uploadPipeline.shutdown();
+        syncService.shutdown();
+        metadataCommitter.shutdown();
+        deletedFilePurger.shutdown();
+        resumableUploads.shutdown();
+        grepService.shutdown();
+        try {
+            blobStore.close();
+        } catch (IOException e) {
+            System.err.println("Error closing upload storage: " + e.getMessage());
+        }
+
+        System.out.println("Upload durability " + syncService.getMode() + " - " + getFileSyncLatency());
+        System.out.println("Upload durability " + syncService.getMode() + " - " + getBatchSyncLatency());
+        System.out.println("Upload durability " + syncService.getMode() + " - " + getJournalSyncLatency());
+        System.out.println(String.format("Deleted files: %d purged (%d bytes), %d bytes compacted",
+                deletedFilePurger.getPurgedFiles(), deletedFilePurger.getPurgedBytes(),
+                deletedFilePurger.getCompactedBytes()));
+        System.out.println(String.format("Deduplication: %d blobs written, %d duplicate uploads (%d bytes saved)",
+                contentStore.getBlobsWritten(), contentStore.getDuplicateUploads(),
+                contentStore.getBytesDeduplicated()));
+        System.out.println(String.format("Chunking: %d chunks written, %d chunks deduplicated",
+                contentStore.getChunksWritten(), contentStore.getChunksDeduplicated()));
+        BlobCodec codec = contentStore.getCodec();
+        System.out.println(String.format(
+                "Compression: %d bytes -> %d bytes (ratio %.2f), %d blobs compressed, %d stored",
+                codec.getPlaintextBytes(), codec.getPayloadBytes(), codec.getCompressionRatio(),
+                codec.getCompressedBlobs(), codec.getUncompressedBlobs()));
+        System.out.println(String.format("Gzip responses: %d parts passed through, %d recompressed",
+                codec.getGzipPassthroughParts(), codec.getGzipRecompressedParts()));
+        System.out.println(codec.getCompressionCpu());
+        System.out.println(codec.getDecompressionCpu());
+        System.out.println(String.format("Search index: %d files indexed (%d tokens), %d searches, %d removed",
+                searchIndex.getFilesIndexed(), searchIndex.getTokensIndexed(), searchIndex.getSearches(),
+                searchIndex.getFilesRemoved()));
+        for (UploadPipeline<UploadJob>.Stage stage : uploadPipeline.getStages()) {
+            System.out.println("Upload pipeline - " + stage);
+        }
+        System.out.println(contentReads);
+        System.out.println(contentStore.getDecryptedReads());
+        System.out.println(contentStore.getBufferPool());
+        System.out.println(contentStore.getParallelCodec());
+        System.out.println(resumableUploads);
+        contentStore.getParallelCodec().shutdown();
+        if (blobStore instanceof LocalFileBlobStore && ((LocalFileBlobStore) blobStore).getAsyncWriter() != null) {
+            AsyncBlobWriter asyncWriter = ((LocalFileBlobStore) blobStore).getAsyncWriter();
+            System.out.println(asyncWriter);
+            System.out.println("Async blob writes - " + asyncWriter.getWriteLatency());
+        }
+        if (contentStore.getCache() != null) {
+            System.out.println(contentStore.getCache());
+        }
+        System.out.println(String.format("Grep: %d queries (%d rejected, %d stopped early), %d files (%d bytes) scanned",
+                grepService.getQueries(), grepService.getRejectedQueries(), grepService.getStoppedQueries(),
+                grepService.getFilesScanned(), grepService.getBytesScanned()));
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing upload journal: " + e.getMessage());
         }
     }
 }
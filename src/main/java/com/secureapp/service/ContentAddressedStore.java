@@ -0,0 +1,989 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.BlobDAO;
+import com.secureapp.model.ChunkRef;
+import com.secureapp.storage.BlobCodec;
+import com.secureapp.storage.BlobStore;
+import com.secureapp.storage.ContentDefinedChunker;
+import com.secureapp.storage.DecryptedContentCache;
+import com.secureapp.storage.DirectBufferPool;
+import com.secureapp.storage.GzipStreamAssembler;
+import com.secureapp.storage.LineIndex;
+import com.secureapp.storage.ParallelChunkCodec;
+import com.secureapp.util.ContentHashUtil;
+import com.secureapp.util.SingleFlight;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed layer over the BlobStore.
+ *
+ * Identical uploads share one encrypted blob, stored under a key derived
+ * from the content hash and reference-counted in the blobs table:
+ * - The reference is taken when the file row is inserted (same transaction)
+ * - It is released when the file row is purged (same transaction)
+ * - A blob is deleted only once its reference count is zero
+ *
+ * Content of CHUNKING_THRESHOLD bytes or more is split with FastCDC into
+ * chunks that are encrypted and stored individually, keyed by their own
+ * content hash, and shared by every blob that contains them. The blob is
+ * then just a manifest in the database, so a new version of a large file
+ * only writes the chunks that changed. Reads reassemble the chunks one at a
+ * time.
+ *
+ * Blobs and chunks are compressed and encrypted by the BlobCodec, so
+ * deduplication works on plaintext hashes whatever the stored format.
+ * Each newly stored blob also gets an encrypted LineIndex in the database,
+ * dropped together with the blob row.
+ *
+ * Concurrent readers of the same blob or chunk share one read and decrypt
+ * (see SingleFlight), so many simultaneous views of one file cost about as
+ * much as one. If a DecryptedContentCache is configured, decrypted blobs
+ * and chunks are kept there for later readers and dropped when deleted.
+ *
+ * transferContent() is the NIO read path for downloads: ciphertext is read
+ * into pooled direct buffers (or a mapped segment view), decrypted into
+ * another pooled buffer and written to a channel, without a byte[] per
+ * chunk. It does not coalesce reads, since its buffers go back to the pool
+ * as soon as they are written.
+ *
+ * Writes go through BlobStore.putAsync, so each chunk is encrypted while
+ * the previous ones are on their way to disk; storeIfAbsentAsync lets the
+ * caller do its own work in the meantime too. prepare(), compress() and
+ * encrypt() do the CPU work ahead of time and without locks, for the
+ * stages of the upload pipeline.
+ *
+ * Locking: an upload holds the lock for its content hash from the existence
+ * check until its metadata row is committed, and a blob is only ever deleted
+ * under the same lock after re-reading the reference count. Chunks follow
+ * the same rule with their own locks, except that the chunk references are
+ * taken (with the manifest) before the chunk is checked and written. Content
+ * locks may be held while taking a chunk lock, never the other way round.
+ */
+public class ContentAddressedStore {
+
+    public static final int CHUNKING_THRESHOLD = 64 * 1024;
+
+    private static final String BLOB_KEY_PREFIX = "blob_";
+    private static final String CHUNK_KEY_PREFIX = "chunk_";
+    private static final int LOCK_STRIPES = 64;
+
+    private final BlobStore blobStore;
+    private final BlobDAO blobDAO;
+    private final BlobCodec codec;
+    private final ContentDefinedChunker chunker;
+    private final ReentrantLock[] locks;
+    private final ReentrantLock[] chunkLocks;
+    private final DecryptedContentCache cache;
+    private final DirectBufferPool bufferPool;
+    private final ParallelChunkCodec parallelCodec;
+    private final SingleFlight<String, byte[]> decryptedReads = new SingleFlight<>("Coalesced blob reads");
+    private final Map<String, CompletableFuture<Void>> pendingChunkWrites = new ConcurrentHashMap<>();
+
+    private final AtomicLong blobsWritten = new AtomicLong();
+    private final AtomicLong duplicateUploads = new AtomicLong();
+    private final AtomicLong bytesDeduplicated = new AtomicLong();
+    private final AtomicLong chunksWritten = new AtomicLong();
+    private final AtomicLong chunksDeduplicated = new AtomicLong();
+
+    public ContentAddressedStore(BlobStore blobStore, BlobDAO blobDAO) {
+        this(blobStore, blobDAO, new BlobCodec(), new ContentDefinedChunker());
+    }
+
+    public ContentAddressedStore(BlobStore blobStore, BlobDAO blobDAO, BlobCodec codec,
+            ContentDefinedChunker chunker) {
+        this(blobStore, blobDAO, codec, chunker, null);
+    }
+
+    public ContentAddressedStore(BlobStore blobStore, BlobDAO blobDAO, BlobCodec codec,
+            ContentDefinedChunker chunker, DecryptedContentCache cache) {
+        this(blobStore, blobDAO, codec, chunker, cache, new DirectBufferPool(DirectBufferPool.DEFAULT_MAX_RETAINED_BYTES));
+    }
+
+    /**
+     * @param cache      Cache of decrypted blobs and chunks, or null for none
+     * @param bufferPool Direct buffers for transferContent()
+     */
+    public ContentAddressedStore(BlobStore blobStore, BlobDAO blobDAO, BlobCodec codec,
+            ContentDefinedChunker chunker, DecryptedContentCache cache, DirectBufferPool bufferPool) {
+        this(blobStore, blobDAO, codec, chunker, cache, bufferPool,
+                new ParallelChunkCodec(codec, 1, Long.MAX_VALUE));
+    }
+
+    /**
+     * @param cache         Cache of decrypted blobs and chunks, or null for
+     *                      none
+     * @param bufferPool    Direct buffers for transferContent()
+     * @param parallelCodec Driver for compressing, encrypting and reading
+     *                      the chunks of one large file on several cores
+     */
+    public ContentAddressedStore(BlobStore blobStore, BlobDAO blobDAO, BlobCodec codec,
+            ContentDefinedChunker chunker, DecryptedContentCache cache, DirectBufferPool bufferPool,
+            ParallelChunkCodec parallelCodec) {
+        this.blobStore = blobStore;
+        this.parallelCodec = parallelCodec;
+        this.cache = cache;
+        this.bufferPool = bufferPool;
+        this.blobDAO = blobDAO;
+        this.codec = codec;
+        this.chunker = chunker;
+        this.locks = newLocks();
+        this.chunkLocks = newLocks();
+    }
+
+    private static ReentrantLock[] newLocks() {
+        ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        return stripes;
+    }
+
+    /**
+     * BlobStore key of the blob holding the given content.
+     *
+     * @param contentHash Content hash
+     * @return Blob key
+     */
+    public static String blobKey(String contentHash) {
+        return BLOB_KEY_PREFIX + contentHash;
+    }
+
+    /**
+     * BlobStore key of a chunk.
+     *
+     * @param chunkHash Chunk hash
+     * @return Blob key
+     */
+    public static String chunkKey(String chunkHash) {
+        return CHUNK_KEY_PREFIX + chunkHash;
+    }
+
+    /**
+     * Lock guarding the blob of the given content hash.
+     *
+     * @param contentHash Content hash
+     * @return Striped lock for the hash
+     */
+    public ReentrantLock lockFor(String contentHash) {
+        return stripe(locks, contentHash);
+    }
+
+    private static ReentrantLock stripe(ReentrantLock[] stripes, String hash) {
+        return stripes[(hash.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    /**
+     * Compress, encrypt and store content unless it is already stored.
+     * Large content is chunked and only missing chunks are written.
+     * The caller must hold lockFor(contentHash) until the reference to the
+     * blob is committed or released.
+     *
+     * @param contentHash Content hash
+     * @param content     Plaintext content
+     * @return true if a new blob was written, false for a duplicate
+     * @throws Exception if encryption or the write fails
+     */
+    public boolean storeIfAbsent(String contentHash, byte[] content) throws Exception {
+        return awaitStored(storeIfAbsentAsync(contentHash, content));
+    }
+
+    /**
+     * Same as storeIfAbsent, but returns once every write has been started
+     * (see BlobStore.putAsync): chunks are encrypted while earlier ones are
+     * still being written. The caller must wait for the future before
+     * committing the reference, and must also wait for it before releasing
+     * the blob, so no write lands after the release.
+     *
+     * @param contentHash Content hash
+     * @param content     Plaintext content (must not be modified until the
+     *                    future completes)
+     * @return Future of storeIfAbsent's result, completed once the blob and
+     *         its chunks are durable
+     * @throws Exception if encryption fails or a write cannot be started
+     */
+    public CompletableFuture<Boolean> storeIfAbsentAsync(String contentHash, byte[] content) throws Exception {
+        return storeIfAbsentAsync(new PreparedContent(contentHash, content));
+    }
+
+    /**
+     * Same as storeIfAbsentAsync(String, byte[]), reusing the chunking,
+     * compression and encryption already done by prepare(), compress() and
+     * encrypt(). Anything not prepared (or stored, then deleted, since the
+     * preparation) is encoded here.
+     *
+     * @param prepared Content from prepare()
+     * @return Future of storeIfAbsent's result
+     * @throws Exception if encryption fails or a write cannot be started
+     */
+    public CompletableFuture<Boolean> storeIfAbsentAsync(PreparedContent prepared) throws Exception {
+        String contentHash = prepared.contentHash;
+        CompletableFuture<Boolean> written = prepared.content.length >= CHUNKING_THRESHOLD
+                ? storeChunked(prepared)
+                : storeWhole(prepared);
+        // Built while the writes are in flight; saving it twice is harmless
+        if (!written.isDone() || (!written.isCompletedExceptionally() && written.getNow(false))) {
+            saveLineIndex(contentHash, prepared.content);
+        }
+        return written;
+    }
+
+    /**
+     * Chunk content and hash its chunks, ahead of storing it. No lock is
+     * needed: nothing is written.
+     *
+     * @param contentHash Content hash
+     * @param content     Plaintext content
+     * @return Content to pass to compress(), encrypt() and
+     *         storeIfAbsentAsync()
+     * @throws Exception if hashing fails
+     */
+    public PreparedContent prepare(String contentHash, byte[] content) throws Exception {
+        PreparedContent prepared = new PreparedContent(contentHash, content);
+        if (content.length >= CHUNKING_THRESHOLD) {
+            prepared.chunks = buildManifest(content);
+        }
+        return prepared;
+    }
+
+    /**
+     * Compress the blob, or the distinct chunks, of prepared content that
+     * are not stored yet. Stored ones are skipped, since storing them again
+     * is only a reference; the check is repeated under the lock. The chunks
+     * of a large file are compressed in parallel (see ParallelChunkCodec).
+     *
+     * @param prepared Content from prepare()
+     * @throws Exception if the store cannot be queried
+     */
+    public void compress(PreparedContent prepared) throws Exception {
+        if (prepared.chunks == null) {
+            String key = blobKey(prepared.contentHash);
+            if (!blobStore.exists(key)) {
+                prepared.compressed.put(key, codec.compress(prepared.content));
+            }
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        List<byte[]> plaintexts = new ArrayList<>();
+        for (ChunkRef chunk : distinctChunks(prepared.chunks)) {
+            String key = chunkKey(chunk.getChunkHash());
+            if (!blobStore.exists(key)) {
+                int start = (int) chunk.getOffset();
+                keys.add(key);
+                plaintexts.add(Arrays.copyOfRange(prepared.content, start, start + chunk.getLength()));
+            }
+        }
+        List<BlobCodec.CompressedBlob> compressed = parallelCodec.compress(plaintexts);
+        for (int i = 0; i < keys.size(); i++) {
+            prepared.compressed.put(keys.get(i), compressed.get(i));
+        }
+    }
+
+    /**
+     * Encrypt what compress() produced, in parallel for large files.
+     *
+     * @param prepared Content from compress()
+     * @throws Exception if encryption fails
+     */
+    public void encrypt(PreparedContent prepared) throws Exception {
+        List<String> keys = new ArrayList<>(prepared.compressed.keySet());
+        List<byte[]> encoded = parallelCodec.encrypt(new ArrayList<>(prepared.compressed.values()));
+        for (int i = 0; i < keys.size(); i++) {
+            prepared.encoded.put(keys.get(i), encoded.get(i));
+        }
+        prepared.compressed.clear();
+    }
+
+    // Stored bytes for a key: prepared ahead of time if possible.
+    private byte[] encode(PreparedContent prepared, String key, byte[] plaintext) throws Exception {
+        byte[] stored = prepared.encoded.remove(key);
+        return stored != null ? stored : codec.encode(plaintext);
+    }
+
+    /**
+     * Wait for storeIfAbsentAsync, rethrowing the failure of the write.
+     *
+     * @param stored Future returned by storeIfAbsentAsync
+     * @return true if a new blob was written, false for a duplicate
+     * @throws Exception if a write failed
+     */
+    public static boolean awaitStored(CompletableFuture<Boolean> stored) throws Exception {
+        try {
+            return stored.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * The index only speeds up paged viewing (readers fall back to scanning
+     * from the start), so failing to save it does not fail the upload.
+     */
+    private void saveLineIndex(String contentHash, byte[] content) {
+        try {
+            LineIndex index = LineIndex.build(content, LineIndex.DEFAULT_INTERVAL);
+            blobDAO.saveLineIndex(contentHash, codec.encode(index.toBytes()));
+        } catch (Exception e) {
+            System.err.println("Line index not saved: " + e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Get the line index of stored content.
+     *
+     * @param contentHash Content hash
+     * @return Line index, or null if the content was stored without one
+     * @throws Exception if the index cannot be read or decrypted
+     */
+    public LineIndex getLineIndex(String contentHash) throws Exception {
+        byte[] encrypted = blobDAO.getLineIndex(contentHash);
+        return encrypted != null ? LineIndex.fromBytes(codec.decode(encrypted)) : null;
+    }
+
+    private CompletableFuture<Boolean> storeWhole(PreparedContent prepared) throws Exception {
+        byte[] content = prepared.content;
+        String key = blobKey(prepared.contentHash);
+        if (blobStore.exists(key)) {
+            duplicateUploads.incrementAndGet();
+            bytesDeduplicated.addAndGet(content.length);
+            return CompletableFuture.completedFuture(false);
+        }
+
+        CompletableFuture<Void> write;
+        try {
+            write = blobStore.putAsync(key, encode(prepared, key, content));
+        } catch (FileAlreadyExistsException e) {
+            // Written by another process since the check; same content
+            duplicateUploads.incrementAndGet();
+            bytesDeduplicated.addAndGet(content.length);
+            return CompletableFuture.completedFuture(false);
+        }
+        return write.thenApply(ignored -> {
+            blobsWritten.incrementAndGet();
+            return true;
+        });
+    }
+
+    /**
+     * Store large content as chunks. The manifest, and with it one reference
+     * on every chunk, is committed before any chunk is written, so a chunk
+     * that is about to be written can never be deleted as unreferenced.
+     * Each chunk is encrypted while the previous ones are being written.
+     */
+    private CompletableFuture<Boolean> storeChunked(PreparedContent prepared) throws Exception {
+        String contentHash = prepared.contentHash;
+        byte[] content = prepared.content;
+        List<ChunkRef> manifest = blobDAO.getManifest(contentHash);
+        boolean known = !manifest.isEmpty();
+
+        if (!known) {
+            if (blobStore.exists(blobKey(contentHash))) {
+                // Stored whole before chunking was introduced
+                duplicateUploads.incrementAndGet();
+                bytesDeduplicated.addAndGet(content.length);
+                return CompletableFuture.completedFuture(false);
+            }
+            manifest = prepared.chunks != null ? prepared.chunks : buildManifest(content);
+            blobDAO.createManifest(contentHash, content.length, manifest);
+        }
+
+        List<ChunkRef> chunks = distinctChunks(manifest);
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>(chunks.size());
+        try {
+            for (ChunkRef chunk : chunks) {
+                writes.add(storeChunkIfAbsent(chunk, prepared));
+            }
+        } catch (Exception e) {
+            // Let started writes finish so the caller's release sees them
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+            throw e;
+        }
+
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            boolean wroteChunk = false;
+            for (int i = 0; i < chunks.size(); i++) {
+                if (writes.get(i).join()) {
+                    wroteChunk = true;
+                } else {
+                    bytesDeduplicated.addAndGet(chunks.get(i).getLength());
+                }
+            }
+            if (known && !wroteChunk) {
+                duplicateUploads.incrementAndGet();
+                return false;
+            }
+            blobsWritten.incrementAndGet();
+            return true;
+        });
+    }
+
+    private List<ChunkRef> buildManifest(byte[] content) throws Exception {
+        int[] lengths = chunker.chunk(content, 0, content.length);
+        List<ChunkRef> manifest = new ArrayList<>(lengths.length);
+        int offset = 0;
+        for (int length : lengths) {
+            ContentHashUtil.Hasher hasher = ContentHashUtil.newHasher();
+            hasher.update(content, offset, length);
+            manifest.add(new ChunkRef(hasher.hexDigest(), offset, length));
+            offset += length;
+        }
+        return manifest;
+    }
+
+    /**
+     * Start writing a chunk unless it is stored. A chunk another upload is
+     * still writing is not stored yet, so its write is joined rather than
+     * reported as a duplicate straight away.
+     */
+    private CompletableFuture<Boolean> storeChunkIfAbsent(ChunkRef chunk, PreparedContent prepared)
+            throws Exception {
+        String key = chunkKey(chunk.getChunkHash());
+        ReentrantLock lock = stripe(chunkLocks, chunk.getChunkHash());
+        lock.lock();
+        try {
+            CompletableFuture<Void> pending = pendingChunkWrites.get(key);
+            if (pending != null) {
+                chunksDeduplicated.incrementAndGet();
+                return pending.thenApply(ignored -> false);
+            }
+            if (blobStore.exists(key)) {
+                chunksDeduplicated.incrementAndGet();
+                return CompletableFuture.completedFuture(false);
+            }
+            int start = (int) chunk.getOffset();
+            byte[] plaintext = Arrays.copyOfRange(prepared.content, start, start + chunk.getLength());
+            CompletableFuture<Void> write;
+            try {
+                write = blobStore.putAsync(key, encode(prepared, key, plaintext));
+            } catch (FileAlreadyExistsException e) {
+                chunksDeduplicated.incrementAndGet();
+                return CompletableFuture.completedFuture(false);
+            }
+            pendingChunkWrites.put(key, write);
+            write.whenComplete((ignored, error) -> pendingChunkWrites.remove(key, write));
+            return write.thenApply(ignored -> {
+                chunksWritten.incrementAndGet();
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check that the blob for a content hash and all of its chunks are
+     * stored.
+     *
+     * @param contentHash Content hash
+     * @return true if the content can be read back
+     * @throws IOException  if the store cannot be queried
+     * @throws SQLException if database error occurs
+     */
+    public boolean isStored(String contentHash) throws IOException, SQLException {
+        List<ChunkRef> manifest = blobDAO.getManifest(contentHash);
+        if (manifest.isEmpty()) {
+            return blobStore.exists(blobKey(contentHash));
+        }
+        for (ChunkRef chunk : distinctChunks(manifest)) {
+            if (!blobStore.exists(chunkKey(chunk.getChunkHash()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Open decrypted content for streaming. Chunked content is fetched and
+     * decrypted one chunk at a time; the first chunk is read eagerly so a
+     * missing or corrupt blob is reported before the caller starts writing
+     * a response.
+     *
+     * @param contentHash Content hash
+     * @return Stream over the plaintext
+     * @throws java.nio.file.NoSuchFileException if the blob or a chunk is missing
+     * @throws Exception                         if the read or decryption fails
+     */
+    public InputStream openContent(String contentHash) throws Exception {
+        List<ChunkRef> manifest = blobDAO.getManifest(contentHash);
+        if (manifest.isEmpty()) {
+            return new ByteArrayInputStream(readDecrypted(blobKey(contentHash)));
+        }
+        return new ChunkedContentInputStream(manifest, 0, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read and decrypt whole content. The distinct chunks of large content
+     * are read and decrypted in parallel (see ParallelChunkCodec), each
+     * through the cache and coalesced like other reads. The result may be
+     * shared with other readers and must not be modified.
+     *
+     * @param contentHash Content hash
+     * @return Plaintext
+     * @throws java.nio.file.NoSuchFileException if the blob or a chunk is missing
+     * @throws Exception                         if the read or decryption fails
+     */
+    public byte[] readContent(String contentHash) throws Exception {
+        List<ChunkRef> manifest = blobDAO.getManifest(contentHash);
+        if (manifest.isEmpty()) {
+            return readDecrypted(blobKey(contentHash));
+        }
+
+        List<ChunkRef> chunks = distinctChunks(manifest);
+        long totalLength = 0;
+        for (ChunkRef chunk : manifest) {
+            totalLength = Math.max(totalLength, chunk.getOffset() + chunk.getLength());
+        }
+        List<byte[]> plaintexts = parallelCodec.map(chunks, totalLength,
+                chunk -> readDecrypted(chunkKey(chunk.getChunkHash())));
+
+        Map<String, byte[]> byHash = new HashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (plaintexts.get(i).length != chunks.get(i).getLength()) {
+                throw new IOException("Chunk length mismatch");
+            }
+            byHash.put(chunks.get(i).getChunkHash(), plaintexts.get(i));
+        }
+        byte[] content = new byte[(int) totalLength];
+        for (ChunkRef chunk : manifest) {
+            System.arraycopy(byHash.get(chunk.getChunkHash()), 0, content, (int) chunk.getOffset(),
+                    chunk.getLength());
+        }
+        return content;
+    }
+
+    /**
+     * Open a byte range of content as a plaintext stream. Only the chunks
+     * overlapping [offset, offset + length) are read and decrypted; the
+     * first one is located by binary search over the manifest offsets.
+     * Unchunked blobs are small (below CHUNKING_THRESHOLD) and are decrypted
+     * whole.
+     *
+     * @param contentHash Content hash
+     * @param offset      First plaintext byte
+     * @param length      Number of bytes (the stream ends early at the end
+     *                    of the content)
+     * @return Stream over the plaintext range
+     * @throws java.nio.file.NoSuchFileException if the blob or a chunk is missing
+     * @throws Exception                         if the read or decryption fails
+     */
+    public InputStream openContentRange(String contentHash, long offset, long length) throws Exception {
+        List<ChunkRef> manifest = blobDAO.getManifest(contentHash);
+        if (manifest.isEmpty()) {
+            byte[] plaintext = readDecrypted(blobKey(contentHash));
+            int start = (int) Math.min(offset, plaintext.length);
+            int count = (int) Math.min(length, plaintext.length - start);
+            return new ByteArrayInputStream(plaintext, start, count);
+        }
+
+        int first = chunkIndexAt(manifest, offset);
+        if (first < 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        int skip = (int) (offset - manifest.get(first).getOffset());
+        return new ChunkedContentInputStream(manifest, first, skip, length);
+    }
+
+    // Index of the chunk containing offset, or -1 past the end of the content.
+    private static int chunkIndexAt(List<ChunkRef> manifest, long offset) {
+        int low = 0;
+        int high = manifest.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            ChunkRef chunk = manifest.get(middle);
+            if (offset < chunk.getOffset()) {
+                high = middle - 1;
+            } else if (offset >= chunk.getOffset() + chunk.getLength()) {
+                low = middle + 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Write a byte range of content to a channel through pooled direct
+     * buffers. Chunks are read, decrypted and written one at a time, and the
+     * first one is read before anything is written, so a missing blob is
+     * reported before the response is committed.
+     *
+     * @param contentHash Content hash
+     * @param offset      First plaintext byte
+     * @param length      Number of bytes (fewer are written at the end of
+     *                    the content)
+     * @param out         Target channel
+     * @return Number of bytes written
+     * @throws java.nio.file.NoSuchFileException if the blob or a chunk is missing
+     * @throws Exception                         if the read or decryption fails
+     */
+    public long transferContent(String contentHash, long offset, long length, WritableByteChannel out)
+            throws Exception {
+        List<ChunkRef> manifest = blobDAO.getManifest(contentHash);
+        try (BlobCodec.DecodeScratch scratch = new BlobCodec.DecodeScratch()) {
+            if (manifest.isEmpty()) {
+                ByteBuffer plaintext = readDecrypted(blobKey(contentHash), -1, scratch);
+                try {
+                    return write(plaintext, offset, length, out);
+                } finally {
+                    bufferPool.release(plaintext);
+                }
+            }
+
+            long written = 0;
+            int index = chunkIndexAt(manifest, offset);
+            while (index >= 0 && index < manifest.size() && written < length) {
+                ChunkRef chunk = manifest.get(index++);
+                ByteBuffer plaintext = readDecrypted(chunkKey(chunk.getChunkHash()), chunk.getLength(), scratch);
+                try {
+                    long skip = Math.max(0, offset - chunk.getOffset());
+                    written += write(plaintext, skip, length - written, out);
+                } finally {
+                    bufferPool.release(plaintext);
+                }
+            }
+            return written;
+        }
+    }
+
+    // Write [skip, skip + length) of a buffer (clipped to its contents) to the channel.
+    private static long write(ByteBuffer plaintext, long skip, long length, WritableByteChannel out)
+            throws IOException {
+        int start = (int) Math.min(skip, plaintext.remaining());
+        int count = (int) Math.min(length, plaintext.remaining() - start);
+        ByteBuffer slice = plaintext.duplicate();
+        slice.position(plaintext.position() + start);
+        slice.limit(slice.position() + count);
+        while (slice.hasRemaining()) {
+            out.write(slice);
+        }
+        return count;
+    }
+
+    /**
+     * Write content as a gzip stream. Blobs and chunks stored with the gzip
+     * codec are copied without being decompressed; others are recompressed.
+     * Nothing is written until the first blob or chunk has been read, so a
+     * missing blob is reported before the response is committed.
+     *
+     * @param contentHash Content hash
+     * @param out         Target stream
+     * @throws java.nio.file.NoSuchFileException if the blob or a chunk is missing
+     * @throws Exception                         if the read or decryption fails
+     */
+    public void writeGzip(String contentHash, OutputStream out) throws Exception {
+        GzipStreamAssembler gzip = new GzipStreamAssembler(out);
+        List<ChunkRef> manifest = blobDAO.getManifest(contentHash);
+        if (manifest.isEmpty()) {
+            codec.appendTo(gzip, blobStore.get(blobKey(contentHash)));
+        }
+        for (ChunkRef chunk : manifest) {
+            codec.appendTo(gzip, blobStore.get(chunkKey(chunk.getChunkHash())));
+        }
+        gzip.finish();
+    }
+
+    /**
+     * Delete a blob if nothing references it any more, then release its
+     * chunks.
+     *
+     * @param contentHash Content hash
+     * @return true if the blob was deleted
+     * @throws IOException  if the blob cannot be deleted
+     * @throws SQLException if database error occurs
+     */
+    public boolean releaseIfUnreferenced(String contentHash) throws IOException, SQLException {
+        List<String> releasedChunks;
+        boolean deleted;
+
+        ReentrantLock lock = lockFor(contentHash);
+        lock.lock();
+        try {
+            if (blobDAO.getRefCount(contentHash) > 0) {
+                return false;
+            }
+            deleted = blobStore.delete(blobKey(contentHash));
+            if (cache != null) {
+                cache.invalidate(blobKey(contentHash));
+            }
+            releasedChunks = blobDAO.deleteIfUnreferenced(contentHash);
+        } finally {
+            lock.unlock();
+        }
+
+        for (String chunkHash : releasedChunks) {
+            releaseChunkIfUnreferenced(chunkHash);
+        }
+        return deleted || !releasedChunks.isEmpty();
+    }
+
+    private boolean releaseChunkIfUnreferenced(String chunkHash) throws IOException, SQLException {
+        ReentrantLock lock = stripe(chunkLocks, chunkHash);
+        lock.lock();
+        try {
+            if (blobDAO.getChunkRefCount(chunkHash) > 0) {
+                return false;
+            }
+            boolean deleted = blobStore.delete(chunkKey(chunkHash));
+            if (cache != null) {
+                cache.invalidate(chunkKey(chunkHash));
+            }
+            blobDAO.deleteChunkIfUnreferenced(chunkHash);
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete blobs and chunks whose reference count dropped to zero but that
+     * were not removed yet (for example after a crash during purge).
+     *
+     * @param limit Maximum number of blobs and of chunks to examine
+     * @return Number of blobs and chunks deleted
+     * @throws IOException  if a blob cannot be deleted
+     * @throws SQLException if database error occurs
+     */
+    public int sweepUnreferenced(int limit) throws IOException, SQLException {
+        int deleted = 0;
+        for (String contentHash : blobDAO.getUnreferencedHashes(limit)) {
+            if (releaseIfUnreferenced(contentHash)) {
+                deleted++;
+            }
+        }
+        for (String chunkHash : blobDAO.getUnreferencedChunkHashes(limit)) {
+            if (releaseChunkIfUnreferenced(chunkHash)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Read and decrypt a stored blob or chunk: from the cache if present,
+     * otherwise joining a read of the same key already in flight. The
+     * returned array may be shared with other readers and must not be
+     * modified.
+     */
+    private byte[] readDecrypted(String key) throws Exception {
+        if (cache != null) {
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return decryptedReads.execute(key, () -> {
+            byte[] plaintext = codec.decode(blobStore.get(key));
+            if (cache != null) {
+                cache.put(key, plaintext);
+            }
+            return plaintext;
+        });
+    }
+
+    /**
+     * Read and decrypt a stored blob or chunk into a direct buffer: from the
+     * cache if present, otherwise from the store. The result is only valid
+     * until scratch is used again and must be released to the buffer pool.
+     *
+     * @param expectedLength Plaintext length to verify, or -1
+     */
+    private ByteBuffer readDecrypted(String key, int expectedLength, BlobCodec.DecodeScratch scratch)
+            throws Exception {
+        ByteBuffer plaintext = cache != null ? cache.get(key, bufferPool) : null;
+        if (plaintext == null) {
+            ByteBuffer stored = blobStore.getBuffer(key, bufferPool);
+            try {
+                plaintext = codec.decode(stored, bufferPool, scratch);
+            } finally {
+                bufferPool.release(stored);
+            }
+            if (cache != null) {
+                cache.put(key, plaintext);
+            }
+        }
+        if (expectedLength >= 0 && plaintext.remaining() != expectedLength) {
+            bufferPool.release(plaintext);
+            throw new IOException("Chunk length mismatch");
+        }
+        return plaintext;
+    }
+
+    private static List<ChunkRef> distinctChunks(List<ChunkRef> manifest) {
+        Map<String, ChunkRef> distinct = new LinkedHashMap<>();
+        for (ChunkRef chunk : manifest) {
+            distinct.putIfAbsent(chunk.getChunkHash(), chunk);
+        }
+        return new ArrayList<>(distinct.values());
+    }
+
+    // New blobs written since startup (a chunked blob counts once).
+    public long getBlobsWritten() {
+        return blobsWritten.get();
+    }
+
+    // Uploads that reused an existing blob since startup.
+    public long getDuplicateUploads() {
+        return duplicateUploads.get();
+    }
+
+    // Plaintext bytes not encrypted and written thanks to deduplication.
+    public long getBytesDeduplicated() {
+        return bytesDeduplicated.get();
+    }
+
+    // Chunks written since startup.
+    public long getChunksWritten() {
+        return chunksWritten.get();
+    }
+
+    // Chunks found already stored since startup.
+    public long getChunksDeduplicated() {
+        return chunksDeduplicated.get();
+    }
+
+    // Reads of blobs and chunks, and how many were coalesced.
+    public SingleFlight<String, byte[]> getDecryptedReads() {
+        return decryptedReads;
+    }
+
+    // Cache of decrypted blobs and chunks, or null if disabled.
+    public DecryptedContentCache getCache() {
+        return cache;
+    }
+
+    // Direct buffers of the NIO read path.
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    // Fork/join driver for the chunks of large files.
+    public ParallelChunkCodec getParallelCodec() {
+        return parallelCodec;
+    }
+
+    // Codec used to compress and encrypt blobs and chunks.
+    public BlobCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Content on its way to storeIfAbsentAsync: its chunks, then the
+     * compressed and finally the encrypted blobs or chunks not yet stored.
+     * Used by one thread at a time.
+     */
+    public static final class PreparedContent {
+        private final String contentHash;
+        private final byte[] content;
+        private List<ChunkRef> chunks;
+        private final Map<String, BlobCodec.CompressedBlob> compressed = new LinkedHashMap<>();
+        private final Map<String, byte[]> encoded = new LinkedHashMap<>();
+
+        private PreparedContent(String contentHash, byte[] content) {
+            this.contentHash = contentHash;
+            this.content = content;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        // Blobs or chunks encoded ahead of the store.
+        public int getEncodedCount() {
+            return encoded.size();
+        }
+    }
+
+    // Plaintext of a chunked blob (or of a range of it), decrypted one chunk at a time.
+    private final class ChunkedContentInputStream extends InputStream {
+        private final List<ChunkRef> manifest;
+        private int nextChunk;
+        private byte[] current;
+        private int position;
+        private long remaining;
+
+        ChunkedContentInputStream(List<ChunkRef> manifest, int firstChunk, int skip, long length)
+                throws IOException {
+            this.manifest = manifest;
+            this.nextChunk = firstChunk;
+            this.remaining = length;
+            if (advance()) {
+                position = skip;
+            }
+        }
+
+        private boolean advance() throws IOException {
+            while (remaining > 0 && nextChunk < manifest.size()) {
+                current = readChunk(manifest.get(nextChunk++));
+                position = 0;
+                if (current.length > 0) {
+                    return true;
+                }
+            }
+            current = null;
+            return false;
+        }
+
+        private byte[] readChunk(ChunkRef chunk) throws IOException {
+            byte[] plaintext;
+            try {
+                plaintext = readDecrypted(chunkKey(chunk.getChunkHash()));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Chunk decryption failed", e);
+            }
+            if (plaintext.length != chunk.getLength()) {
+                throw new IOException("Chunk length mismatch");
+            }
+            return plaintext;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (remaining <= 0 || current == null || (position == current.length && !advance())) {
+                return -1;
+            }
+            int count = (int) Math.min(Math.min(length, current.length - position), remaining);
+            System.arraycopy(current, position, target, offset, count);
+            position += count;
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : (int) Math.min(current.length - position, remaining);
+        }
+    }
+}
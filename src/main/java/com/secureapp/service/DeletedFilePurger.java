@@ -0,0 +1,199 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.model.FileModel;
+import com.secureapp.storage.BlobStore;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background removal of deleted files.
+ *
+ * Deleting a file only tombstones its metadata row (deleted_at), so the
+ * request returns immediately and the file disappears from every listing.
+ * This purger then frees the space in throttled batches:
+ * - Every interval at most batchSize tombstoned rows are taken, oldest first
+ * - The files are removed from their owners' search posting lists first,
+ * one index update per user; a user whose update fails keeps their rows
+ * for the next run
+ * - A deduplicated file's row is removed together with its blob reference;
+ * the shared blob is deleted once no other file references it
+ * - A file stored before deduplication has its own blob deleted first, then
+ * its row is removed
+ * - Blobs left unreferenced by an earlier crash are swept
+ * - One compaction step is run on the BlobStore (a no-op unless the store is
+ * log-structured)
+ *
+ * A crash at any point is harmless: either the row is still tombstoned and
+ * is retried, or the blob's reference count is already zero and the sweep
+ * deletes it.
+ */
+public class DeletedFilePurger {
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+
+    private final FileDAO fileDAO;
+    private final BlobStore blobStore;
+    private final ContentAddressedStore contentStore;
+    private final SearchIndexService searchIndex;
+    private final int batchSize;
+    private final long intervalMs;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong purgedFiles = new AtomicLong();
+    private final AtomicLong purgedBytes = new AtomicLong();
+    private final AtomicLong compactedBytes = new AtomicLong();
+
+    public DeletedFilePurger(FileDAO fileDAO, BlobStore blobStore, ContentAddressedStore contentStore) {
+        this(fileDAO, blobStore, contentStore, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL_MS);
+    }
+
+    public DeletedFilePurger(FileDAO fileDAO, BlobStore blobStore, ContentAddressedStore contentStore,
+            int batchSize, long intervalMs) {
+        this(fileDAO, blobStore, contentStore, null, batchSize, intervalMs);
+    }
+
+    /**
+     * @param searchIndex Index the purged files are removed from, or null
+     *                    if there is none
+     */
+    public DeletedFilePurger(FileDAO fileDAO, BlobStore blobStore, ContentAddressedStore contentStore,
+            SearchIndexService searchIndex, int batchSize, long intervalMs) {
+        if (batchSize <= 0 || intervalMs <= 0) {
+            throw new IllegalArgumentException("Batch size and interval must be positive");
+        }
+        this.fileDAO = fileDAO;
+        this.blobStore = blobStore;
+        this.contentStore = contentStore;
+        this.searchIndex = searchIndex;
+        this.batchSize = batchSize;
+        this.intervalMs = intervalMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "deleted-file-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::runSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runSafely() {
+        try {
+            purgeBatch();
+        } catch (IOException | SQLException | RuntimeException e) {
+            System.err.println("Deleted file purge failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Purge one batch of tombstoned files and run one compaction step.
+     *
+     * @return Number of files purged
+     * @throws IOException  if a blob cannot be deleted or compaction fails
+     * @throws SQLException if database error occurs
+     */
+    public synchronized int purgeBatch() throws IOException, SQLException {
+        List<FileModel> batch = fileDAO.getDeletedFiles(batchSize);
+        int purged = 0;
+        Set<Integer> unindexedUsers = removeFromSearchIndex(batch);
+
+        for (FileModel file : batch) {
+            if (unindexedUsers.contains(file.getUserId())) {
+                continue;
+            }
+            String contentHash = file.getContentHash();
+            if (contentHash == null) {
+                blobStore.delete(file.getStoredFilename());
+            }
+            if (fileDAO.purgeFile(file.getId())) {
+                purged++;
+                purgedFiles.incrementAndGet();
+                purgedBytes.addAndGet(file.getFileSize());
+            }
+            if (contentHash != null) {
+                contentStore.releaseIfUnreferenced(contentHash);
+            }
+        }
+
+        contentStore.sweepUnreferenced(batchSize);
+        compactedBytes.addAndGet(blobStore.compact());
+        return purged;
+    }
+
+    // Owners whose posting lists could not be updated; their files must wait.
+    private Set<Integer> removeFromSearchIndex(List<FileModel> batch) {
+        Set<Integer> failed = new HashSet<>();
+        if (searchIndex == null) {
+            return failed;
+        }
+        Map<Integer, List<Integer>> idsByUser = new HashMap<>();
+        for (FileModel file : batch) {
+            idsByUser.computeIfAbsent(file.getUserId(), user -> new ArrayList<>()).add(file.getId());
+        }
+        for (Map.Entry<Integer, List<Integer>> user : idsByUser.entrySet()) {
+            int[] ids = new int[user.getValue().size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = user.getValue().get(i);
+            }
+            try {
+                searchIndex.removeFiles(user.getKey(), ids);
+            } catch (IOException | SQLException e) {
+                System.err.println("Search index cleanup failed for " + ids.length + " files: " + e.getMessage());
+                failed.add(user.getKey());
+            }
+        }
+        return failed;
+    }
+
+    // Files physically removed since startup.
+    public long getPurgedFiles() {
+        return purgedFiles.get();
+    }
+
+    // Plaintext bytes of files physically removed since startup.
+    public long getPurgedBytes() {
+        return purgedBytes.get();
+    }
+
+    // Dead bytes released by BlobStore compaction since startup.
+    public long getCompactedBytes() {
+        return compactedBytes.get();
+    }
+
+    /**
+     * Bytes that can still be reclaimed: plaintext size of tombstoned files
+     * waiting for purge plus dead bytes held by the BlobStore.
+     *
+     * @return Reclaimable bytes
+     * @throws SQLException if database error occurs
+     */
+    public long getReclaimableBytes() throws SQLException {
+        return fileDAO.getDeletedBytes() + blobStore.getReclaimableBytes();
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
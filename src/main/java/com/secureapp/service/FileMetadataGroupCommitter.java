@@ -0,0 +1,269 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.model.FileModel;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group commit writer for file metadata inserts.
+ * Collects FileModel inserts submitted by concurrent upload workers and
+ * writes them as JDBC batches that share one commit and one disk sync.
+ *
+ * Batching rules:
+ * - A batch is started as soon as one insert is pending
+ * - Any inserts already queued are drained into the same batch
+ * - The writer waits at most MAX_WAIT_MS for more inserts before committing
+ * - A batch never exceeds MAX_BATCH_SIZE rows
+ *
+ * Each caller's future completes only after the batch containing its row
+ * has been committed and synced. If a batch is rolled back, its rows are
+ * retried one by one so a single bad row cannot fail unrelated uploads, and
+ * the retried rows are synced once before any of them completes. If a batch
+ * was committed but the sync failed, only the sync is retried; rows that
+ * still cannot be made durable are deleted again and their uploads fail.
+ */
+public class FileMetadataGroupCommitter {
+
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long MAX_WAIT_MS = 2;
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final FileDAO fileDAO;
+    private final BlockingQueue<PendingInsert> pending;
+    private final Thread writerThread;
+    private volatile boolean running;
+
+    private final AtomicLong batchesCommitted = new AtomicLong();
+    private final AtomicLong rowsCommitted = new AtomicLong();
+
+    public FileMetadataGroupCommitter(FileDAO fileDAO) {
+        this.fileDAO = fileDAO;
+        this.pending = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        this.running = true;
+
+        this.writerThread = new Thread(this::runWriterLoop, "file-metadata-group-commit");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue a metadata insert for the next group commit.
+     * Blocks if the queue is full, which applies backpressure to uploaders.
+     * An insert that races shutdown() is either committed by the writer or
+     * failed here; its future never stays pending.
+     *
+     * @param file FileModel to insert
+     * @return Future completed with true once the row is durable
+     */
+    public CompletableFuture<Boolean> submit(FileModel file) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(shutDownException());
+            return future;
+        }
+
+        PendingInsert insert = new PendingInsert(file, future);
+        try {
+            while (!pending.offer(insert, 100, TimeUnit.MILLISECONDS)) {
+                if (!running) {
+                    future.completeExceptionally(shutDownException());
+                    return future;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        // The writer may already have drained the queue and exited
+        if (!running && pending.remove(insert)) {
+            future.completeExceptionally(shutDownException());
+        }
+        return future;
+    }
+
+    private static SQLException shutDownException() {
+        return new SQLException("Metadata writer is shut down");
+    }
+
+    private void runWriterLoop() {
+        List<PendingInsert> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (running || !pending.isEmpty()) {
+            try {
+                PendingInsert first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                collectBatch(batch);
+                commitBatch(batch);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Fill the batch with queued inserts, waiting at most MAX_WAIT_MS in total.
+     */
+    private void collectBatch(List<PendingInsert> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MS);
+
+        while (batch.size() < MAX_BATCH_SIZE) {
+            pending.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                return;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !running) {
+                return;
+            }
+
+            PendingInsert next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void commitBatch(List<PendingInsert> batch) {
+        List<FileModel> files = new ArrayList<>(batch.size());
+        for (PendingInsert insert : batch) {
+            files.add(insert.file);
+        }
+
+        try {
+            int[] results = fileDAO.saveFiles(files);
+            batchesCommitted.incrementAndGet();
+            rowsCommitted.addAndGet(batch.size());
+
+            for (int i = 0; i < batch.size(); i++) {
+                // SUCCESS_NO_INFO (-2) still means the row was written
+                batch.get(i).future.complete(results[i] != 0);
+            }
+        } catch (FileDAO.SyncFailedException e) {
+            System.err.println("Sync of group commit of " + batch.size() + " rows failed, retrying sync: "
+                    + e.getMessage());
+            List<PendingInsert> committed = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                if (e.getResults()[i] != 0) {
+                    committed.add(batch.get(i));
+                } else {
+                    batch.get(i).future.complete(false);
+                }
+            }
+            batchesCommitted.incrementAndGet();
+            completeAfterSync(committed);
+        } catch (SQLException e) {
+            System.err.println("Group commit of " + batch.size() + " rows failed, retrying individually: "
+                    + e.getMessage());
+            commitIndividually(batch);
+        } catch (RuntimeException e) {
+            for (PendingInsert insert : batch) {
+                insert.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Rows of a rolled-back batch, one transaction each, then one sync for all of them.
+    private void commitIndividually(List<PendingInsert> batch) {
+        List<PendingInsert> committed = new ArrayList<>(batch.size());
+        for (PendingInsert insert : batch) {
+            try {
+                if (fileDAO.saveFile(insert.file)) {
+                    committed.add(insert);
+                } else {
+                    insert.future.complete(false);
+                }
+            } catch (SQLException e) {
+                insert.future.completeExceptionally(e);
+            }
+        }
+        completeAfterSync(committed);
+    }
+
+    // Complete committed rows once synced; delete them again if the sync fails.
+    private void completeAfterSync(List<PendingInsert> committed) {
+        if (committed.isEmpty()) {
+            return;
+        }
+        try {
+            fileDAO.syncToDisk();
+        } catch (SQLException e) {
+            System.err.println("Sync of " + committed.size() + " committed rows failed, deleting them: "
+                    + e.getMessage());
+            for (PendingInsert insert : committed) {
+                try {
+                    fileDAO.deleteFileByStoredFilename(insert.file.getStoredFilename());
+                } catch (SQLException deleteError) {
+                    System.err.println("Failed to delete unsynced row " + insert.file.getStoredFilename() + ": "
+                            + deleteError.getMessage());
+                }
+                insert.future.completeExceptionally(e);
+            }
+            return;
+        }
+        rowsCommitted.addAndGet(committed.size());
+        for (PendingInsert insert : committed) {
+            insert.future.complete(true);
+        }
+    }
+
+    // Number of group commits performed so far.
+    public long getBatchesCommitted() {
+        return batchesCommitted.get();
+    }
+
+    // Number of rows written through this committer so far.
+    public long getRowsCommitted() {
+        return rowsCommitted.get();
+    }
+
+    /**
+     * Stop accepting inserts, commit everything still queued and stop the
+     * writer thread. Inserts the writer did not get to within the wait are
+     * failed.
+     */
+    public void shutdown() {
+        // No interrupt: it would abort an in-flight commit inside the driver
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<PendingInsert> leftover = new ArrayList<>();
+        pending.drainTo(leftover);
+        for (PendingInsert insert : leftover) {
+            insert.future.completeExceptionally(shutDownException());
+        }
+    }
+
+    // Metadata insert waiting for the next group commit.
+    private static class PendingInsert {
+        final FileModel file;
+        final CompletableFuture<Boolean> future;
+
+        PendingInsert(FileModel file, CompletableFuture<Boolean> future) {
+            this.file = file;
+            this.future = future;
+        }
+    }
+}
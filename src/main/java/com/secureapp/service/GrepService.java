@@ -0,0 +1,473 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.model.FileModel;
+import com.secureapp.model.FilePreview;
+import com.secureapp.util.FilePreviewUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Regular expression search across all live files of one user.
+ *
+ * A query fans out one task per file on a bounded ForkJoinPool (FIFO, so
+ * the newest files, listed first, are scanned first). Each task decrypts
+ * its file as a stream and hands every matching line to the query's
+ * bounded result queue as soon as it is found, so the first results do not
+ * wait for the whole scan and a slow reader holds the workers back instead
+ * of buffering matches.
+ *
+ * Every query has budgets; the first one exhausted stops all its tasks:
+ * - wall time since the query started
+ * - CPU time summed over its tasks
+ * - number of matches
+ * The budgets are also checked while the regex engine runs, so a pattern
+ * with catastrophic backtracking cannot outlive them. Closing a query (the
+ * client went away) cancels it the same way. A stopped query reports
+ * itself finished once its queued matches are read, even while a task is
+ * still stuck (e.g. opening a file) or was dropped by shutdown(), so
+ * readers never wait past the wall time budget.
+ */
+public class GrepService {
+
+    public static final int MAX_PATTERN_LENGTH = 200;
+    public static final int MAX_LINE_CHARS = 500;
+
+    public static final int DEFAULT_MAX_MATCHES = 1000;
+    public static final long DEFAULT_TIME_BUDGET_MS = 10000;
+    public static final long DEFAULT_CPU_BUDGET_MS = 20000;
+    public static final int DEFAULT_MAX_QUERIES = 4;
+
+    // Longer lines are scanned in pieces of this many characters
+    private static final int MAX_SCAN_CHARS = 64 * 1024;
+    private static final int RESULT_QUEUE_CAPACITY = 256;
+    private static final int BUDGET_CHECK_LINES = 256;
+    private static final int BUDGET_CHECK_CHARS = 1 << 16;
+    private static final long OFFER_WAIT_MS = 50;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported()
+            && THREADS.isThreadCpuTimeEnabled();
+
+    /**
+     * Source of decrypted file content.
+     */
+    public interface ContentOpener {
+        InputStream open(FileModel fileModel) throws Exception;
+    }
+
+    private final FileDAO fileDAO;
+    private final ContentOpener contentOpener;
+    private final ForkJoinPool pool;
+    private final Semaphore querySlots;
+    private final long timeBudgetNanos;
+    private final long cpuBudgetNanos;
+    private final int maxMatches;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong rejectedQueries = new AtomicLong();
+    private final AtomicLong filesScanned = new AtomicLong();
+    private final AtomicLong bytesScanned = new AtomicLong();
+    private final AtomicLong stoppedQueries = new AtomicLong();
+    private final Set<GrepQuery> openQueries = ConcurrentHashMap.newKeySet();
+
+    public GrepService(FileDAO fileDAO, ContentOpener contentOpener, int parallelism, int maxQueries,
+            long timeBudgetMs, long cpuBudgetMs, int maxMatches) {
+        this.fileDAO = fileDAO;
+        this.contentOpener = contentOpener;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism), ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+        this.querySlots = new Semaphore(Math.max(1, maxQueries));
+        this.timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(timeBudgetMs);
+        this.cpuBudgetNanos = TimeUnit.MILLISECONDS.toNanos(cpuBudgetMs);
+        this.maxMatches = maxMatches;
+    }
+
+    /**
+     * Start a query over the user's live files.
+     *
+     * @param userId  Caller's user ID
+     * @param pattern Compiled pattern, matched with find() against each line
+     * @return Running query (caller closes), or null if too many queries
+     *         are running
+     * @throws SQLException if the file list cannot be loaded
+     */
+    public GrepQuery start(int userId, Pattern pattern) throws SQLException {
+        if (!querySlots.tryAcquire()) {
+            rejectedQueries.incrementAndGet();
+            return null;
+        }
+        try {
+            List<FileModel> files = fileDAO.getFilesByUserId(userId);
+            GrepQuery query = new GrepQuery(pattern, files.size());
+            openQueries.add(query);
+            queries.incrementAndGet();
+            for (FileModel file : files) {
+                pool.execute(() -> query.scan(file));
+            }
+            return query;
+        } catch (SQLException | RuntimeException e) {
+            querySlots.release();
+            throw e;
+        }
+    }
+
+    // Stop every open query, then the workers; queued tasks are dropped.
+    public void shutdown() {
+        for (GrepQuery query : openQueries) {
+            query.stop("shut down");
+        }
+        pool.shutdownNow();
+    }
+
+    public long getQueries() {
+        return queries.get();
+    }
+
+    public long getRejectedQueries() {
+        return rejectedQueries.get();
+    }
+
+    public long getFilesScanned() {
+        return filesScanned.get();
+    }
+
+    public long getBytesScanned() {
+        return bytesScanned.get();
+    }
+
+    public long getStoppedQueries() {
+        return stoppedQueries.get();
+    }
+
+    // CPU time of the current thread, falling back to wall time where unsupported.
+    private static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * One matching line.
+     */
+    public static final class GrepMatch {
+        private final String filename;
+        private final String storedFilename;
+        private final long lineNumber;
+        private final String line;
+
+        GrepMatch(String filename, String storedFilename, long lineNumber, String line) {
+            this.filename = filename;
+            this.storedFilename = storedFilename;
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getStoredFilename() {
+            return storedFilename;
+        }
+
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        // Line text, cut to MAX_LINE_CHARS
+        public String getLine() {
+            return line;
+        }
+    }
+
+    // Stops a task from inside the regex engine or the line loop
+    private static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A running query. Results are read with next(); close() cancels the
+     * remaining work and must always be called.
+     */
+    public final class GrepQuery implements AutoCloseable {
+
+        private final Pattern pattern;
+        private final long deadline;
+        private final BlockingQueue<GrepMatch> results = new LinkedBlockingQueue<>(RESULT_QUEUE_CAPACITY);
+        private final AtomicInteger pendingFiles;
+        private final AtomicInteger matches = new AtomicInteger();
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicInteger filesWithMatches = new AtomicInteger();
+        private final AtomicReference<String> stopReason = new AtomicReference<>();
+        private final AtomicInteger released = new AtomicInteger();
+
+        private GrepQuery(Pattern pattern, int files) {
+            this.pattern = pattern;
+            this.deadline = System.nanoTime() + timeBudgetNanos;
+            this.pendingFiles = new AtomicInteger(files);
+            if (files == 0) {
+                releaseSlot();
+            }
+        }
+
+        /**
+         * Next match, waiting up to timeoutMs.
+         *
+         * @param timeoutMs Maximum wait
+         * @return Next match, or null if none arrived in time or the query
+         *         is finished
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public GrepMatch next(long timeoutMs) throws InterruptedException {
+            return results.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        // All tasks are done, or the query was stopped, and every queued match has been read.
+        public boolean isFinished() {
+            if (pendingFiles.get() > 0 && System.nanoTime() - deadline > 0) {
+                // Tasks that cannot check the budget themselves (blocked or dropped)
+                stop("time budget exhausted");
+            }
+            return (pendingFiles.get() == 0 || isStopped()) && results.isEmpty();
+        }
+
+        // Why the query stopped early, or null if it ran to completion.
+        public String getStopReason() {
+            return stopReason.get();
+        }
+
+        public int getMatchCount() {
+            return Math.min(matches.get(), maxMatches);
+        }
+
+        public int getFilesWithMatches() {
+            return filesWithMatches.get();
+        }
+
+        public long getCpuMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(cpuNanos.get());
+        }
+
+        @Override
+        public void close() {
+            if (pendingFiles.get() > 0) {
+                stop("cancelled");
+            }
+            results.clear();
+            openQueries.remove(this);
+        }
+
+        private void stop(String reason) {
+            if (stopReason.compareAndSet(null, reason)) {
+                stoppedQueries.incrementAndGet();
+            }
+        }
+
+        private boolean isStopped() {
+            return stopReason.get() != null;
+        }
+
+        private void checkBudgets(long cpuStart) {
+            if (isStopped()) {
+                throw new BudgetExceededException();
+            }
+            if (System.nanoTime() - deadline > 0) {
+                stop("time budget exhausted");
+                throw new BudgetExceededException();
+            }
+            if (cpuNanos.get() + (cpuTime() - cpuStart) > cpuBudgetNanos) {
+                stop("CPU budget exhausted");
+                throw new BudgetExceededException();
+            }
+        }
+
+        private void scan(FileModel file) {
+            long cpuStart = cpuTime();
+            try {
+                checkBudgets(cpuStart);
+                scanFile(file, cpuStart);
+                filesScanned.incrementAndGet();
+            } catch (BudgetExceededException e) {
+                // Stopped; the reason is already recorded
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stop("cancelled");
+            } catch (Exception e) {
+                System.err.println("Grep skipped file " + file.getId() + ": " + e.getClass().getSimpleName());
+            } finally {
+                cpuNanos.addAndGet(cpuTime() - cpuStart);
+                if (pendingFiles.decrementAndGet() == 0) {
+                    releaseSlot();
+                }
+            }
+        }
+
+        private void scanFile(FileModel file, long cpuStart) throws Exception {
+            Charset charset = StandardCharsets.UTF_8;
+            FilePreview preview = FilePreviewUtil.open(file.getEncryptedPreview(), file.getStoredFilename());
+            if (preview != null) {
+                if (FilePreviewUtil.BINARY.equals(preview.getCharset())) {
+                    return;
+                }
+                charset = Charset.forName(preview.getCharset());
+            }
+
+            boolean matched = false;
+            try (InputStream in = contentOpener.open(file);
+                    Reader reader = new BufferedReader(new InputStreamReader(in, charset))) {
+                BudgetedLine line = new BudgetedLine(cpuStart);
+                Matcher matcher = pattern.matcher(line);
+                long lineNumber = 0;
+                boolean lineEnded = true;
+                while (true) {
+                    if (lineEnded) {
+                        lineNumber++;
+                    }
+                    int end = line.read(reader);
+                    if (end == BudgetedLine.EOF) {
+                        break;
+                    }
+                    lineEnded = end == BudgetedLine.LINE_END;
+                    if (lineNumber % BUDGET_CHECK_LINES == 0) {
+                        checkBudgets(cpuStart);
+                    }
+
+                    matcher.reset(line);
+                    if (matcher.find()) {
+                        matched = true;
+                        emit(new GrepMatch(file.getOriginalFilename(), file.getStoredFilename(), lineNumber,
+                                line.text()));
+                    }
+                }
+            } finally {
+                bytesScanned.addAndGet(file.getFileSize());
+                if (matched) {
+                    filesWithMatches.incrementAndGet();
+                }
+            }
+        }
+
+        private void emit(GrepMatch match) throws InterruptedException {
+            if (matches.incrementAndGet() > maxMatches) {
+                stop("match limit reached");
+                throw new BudgetExceededException();
+            }
+            // A full queue means the client reads slowly: wait, but not past a stop
+            while (!results.offer(match, OFFER_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                if (isStopped() || System.nanoTime() - deadline > 0) {
+                    stop("time budget exhausted");
+                    throw new BudgetExceededException();
+                }
+            }
+        }
+
+        private void releaseSlot() {
+            if (released.compareAndSet(0, 1)) {
+                querySlots.release();
+            }
+        }
+
+        /**
+         * A reusable line buffer the matcher runs on. charAt checks the
+         * query's budgets every BUDGET_CHECK_CHARS calls, which bounds the
+         * time a single backtracking match can take.
+         */
+        private final class BudgetedLine implements CharSequence {
+            static final int EOF = -1;
+            static final int LINE_END = 0;
+            static final int SPLIT = 1;
+
+            private final long cpuStart;
+            private final char[] chars = new char[MAX_SCAN_CHARS];
+            private int length;
+            private int accesses;
+            private int pushback = -1;
+
+            BudgetedLine(long cpuStart) {
+                this.cpuStart = cpuStart;
+            }
+
+            // Read the next line (without terminator), or its next piece if longer than MAX_SCAN_CHARS.
+            int read(Reader reader) throws IOException {
+                length = 0;
+                int c = pushback >= 0 ? pushback : reader.read();
+                pushback = -1;
+                if (c == -1) {
+                    return EOF;
+                }
+                while (c != -1) {
+                    if (c == '\n') {
+                        return LINE_END;
+                    }
+                    if (c == '\r') {
+                        int following = reader.read();
+                        if (following != '\n' && following != -1) {
+                            pushback = following;
+                        }
+                        return LINE_END;
+                    }
+                    if (length == chars.length) {
+                        pushback = c;
+                        return SPLIT;
+                    }
+                    chars[length++] = (char) c;
+                    c = reader.read();
+                }
+                return LINE_END;
+            }
+
+            String text() {
+                return new String(chars, 0, Math.min(length, MAX_LINE_CHARS));
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                if (++accesses == BUDGET_CHECK_CHARS) {
+                    accesses = 0;
+                    checkBudgets(cpuStart);
+                }
+                return chars[index];
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return new String(chars, start, end - start);
+            }
+
+            @Override
+            public String toString() {
+                return new String(chars, 0, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,542 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.UploadSessionDAO;
+import com.secureapp.model.UploadSession;
+import com.secureapp.util.AesEncryptionUtil;
+import com.secureapp.util.ContentHashUtil;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads in the style of tus: a client creates a session with
+ * the total length, sends the content in chunks at increasing offsets,
+ * asks for the current offset after an interruption, and finalizes once
+ * every byte has arrived.
+ *
+ * - Chunks are encrypted as they arrive and appended to a staging file per
+ * session, as records of [length][AES-GCM ciphertext] of at most
+ * RECORD_BYTES of plaintext; each record is bound to its session and
+ * offset through the associated data
+ * - After an append the staging file is forced, then the new offset and
+ * file length are recorded in upload_sessions; a crash in between leaves
+ * an unrecorded tail, truncated before the next append
+ * - A chunk cut off by a dropped connection keeps the records completed
+ * before the drop, so the client resumes from there
+ * - Finalizing decrypts the records and hands the file to the upload
+ * pipeline like any other upload; the session is removed once the file is
+ * stored or its content rejected, and kept for a retry after any other
+ * failure
+ * - Sessions without progress for expiryMs are deleted with their staging
+ * files every gcIntervalMs, as are staging files without a session
+ *
+ * Requests on one session are serialized by striped locks. Finalize
+ * releases its stripe while the pipeline stores the file; until it is done
+ * the session cannot be finalized again or cancelled.
+ */
+public class ResumableUploadService {
+
+    public static final long DEFAULT_MAX_UPLOAD_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_EXPIRY_MS = 24L * 60 * 60 * 1000;
+    public static final long DEFAULT_GC_INTERVAL_MS = 10L * 60 * 1000;
+    public static final int RECORD_BYTES = 256 * 1024;
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int GC_BATCH_SIZE = 100;
+    private static final int ID_BYTES = 16;
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{32}");
+    private static final String STAGING_SUFFIX = ".part";
+    private static final String AAD_PREFIX = "resumable:";
+
+    /**
+     * No session with this ID for this user.
+     */
+    public static class SessionNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public SessionNotFoundException(String id) {
+            super("Upload session not found: " + id);
+        }
+    }
+
+    /**
+     * Chunk sent at an offset other than the session's, finalize before
+     * every byte arrived, or a request on a session being finalized.
+     */
+    public static class OffsetMismatchException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final long currentOffset;
+
+        public OffsetMismatchException(String message, long currentOffset) {
+            super(message);
+            this.currentOffset = currentOffset;
+        }
+
+        public long getCurrentOffset() {
+            return currentOffset;
+        }
+    }
+
+    private final UploadSessionDAO sessionDAO;
+    private final ConcurrentUploadService uploadService;
+    private final Path stagingDir;
+    private final long maxUploadBytes;
+    private final long expiryMs;
+    private final long gcIntervalMs;
+    private final ReentrantLock[] locks;
+    private final Set<String> finalizing = ConcurrentHashMap.newKeySet();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong sessionsCreated = new AtomicLong();
+    private final AtomicLong recordsAppended = new AtomicLong();
+    private final AtomicLong bytesAppended = new AtomicLong();
+    private final AtomicLong sessionsCompleted = new AtomicLong();
+    private final AtomicLong sessionsExpired = new AtomicLong();
+
+    /**
+     * @param sessionDAO     Session rows
+     * @param uploadService  Service finalized uploads are submitted to
+     * @param stagingDir     Directory of the staging files
+     * @param maxUploadBytes Largest upload length accepted
+     * @param expiryMs       Time without progress after which a session is
+     *                       abandoned
+     * @param gcIntervalMs   Interval between garbage collection runs
+     * @throws IOException if the staging directory cannot be created
+     */
+    public ResumableUploadService(UploadSessionDAO sessionDAO, ConcurrentUploadService uploadService,
+            Path stagingDir, long maxUploadBytes, long expiryMs, long gcIntervalMs) throws IOException {
+        if (maxUploadBytes <= 0 || maxUploadBytes > Integer.MAX_VALUE || expiryMs <= 0 || gcIntervalMs <= 0) {
+            throw new IllegalArgumentException("Invalid resumable upload limits");
+        }
+        this.sessionDAO = sessionDAO;
+        this.uploadService = uploadService;
+        this.stagingDir = Files.createDirectories(stagingDir);
+        this.maxUploadBytes = maxUploadBytes;
+        this.expiryMs = expiryMs;
+        this.gcIntervalMs = gcIntervalMs;
+        this.locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "resumable-upload-gc");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::collectSafely, gcIntervalMs, gcIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a session.
+     *
+     * @param userId           Owner
+     * @param originalFilename Original filename (.txt)
+     * @param uploadLength     Total length, 1 to maxUploadBytes
+     * @return New session
+     * @throws IllegalArgumentException if the filename or length is refused
+     * @throws SQLException             if database error occurs
+     */
+    public UploadSession createSession(int userId, String originalFilename, long uploadLength) throws SQLException {
+        if (originalFilename == null || !originalFilename.toLowerCase().endsWith(".txt")) {
+            throw new IllegalArgumentException("Only .txt files are allowed");
+        }
+        if (uploadLength <= 0 || uploadLength > maxUploadBytes) {
+            throw new IllegalArgumentException("Upload length must be between 1 and " + maxUploadBytes);
+        }
+        byte[] idBytes = new byte[ID_BYTES];
+        random.nextBytes(idBytes);
+        StringBuilder id = new StringBuilder();
+        for (byte b : idBytes) {
+            id.append(String.format("%02x", b & 0xFF));
+        }
+        sessionDAO.createSession(id.toString(), userId, originalFilename, uploadLength);
+        sessionsCreated.incrementAndGet();
+        return sessionDAO.getSession(id.toString());
+    }
+
+    /**
+     * Get a session of a user.
+     *
+     * @param id     Session ID
+     * @param userId Owner
+     * @return Session
+     * @throws SessionNotFoundException if the user has no such session
+     * @throws SQLException             if database error occurs
+     */
+    public UploadSession getSession(String id, int userId) throws SessionNotFoundException, SQLException {
+        UploadSession session = id != null && ID_PATTERN.matcher(id).matches() ? sessionDAO.getSession(id) : null;
+        if (session == null || session.getUserId() != userId) {
+            throw new SessionNotFoundException(id);
+        }
+        return session;
+    }
+
+    /**
+     * Append a chunk. Reads at most the bytes still missing.
+     *
+     * @param id     Session ID
+     * @param userId Owner
+     * @param offset Offset of the chunk, which must be the session's
+     * @param in     Chunk content
+     * @return Offset after the chunk
+     * @throws OffsetMismatchException  if offset is not the session's
+     * @throws SessionNotFoundException if the user has no such session
+     * @throws IOException              if the chunk cannot be read or stored
+     *                                  (records completed before are kept)
+     * @throws Exception                if encryption or the database fails
+     */
+    public long appendChunk(String id, int userId, long offset, InputStream in) throws Exception {
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            UploadSession session = getSession(id, userId);
+            if (offset != session.getUploadOffset()) {
+                throw new OffsetMismatchException("Chunk offset " + offset + " does not match upload offset",
+                        session.getUploadOffset());
+            }
+
+            long newOffset = offset;
+            IOException readError = null;
+            try (FileChannel channel = FileChannel.open(stagingPath(id), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                // Drop a tail written before a crash but never recorded
+                channel.truncate(session.getStoredBytes());
+                channel.position(session.getStoredBytes());
+
+                byte[] record = new byte[RECORD_BYTES];
+                while (newOffset < session.getUploadLength()) {
+                    int wanted = (int) Math.min(RECORD_BYTES, session.getUploadLength() - newOffset);
+                    int length;
+                    try {
+                        length = readFully(in, record, wanted);
+                    } catch (IOException e) {
+                        // Connection dropped: keep what was completed
+                        readError = e;
+                        break;
+                    }
+                    if (length == 0) {
+                        break;
+                    }
+                    byte[] plaintext = length == record.length ? record : Arrays.copyOf(record, length);
+                    byte[] encrypted = AesEncryptionUtil.encrypt(plaintext, associatedData(id, newOffset));
+                    ByteBuffer header = ByteBuffer.allocate(4).putInt(encrypted.length);
+                    header.flip();
+                    writeFully(channel, header);
+                    writeFully(channel, ByteBuffer.wrap(encrypted));
+                    newOffset += length;
+                    recordsAppended.incrementAndGet();
+                    if (length < wanted) {
+                        break;
+                    }
+                }
+
+                if (newOffset > offset) {
+                    channel.force(false);
+                    if (!sessionDAO.updateProgress(id, offset, newOffset, channel.position())) {
+                        throw new SessionNotFoundException(id);
+                    }
+                    bytesAppended.addAndGet(newOffset - offset);
+                }
+            }
+            if (readError != null) {
+                throw readError;
+            }
+            return newOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decrypt a complete upload, submit it to the upload pipeline and remove
+     * the session.
+     *
+     * @param id     Session ID
+     * @param userId Owner
+     * @return Stored filename
+     * @throws OffsetMismatchException  if bytes are still missing or the
+     *                                  upload is already being finalized
+     * @throws SessionNotFoundException if the user has no such session
+     * @throws ExecutionException       if the pipeline fails; the session
+     *                                  is removed only when the cause is
+     *                                  UnsupportedContentException, otherwise
+     *                                  finalize can be retried
+     * @throws Exception                if the staging file cannot be read
+     */
+    public String finalizeUpload(String id, int userId) throws Exception {
+        UploadSession session;
+        byte[] content;
+        ContentHashUtil.Hasher hasher = ContentHashUtil.newHasher();
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            session = getSession(id, userId);
+            if (!session.isComplete()) {
+                throw new OffsetMismatchException("Upload incomplete", session.getUploadOffset());
+            }
+            if (finalizing.contains(id)) {
+                throw new OffsetMismatchException("Upload is already being finalized", session.getUploadOffset());
+            }
+            content = readStaged(id, session, hasher);
+            finalizing.add(id);
+        } finally {
+            lock.unlock();
+        }
+
+        // The pipeline can take a while: wait without holding the lock stripe
+        try {
+            String storedFilename;
+            try {
+                storedFilename = uploadService.processUploadAsync(userId, session.getOriginalFilename(),
+                        content, content.length, hasher.hexDigest()).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ConcurrentUploadService.UnsupportedContentException) {
+                    // Rejected content stays rejected: nothing to retry
+                    deleteSessionLocked(id);
+                }
+                throw e;
+            }
+            sessionsCompleted.incrementAndGet();
+            deleteSessionLocked(id);
+            return storedFilename;
+        } finally {
+            finalizing.remove(id);
+        }
+    }
+
+    /**
+     * Decrypt the records of a complete upload. Record lengths are checked
+     * against the recorded staging size before anything is allocated.
+     */
+    private byte[] readStaged(String id, UploadSession session, ContentHashUtil.Hasher hasher) throws Exception {
+        byte[] content = new byte[(int) session.getUploadLength()];
+        try (FileChannel channel = FileChannel.open(stagingPath(id), StandardOpenOption.READ);
+                DataInputStream in = new DataInputStream(Channels.newInputStream(channel))) {
+            int offset = 0;
+            long consumed = 0;
+            while (offset < content.length && consumed < session.getStoredBytes()) {
+                int length = in.readInt();
+                if (length <= 0 || length > session.getStoredBytes() - consumed - 4) {
+                    throw new IOException("Corrupt record length " + length + " in staging file: " + id);
+                }
+                byte[] encrypted = new byte[length];
+                in.readFully(encrypted);
+                consumed += 4 + encrypted.length;
+                byte[] plaintext = AesEncryptionUtil.decrypt(encrypted, 0, associatedData(id, offset));
+                if (plaintext.length > content.length - offset) {
+                    throw new IOException("Staging file longer than the upload: " + id);
+                }
+                System.arraycopy(plaintext, 0, content, offset, plaintext.length);
+                hasher.update(plaintext, 0, plaintext.length);
+                offset += plaintext.length;
+            }
+            if (offset != content.length) {
+                throw new IOException("Staging file shorter than the upload: " + id);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Staging file truncated: " + id, e);
+        }
+        return content;
+    }
+
+    /**
+     * Abandon a session (tus termination).
+     *
+     * @param id     Session ID
+     * @param userId Owner
+     * @throws SessionNotFoundException if the user has no such session
+     * @throws Exception                if the session cannot be removed
+     */
+    public void cancelSession(String id, int userId) throws Exception {
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            UploadSession session = getSession(id, userId);
+            if (finalizing.contains(id)) {
+                throw new OffsetMismatchException("Upload is being finalized", session.getUploadOffset());
+            }
+            deleteSession(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete sessions without progress for expiryMs, and staging files that
+     * have no session (left by a crash during removal).
+     *
+     * @return Sessions deleted
+     * @throws SQLException if database error occurs
+     * @throws IOException  if a staging file cannot be deleted
+     */
+    public int collectExpired() throws SQLException, IOException {
+        int collected = 0;
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - expiryMs);
+        List<String> expired;
+        do {
+            expired = sessionDAO.getExpiredSessionIds(cutoff, GC_BATCH_SIZE);
+            for (String id : expired) {
+                ReentrantLock lock = lockFor(id);
+                lock.lock();
+                try {
+                    // Progress made since the query keeps the session alive
+                    UploadSession session = sessionDAO.getSession(id);
+                    if (session != null && session.getUpdatedAt().before(cutoff) && !finalizing.contains(id)) {
+                        deleteSession(id);
+                        collected++;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } while (expired.size() == GC_BATCH_SIZE);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingDir, "*" + STAGING_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String id = name.substring(0, name.length() - STAGING_SUFFIX.length());
+                ReentrantLock lock = lockFor(id);
+                lock.lock();
+                try {
+                    if (sessionDAO.getSession(id) == null) {
+                        Files.deleteIfExists(file);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        sessionsExpired.addAndGet(collected);
+        return collected;
+    }
+
+    private void collectSafely() {
+        try {
+            int collected = collectExpired();
+            if (collected > 0) {
+                System.out.println("Resumable uploads: " + collected + " abandoned sessions deleted");
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            System.err.println("Resumable upload garbage collection failed: " + e.getMessage());
+        }
+    }
+
+    // Row first: a crash in between leaves a staging file for collectExpired().
+    private void deleteSession(String id) throws SQLException, IOException {
+        sessionDAO.deleteSession(id);
+        Files.deleteIfExists(stagingPath(id));
+    }
+
+    private void deleteSessionLocked(String id) throws SQLException, IOException {
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            deleteSession(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path stagingPath(String id) {
+        return stagingDir.resolve(id + STAGING_SUFFIX);
+    }
+
+    private ReentrantLock lockFor(String id) {
+        return locks[(String.valueOf(id).hashCode() & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    private static byte[] associatedData(String id, long offset) {
+        return (AAD_PREFIX + id + ":" + offset).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Read until the buffer holds wanted bytes or the stream ends.
+    private static int readFully(InputStream in, byte[] buffer, int wanted) throws IOException {
+        int total = 0;
+        while (total < wanted) {
+            int read = in.read(buffer, total, wanted - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public long getMaxUploadBytes() {
+        return maxUploadBytes;
+    }
+
+    public long getSessionsCreated() {
+        return sessionsCreated.get();
+    }
+
+    public long getRecordsAppended() {
+        return recordsAppended.get();
+    }
+
+    public long getBytesAppended() {
+        return bytesAppended.get();
+    }
+
+    public long getSessionsCompleted() {
+        return sessionsCompleted.get();
+    }
+
+    public long getSessionsExpired() {
+        return sessionsExpired.get();
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Resumable uploads: %d sessions created, %d completed, %d expired; "
+                + "%d records (%d bytes) appended", getSessionsCreated(), getSessionsCompleted(),
+                getSessionsExpired(), getRecordsAppended(), getBytesAppended());
+    }
+}
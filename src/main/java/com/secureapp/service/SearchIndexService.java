@@ -0,0 +1,186 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.dao.SearchIndexDAO;
+import com.secureapp.model.FileModel;
+import com.secureapp.util.FilePreviewUtil;
+import com.secureapp.util.PostingListUtil;
+import com.secureapp.util.SearchTokenUtil;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Incremental full-text index over uploaded text files.
+ *
+ * Indexing (once per upload, after its metadata row is committed):
+ * - Content is decoded with the detected charset (binary files are skipped)
+ * and split into distinct tokens
+ * - Each token is replaced by its keyed hash, so the index holds no
+ * plaintext words
+ * - The file id is appended to the uploader's posting list of every token
+ *
+ * Searching: every query token must occur (AND). The cost is one
+ * primary-key lookup per query token plus the decoding and intersection of
+ * the caller's posting lists, so it does not grow with the number of files
+ * of other users. Matches are whole tokens, not substrings. Ids of deleted
+ * files stay in the lists, and are dropped when results are loaded, until
+ * DeletedFilePurger removes them with removeFiles().
+ */
+public class SearchIndexService {
+
+    public static final int MAX_QUERY_TOKENS = 8;
+    public static final int MAX_RESULTS = 100;
+
+    private static final int LOCK_STRIPES = 16;
+
+    private final SearchIndexDAO searchIndexDAO;
+    private final FileDAO fileDAO;
+    private final ReentrantLock[] userLocks;
+
+    private final AtomicLong filesIndexed = new AtomicLong();
+    private final AtomicLong tokensIndexed = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong filesRemoved = new AtomicLong();
+
+    public SearchIndexService(SearchIndexDAO searchIndexDAO, FileDAO fileDAO) {
+        this.searchIndexDAO = searchIndexDAO;
+        this.fileDAO = fileDAO;
+        this.userLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Index a committed file.
+     *
+     * @param fileModel File metadata (with its id)
+     * @param content   Plaintext content
+     * @return Number of distinct tokens indexed
+     * @throws Exception if hashing or the index update fails
+     */
+    public int indexFile(FileModel fileModel, byte[] content) throws Exception {
+        String charset = FilePreviewUtil.detectCharset(content);
+        if (FilePreviewUtil.BINARY.equals(charset)) {
+            return 0;
+        }
+
+        Set<String> tokens = SearchTokenUtil.tokenize(new String(content, Charset.forName(charset)));
+        List<byte[]> tokenHashes = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            tokenHashes.add(SearchTokenUtil.hashToken(token));
+        }
+
+        // Appends read the current last id first: one writer per user at a time
+        ReentrantLock lock = lockFor(fileModel.getUserId());
+        lock.lock();
+        try {
+            searchIndexDAO.addPostings(fileModel.getUserId(), fileModel.getId(), tokenHashes);
+        } finally {
+            lock.unlock();
+        }
+
+        filesIndexed.incrementAndGet();
+        tokensIndexed.addAndGet(tokenHashes.size());
+        return tokenHashes.size();
+    }
+
+    /**
+     * Remove purged files of one user from the index.
+     *
+     * @param userId  Owner user ID
+     * @param fileIds Ids of the purged files
+     * @throws SQLException if database error occurs
+     * @throws IOException  if a stored posting list is malformed
+     */
+    public void removeFiles(int userId, int[] fileIds) throws SQLException, IOException {
+        int[] sorted = fileIds.clone();
+        Arrays.sort(sorted);
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            searchIndexDAO.removePostings(userId, sorted);
+        } finally {
+            lock.unlock();
+        }
+        filesRemoved.addAndGet(sorted.length);
+    }
+
+    private ReentrantLock lockFor(int userId) {
+        return userLocks[(userId & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    /**
+     * Find the caller's live files containing every token of the query.
+     *
+     * @param userId Caller's user ID
+     * @param query  Query text (only the first MAX_QUERY_TOKENS tokens count)
+     * @return Matching files, newest first, at most MAX_RESULTS
+     * @throws Exception if the index cannot be read
+     */
+    public List<FileModel> search(int userId, String query) throws Exception {
+        searches.incrementAndGet();
+        List<int[]> lists = new ArrayList<>();
+        for (String token : SearchTokenUtil.tokenize(query)) {
+            if (lists.size() == MAX_QUERY_TOKENS) {
+                break;
+            }
+            byte[] postings = searchIndexDAO.getPostings(userId, SearchTokenUtil.hashToken(token));
+            if (postings == null) {
+                return new ArrayList<>();
+            }
+            lists.add(PostingListUtil.decode(postings));
+        }
+        if (lists.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Shortest list first keeps every intermediate result small
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        int[] matches = lists.get(0);
+        for (int i = 1; i < lists.size() && matches.length > 0; i++) {
+            matches = PostingListUtil.intersect(matches, lists.get(i));
+        }
+
+        // Newest ids first, a window at a time: deleted files are filtered
+        // out by the lookup, so older windows fill the page they leave short
+        List<FileModel> results = new ArrayList<>();
+        int end = matches.length;
+        while (end > 0 && results.size() < MAX_RESULTS) {
+            int start = Math.max(0, end - MAX_RESULTS);
+            List<Integer> ids = new ArrayList<>(end - start);
+            for (int id : Arrays.copyOfRange(matches, start, end)) {
+                ids.add(id);
+            }
+            results.addAll(fileDAO.getLiveFilesByIds(userId, ids));
+            end = start;
+        }
+        return results.size() > MAX_RESULTS ? new ArrayList<>(results.subList(0, MAX_RESULTS)) : results;
+    }
+
+    public long getFilesIndexed() {
+        return filesIndexed.get();
+    }
+
+    public long getTokensIndexed() {
+        return tokensIndexed.get();
+    }
+
+    public long getSearches() {
+        return searches.get();
+    }
+
+    // Purged files removed from the posting lists.
+    public long getFilesRemoved() {
+        return filesRemoved.get();
+    }
+}
@@ -0,0 +1,258 @@
+package com.secureapp.service;
+
+import com.secureapp.util.LatencyHistogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only intent journal for two-phase uploads.
+ *
+ * An upload logs an INTENT record (synced) before any ciphertext becomes
+ * visible, and a COMMIT or ABORT record once its metadata row is durable or
+ * the upload has been rolled back. After a crash, the intents without a
+ * matching COMMIT/ABORT are exactly the uploads that may have left orphan
+ * ciphertext or metadata pointing nowhere, so recovery only has to look at
+ * those names instead of scanning the whole upload directory.
+ *
+ * Record format (big-endian):
+ * [1-byte type][2-byte name length][name UTF-8][4-byte CRC32 of previous fields]
+ *
+ * A torn or corrupted record at the tail marks the end of the journal.
+ *
+ * Intent syncs are group-committed: a thread whose record was already
+ * covered by another thread's fsync returns without issuing its own.
+ */
+public class UploadJournal {
+
+    private static final byte TYPE_INTENT = 1;
+    private static final byte TYPE_COMMIT = 2;
+    private static final byte TYPE_ABORT = 3;
+
+    private static final int HEADER_LENGTH = 3;
+    private static final int CRC_LENGTH = 4;
+    private static final long COMPACT_THRESHOLD_BYTES = 1024 * 1024;
+
+    private final Path journalPath;
+    private final Set<String> openIntents;
+    private final boolean syncIntents;
+    private final Object syncLock = new Object();
+    private final LatencyHistogram syncLatency = new LatencyHistogram("journal-fsync");
+
+    private volatile FileChannel channel;
+    // Total bytes ever appended (monotonic across compactions), written under this
+    private volatile long appendedBytes;
+    // Guarded by syncLock
+    private long syncedBytes;
+
+    public UploadJournal(Path journalPath) throws IOException {
+        this(journalPath, true);
+    }
+
+    /**
+     * @param journalPath Journal file location
+     * @param syncIntents Whether INTENT records are fsynced (disabled only
+     *                    when uploads run without any durability guarantee)
+     */
+    public UploadJournal(Path journalPath, boolean syncIntents) throws IOException {
+        this.journalPath = journalPath;
+        this.openIntents = new LinkedHashSet<>();
+        this.syncIntents = syncIntents;
+
+        Files.createDirectories(journalPath.getParent());
+        this.channel = openForAppend(journalPath);
+    }
+
+    /**
+     * Log the intent to create a stored file and sync it to disk.
+     * Must be called before the file is written.
+     *
+     * @param storedFilename Stored filename about to be created
+     * @throws IOException if the record cannot be made durable
+     */
+    public void logIntent(String storedFilename) throws IOException {
+        long mark;
+        synchronized (this) {
+            append(TYPE_INTENT, storedFilename);
+            openIntents.add(storedFilename);
+            mark = appendedBytes;
+        }
+
+        if (syncIntents) {
+            syncUpTo(mark);
+        }
+    }
+
+    /**
+     * Make every byte up to the given append mark durable.
+     * Never takes the journal monitor, so compaction (which holds the
+     * monitor and then syncLock) cannot deadlock with it.
+     */
+    private void syncUpTo(long mark) throws IOException {
+        synchronized (syncLock) {
+            if (syncedBytes >= mark) {
+                return;
+            }
+            long target = appendedBytes;
+            long start = System.nanoTime();
+            channel.force(false);
+            syncLatency.recordSince(start);
+            syncedBytes = target;
+        }
+    }
+
+    /**
+     * Log that the upload completed (file and metadata both durable).
+     * Not synced: if lost, recovery finds the file and row and keeps both.
+     *
+     * @param storedFilename Stored filename
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void logCommit(String storedFilename) throws IOException {
+        append(TYPE_COMMIT, storedFilename);
+        openIntents.remove(storedFilename);
+        compactIfNeeded();
+    }
+
+    /**
+     * Log that the upload was rolled back and its file removed.
+     *
+     * @param storedFilename Stored filename
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void logAbort(String storedFilename) throws IOException {
+        append(TYPE_ABORT, storedFilename);
+        openIntents.remove(storedFilename);
+        compactIfNeeded();
+    }
+
+    /**
+     * Read the journal and return the stored filenames whose intent was
+     * logged but never committed or aborted.
+     *
+     * @return Unresolved stored filenames, in intent order
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized Set<String> readUnresolvedIntents() throws IOException {
+        Set<String> unresolved = new LinkedHashSet<>();
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+        CRC32 crc = new CRC32();
+
+        while (buffer.remaining() >= HEADER_LENGTH + CRC_LENGTH) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            int nameLength = buffer.getShort() & 0xFFFF;
+            if (buffer.remaining() < nameLength + CRC_LENGTH) {
+                break;
+            }
+
+            byte[] name = new byte[nameLength];
+            buffer.get(name);
+            int storedCrc = buffer.getInt();
+
+            crc.reset();
+            crc.update(buffer.array(), start, HEADER_LENGTH + nameLength);
+            if ((int) crc.getValue() != storedCrc) {
+                System.err.println("Upload journal: corrupted record at offset " + start + ", ignoring tail");
+                break;
+            }
+
+            String storedFilename = new String(name, StandardCharsets.UTF_8);
+            if (type == TYPE_INTENT) {
+                unresolved.add(storedFilename);
+            } else {
+                unresolved.remove(storedFilename);
+            }
+        }
+        return unresolved;
+    }
+
+    /**
+     * Discard all resolved history, keeping only intents still in flight.
+     * Called after startup recovery and whenever the journal grows large.
+     *
+     * @throws IOException if the journal cannot be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        Path tempPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+
+        synchronized (syncLock) {
+            try (FileChannel temp = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (String storedFilename : openIntents) {
+                    writeFully(temp, encode(TYPE_INTENT, storedFilename));
+                }
+                temp.force(false);
+            }
+
+            channel.close();
+            Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = openForAppend(journalPath);
+            // Every open intent is in the synced file
+            syncedBytes = appendedBytes;
+        }
+    }
+
+    // Latency of INTENT fsyncs (each covering one or more records).
+    public LatencyHistogram getSyncLatency() {
+        return syncLatency;
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (channel.size() > COMPACT_THRESHOLD_BYTES) {
+            compact();
+        }
+    }
+
+    private void append(byte type, String storedFilename) throws IOException {
+        ByteBuffer record = encode(type, storedFilename);
+        int length = record.remaining();
+        writeFully(channel, record);
+        appendedBytes += length;
+    }
+
+    private static ByteBuffer encode(byte type, String storedFilename) throws IOException {
+        byte[] name = storedFilename.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IOException("Stored filename too long for journal");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH + name.length + CRC_LENGTH);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeShort(name.length);
+        out.write(name);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    private static FileChannel openForAppend(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+}
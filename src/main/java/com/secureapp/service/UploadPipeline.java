@@ -0,0 +1,271 @@
+package com.secureapp.service;
+
+import com.secureapp.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Uploads processed as a chain of stages, each with its own fixed-size
+ * executor and a bounded handoff queue in front of it.
+ *
+ * - A job enters the first stage through submit() and moves to the next
+ * stage when its handler returns; the future returned by submit()
+ * completes after the last stage, or exceptionally with the first handler
+ * failure (later stages are skipped)
+ * - When a stage's queue is full, the thread handing a job to it blocks
+ * until there is room: backpressure flows from the slowest stage back to
+ * the callers of submit() instead of piling jobs up in memory
+ * - Stages are sized separately, so CPU-bound stages can be sized to the
+ * cores and I/O-bound ones wider, and different files overlap across
+ * stages
+ *
+ * Every stage records its service time, the time jobs waited in its queue,
+ * and its current and peak queue depth.
+ *
+ * @param <T> Job type, handed from stage to stage
+ */
+public class UploadPipeline<T> {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Work of one stage on one job.
+     */
+    public interface Handler<T> {
+        void handle(T job) throws Exception;
+    }
+
+    private final String name;
+    private final List<Stage> stages = new ArrayList<>();
+
+    public UploadPipeline(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Append a stage. Stages must all be added before the first submit().
+     *
+     * @param stageName     Stage name, for metrics and thread names
+     * @param threads       Executor threads
+     * @param queueCapacity Jobs that may wait for this stage
+     * @param handler       Work of the stage
+     * @return This pipeline
+     */
+    public UploadPipeline<T> addStage(String stageName, int threads, int queueCapacity, Handler<T> handler) {
+        stages.add(new Stage(stageName, Math.max(1, threads), Math.max(1, queueCapacity), handler));
+        return this;
+    }
+
+    /**
+     * Send a job through every stage. Blocks while the first stage's queue
+     * is full.
+     *
+     * @param job Job
+     * @return Future completed with the job after the last stage
+     */
+    public CompletableFuture<T> submit(T job) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        handOff(0, job, result);
+        return result;
+    }
+
+    private void handOff(int index, T job, CompletableFuture<T> result) {
+        if (index == stages.size()) {
+            result.complete(job);
+            return;
+        }
+        try {
+            stages.get(index).enqueue(index, job, result);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * Finish queued jobs stage by stage, then stop the executors. Jobs a
+     * stage could not finish within SHUTDOWN_TIMEOUT_SECONDS are dropped and
+     * their futures completed exceptionally, so no caller waits forever.
+     */
+    public void shutdown() {
+        for (Stage stage : stages) {
+            stage.executor.shutdown();
+            try {
+                if (!stage.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    stage.failDropped(stage.executor.shutdownNow());
+                }
+            } catch (InterruptedException e) {
+                stage.failDropped(stage.executor.shutdownNow());
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * One stage: executor, bounded queue and metrics.
+     */
+    public final class Stage {
+        private final String stageName;
+        private final int threads;
+        private final int queueCapacity;
+        private final Handler<T> handler;
+        private final ArrayBlockingQueue<Runnable> queue;
+        private final ThreadPoolExecutor executor;
+
+        private final LatencyHistogram serviceTime;
+        private final LatencyHistogram queueWait;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder blockedHandOffs = new LongAdder();
+        private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+        private Stage(String stageName, int threads, int queueCapacity, Handler<T> handler) {
+            this.stageName = stageName;
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            this.handler = handler;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.serviceTime = new LatencyHistogram(name + "-" + stageName);
+            this.queueWait = new LatencyHistogram(name + "-" + stageName + "-queue");
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                    runnable -> {
+                        Thread thread = new Thread(runnable,
+                                name + "-" + stageName + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (runnable, pool) -> {
+                        // Queue full: wait for room rather than reject
+                        if (pool.isShutdown()) {
+                            throw new RejectedExecutionException(name + " stage " + stageName + " is shut down");
+                        }
+                        blockedHandOffs.increment();
+                        try {
+                            queue.put(runnable);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for stage " + stageName, e);
+                        }
+                        // Shut down while waiting: no worker may be left to take it
+                        if (pool.isShutdown() && queue.remove(runnable)) {
+                            throw new RejectedExecutionException(name + " stage " + stageName + " is shut down");
+                        }
+                    });
+        }
+
+        private void enqueue(int index, T job, CompletableFuture<T> result) {
+            executor.execute(new StageTask(index, job, result, System.nanoTime()));
+            peakQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        }
+
+        private void failDropped(List<Runnable> dropped) {
+            for (Runnable runnable : dropped) {
+                if (runnable instanceof UploadPipeline.Stage.StageTask) {
+                    @SuppressWarnings("unchecked")
+                    StageTask task = (StageTask) runnable;
+                    task.result.completeExceptionally(new RejectedExecutionException(
+                            name + " stage " + stageName + " shut down before the job ran"));
+                }
+            }
+        }
+
+        private void run(int index, T job, CompletableFuture<T> result, long enqueuedAt) {
+            long start = System.nanoTime();
+            queueWait.record(start - enqueuedAt);
+            try {
+                handler.handle(job);
+            } catch (Exception | Error e) {
+                failed.increment();
+                serviceTime.recordSince(start);
+                result.completeExceptionally(e);
+                return;
+            }
+            processed.increment();
+            serviceTime.recordSince(start);
+            handOff(index + 1, job, result);
+        }
+
+        public String getName() {
+            return stageName;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public int getPeakQueueDepth() {
+            return peakQueueDepth.get();
+        }
+
+        public long getProcessed() {
+            return processed.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        // Hand-offs that found the queue full and had to wait.
+        public long getBlockedHandOffs() {
+            return blockedHandOffs.sum();
+        }
+
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        public LatencyHistogram getQueueWait() {
+            return queueWait;
+        }
+
+        // Job queued for this stage, with the future its caller waits on.
+        private final class StageTask implements Runnable {
+            private final int index;
+            private final T job;
+            private final CompletableFuture<T> result;
+            private final long enqueuedAt;
+
+            StageTask(int index, T job, CompletableFuture<T> result, long enqueuedAt) {
+                this.index = index;
+                this.job = job;
+                this.result = result;
+                this.enqueuedAt = enqueuedAt;
+            }
+
+            @Override
+            public void run() {
+                Stage.this.run(index, job, result, enqueuedAt);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Stage %s (%d threads): %d processed, %d failed, queue %d/%d (peak %d, %d blocked)"
+                    + " - %s - %s", stageName, threads, getProcessed(), getFailed(), getQueueDepth(),
+                    queueCapacity, getPeakQueueDepth(), getBlockedHandOffs(), serviceTime, queueWait);
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.secureapp.servlet;
 
 import com.secureapp.dao.FileDAO;
+import com.secureapp.model.FileListingVersion;
 import com.secureapp.model.FileModel;
+import com.secureapp.model.FilePreview;
+import com.secureapp.util.CsrfUtil;
+import com.secureapp.util.FilePreviewUtil;
+import com.secureapp.util.HttpCacheUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -11,8 +16,22 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Dashboard Servlet
+ * Lists all live files with their previews and text statistics, decrypted
+ * from the files table (no blob is read). The listing is revalidated with a weak ETag built
+ * from:
+ * - the listing version (live count and highest id), one aggregate query
+ * - a fingerprint of the session's CSRF token, since the page is rendered
+ * for one session (user e-mail, delete buttons, token)
+ * The tag is weak because the masked CSRF token makes every rendering
+ * differ byte for byte. A matching request gets 304 before any file row is
+ * loaded.
+ */
 @WebServlet("/dashboard")
 public class DashboardServlet extends HttpServlet {
 
@@ -29,15 +48,52 @@ public class DashboardServlet extends HttpServlet {
         }
 
         try {
+            FileListingVersion version = fileDAO.getListingVersion();
+            String sessionToken = CsrfUtil.getTokenFromSession(session);
+            String etag = HttpCacheUtil.weakEtag("l" + version.getLiveCount() + "-" + version.getMaxId() + "-"
+                    + HttpCacheUtil.fingerprint(sessionToken != null ? sessionToken : session.getId()));
+            long lastModified = version.getLastModified() != null ? version.getLastModified().getTime() : -1;
+            HttpCacheUtil.setValidators(response, etag, lastModified, HttpCacheUtil.CACHE_CONTROL_PRIVATE_REVALIDATE);
+            if (HttpCacheUtil.isNotModified(request, etag, lastModified)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
             List<FileModel> files = fileDAO.getAllFiles();
             request.setAttribute("files", files);
+            request.setAttribute("previews", decryptPreviews(files));
 
             request.getRequestDispatcher("/WEB-INF/views/dashboard.jsp").forward(request, response);
 
         } catch (SQLException e) {
             System.err.println("Error loading files: " + e.getMessage());
+            // An error page must not be revalidated as if it were the listing
+            HttpCacheUtil.clearValidators(response);
             request.setAttribute("error", "Error loading files");
             request.getRequestDispatcher("/WEB-INF/views/dashboard.jsp").forward(request, response);
         }
     }
+
+    /**
+     * Decrypt the stored previews of the listed files. Only the small
+     * preview column is decrypted; file content is never read.
+     *
+     * @param files Listed files
+     * @return Previews by stored filename (files without one are absent)
+     */
+    static Map<String, FilePreview> decryptPreviews(List<FileModel> files) {
+        Map<String, FilePreview> previews = new HashMap<>();
+        for (FileModel file : files) {
+            try {
+                FilePreview preview = FilePreviewUtil.open(file.getEncryptedPreview(), file.getStoredFilename());
+                if (preview != null) {
+                    previews.put(file.getStoredFilename(), preview);
+                }
+            } catch (Exception e) {
+                System.err.println("Preview decryption failed for file " + file.getId() + ": "
+                        + e.getClass().getSimpleName());
+            }
+        }
+        return previews;
+    }
 }
@@ -0,0 +1,56 @@
+package com.secureapp.servlet;
+
+import com.secureapp.service.ConcurrentUploadService;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Delete File Servlet
+ * Deletes an uploaded file with:
+ * - POST only, protected by CsrfFilter
+ * - Ownership check: users can only delete their own files
+ * - Immediate tombstoning; storage is reclaimed in the background
+ */
+@WebServlet("/delete")
+public class DeleteFileServlet extends HttpServlet {
+
+    private final ConcurrentUploadService uploadService = ConcurrentUploadService.getInstance();
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("userId") == null) {
+            response.sendRedirect(request.getContextPath() + "/login");
+            return;
+        }
+
+        Integer userId = (Integer) session.getAttribute("userId");
+        String storedFilename = request.getParameter("file");
+
+        if (storedFilename == null || storedFilename.isEmpty()) {
+            response.sendRedirect(request.getContextPath() + "/dashboard?error=delete_failed");
+            return;
+        }
+
+        try {
+            if (uploadService.deleteFile(userId, storedFilename)) {
+                response.sendRedirect(request.getContextPath() + "/dashboard?success=file_deleted");
+            } else {
+                // Unknown, already deleted, or owned by another user
+                response.sendRedirect(request.getContextPath() + "/dashboard?error=delete_failed");
+            }
+        } catch (SQLException e) {
+            System.err.println("Delete error: " + e.getMessage());
+            response.sendRedirect(request.getContextPath() + "/dashboard?error=delete_failed");
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.secureapp.servlet;
 
 import com.secureapp.dao.FileDAO;
+import com.secureapp.filter.CompressionFilter;
 import com.secureapp.model.FileModel;
 import com.secureapp.service.ConcurrentUploadService;
+import com.secureapp.storage.LineIndex;
+import com.secureapp.util.HttpCacheUtil;
+import com.secureapp.util.HttpRange;
 import org.owasp.encoder.Encode;
 
 import javax.servlet.ServletException;
@@ -11,9 +15,22 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * File Content Servlet
@@ -21,10 +38,28 @@ import java.sql.SQLException;
  * - Output encoding to prevent XSS
  * - Content-Type set to text/plain to prevent execution
  * - Access control through session validation
+ * - Content streamed and encoded block by block, so large files are not
+ * held in memory
+ * - raw=1 downloads the file unmodified as an attachment, passing stored
+ * gzip data through when the client accepts it
+ * - Strong ETag and Last-Modified from the file metadata; a client with a
+ * current copy gets 304 without the content being read or decrypted
+ * - Partial views: Range requests on raw=1 (206, 416, multipart/byteranges)
+ * and offset/length on the viewer; only the chunks overlapping the
+ * requested bytes are decrypted
+ * - lines=from-to pages through text, seeking with the line index built at
+ * upload time
+ * - Raw downloads and single ranges are written from pooled direct buffers
+ * (see ContentAddressedStore.transferContent)
  */
 @WebServlet("/file-content")
 public class FileContentServlet extends HttpServlet {
 
+    private static final int BUFFER_SIZE = 8192;
+    private static final String RAW_CONTENT_TYPE = "text/plain; charset=UTF-8";
+    private static final int DEFAULT_PAGE_LINES = 500;
+    private static final int MAX_PAGE_LINES = 5000;
+
     private final FileDAO fileDAO = new FileDAO();
     private final ConcurrentUploadService uploadService = ConcurrentUploadService.getInstance();
 
@@ -53,34 +88,443 @@ public class FileContentServlet extends HttpServlet {
                 return;
             }
 
-            String fileContent = uploadService.getFileContent(storedFilename);
+            boolean raw = "1".equals(request.getParameter("raw"));
+            long[] lines = null;
+            if (!raw && request.getParameter("lines") != null) {
+                lines = parseLines(request.getParameter("lines"));
+                if (lines == null) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid line range");
+                    return;
+                }
+            }
+            HttpRange slice = null;
+            if (!raw && lines == null
+                    && (request.getParameter("offset") != null || request.getParameter("length") != null)) {
+                slice = parseSlice(request, fileModel.getFileSize());
+                if (slice == null) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid offset or length");
+                    return;
+                }
+            }
 
-            response.setContentType("text/plain; charset=UTF-8");
-            response.setCharacterEncoding("UTF-8");
-            response.setHeader("X-Content-Type-Options", "nosniff");
-            response.setHeader("Content-Disposition", "inline");
+            // Validated from metadata alone, before any decryption. Ranges
+            // refer to the identity bytes, so a Range request is never gzipped.
+            boolean ranged = raw && request.getHeader("Range") != null;
+            boolean gzip = raw && !ranged && CompressionFilter.acceptsGzip(request)
+                    && uploadService.supportsGzipContent(fileModel);
+            String variant = raw ? (gzip ? "raw-gzip" : "raw")
+                    : lines != null ? "lines-" + lines[0] + "-" + lines[1]
+                    : slice != null ? "view-" + slice.getStart() + "-" + slice.getEnd() : "view";
+            String etag = etagOf(fileModel, variant);
+            long lastModified = fileModel.getUploadDate() != null ? fileModel.getUploadDate().getTime() : -1;
+            HttpCacheUtil.setValidators(response, etag, lastModified, HttpCacheUtil.CACHE_CONTROL_PRIVATE_REVALIDATE);
+            if (HttpCacheUtil.isNotModified(request, etag, lastModified)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
 
-            // Encode output to prevent XSS
-            String encodedContent = Encode.forHtml(fileContent);
+            if (raw) {
+                response.setHeader("Accept-Ranges", "bytes");
+                List<HttpRange> ranges = ranged && HttpCacheUtil.isRangeCurrent(request, etag, lastModified)
+                        ? HttpRange.parse(request.getHeader("Range"), fileModel.getFileSize())
+                        : null;
+                if (ranges != null) {
+                    writeRanges(response, fileModel, ranges);
+                } else {
+                    writeRaw(response, fileModel, gzip);
+                }
+                return;
+            }
 
-            // Write content to response
-            PrintWriter out = response.getWriter();
-            out.println("=== File: " + Encode.forHtml(fileModel.getOriginalFilename()) + " ===");
-            out.println("Uploaded by User ID: " + fileModel.getUserId());
-            out.println("Upload Date: " + fileModel.getUploadDate());
-            out.println("Size: " + fileModel.getFileSize() + " bytes");
-            out.println("\n--- Content ---\n");
-            out.println(encodedContent);
+            if (lines != null) {
+                writeLines(response, fileModel, lines[0], lines[1]);
+                return;
+            }
+
+            InputStream content = slice != null
+                    ? uploadService.openFileContent(fileModel, slice.getStart(), slice.getLength())
+                    : uploadService.openFileContent(fileModel);
+            try {
+                response.setContentType("text/plain; charset=UTF-8");
+                response.setCharacterEncoding("UTF-8");
+                response.setHeader("X-Content-Type-Options", "nosniff");
+                response.setHeader("Content-Disposition", "inline");
+
+                // Write content to response
+                PrintWriter out = response.getWriter();
+                writeViewHeader(out, fileModel);
+                if (slice != null) {
+                    out.println("Showing bytes " + slice.getStart() + "-" + slice.getEnd());
+                }
+                out.println("\n--- Content ---\n");
+                writeEncoded(content, out);
+                out.println();
+            } finally {
+                content.close();
+            }
 
         } catch (SQLException e) {
             System.err.println("Database error: " + e.getMessage());
+            HttpCacheUtil.clearValidators(response);
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error retrieving file");
         } catch (IOException e) {
             System.err.println("File read error: " + e.getMessage());
-            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error reading file");
+            if (!response.isCommitted()) {
+                HttpCacheUtil.clearValidators(response);
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error reading file");
+            }
         } catch (Exception e) {
             System.err.println("File decryption error: " + e.getClass().getSimpleName());
-            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error processing file");
+            if (!response.isCommitted()) {
+                HttpCacheUtil.clearValidators(response);
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error processing file");
+            }
+        }
+    }
+
+    /**
+     * Strong entity tag for one representation of a file. Files never
+     * change after upload, so the file id identifies the content; the keyed
+     * content hash is not used because it would tell users which files in
+     * the listing have identical contents.
+     *
+     * @param fileModel File metadata
+     * @param variant   Representation: view, raw or raw-gzip
+     * @return Quoted entity tag
+     */
+    private static String etagOf(FileModel fileModel, String variant) {
+        return HttpCacheUtil.strongEtag("f" + fileModel.getId() + "-" + variant);
+    }
+
+    private static void writeViewHeader(PrintWriter out, FileModel fileModel) {
+        out.println("=== File: " + Encode.forHtml(fileModel.getOriginalFilename()) + " ===");
+        out.println("Uploaded by User ID: " + fileModel.getUserId());
+        out.println("Upload Date: " + fileModel.getUploadDate());
+        out.println("Size: " + fileModel.getFileSize() + " bytes");
+    }
+
+    /**
+     * Parse lines=from-to (1-based, inclusive) or lines=from, which shows
+     * DEFAULT_PAGE_LINES lines. Pages are capped at MAX_PAGE_LINES.
+     *
+     * @return {from, to}, or null if the parameter is invalid
+     */
+    private static long[] parseLines(String value) {
+        try {
+            int dash = value.indexOf('-');
+            long from = Long.parseLong((dash < 0 ? value : value.substring(0, dash)).trim());
+            long to = dash < 0 || dash == value.length() - 1
+                    ? from + DEFAULT_PAGE_LINES - 1
+                    : Long.parseLong(value.substring(dash + 1).trim());
+            if (from < 1 || to < from) {
+                return null;
+            }
+            return new long[] { from, Math.min(to, from + MAX_PAGE_LINES - 1) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Show a page of lines. With a line index the read starts at the
+     * checkpoint just before the first line, so only the chunks holding the
+     * page (plus at most one checkpoint interval of skipped lines) are
+     * decrypted, whatever the file size. Files without an index are scanned
+     * from the start, still without being held in memory.
+     */
+    private void writeLines(HttpServletResponse response, FileModel fileModel, long from, long to)
+            throws Exception {
+        LineIndex index = uploadService.getLineIndex(fileModel);
+        long checkpoint = 1;
+        long offset = 0;
+        if (index != null) {
+            if (from > index.getLineCount()) {
+                // Range/416 is for the raw bytes; a bad lines= parameter is a plain 400
+                HttpCacheUtil.clearValidators(response);
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid line range");
+                return;
+            }
+            to = Math.min(to, index.getLineCount());
+            checkpoint = index.checkpointLine(from);
+            offset = index.offsetOf(checkpoint);
+        }
+
+        InputStream content = new LineWindowInputStream(
+                uploadService.openFileContent(fileModel, offset, fileModel.getFileSize() - offset),
+                from - checkpoint, to - from + 1);
+        try {
+            response.setContentType("text/plain; charset=UTF-8");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("X-Content-Type-Options", "nosniff");
+            response.setHeader("Content-Disposition", "inline");
+
+            PrintWriter out = response.getWriter();
+            writeViewHeader(out, fileModel);
+            out.println("Showing lines " + from + "-" + to
+                    + (index != null ? " of " + index.getLineCount() : ""));
+            if (index == null || to < index.getLineCount()) {
+                out.println("Next page: lines=" + (to + 1) + "-" + (to + to - from + 1));
+            }
+            out.println("\n--- Content ---\n");
+            writeEncoded(content, out);
+            out.println();
+        } finally {
+            content.close();
+        }
+    }
+
+    /**
+     * Parse the offset/length view parameters into a byte range of the file.
+     * A negative offset counts from the end of the file (offset=-4096 shows
+     * the last 4 KB); a missing length means up to the end.
+     *
+     * @return The range, or null if the parameters are invalid or select no
+     *         bytes
+     */
+    private static HttpRange parseSlice(HttpServletRequest request, long fileSize) {
+        try {
+            String offsetParam = request.getParameter("offset");
+            String lengthParam = request.getParameter("length");
+            long offset = offsetParam != null ? Long.parseLong(offsetParam) : 0;
+            long start = offset < 0 ? Math.max(0, fileSize + offset) : offset;
+            long length = lengthParam != null ? Long.parseLong(lengthParam) : fileSize - start;
+            if (start >= fileSize || length <= 0) {
+                return null;
+            }
+            return new HttpRange(start, Math.min(fileSize, start + length) - 1);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Answer a Range request (RFC 7233): 416 if nothing is satisfiable, a
+     * single 206 part, or multipart/byteranges for several ranges. Each
+     * range only decrypts the chunks it overlaps. The first range is read
+     * before the status is set, so a read error is still reported as an
+     * error page.
+     */
+    private void writeRanges(HttpServletResponse response, FileModel fileModel, List<HttpRange> ranges)
+            throws Exception {
+        long fileSize = fileModel.getFileSize();
+        if (ranges.isEmpty()) {
+            response.setHeader("Content-Range", "bytes */" + fileSize);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader("Content-Disposition", "attachment; filename*=UTF-8''"
+                + URLEncoder.encode(fileModel.getOriginalFilename(), "UTF-8").replace("+", "%20"));
+
+        HttpRange first = ranges.get(0);
+        if (ranges.size() == 1) {
+            response.setContentType(RAW_CONTENT_TYPE);
+            OutputStream body = new FirstWriteOutputStream(response.getOutputStream(), () -> {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", first.toContentRange(fileSize));
+                response.setContentLengthLong(first.getLength());
+            });
+            uploadService.transferFileContent(fileModel, first.getStart(), first.getLength(),
+                    Channels.newChannel(body));
+            return;
+        }
+
+        InputStream content = uploadService.openFileContent(fileModel, first.getStart(), first.getLength());
+        try {
+            String boundary = UUID.randomUUID().toString().replace("-", "");
+            List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+            long contentLength = 0;
+            for (HttpRange range : ranges) {
+                byte[] partHeader = ("\r\n--" + boundary + "\r\nContent-Type: " + RAW_CONTENT_TYPE
+                        + "\r\nContent-Range: " + range.toContentRange(fileSize) + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                partHeaders.add(partHeader);
+                contentLength += partHeader.length + range.getLength();
+            }
+            byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+            contentLength += closing.length;
+
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            response.setContentLengthLong(contentLength);
+            OutputStream out = response.getOutputStream();
+            for (int i = 0; i < ranges.size(); i++) {
+                if (i > 0) {
+                    HttpRange range = ranges.get(i);
+                    content.close();
+                    content = uploadService.openFileContent(fileModel, range.getStart(), range.getLength());
+                }
+                out.write(partHeaders.get(i));
+                copy(content, out);
+            }
+            out.write(closing);
+        } finally {
+            content.close();
+        }
+    }
+
+    private static void copy(InputStream content, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Send the file unmodified as a text/plain attachment.
+     * Clients that accept gzip get the stored compressed data passed through
+     * (see ConcurrentUploadService.writeGzipContent); the Content-Encoding
+     * header is only set once the first bytes are ready, so a read error can
+     * still be reported as a plain error page.
+     */
+    private void writeRaw(HttpServletResponse response, FileModel fileModel, boolean gzip) throws Exception {
+        response.setContentType(RAW_CONTENT_TYPE);
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader("Content-Disposition", "attachment; filename*=UTF-8''"
+                + URLEncoder.encode(fileModel.getOriginalFilename(), "UTF-8").replace("+", "%20"));
+
+        if (gzip) {
+            OutputStream gzipBody = new FirstWriteOutputStream(response.getOutputStream(), () -> {
+                response.setHeader("Content-Encoding", "gzip");
+                response.setHeader("Vary", "Accept-Encoding");
+            });
+            uploadService.writeGzipContent(fileModel, gzipBody);
+            return;
+        }
+
+        uploadService.transferFileContent(fileModel, 0, Long.MAX_VALUE,
+                Channels.newChannel(response.getOutputStream()));
+    }
+
+    /**
+     * Stream decoded text to the response, encoding each block to prevent
+     * XSS. A high surrogate at the end of a block is held back until its low
+     * surrogate arrives, so a character is never encoded in two halves.
+     */
+    private static void writeEncoded(InputStream content, Writer out) throws IOException {
+        Reader reader = new InputStreamReader(content, StandardCharsets.UTF_8);
+        char[] buffer = new char[BUFFER_SIZE];
+        int pending = 0;
+        int read;
+
+        while ((read = reader.read(buffer, pending, buffer.length - pending)) != -1) {
+            int available = pending + read;
+            int encodable = available;
+            if (encodable > 0 && Character.isHighSurrogate(buffer[encodable - 1])) {
+                encodable--;
+            }
+            Encode.forHtml(out, new String(buffer, 0, encodable));
+            pending = available - encodable;
+            if (pending > 0) {
+                buffer[0] = buffer[encodable];
+            }
+        }
+        if (pending > 0) {
+            Encode.forHtml(out, new String(buffer, 0, pending));
+        }
+    }
+
+    // Runs an action (setting headers) just before the first byte is written.
+    private static final class FirstWriteOutputStream extends FilterOutputStream {
+        private Runnable onFirstWrite;
+
+        FirstWriteOutputStream(OutputStream out, Runnable onFirstWrite) {
+            super(out);
+            this.onFirstWrite = onFirstWrite;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            start();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            start();
+            out.write(b, off, len);
+        }
+
+        private void start() {
+            if (onFirstWrite != null) {
+                onFirstWrite.run();
+                onFirstWrite = null;
+            }
+        }
+    }
+
+    /*
+     * Skips a number of lines, then passes through a number of lines and
+     * ends, so reading stops (and no further chunk is decrypted) at the end
+     * of the page.
+     */
+    private static final class LineWindowInputStream extends FilterInputStream {
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private long linesToSkip;
+        private long linesLeft;
+
+        LineWindowInputStream(InputStream in, long linesToSkip, long lines) {
+            super(in);
+            this.linesToSkip = linesToSkip;
+            this.linesLeft = lines;
+        }
+
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            position = 0;
+            limit = Math.max(0, in.read(buffer, 0, buffer.length));
+            return limit > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            while (linesToSkip > 0) {
+                if (!fill()) {
+                    return -1;
+                }
+                while (position < limit && linesToSkip > 0) {
+                    if (buffer[position++] == '\n') {
+                        linesToSkip--;
+                    }
+                }
+            }
+            if (length == 0) {
+                return 0;
+            }
+            if (linesLeft <= 0 || !fill()) {
+                return -1;
+            }
+            int count = 0;
+            while (count < length && position < limit && linesLeft > 0) {
+                byte b = buffer[position++];
+                target[offset + count++] = b;
+                if (b == '\n') {
+                    linesLeft--;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("skip not supported");
+        }
+
+        @Override
+        public int available() {
+            return linesLeft > 0 ? limit - position : 0;
         }
     }
 }
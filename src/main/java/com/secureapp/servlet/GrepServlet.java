@@ -0,0 +1,130 @@
+package com.secureapp.servlet;
+
+import com.secureapp.service.ConcurrentUploadService;
+import com.secureapp.service.GrepService;
+import com.secureapp.service.GrepService.GrepMatch;
+import com.secureapp.service.GrepService.GrepQuery;
+import org.owasp.encoder.Encode;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Grep Servlet
+ * Regular expression search over the caller's own files, streamed as plain
+ * text, one match per line:
+ *
+ * filename:line:text
+ *
+ * Filenames and lines come from user files: like the file viewer, they are
+ * HTML-encoded and sent with nosniff, and line breaks in them are replaced
+ * so each match stays on one output line.
+ *
+ * Matches are flushed as they arrive, so the first ones show up while
+ * later files are still being scanned. The query is cancelled as soon as a
+ * write fails (the client went away). A final line starting with '#'
+ * reports the totals and, if the query stopped early, why.
+ *
+ * Parameters: pattern (required), i=1 for case-insensitive matching.
+ */
+@WebServlet("/grep")
+public class GrepServlet extends HttpServlet {
+
+    private static final long POLL_MS = 100;
+    // Matches written back to back before a flush
+    private static final int FLUSH_EVERY = 32;
+
+    private final ConcurrentUploadService uploadService = ConcurrentUploadService.getInstance();
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("userId") == null) {
+            response.sendRedirect(request.getContextPath() + "/login");
+            return;
+        }
+
+        String regex = request.getParameter("pattern");
+        if (regex == null || regex.isEmpty() || regex.length() > GrepService.MAX_PATTERN_LENGTH) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid pattern");
+            return;
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex, "1".equals(request.getParameter("i"))
+                    ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE
+                    : 0);
+        } catch (PatternSyntaxException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid pattern");
+            return;
+        }
+
+        GrepQuery query;
+        try {
+            query = uploadService.getGrepService().start((Integer) session.getAttribute("userId"), pattern);
+        } catch (SQLException e) {
+            System.err.println("Grep failed: " + e.getMessage());
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Search failed");
+            return;
+        }
+        if (query == null) {
+            response.setHeader("Retry-After", "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many searches running");
+            return;
+        }
+
+        try (GrepQuery running = query) {
+            response.setContentType("text/plain; charset=UTF-8");
+            response.setHeader("Cache-Control", "no-store");
+            response.setHeader("X-Content-Type-Options", "nosniff");
+            response.setHeader("Content-Disposition", "inline");
+            PrintWriter out = response.getWriter();
+
+            int unflushed = 0;
+            while (!running.isFinished()) {
+                GrepMatch match = running.next(POLL_MS);
+                if (match != null) {
+                    out.print(encode(match.getFilename()));
+                    out.print(':');
+                    out.print(match.getLineNumber());
+                    out.print(':');
+                    out.print(encode(match.getLine()));
+                    out.print('\n');
+                    if (++unflushed < FLUSH_EVERY) {
+                        continue;
+                    }
+                }
+                // checkError flushes; it reports a failed write, i.e. a client that went away
+                if (unflushed > 0 && out.checkError()) {
+                    return;
+                }
+                unflushed = 0;
+            }
+
+            String stopReason = running.getStopReason();
+            out.print(String.format("# %d matches in %d files, %d ms CPU%s%n", running.getMatchCount(),
+                    running.getFilesWithMatches(), running.getCpuMillis(),
+                    stopReason != null ? " (stopped: " + stopReason + ")" : ""));
+            out.flush();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // One output line: CR and LF become spaces, the rest is HTML-encoded.
+    private static String encode(String text) {
+        return Encode.forHtml(text.replace('\r', ' ').replace('\n', ' '));
+    }
+}
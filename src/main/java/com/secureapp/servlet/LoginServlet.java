@@ -3,6 +3,7 @@ package com.secureapp.servlet;
 import com.secureapp.dao.UserDAO;
 import com.secureapp.model.User;
 import com.secureapp.service.BruteForceProtectionService;
+import com.secureapp.util.CsrfUtil;
 import com.secureapp.util.ValidationUtil;
 import org.owasp.encoder.Encode;
 
@@ -32,7 +33,7 @@ public class LoginServlet extends HttpServlet {
         if (session != null) {
             String token = (String) session.getAttribute("csrf_token");
             if (token != null) {
-                request.setAttribute("csrfToken", token);
+                request.setAttribute("csrfToken", CsrfUtil.maskToken(token));
             }
         }
     }
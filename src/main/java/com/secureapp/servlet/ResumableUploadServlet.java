@@ -0,0 +1,230 @@
+package com.secureapp.servlet;
+
+import com.secureapp.model.UploadSession;
+import com.secureapp.service.ConcurrentUploadService;
+import com.secureapp.service.ResumableUploadService;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Resumable Upload Servlet
+ * Chunked uploads that survive dropped connections, following the tus
+ * protocol's headers (see ResumableUploadService):
+ * - POST /uploads with Upload-Length and Upload-Metadata "filename <base64>"
+ * creates a session: 201 with its Location
+ * - HEAD /uploads/{id} returns Upload-Offset and Upload-Length, where to
+ * resume after an interruption
+ * - PUT /uploads/{id} with Upload-Offset appends the body: 204 with the new
+ * Upload-Offset, 409 if the offset is not the session's
+ * - POST /uploads/{id}/finalize stores the complete file: 201 with the
+ * file-content Location, 415 if it is not text
+ * - DELETE /uploads/{id} abandons the session
+ *
+ * State-changing requests carry the masked CSRF token in the X-CSRF-Token
+ * header (see CsrfFilter). Sessions belong to the user who created them;
+ * other users get 404.
+ */
+@WebServlet("/uploads/*")
+public class ResumableUploadServlet extends HttpServlet {
+
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String FINALIZE_SUFFIX = "/finalize";
+
+    private final ConcurrentUploadService uploadService = ConcurrentUploadService.getInstance();
+    private final ResumableUploadService resumableUploads = uploadService.getResumableUploads();
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Integer userId = authenticate(request, response);
+        if (userId == null) {
+            return;
+        }
+        String path = request.getPathInfo();
+        if (path == null || "/".equals(path)) {
+            createSession(request, response, userId);
+        } else if (path.endsWith(FINALIZE_SUFFIX)) {
+            String id = path.substring(1, path.length() - FINALIZE_SUFFIX.length());
+            finalizeUpload(request, response, userId, id);
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Integer userId = authenticate(request, response);
+        if (userId == null) {
+            return;
+        }
+        try {
+            UploadSession session = resumableUploads.getSession(sessionId(request), userId);
+            response.setHeader("Upload-Offset", Long.toString(session.getUploadOffset()));
+            response.setHeader("Upload-Length", Long.toString(session.getUploadLength()));
+            response.setStatus(HttpServletResponse.SC_OK);
+        } catch (Exception e) {
+            handleError(response, e);
+        }
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Integer userId = authenticate(request, response);
+        if (userId == null) {
+            return;
+        }
+        long offset = parseLength(request.getHeader("Upload-Offset"));
+        if (offset < 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing or invalid Upload-Offset");
+            return;
+        }
+        try {
+            String id = sessionId(request);
+            UploadSession session = resumableUploads.getSession(id, userId);
+            long contentLength = request.getContentLengthLong();
+            if (contentLength > session.getUploadLength() - offset) {
+                response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Chunk exceeds Upload-Length");
+                return;
+            }
+            long newOffset;
+            try (InputStream in = request.getInputStream()) {
+                newOffset = resumableUploads.appendChunk(id, userId, offset, in);
+            }
+            response.setHeader("Upload-Offset", Long.toString(newOffset));
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } catch (Exception e) {
+            handleError(response, e);
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Integer userId = authenticate(request, response);
+        if (userId == null) {
+            return;
+        }
+        try {
+            resumableUploads.cancelSession(sessionId(request), userId);
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        } catch (Exception e) {
+            handleError(response, e);
+        }
+    }
+
+    private void createSession(HttpServletRequest request, HttpServletResponse response, int userId)
+            throws IOException {
+        long uploadLength = parseLength(request.getHeader("Upload-Length"));
+        String filename = metadataValue(request.getHeader("Upload-Metadata"), "filename");
+        if (uploadLength <= 0 || filename == null || filename.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Upload-Length and filename metadata required");
+            return;
+        }
+        if (uploadLength > resumableUploads.getMaxUploadBytes()) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Upload too large");
+            return;
+        }
+        try {
+            UploadSession session = resumableUploads.createSession(userId, filename, uploadLength);
+            response.setHeader("Location", request.getContextPath() + "/uploads/" + session.getId());
+            response.setHeader("Upload-Offset", "0");
+            response.setStatus(HttpServletResponse.SC_CREATED);
+        } catch (Exception e) {
+            handleError(response, e);
+        }
+    }
+
+    private void finalizeUpload(HttpServletRequest request, HttpServletResponse response, int userId, String id)
+            throws IOException {
+        try {
+            String storedFilename = resumableUploads.finalizeUpload(id, userId);
+            response.setHeader("Location", request.getContextPath() + "/file-content?file="
+                    + URLEncoder.encode(storedFilename, "UTF-8"));
+            response.setStatus(HttpServletResponse.SC_CREATED);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConcurrentUploadService.UnsupportedContentException) {
+                response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Only text files are accepted");
+                return;
+            }
+            handleError(response, e);
+        } catch (Exception e) {
+            handleError(response, e);
+        }
+    }
+
+    // User ID of the session; sets the tus headers, or sends 401 without a login.
+    private Integer authenticate(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader("Tus-Resumable", TUS_VERSION);
+        response.setHeader("Cache-Control", "no-store");
+        HttpSession session = request.getSession(false);
+        Integer userId = session == null ? null : (Integer) session.getAttribute("userId");
+        if (userId == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+        }
+        return userId;
+    }
+
+    private static String sessionId(HttpServletRequest request) {
+        String path = request.getPathInfo();
+        return path == null || path.length() < 2 ? null : path.substring(1);
+    }
+
+    private void handleError(HttpServletResponse response, Exception e) throws IOException {
+        if (e instanceof ResumableUploadService.SessionNotFoundException) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Upload session not found");
+        } else if (e instanceof ResumableUploadService.OffsetMismatchException) {
+            response.setHeader("Upload-Offset",
+                    Long.toString(((ResumableUploadService.OffsetMismatchException) e).getCurrentOffset()));
+            response.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+        } else if (e instanceof IllegalArgumentException) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } else {
+            System.err.println("Resumable upload error: " + e.getMessage());
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Upload error");
+        }
+    }
+
+    // Non-negative decimal header value, or -1.
+    private static long parseLength(String value) {
+        if (value == null || value.isEmpty() || value.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(value);
+    }
+
+    // Value of a key in tus Upload-Metadata ("key base64value, key2 base64value2").
+    private static String metadataValue(String metadata, String key) {
+        if (metadata == null) {
+            return null;
+        }
+        for (String pair : metadata.split(",")) {
+            String[] parts = pair.trim().split(" ", 2);
+            if (parts.length == 2 && parts[0].equals(key)) {
+                try {
+                    return new String(Base64.getDecoder().decode(parts[1].trim()), StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
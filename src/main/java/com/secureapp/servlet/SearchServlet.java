@@ -0,0 +1,65 @@
+package com.secureapp.servlet;
+
+import com.secureapp.model.FileModel;
+import com.secureapp.service.ConcurrentUploadService;
+import com.secureapp.util.HttpCacheUtil;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Search Servlet
+ * Full-text search over the caller's own files, answered from the search
+ * index (no file content is read). Results are rendered by the dashboard
+ * view in place of the full listing.
+ */
+@WebServlet("/search")
+public class SearchServlet extends HttpServlet {
+
+    private static final int MAX_QUERY_LENGTH = 200;
+
+    private final ConcurrentUploadService uploadService = ConcurrentUploadService.getInstance();
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("userId") == null) {
+            response.sendRedirect(request.getContextPath() + "/login");
+            return;
+        }
+
+        String query = request.getParameter("q");
+        if (query == null || query.trim().isEmpty()) {
+            response.sendRedirect(request.getContextPath() + "/dashboard");
+            return;
+        }
+        query = query.trim();
+        if (query.length() > MAX_QUERY_LENGTH) {
+            query = query.substring(0, MAX_QUERY_LENGTH);
+        }
+
+        response.setHeader("Cache-Control", HttpCacheUtil.CACHE_CONTROL_PRIVATE_REVALIDATE);
+        request.setAttribute("searchQuery", query);
+
+        try {
+            List<FileModel> files = uploadService.getSearchIndex().search((Integer) session.getAttribute("userId"),
+                    query);
+            request.setAttribute("files", files);
+            request.setAttribute("previews", DashboardServlet.decryptPreviews(files));
+
+        } catch (Exception e) {
+            System.err.println("Search failed: " + e.getClass().getSimpleName());
+            request.setAttribute("error", "Search is temporarily unavailable");
+        }
+
+        request.getRequestDispatcher("/WEB-INF/views/dashboard.jsp").forward(request, response);
+    }
+}
@@ -1,7 +1,8 @@
 package com.secureapp.servlet;
 
+import com.secureapp.service.BulkUpload;
 import com.secureapp.service.ConcurrentUploadService;
-import org.apache.tika.Tika;
+import com.secureapp.util.ContentHashUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
@@ -9,21 +10,28 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.*;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /**
  * Upload Servlet
  * Handles secure file upload with:
- * - File type validation using Apache Tika
+ * - Text content validation with TextContentSniffer (detect stage of the
+ * upload pipeline)
  * - Extension whitelist enforcement
  * - Concurrent upload processing with thread safety
+ * - Content hash computed while the upload is read, for deduplication
  * - TOCTOU protection through ConcurrentUploadService
+ * - Bulk uploads: several "file" parts, or .zip parts expanded on the fly,
+ * processed in parallel with one CSRF check for the whole request (see
+ * BulkUpload); the dashboard shows how many were uploaded or rejected
  */
 @WebServlet("/upload")
-@MultipartConfig(maxFileSize = 5 * 1024 * 1024, maxRequestSize = 10 * 1024 * 1024, fileSizeThreshold = 1024 * 1024)
+@MultipartConfig(maxFileSize = 5 * 1024 * 1024, maxRequestSize = 64 * 1024 * 1024, fileSizeThreshold = 1024 * 1024)
 public class UploadServlet extends HttpServlet {
 
-    private final Tika tika = new Tika();
     private final ConcurrentUploadService uploadService = ConcurrentUploadService.getInstance();
 
     @Override
@@ -38,13 +46,24 @@ public class UploadServlet extends HttpServlet {
 
         Integer userId = (Integer) session.getAttribute("userId");
 
-        Part filePart = request.getPart("file");
+        List<Part> fileParts = new ArrayList<>();
+        for (Part part : request.getParts()) {
+            if ("file".equals(part.getName()) && part.getSize() > 0) {
+                fileParts.add(part);
+            }
+        }
 
-        if (filePart == null || filePart.getSize() == 0) {
+        if (fileParts.isEmpty()) {
             response.sendRedirect(request.getContextPath() + "/dashboard?error=no_file");
             return;
         }
 
+        Part filePart = fileParts.get(0);
+        if (fileParts.size() > 1 || isZip(getFileName(filePart))) {
+            processBulkUpload(request, response, userId, fileParts);
+            return;
+        }
+
         String originalFilename = getFileName(filePart);
         if (originalFilename == null || originalFilename.isEmpty()) {
             response.sendRedirect(request.getContextPath() + "/dashboard?error=invalid_filename");
@@ -58,29 +77,31 @@ public class UploadServlet extends HttpServlet {
 
         try {
             byte[] fileContent;
+            ContentHashUtil.Hasher hasher = ContentHashUtil.newHasher();
             try (InputStream inputStream = filePart.getInputStream()) {
                 java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
                 int bytesRead;
                 byte[] data = new byte[4096];
                 while ((bytesRead = inputStream.read(data, 0, data.length)) != -1) {
                     buffer.write(data, 0, bytesRead);
+                    hasher.update(data, 0, bytesRead);
                 }
                 fileContent = buffer.toByteArray();
             }
 
-            // Validate file content using Apache Tika
-            String detectedType = tika.detect(fileContent);
-
-            if (!isTextFile(detectedType)) {
-                response.sendRedirect(request.getContextPath() + "/dashboard?error=invalid_content_type");
-                return;
-            }
-
             // Process upload asynchronously using ConcurrentUploadService
             Future<String> uploadFuture = uploadService.processUploadAsync(
-                    userId, originalFilename, fileContent, fileContent.length);
-
-            uploadFuture.get();
+                    userId, originalFilename, fileContent, fileContent.length, hasher.hexDigest());
+
+            try {
+                uploadFuture.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ConcurrentUploadService.UnsupportedContentException) {
+                    response.sendRedirect(request.getContextPath() + "/dashboard?error=invalid_content_type");
+                    return;
+                }
+                throw e;
+            }
 
             response.sendRedirect(request.getContextPath() + "/dashboard?success=upload_complete");
 
@@ -91,6 +112,46 @@ public class UploadServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Upload every part, expanding ZIP archives, and redirect with the
+     * counts of uploaded and rejected files.
+     */
+    private void processBulkUpload(HttpServletRequest request, HttpServletResponse response, int userId,
+            List<Part> fileParts) throws IOException {
+        BulkUpload bulkUpload = uploadService.newBulkUpload(userId);
+        try {
+            for (Part part : fileParts) {
+                String filename = getFileName(part);
+                boolean more;
+                try (InputStream inputStream = part.getInputStream()) {
+                    more = isZip(filename) ? bulkUpload.addZip(inputStream) : bulkUpload.addFile(filename, inputStream);
+                }
+                if (!more) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Malformed archive or read error: report what was already submitted
+            System.err.println("Bulk upload error: " + e.getMessage());
+            BulkUpload.Result result = bulkUpload.finish();
+            response.sendRedirect(request.getContextPath() + "/dashboard?error=bulk_upload_failed&uploaded="
+                    + result.getUploaded());
+            return;
+        }
+
+        BulkUpload.Result result = bulkUpload.finish();
+        if (result.getFailed() > 0) {
+            System.err.println(result);
+        }
+        response.sendRedirect(request.getContextPath() + "/dashboard?success=bulk_upload&uploaded="
+                + result.getUploaded() + "&rejected=" + result.getRejected() + "&failed=" + result.getFailed()
+                + (result.isLimitExceeded() ? "&limit=1" : ""));
+    }
+
+    private static boolean isZip(String filename) {
+        return filename != null && filename.toLowerCase().endsWith(".zip");
+    }
+
     // Extract filename from Part header.
     private String getFileName(Part part) {
         String contentDisposition = part.getHeader("content-disposition");
@@ -106,15 +167,4 @@ public class UploadServlet extends HttpServlet {
         }
         return null;
     }
-
-    // Check if detected MIME type is a text file..
-    private boolean isTextFile(String mimeType) {
-        if (mimeType == null) {
-            return false;
-        }
-
-        return mimeType.equals("text/plain") ||
-                mimeType.equals("application/octet-stream") ||
-                mimeType.startsWith("text/");
-    }
 }
@@ -0,0 +1,285 @@
+package com.secureapp.storage;
+
+import com.secureapp.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes blob files through AsynchronousFileChannel so that upload threads
+ * go back to hashing and encrypting while the disk works.
+ *
+ * Each write follows the same steps as LocalFileBlobStore.put, driven by
+ * completion handlers on a small I/O thread pool:
+ * - Data is written to a CREATE_NEW staging file (partial writes resume
+ * at the next position)
+ * - In PER_FILE durability mode the data is forced before the close
+ * - Staging file is atomically renamed to its final path
+ * - The returned future completes once FileSyncService reports the file
+ * durable
+ *
+ * Bytes in flight are bounded by a semaphore: a caller that would exceed
+ * maxInFlightBytes blocks in write() until earlier writes complete, which
+ * throttles uploads to the disk's pace instead of queueing unbounded
+ * ciphertext in memory. A blob larger than the budget takes the whole
+ * budget. In-flight bytes, their peak, time spent waiting for the budget
+ * and write latency are metered.
+ */
+public class AsyncBlobWriter {
+
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 16L * 1024 * 1024;
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final FileSyncService syncService;
+    private final ExecutorService ioExecutor;
+    private final int maxInFlightBytes;
+    private final Semaphore inFlightBudget;
+
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final AtomicLong peakInFlightBytes = new AtomicLong();
+    private final LongAdder writesCompleted = new LongAdder();
+    private final LongAdder writesFailed = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder throttledWrites = new LongAdder();
+    private final LatencyHistogram writeLatency = new LatencyHistogram("async-write");
+    private final LatencyHistogram throttleWait = new LatencyHistogram("async-write-throttle");
+
+    /**
+     * @param syncService      Durability policy applied to every write
+     * @param maxInFlightBytes Budget of bytes written but not yet on disk
+     * @param ioThreads        Threads running completion handlers, fsyncs
+     *                         and renames
+     */
+    public AsyncBlobWriter(FileSyncService syncService, long maxInFlightBytes, int ioThreads) {
+        this.syncService = syncService;
+        this.maxInFlightBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes));
+        this.inFlightBudget = new Semaphore(this.maxInFlightBytes);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(Math.max(1, ioThreads), runnable -> {
+            Thread thread = new Thread(runnable, "async-blob-writer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start writing a blob file. Blocks only while the in-flight budget is
+     * exhausted.
+     *
+     * @param stagingPath Staging file, created new
+     * @param targetPath  Final path, reached by atomic rename
+     * @param data        Blob bytes (must not be modified until the future
+     *                    completes)
+     * @return Future completed when the file is durable, or exceptionally
+     *         with the IOException of the failed step (the staging file is
+     *         then deleted)
+     * @throws IOException if interrupted while waiting for the budget or
+     *                     the staging file cannot be created
+     */
+    public CompletableFuture<Void> write(Path stagingPath, Path targetPath, byte[] data) throws IOException {
+        int permits = Math.min(data.length, maxInFlightBytes);
+        acquire(permits);
+
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(stagingPath,
+                    EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ioExecutor);
+        } catch (IOException | RuntimeException e) {
+            release(permits, 0);
+            throw e;
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        new PendingWrite(channel, stagingPath, targetPath, data, permits, result).start();
+        return result;
+    }
+
+    private void acquire(int permits) throws IOException {
+        if (!inFlightBudget.tryAcquire(permits)) {
+            throttledWrites.increment();
+            long start = System.nanoTime();
+            try {
+                inFlightBudget.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for write budget", e);
+            }
+            throttleWait.recordSince(start);
+        }
+        long inFlight = inFlightBytes.addAndGet(permits);
+        peakInFlightBytes.accumulateAndGet(inFlight, Math::max);
+    }
+
+    private void release(int permits, long written) {
+        inFlightBytes.addAndGet(-permits);
+        inFlightBudget.release(permits);
+        bytesWritten.add(written);
+    }
+
+    // One write in progress: resumes partial writes, then publishes the file.
+    private final class PendingWrite implements CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final Path stagingPath;
+        private final Path targetPath;
+        private final ByteBuffer buffer;
+        private final int permits;
+        private final CompletableFuture<Void> result;
+        private final long startNanos = System.nanoTime();
+
+        PendingWrite(AsynchronousFileChannel channel, Path stagingPath, Path targetPath, byte[] data, int permits,
+                CompletableFuture<Void> result) {
+            this.channel = channel;
+            this.stagingPath = stagingPath;
+            this.targetPath = targetPath;
+            this.buffer = ByteBuffer.wrap(data);
+            this.permits = permits;
+            this.result = result;
+        }
+
+        void start() {
+            try {
+                channel.write(buffer, buffer.position(), null, this);
+            } catch (RuntimeException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void completed(Integer written, Void attachment) {
+            if (buffer.hasRemaining()) {
+                start();
+                return;
+            }
+            try {
+                try {
+                    syncService.syncBeforeClose(channel);
+                } finally {
+                    channel.close();
+                }
+                Files.move(stagingPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            release(permits, buffer.capacity());
+            writesCompleted.increment();
+            writeLatency.recordSince(startNanos);
+
+            syncService.awaitDurable(targetPath).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(null);
+                }
+            });
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already failing
+            }
+            fail(error);
+        }
+
+        private void fail(Throwable error) {
+            try {
+                Files.deleteIfExists(stagingPath);
+            } catch (IOException e) {
+                // Left for delete() or startup recovery
+            }
+            release(permits, 0);
+            writesFailed.increment();
+            result.completeExceptionally(error instanceof IOException || error instanceof RuntimeException
+                    ? error
+                    : new IOException("Blob write failed: " + targetPath.getFileName(), error));
+        }
+    }
+
+    // Bytes handed to write() whose file is not yet renamed into place.
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    public long getPeakInFlightBytes() {
+        return peakInFlightBytes.get();
+    }
+
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    public long getWritesCompleted() {
+        return writesCompleted.sum();
+    }
+
+    public long getWritesFailed() {
+        return writesFailed.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    // Writes that had to wait for the in-flight budget.
+    public long getThrottledWrites() {
+        return throttledWrites.sum();
+    }
+
+    // Time from write() to the file being renamed into place.
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    // Time writers waited for the in-flight budget.
+    public LatencyHistogram getThrottleWait() {
+        return throttleWait;
+    }
+
+    /**
+     * Wait for writes in flight, then stop the I/O threads.
+     */
+    public void shutdown() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+        try {
+            // Completion handlers still need the executor
+            while (inFlightBytes.get() > 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(10);
+            }
+            ioExecutor.shutdown();
+            if (!ioExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                ioExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            ioExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Async blob writes: %d completed (%d bytes), %d failed, %d throttled, peak %d of %d bytes in flight",
+                getWritesCompleted(), getBytesWritten(), getWritesFailed(), getThrottledWrites(),
+                getPeakInFlightBytes(), getMaxInFlightBytes());
+    }
+}
@@ -0,0 +1,598 @@
+package com.secureapp.storage;
+
+import com.secureapp.util.AesEncryptionUtil;
+import com.secureapp.util.LatencyHistogram;
+
+import javax.crypto.AEADBadTagException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stored format of blobs and chunks: compress, then encrypt.
+ *
+ * Format: [12-byte header][12-byte IV][Ciphertext + 16-byte Auth Tag]
+ * - Header: "SAZ" magic, codec, a codec parameter and plaintext length
+ * - Codecs: 0 = stored; 1 = zlib Deflate, parameter = id of the preset
+ * dictionary (0 = none); 2 = raw Deflate ending with a sync flush,
+ * parameter = CRC-32 of the plaintext
+ * - The header is authenticated as GCM associated data, so the format flag
+ * cannot be altered without failing decryption
+ *
+ * Blobs written before compression have no header ([IV][Ciphertext+Tag]).
+ * Their random IV starts with the magic about once in 16 million blobs; for
+ * those the header's authentication fails and the blob is decrypted in the
+ * old format instead.
+ *
+ * Compression is skipped for tiny plaintexts and for plaintexts Deflate does
+ * not shrink. A preset dictionary (see DictionaryStore) primes the Deflate
+ * window with text common to the stored files, which is what makes small
+ * files compress well. Codec 2 (CompressionMode.GZIP) trades the dictionary
+ * for data that GzipStreamAssembler can send to a client as is.
+ */
+public class BlobCodec {
+
+    public static final byte CODEC_STORED = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    public static final byte CODEC_GZIP = 2;
+
+    private static final byte[] MAGIC = { 'S', 'A', 'Z' };
+    private static final int HEADER_LENGTH = 12;
+    private static final int MIN_ENCRYPTED_LENGTH = 12 + 16;
+    private static final int MIN_COMPRESS_SIZE = 64;
+    private static final int COMPRESSION_LEVEL = 6;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported()
+            && THREADS.isThreadCpuTimeEnabled();
+
+    private final CompressionMode mode;
+    private final Map<Integer, byte[]> dictionaries;
+    private final byte[] currentDictionary;
+    private final int currentDictionaryId;
+
+    private final LongAdder plaintextBytes = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder compressedBlobs = new LongAdder();
+    private final LongAdder uncompressedBlobs = new LongAdder();
+    private final LongAdder gzipPassthroughParts = new LongAdder();
+    private final LongAdder gzipRecompressedParts = new LongAdder();
+    private final LatencyHistogram compressionCpu = new LatencyHistogram("Compression CPU per blob");
+    private final LatencyHistogram decompressionCpu = new LatencyHistogram("Decompression CPU per blob");
+
+    // Deflate without a preset dictionary.
+    public BlobCodec() {
+        this(CompressionMode.DEFLATE, Collections.<Integer, byte[]>emptyMap(), null);
+    }
+
+    /**
+     * @param mode                Compression of new blobs
+     * @param dictionaries        Known dictionaries by id, for reads
+     * @param currentDictionaryId Dictionary used for new DEFLATE writes, or null
+     */
+    public BlobCodec(CompressionMode mode, Map<Integer, byte[]> dictionaries, Integer currentDictionaryId) {
+        this.mode = mode;
+        this.dictionaries = new HashMap<>(dictionaries);
+        if (currentDictionaryId != null && !dictionaries.containsKey(currentDictionaryId)) {
+            throw new IllegalArgumentException(
+                    "Unknown compression dictionary " + DictionaryStore.hex(currentDictionaryId));
+        }
+        this.currentDictionary = currentDictionaryId != null ? dictionaries.get(currentDictionaryId) : null;
+        this.currentDictionaryId = currentDictionaryId != null ? currentDictionaryId : 0;
+    }
+
+    /**
+     * Compress (when it pays off) and encrypt plaintext for storage.
+     *
+     * @param plaintext Plaintext bytes
+     * @return Stored bytes
+     * @throws Exception if encryption fails
+     */
+    public byte[] encode(byte[] plaintext) throws Exception {
+        return encrypt(compress(plaintext));
+    }
+
+    /**
+     * First half of encode(): pick the codec and compress. Kept separate so
+     * an upload pipeline can run compression and encryption as different
+     * stages.
+     *
+     * @param plaintext Plaintext bytes
+     * @return Header and payload, ready for encrypt()
+     */
+    public CompressedBlob compress(byte[] plaintext) {
+        byte codec = CODEC_STORED;
+        int parameter = 0;
+        byte[] payload = plaintext;
+
+        if (mode != CompressionMode.NONE && plaintext.length >= MIN_COMPRESS_SIZE) {
+            long cpuStart = cpuTime();
+            byte[] compressed = mode == CompressionMode.GZIP ? deflateRaw(plaintext) : deflate(plaintext);
+            if (compressed != null && mode == CompressionMode.GZIP) {
+                codec = CODEC_GZIP;
+                parameter = (int) crc32(plaintext);
+                payload = compressed;
+            } else if (compressed != null) {
+                codec = CODEC_DEFLATE;
+                parameter = currentDictionary != null ? currentDictionaryId : 0;
+                payload = compressed;
+            }
+            compressionCpu.record(cpuTime() - cpuStart);
+        }
+
+        if (codec != CODEC_STORED) {
+            compressedBlobs.increment();
+        } else {
+            uncompressedBlobs.increment();
+        }
+        plaintextBytes.add(plaintext.length);
+        payloadBytes.add(payload.length);
+        return new CompressedBlob(header(codec, parameter, plaintext.length), payload);
+    }
+
+    /**
+     * Second half of encode(): encrypt the payload, authenticating the
+     * header.
+     *
+     * @param blob Result of compress()
+     * @return Stored bytes
+     * @throws Exception if encryption fails
+     */
+    public byte[] encrypt(CompressedBlob blob) throws Exception {
+        byte[] encrypted = AesEncryptionUtil.encrypt(blob.payload, blob.header);
+        byte[] stored = Arrays.copyOf(blob.header, HEADER_LENGTH + encrypted.length);
+        System.arraycopy(encrypted, 0, stored, HEADER_LENGTH, encrypted.length);
+        return stored;
+    }
+
+    /**
+     * Header and (possibly compressed) payload of a blob between
+     * compress() and encrypt().
+     */
+    public static final class CompressedBlob {
+        private final byte[] header;
+        private final byte[] payload;
+
+        CompressedBlob(byte[] header, byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+
+        public int getPayloadLength() {
+            return payload.length;
+        }
+    }
+
+    /**
+     * Decrypt and decompress stored bytes, in either the current or the
+     * pre-compression format.
+     *
+     * @param stored Stored bytes
+     * @return Plaintext bytes
+     * @throws IOException if the codec or dictionary is unknown or the
+     *                     compressed data is corrupt
+     * @throws Exception   if decryption fails
+     */
+    public byte[] decode(byte[] stored) throws Exception {
+        if (!hasHeader(stored)) {
+            return AesEncryptionUtil.decrypt(stored);
+        }
+
+        byte[] header = Arrays.copyOf(stored, HEADER_LENGTH);
+        byte[] payload;
+        try {
+            payload = AesEncryptionUtil.decrypt(stored, HEADER_LENGTH, header);
+        } catch (AEADBadTagException e) {
+            // Old-format blob whose IV starts with the magic
+            return AesEncryptionUtil.decrypt(stored);
+        }
+        return decompress(header, payload);
+    }
+
+    /**
+     * Decrypt and decompress stored bytes held in a buffer, for the NIO read
+     * path. Ciphertext is decrypted from the buffer straight into a pooled
+     * direct buffer. Compressed payloads are then inflated into the
+     * scratch arrays, since Inflater only reads arrays on Java 8.
+     *
+     * @param stored  Stored bytes between position and limit; consumed
+     * @param pool    Pool for the decrypted payload
+     * @param scratch Reusable arrays and inflaters of the calling thread
+     * @return Plaintext from position 0 to limit: a pooled buffer, or a
+     *         view of the scratch arrays valid until scratch is used again.
+     *         Pass it to pool.release() when done.
+     * @throws IOException if the codec or dictionary is unknown or the
+     *                     compressed data is corrupt
+     * @throws Exception   if decryption fails
+     */
+    public ByteBuffer decode(ByteBuffer stored, DirectBufferPool pool, DecodeScratch scratch) throws Exception {
+        int start = stored.position();
+        if (!hasHeader(stored)) {
+            return decrypt(stored, null, pool);
+        }
+
+        ByteBuffer header = stored.duplicate();
+        header.limit(start + HEADER_LENGTH);
+        stored.position(start + HEADER_LENGTH);
+        ByteBuffer payload;
+        try {
+            payload = decrypt(stored, header, pool);
+        } catch (AEADBadTagException e) {
+            // Old-format blob whose IV starts with the magic
+            stored.position(start);
+            return decrypt(stored, null, pool);
+        }
+
+        byte codec = header.get(start + 3);
+        if (codec == CODEC_STORED) {
+            return payload;
+        }
+        if (codec != CODEC_DEFLATE && codec != CODEC_GZIP) {
+            pool.release(payload);
+            throw new IOException("Unknown blob codec: " + codec);
+        }
+
+        long cpuStart = cpuTime();
+        int length = header.getInt(start + 8);
+        byte[] compressed;
+        int compressedLength = payload.remaining();
+        try {
+            compressed = scratch.compressed(compressedLength);
+            payload.get(compressed, 0, compressedLength);
+        } finally {
+            pool.release(payload);
+        }
+        byte[] plaintext = scratch.plaintext(length);
+        inflate(scratch.inflater(codec == CODEC_GZIP), compressed, compressedLength, plaintext, length);
+        decompressionCpu.record(cpuTime() - cpuStart);
+        return ByteBuffer.wrap(plaintext, 0, length);
+    }
+
+    private static ByteBuffer decrypt(ByteBuffer encrypted, ByteBuffer header, DirectBufferPool pool)
+            throws Exception {
+        ByteBuffer target = pool.acquire(AesEncryptionUtil.plaintextLength(encrypted.remaining()));
+        try {
+            AesEncryptionUtil.decrypt(encrypted, header, target);
+        } catch (Exception e) {
+            pool.release(target);
+            throw e;
+        }
+        target.flip();
+        return target;
+    }
+
+    /**
+     * Reusable arrays and inflaters for decode(ByteBuffer, ...), owned by one
+     * thread at a time. Close it to free the inflaters' native memory.
+     */
+    public static final class DecodeScratch implements AutoCloseable {
+        private byte[] compressed = new byte[0];
+        private byte[] plaintext = new byte[0];
+        private Inflater zlibInflater;
+        private Inflater rawInflater;
+
+        byte[] compressed(int length) {
+            if (compressed.length < length) {
+                compressed = new byte[length];
+            }
+            return compressed;
+        }
+
+        byte[] plaintext(int length) {
+            if (plaintext.length < length) {
+                plaintext = new byte[length];
+            }
+            return plaintext;
+        }
+
+        Inflater inflater(boolean raw) {
+            Inflater inflater = raw ? rawInflater : zlibInflater;
+            if (inflater == null) {
+                inflater = new Inflater(raw);
+                if (raw) {
+                    rawInflater = inflater;
+                } else {
+                    zlibInflater = inflater;
+                }
+            } else {
+                inflater.reset();
+            }
+            return inflater;
+        }
+
+        @Override
+        public void close() {
+            if (zlibInflater != null) {
+                zlibInflater.end();
+            }
+            if (rawInflater != null) {
+                rawInflater.end();
+            }
+        }
+    }
+
+    /**
+     * Append stored bytes to a gzip response. Raw Deflate payloads are
+     * copied without decompression; anything else is decoded and
+     * recompressed (or wrapped in stored blocks if it was not compressible).
+     *
+     * @param gzip   Target gzip stream
+     * @param stored Stored bytes
+     * @throws Exception if decryption, decompression or writing fails
+     */
+    public void appendTo(GzipStreamAssembler gzip, byte[] stored) throws Exception {
+        if (!hasHeader(stored)) {
+            gzipRecompressedParts.increment();
+            gzip.appendCompressed(AesEncryptionUtil.decrypt(stored));
+            return;
+        }
+
+        byte[] header = Arrays.copyOf(stored, HEADER_LENGTH);
+        byte[] payload;
+        try {
+            payload = AesEncryptionUtil.decrypt(stored, HEADER_LENGTH, header);
+        } catch (AEADBadTagException e) {
+            gzipRecompressedParts.increment();
+            gzip.appendCompressed(AesEncryptionUtil.decrypt(stored));
+            return;
+        }
+
+        switch (header[3]) {
+            case CODEC_GZIP:
+                gzipPassthroughParts.increment();
+                gzip.appendDeflate(payload, 0, payload.length, readInt(header, 4) & 0xFFFFFFFFL,
+                        readInt(header, 8) & 0xFFFFFFFFL);
+                break;
+            case CODEC_STORED:
+                gzipPassthroughParts.increment();
+                gzip.appendStored(payload);
+                break;
+            default:
+                gzipRecompressedParts.increment();
+                gzip.appendCompressed(decompress(header, payload));
+        }
+    }
+
+    private byte[] decompress(byte[] header, byte[] payload) throws IOException {
+        byte codec = header[3];
+        int length = readInt(header, 8);
+        if (codec == CODEC_STORED) {
+            return payload;
+        }
+        if (codec != CODEC_DEFLATE && codec != CODEC_GZIP) {
+            throw new IOException("Unknown blob codec: " + codec);
+        }
+
+        long cpuStart = cpuTime();
+        byte[] plaintext = inflate(payload, length, codec == CODEC_GZIP);
+        decompressionCpu.record(cpuTime() - cpuStart);
+        return plaintext;
+    }
+
+    /**
+     * Deflate plaintext with the current dictionary.
+     *
+     * @return Compressed bytes, or null if they would not be smaller
+     */
+    private byte[] deflate(byte[] plaintext) {
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try {
+            if (currentDictionary != null) {
+                deflater.setDictionary(currentDictionary);
+            }
+            deflater.setInput(plaintext);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plaintext.length / 2 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() >= plaintext.length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Raw Deflate without dictionary, ending with a sync flush so that the
+     * output can be concatenated into a larger Deflate stream.
+     *
+     * @return Compressed bytes, or null if they would not be smaller
+     */
+    private static byte[] deflateRaw(byte[] plaintext) {
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+        try {
+            deflater.setInput(plaintext);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plaintext.length / 2 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, count);
+                if (out.size() >= plaintext.length) {
+                    return null;
+                }
+            } while (count == buffer.length);
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static long crc32(byte[] plaintext) {
+        CRC32 crc = new CRC32();
+        crc.update(plaintext, 0, plaintext.length);
+        return crc.getValue();
+    }
+
+    private byte[] inflate(byte[] compressed, int length, boolean raw) throws IOException {
+        Inflater inflater = new Inflater(raw);
+        try {
+            byte[] plaintext = new byte[length];
+            inflate(inflater, compressed, compressed.length, plaintext, length);
+            return plaintext;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void inflate(Inflater inflater, byte[] compressed, int compressedLength, byte[] plaintext, int length)
+            throws IOException {
+        try {
+            inflater.setInput(compressed, 0, compressedLength);
+            int produced = 0;
+
+            while (produced < length) {
+                int count = inflater.inflate(plaintext, produced, length - produced);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionaryFor(inflater.getAdler()));
+                        continue;
+                    }
+                    if (inflater.finished() || inflater.needsInput()) {
+                        break;
+                    }
+                }
+                produced += count;
+            }
+
+            if (produced != length) {
+                throw new IOException("Compressed blob is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed blob is corrupt", e);
+        }
+    }
+
+    private byte[] dictionaryFor(int id) throws IOException {
+        byte[] dictionary = dictionaries.get(id);
+        if (dictionary == null) {
+            throw new IOException("Compression dictionary " + DictionaryStore.hex(id) + " is not available");
+        }
+        return dictionary;
+    }
+
+    private static boolean hasHeader(ByteBuffer stored) {
+        if (stored.remaining() <= HEADER_LENGTH + MIN_ENCRYPTED_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (stored.get(stored.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasHeader(byte[] stored) {
+        if (stored == null || stored.length <= HEADER_LENGTH + MIN_ENCRYPTED_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (stored[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] header(byte codec, int dictionaryId, int length) {
+        byte[] header = Arrays.copyOf(MAGIC, HEADER_LENGTH);
+        header[3] = codec;
+        writeInt(header, 4, dictionaryId);
+        writeInt(header, 8, length);
+        return header;
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return ((source[offset] & 0xFF) << 24) | ((source[offset + 1] & 0xFF) << 16)
+                | ((source[offset + 2] & 0xFF) << 8) | (source[offset + 3] & 0xFF);
+    }
+
+    // CPU time of the current thread, falling back to wall time where unsupported.
+    private static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    public CompressionMode getMode() {
+        return mode;
+    }
+
+    // Id of the dictionary used for new writes, or null.
+    public Integer getCurrentDictionaryId() {
+        return currentDictionary != null ? currentDictionaryId : null;
+    }
+
+    // Plaintext bytes encoded since startup.
+    public long getPlaintextBytes() {
+        return plaintextBytes.sum();
+    }
+
+    // Bytes encrypted after compression since startup (plaintext size when not compressed).
+    public long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    public long getCompressedBlobs() {
+        return compressedBlobs.sum();
+    }
+
+    public long getUncompressedBlobs() {
+        return uncompressedBlobs.sum();
+    }
+
+    /**
+     * Overall compression ratio of blobs encoded since startup.
+     *
+     * @return Plaintext bytes per stored payload byte (1.0 when nothing was
+     *         encoded)
+     */
+    public double getCompressionRatio() {
+        long payload = payloadBytes.sum();
+        return payload == 0 ? 1.0 : (double) plaintextBytes.sum() / payload;
+    }
+
+    // Blobs or chunks sent in gzip responses without recompression.
+    public long getGzipPassthroughParts() {
+        return gzipPassthroughParts.sum();
+    }
+
+    // Blobs or chunks that had to be recompressed for a gzip response.
+    public long getGzipRecompressedParts() {
+        return gzipRecompressedParts.sum();
+    }
+
+    // CPU time spent compressing each blob or chunk.
+    public LatencyHistogram getCompressionCpu() {
+        return compressionCpu;
+    }
+
+    // CPU time spent decompressing each blob or chunk.
+    public LatencyHistogram getDecompressionCpu() {
+        return decompressionCpu;
+    }
+}
@@ -0,0 +1,136 @@
+package com.secureapp.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage backend SPI for encrypted upload blobs.
+ *
+ * Implementations store opaque byte arrays (already encrypted by the
+ * caller) under string keys. Contract:
+ * - put() returns only once the blob is durable under the store's
+ * DurabilityMode, and never overwrites an existing key; putAsync() gives
+ * the same guarantees when its future completes
+ * - get()/stream() throw NoSuchFileException for unknown keys
+ * - delete() also discards any partial write left for the key by a crash
+ * - All methods are safe to call concurrently
+ *
+ * Stores that cannot free space synchronously on delete (log-structured
+ * stores) report the space still held by deleted blobs through
+ * getReclaimableBytes() and release it incrementally in compact().
+ */
+public interface BlobStore {
+
+    /**
+     * Store a blob under a new key.
+     *
+     * @param key  Blob key (stored filename)
+     * @param data Blob bytes
+     * @throws java.nio.file.FileAlreadyExistsException if the key exists
+     * @throws IOException                               if the write fails
+     */
+    void put(String key, byte[] data) throws IOException;
+
+    /**
+     * Start storing a blob under a new key, so the caller can go on
+     * encrypting while the write is in flight. The default implementation
+     * writes synchronously with put().
+     *
+     * @param key  Blob key (stored filename)
+     * @param data Blob bytes (must not be modified until the future
+     *             completes)
+     * @return Future completed once the blob is durable, or exceptionally
+     *         with the IOException of the failed write
+     * @throws java.nio.file.FileAlreadyExistsException if the key exists
+     * @throws IOException                               if the write cannot
+     *                                                   be started
+     */
+    default CompletableFuture<Void> putAsync(String key, byte[] data) throws IOException {
+        put(key, data);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Read a whole blob.
+     *
+     * @param key Blob key
+     * @return Blob bytes
+     * @throws java.nio.file.NoSuchFileException if the key does not exist
+     * @throws IOException                       if the read fails
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Read a whole blob into a buffer, for the NIO read path. The result
+     * is either a buffer from the pool or a read-only view of the store's
+     * own memory; either way the caller passes it to pool.release() when
+     * done and does not use it afterwards.
+     *
+     * @param key  Blob key
+     * @param pool Pool to take a buffer from
+     * @return Buffer positioned at the blob's first byte, limit at its end
+     * @throws java.nio.file.NoSuchFileException if the key does not exist
+     * @throws IOException                       if the read fails
+     */
+    default ByteBuffer getBuffer(String key, DirectBufferPool pool) throws IOException {
+        return ByteBuffer.wrap(get(key));
+    }
+
+    /**
+     * Open a blob for streaming reads. The caller must close the stream.
+     *
+     * @param key Blob key
+     * @return Stream over the blob bytes
+     * @throws java.nio.file.NoSuchFileException if the key does not exist
+     * @throws IOException                       if the blob cannot be opened
+     */
+    InputStream stream(String key) throws IOException;
+
+    /**
+     * Delete a blob and any partial write left for its key.
+     *
+     * @param key Blob key
+     * @return true if a stored blob was deleted
+     * @throws IOException if the delete fails
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Check whether a blob exists.
+     *
+     * @param key Blob key
+     * @return true if the key is stored
+     * @throws IOException if the check fails
+     */
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Bytes still occupied on disk by deleted blobs.
+     * Stores that free space on delete report 0.
+     *
+     * @return Reclaimable bytes
+     */
+    default long getReclaimableBytes() {
+        return 0;
+    }
+
+    /**
+     * Reclaim space held by deleted blobs. Each call does a bounded amount
+     * of work so it can be driven by a throttled background task.
+     *
+     * @return Bytes released by this call
+     * @throws IOException if compaction fails
+     */
+    default long compact() throws IOException {
+        return 0;
+    }
+
+    /**
+     * Release files, mappings and background threads held by the store.
+     *
+     * @throws IOException if resources cannot be released cleanly
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,36 @@
+package com.secureapp.storage;
+
+/**
+ * Compression applied to new blobs before encryption.
+ *
+ * - NONE: plaintext is encrypted as is
+ * - DEFLATE: zlib stream, primed with the current trained dictionary if any
+ * (best ratio for small files)
+ * - GZIP: raw Deflate without dictionary, stored so that it can be sent to
+ * clients as a gzip response without recompression
+ */
+public enum CompressionMode {
+    NONE,
+    DEFLATE,
+    GZIP;
+
+    /**
+     * Parse a configuration value (case-insensitive).
+     *
+     * @param value Configured value
+     * @return Matching mode, or DEFLATE if the value is unknown
+     */
+    public static CompressionMode fromConfig(String value) {
+        if (value == null) {
+            return DEFLATE;
+        }
+        String normalized = value.trim().toUpperCase().replace('-', '_');
+        for (CompressionMode mode : values()) {
+            if (mode.name().equals(normalized)) {
+                return mode;
+            }
+        }
+        System.err.println("Unknown compression mode '" + value + "', using DEFLATE");
+        return DEFLATE;
+    }
+}
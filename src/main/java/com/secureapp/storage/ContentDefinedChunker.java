@@ -0,0 +1,147 @@
+package com.secureapp.storage;
+
+import java.util.Random;
+
+/**
+ * FastCDC content-defined chunking.
+ *
+ * Cut points depend only on the bytes around them, so inserting or
+ * appending data to a file only changes the chunks next to the edit and
+ * every other chunk deduplicates against the previous version.
+ *
+ * Algorithm (Xia et al., "FastCDC", USENIX ATC 2016):
+ * - Gear rolling hash: fp = (fp << 1) + GEAR[byte], one shift and one add
+ * per byte
+ * - No cut point is considered in the first minSize bytes of a chunk
+ * - Normalized chunking: a stricter mask (more bits) is used before the
+ * average size and a looser one after, which narrows the size distribution
+ * around the average
+ * - Chunks are cut at maxSize regardless of content
+ *
+ * The gear table comes from a fixed seed: changing it (or the sizes) does
+ * not break stored data, but new uploads would stop deduplicating against
+ * existing chunks.
+ */
+public class ContentDefinedChunker {
+
+    public static final int DEFAULT_MIN_SIZE = 4 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    private static final long GEAR_SEED = 0x5EC0_FFEE_CDC1L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+
+    public ContentDefinedChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param minSize Minimum chunk size
+     * @param avgSize Target average chunk size (power of two)
+     * @param maxSize Maximum chunk size
+     */
+    public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize >= avgSize || avgSize >= maxSize || Integer.bitCount(avgSize) != 1) {
+            throw new IllegalArgumentException("Invalid chunk sizes: " + minSize + "/" + avgSize + "/" + maxSize);
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        // Normalization level 2: two bits stricter before the average, two looser after
+        this.maskSmall = spreadMask(bits + 2);
+        this.maskLarge = spreadMask(bits - 2);
+    }
+
+    /**
+     * Split data into chunks.
+     *
+     * @param data   Content
+     * @param offset Start of the content in data
+     * @param length Content length
+     * @return Chunk lengths, in order; they sum to length
+     */
+    public int[] chunk(byte[] data, int offset, int length) {
+        int[] lengths = new int[Math.max(1, length / minSize + 1)];
+        int count = 0;
+        int position = offset;
+        int end = offset + length;
+
+        while (position < end) {
+            int chunkLength = nextChunkLength(data, position, end - position);
+            lengths[count++] = chunkLength;
+            position += chunkLength;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(lengths, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Length of the chunk starting at offset.
+     *
+     * @param data      Content
+     * @param offset    Chunk start
+     * @param remaining Bytes left in the content
+     * @return Chunk length (at least 1, at most maxSize)
+     */
+    int nextChunkLength(byte[] data, int offset, int remaining) {
+        if (remaining <= minSize) {
+            return remaining;
+        }
+        int limit = Math.min(remaining, maxSize);
+        int normal = Math.min(limit, avgSize);
+
+        long fingerprint = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((fingerprint & maskSmall) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((fingerprint & maskLarge) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Mask with the given number of bits spread over the high end of the
+     * fingerprint. High bits of a gear hash depend on a longer window of
+     * input than low bits, and spacing them out avoids correlated bits.
+     */
+    private static long spreadMask(int bits) {
+        long mask = 0;
+        for (int i = 0; i < bits; i++) {
+            mask |= 1L << (63 - i * 3);
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,447 @@
+package com.secureapp.storage;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Byte-bounded cache of decrypted blobs and chunks, so popular content is
+ * not read and decrypted again on every view.
+ *
+ * Eviction follows W-TinyLFU, with sizes in bytes:
+ * - New entries enter a small LRU window (WINDOW_PERCENT of the budget)
+ * - Entries pushed out of the window are admitted to the main region only
+ * if their recent frequency (FrequencySketch) beats the main region's
+ * eviction victim, so one-off reads cannot flush out popular content
+ * - The main region is a segmented LRU: probation for entries seen once
+ * there, protected (PROTECTED_PERCENT of it) for entries hit again
+ *
+ * Entries are stored off-heap in direct ByteBuffers, sealed with AES-GCM
+ * under a key generated at startup and never written anywhere, with the
+ * cache key as associated data. A heap dump therefore holds no cached
+ * plaintext, and the off-heap copy is useless without the process's key.
+ * Each hit costs one AES-GCM decryption, far less than a blob read plus
+ * decompression.
+ *
+ * Every entry expires after its TTL; expired entries are dropped when read
+ * and by a periodic sweep.
+ */
+public class DecryptedContentCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_TTL_SECONDS = 600;
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    // Used to size the frequency sketch from the byte budget
+    private static final int TYPICAL_ENTRY_BYTES = 16 * 1024;
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+
+    private enum Region {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private static final class Entry {
+        final String key;
+        final ByteBuffer sealed;
+        final int plaintextLength;
+        final long expiresAt;
+        Region region;
+
+        Entry(String key, ByteBuffer sealed, int plaintextLength, long expiresAt) {
+            this.key = key;
+            this.sealed = sealed;
+            this.plaintextLength = plaintextLength;
+            this.expiresAt = expiresAt;
+        }
+
+        int weight() {
+            return sealed.capacity();
+        }
+    }
+
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private final long maxEntryBytes;
+    private final long defaultTtlNanos;
+    private final long sweepIntervalNanos;
+    private final SecretKey sealingKey;
+    private final SecureRandom random = new SecureRandom();
+
+    // Guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<>();
+    private final FrequencySketch sketch;
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+    private long nextSweep;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long expirations;
+
+    /**
+     * @param maxBytes   Budget for sealed entries, in bytes
+     * @param ttlSeconds Default time to live of an entry
+     */
+    public DecryptedContentCache(long maxBytes, long ttlSeconds) {
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = Math.max(1, maxBytes * WINDOW_PERCENT / 100);
+        this.protectedMaxBytes = (maxBytes - windowMaxBytes) * PROTECTED_PERCENT / 100;
+        this.maxEntryBytes = maxBytes - windowMaxBytes;
+        this.defaultTtlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.sweepIntervalNanos = Math.max(TimeUnit.SECONDS.toNanos(1), defaultTtlNanos / 2);
+        this.nextSweep = System.nanoTime() + sweepIntervalNanos;
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxBytes / TYPICAL_ENTRY_BYTES));
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256, random);
+            this.sealingKey = generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot create cache sealing key", e);
+        }
+    }
+
+    /**
+     * Get a copy of a cached entry.
+     *
+     * @param key Cache key
+     * @return Plaintext (a fresh array), or null on a miss
+     */
+    public byte[] get(String key) {
+        Entry entry = lookup(key);
+        if (entry == null) {
+            return null;
+        }
+        byte[] plaintext = new byte[entry.plaintextLength];
+        return unseal(key, entry.sealed.duplicate(), ByteBuffer.wrap(plaintext)) ? plaintext : null;
+    }
+
+    /**
+     * Get a cached entry into a pooled buffer, without a heap copy.
+     *
+     * @param key  Cache key
+     * @param pool Pool to take the buffer from
+     * @return Plaintext from position 0 to limit (release it to the pool
+     *         when done), or null on a miss
+     */
+    public ByteBuffer get(String key, DirectBufferPool pool) {
+        Entry entry = lookup(key);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer plaintext = pool.acquire(entry.plaintextLength);
+        if (!unseal(key, entry.sealed.duplicate(), plaintext)) {
+            pool.release(plaintext);
+            return null;
+        }
+        plaintext.flip();
+        return plaintext;
+    }
+
+    /*
+     * Find a live entry and record the access. An evicted entry's buffer
+     * stays valid while the caller references it, so unsealing happens
+     * outside the lock.
+     */
+    private synchronized Entry lookup(String key) {
+        sketch.increment(key.hashCode());
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+            remove(entry);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        onHit(entry);
+        return entry;
+    }
+
+    /**
+     * Cache an entry with the default TTL.
+     *
+     * @param key       Cache key
+     * @param plaintext Content (copied; the caller keeps ownership)
+     */
+    public void put(String key, byte[] plaintext) {
+        put(key, ByteBuffer.wrap(plaintext), defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cache an entry with the default TTL.
+     *
+     * @param key       Cache key
+     * @param plaintext Content between position and limit (copied, and the
+     *                  position is left unchanged)
+     */
+    public void put(String key, ByteBuffer plaintext) {
+        put(key, plaintext, defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cache an entry.
+     *
+     * @param key       Cache key
+     * @param plaintext Content (copied; the caller keeps ownership)
+     * @param ttl       Time to live of this entry
+     * @param unit      Unit of ttl
+     */
+    public void put(String key, byte[] plaintext, long ttl, TimeUnit unit) {
+        put(key, ByteBuffer.wrap(plaintext), ttl, unit);
+    }
+
+    private void put(String key, ByteBuffer plaintext, long ttl, TimeUnit unit) {
+        int plaintextLength = plaintext.remaining();
+        if (plaintextLength + GCM_IV_LENGTH + GCM_TAG_BITS / 8 > maxEntryBytes) {
+            synchronized (this) {
+                rejections++;
+            }
+            return;
+        }
+        ByteBuffer sealed = seal(key, plaintext.duplicate());
+        long now = System.nanoTime();
+        Entry entry = new Entry(key, sealed, plaintextLength, now + unit.toNanos(ttl));
+
+        synchronized (this) {
+            Entry previous = entries.get(key);
+            if (previous != null) {
+                remove(previous);
+            }
+            entries.put(key, entry);
+            entry.region = Region.WINDOW;
+            window.put(key, entry);
+            windowBytes += entry.weight();
+
+            evictFromWindow();
+            if (now - nextSweep >= 0) {
+                sweepExpired(now);
+                nextSweep = now + sweepIntervalNanos;
+            }
+        }
+    }
+
+    /**
+     * Drop an entry, if cached.
+     *
+     * @param key Cache key
+     */
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    private void onHit(Entry entry) {
+        switch (entry.region) {
+            case WINDOW:
+                moveToTail(window, entry);
+                break;
+            case PROTECTED:
+                moveToTail(protectedEntries, entry);
+                break;
+            default:
+                // Second hit in the main region: promote, demoting the
+                // least recently used protected entries if needed
+                probation.remove(entry.key);
+                probationBytes -= entry.weight();
+                entry.region = Region.PROTECTED;
+                protectedEntries.put(entry.key, entry);
+                protectedBytes += entry.weight();
+                while (protectedBytes > protectedMaxBytes) {
+                    Entry demoted = head(protectedEntries);
+                    protectedEntries.remove(demoted.key);
+                    protectedBytes -= demoted.weight();
+                    demoted.region = Region.PROBATION;
+                    probation.put(demoted.key, demoted);
+                    probationBytes += demoted.weight();
+                }
+                break;
+        }
+    }
+
+    // Move window overflow to the main region, through TinyLFU admission.
+    private void evictFromWindow() {
+        long mainMaxBytes = maxBytes - windowMaxBytes;
+        while (windowBytes > windowMaxBytes) {
+            Entry candidate = head(window);
+            window.remove(candidate.key);
+            windowBytes -= candidate.weight();
+
+            boolean admitted = true;
+            while (probationBytes + protectedBytes + candidate.weight() > mainMaxBytes) {
+                Entry victim = !probation.isEmpty() ? head(probation) : head(protectedEntries);
+                if (victim == null) {
+                    break;
+                }
+                if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                    remove(victim);
+                    evictions++;
+                } else {
+                    admitted = false;
+                    break;
+                }
+            }
+
+            if (admitted) {
+                candidate.region = Region.PROBATION;
+                probation.put(candidate.key, candidate);
+                probationBytes += candidate.weight();
+            } else {
+                entries.remove(candidate.key);
+                rejections++;
+            }
+        }
+    }
+
+    private void sweepExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.expiresAt >= 0) {
+                iterator.remove();
+                removeFromRegion(entry);
+                expirations++;
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        removeFromRegion(entry);
+    }
+
+    private void removeFromRegion(Entry entry) {
+        switch (entry.region) {
+            case WINDOW:
+                window.remove(entry.key);
+                windowBytes -= entry.weight();
+                break;
+            case PROBATION:
+                probation.remove(entry.key);
+                probationBytes -= entry.weight();
+                break;
+            default:
+                protectedEntries.remove(entry.key);
+                protectedBytes -= entry.weight();
+                break;
+        }
+    }
+
+    private static void moveToTail(LinkedHashMap<String, Entry> region, Entry entry) {
+        region.remove(entry.key);
+        region.put(entry.key, entry);
+    }
+
+    private static Entry head(LinkedHashMap<String, Entry> region) {
+        Iterator<Entry> iterator = region.values().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private ByteBuffer seal(String key, ByteBuffer plaintext) {
+        try {
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            cipher.init(Cipher.ENCRYPT_MODE, sealingKey, new GCMParameterSpec(GCM_TAG_BITS, iv));
+            cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+
+            ByteBuffer sealed = ByteBuffer.allocateDirect(GCM_IV_LENGTH + cipher.getOutputSize(plaintext.remaining()));
+            sealed.put(iv);
+            cipher.doFinal(plaintext, sealed);
+            sealed.flip();
+            return sealed;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cache sealing failed", e);
+        }
+    }
+
+    private boolean unseal(String key, ByteBuffer sealed, ByteBuffer target) {
+        try {
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            sealed.get(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            cipher.init(Cipher.DECRYPT_MODE, sealingKey, new GCMParameterSpec(GCM_TAG_BITS, iv));
+            cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+
+            cipher.doFinal(sealed, target);
+            return true;
+        } catch (GeneralSecurityException e) {
+            // Cannot happen with an intact buffer; treat as a miss
+            System.err.println("Cache entry could not be unsealed: " + e.getClass().getSimpleName());
+            invalidate(key);
+            return false;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Entries dropped to make room after being admitted.
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Entries refused by TinyLFU admission or too large to cache.
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+
+    // Off-heap bytes held by cached entries.
+    public synchronized long getOccupiedBytes() {
+        return windowBytes + probationBytes + protectedBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "Decrypted content cache: %d of %d bytes in %d entries, hit rate %.1f%% (%d hits, %d misses), "
+                        + "%d evicted, %d rejected, %d expired",
+                getOccupiedBytes(), maxBytes, entries.size(), getHitRate() * 100, hits, misses, evictions,
+                rejections, expirations);
+    }
+}
@@ -0,0 +1,127 @@
+package com.secureapp.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+
+/**
+ * Directory of Deflate preset dictionaries.
+ *
+ * Layout:
+ * - Each dictionary is stored as <id>.dict, where id is the Adler-32 of its
+ * bytes in hex (the value zlib records in every stream compressed with it)
+ * - The file "current" holds the id of the dictionary used for new writes
+ *
+ * Dictionaries are never deleted: data compressed with a retired dictionary
+ * stays readable as long as its file is present.
+ */
+public class DictionaryStore {
+
+    private static final String DICTIONARY_SUFFIX = ".dict";
+    private static final String CURRENT_FILE = "current";
+
+    private final Path directory;
+
+    public DictionaryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Id of a dictionary: its Adler-32 checksum.
+     *
+     * @param dictionary Dictionary bytes
+     * @return Dictionary id
+     */
+    public static int idOf(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary, 0, dictionary.length);
+        return (int) adler.getValue();
+    }
+
+    /**
+     * Load every dictionary in the directory.
+     *
+     * @return Dictionaries by id (empty if the directory does not exist)
+     * @throws IOException if a dictionary cannot be read
+     */
+    public Map<Integer, byte[]> loadAll() throws IOException {
+        Map<Integer, byte[]> dictionaries = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return dictionaries;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DICTIONARY_SUFFIX)) {
+            for (Path file : files) {
+                byte[] dictionary = Files.readAllBytes(file);
+                int id = idOf(dictionary);
+                if (!file.getFileName().toString().equals(fileNameOf(id))) {
+                    System.err.println("Ignoring corrupt compression dictionary: " + file.getFileName());
+                    continue;
+                }
+                dictionaries.put(id, dictionary);
+            }
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Id of the dictionary used for new writes.
+     *
+     * @return Dictionary id, or null if none is selected
+     * @throws IOException if the pointer file cannot be read
+     */
+    public Integer getCurrentId() throws IOException {
+        Path current = directory.resolve(CURRENT_FILE);
+        if (!Files.exists(current)) {
+            return null;
+        }
+        String value = new String(Files.readAllBytes(current), StandardCharsets.US_ASCII).trim();
+        try {
+            return (int) Long.parseLong(value, 16);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid current compression dictionary id: " + value);
+            return null;
+        }
+    }
+
+    /**
+     * Store a dictionary and make it the one used for new writes.
+     * Both files are written to a temporary name and renamed into place.
+     *
+     * @param dictionary Dictionary bytes
+     * @return Dictionary id
+     * @throws IOException if the dictionary cannot be written
+     */
+    public int saveAsCurrent(byte[] dictionary) throws IOException {
+        Files.createDirectories(directory);
+        int id = idOf(dictionary);
+        writeAtomically(directory.resolve(fileNameOf(id)), dictionary);
+        writeAtomically(directory.resolve(CURRENT_FILE), hex(id).getBytes(StandardCharsets.US_ASCII));
+        return id;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Dictionary id as printed in file names and logs.
+    public static String hex(int id) {
+        return String.format("%08x", id);
+    }
+
+    private static String fileNameOf(int id) {
+        return hex(id) + DICTIONARY_SUFFIX;
+    }
+
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, content);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,117 @@
+package com.secureapp.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct ByteBuffers for the NIO read path, so reading and
+ * decrypting a chunk does not allocate a new buffer each time.
+ *
+ * Buffers come in power-of-two size classes from MIN_POOLED_BYTES to
+ * MAX_POOLED_BYTES; larger requests get an unpooled buffer. Released
+ * buffers are kept while the pool holds less than its byte budget and
+ * dropped otherwise (the GC frees their memory).
+ *
+ * release() ignores buffers the pool did not hand out: heap buffers,
+ * read-only buffers (such as views of memory-mapped segments) and buffers
+ * whose capacity is not a size class. Callers may therefore release
+ * whatever a BlobStore or BlobCodec returned without checking its origin.
+ */
+public class DirectBufferPool {
+
+    public static final int MIN_POOLED_BYTES = 4 * 1024;
+    public static final int MAX_POOLED_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 32L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_BYTES);
+    private static final int MAX_SHIFT = Integer.numberOfTrailingZeros(MAX_POOLED_BYTES);
+
+    private final long maxRetainedBytes;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] classes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.classes = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Get a direct buffer with position 0 and limit capacity.
+     *
+     * @param capacity Required capacity
+     * @return Buffer with at least that capacity; release it when done
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity > MAX_POOLED_BYTES) {
+            allocations.increment();
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        int sizeClass = sizeClassOf(capacity);
+        ByteBuffer buffer = classes[sizeClass].poll();
+        if (buffer == null) {
+            allocations.increment();
+            buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT));
+        } else {
+            retainedBytes.addAndGet(-buffer.capacity());
+            reuses.increment();
+        }
+        buffer.clear();
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers the pool did not hand out are
+     * ignored, see the class comment.
+     *
+     * @param buffer Buffer, or null
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.isReadOnly()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (capacity < MIN_POOLED_BYTES || capacity > MAX_POOLED_BYTES || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+        classes[sizeClassOf(capacity)].offer(buffer);
+    }
+
+    private static int sizeClassOf(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, MIN_POOLED_BYTES) - 1);
+        return shift - MIN_SHIFT;
+    }
+
+    // Direct buffers allocated (pool misses and oversized requests).
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    // Requests served with a pooled buffer.
+    public long getReuses() {
+        return reuses.sum();
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Direct buffer pool: %d reuses, %d allocations, %d bytes retained",
+                getReuses(), getAllocations(), getRetainedBytes());
+    }
+}
@@ -0,0 +1,36 @@
+package com.secureapp.storage;
+
+/**
+ * Durability guarantee for upload writes.
+ *
+ * - NONE: data is handed to the OS; a crash may lose recent uploads
+ * - BATCHED: a background daemon syncs dirty files every few milliseconds
+ * and uploads complete after the sync covering them
+ * - PER_FILE: each upload forces its own file and directory before
+ * completing
+ */
+public enum DurabilityMode {
+    NONE,
+    BATCHED,
+    PER_FILE;
+
+    /**
+     * Parse a configuration value (case-insensitive, '-' or '_' separated).
+     *
+     * @param value Configured value
+     * @return Matching mode, or PER_FILE if the value is unknown
+     */
+    public static DurabilityMode fromConfig(String value) {
+        if (value == null) {
+            return PER_FILE;
+        }
+        String normalized = value.trim().toUpperCase().replace('-', '_');
+        for (DurabilityMode mode : values()) {
+            if (mode.name().equals(normalized)) {
+                return mode;
+            }
+        }
+        System.err.println("Unknown durability mode '" + value + "', using PER_FILE");
+        return PER_FILE;
+    }
+}
@@ -0,0 +1,228 @@
+package com.secureapp.storage;
+
+import com.secureapp.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the configured DurabilityMode to upload writes.
+ *
+ * - NONE: no fsync at all
+ * - PER_FILE: FileChannel.force on the open channel, then a directory sync
+ * - BATCHED: files are queued as dirty and a daemon syncs all of them (and
+ * each distinct parent directory once) every batch interval; the returned
+ * future completes after the sync that covers the file; after shutdown()
+ * the caller's thread runs that sync itself
+ *
+ * Every file fsync and every batch is timed into a LatencyHistogram so
+ * deployments can compare modes on their own disks.
+ */
+public class FileSyncService {
+
+    private final DurabilityMode mode;
+    private final ConcurrentLinkedQueue<PendingSync> dirtyFiles;
+    private final ScheduledExecutorService syncDaemon;
+    private volatile boolean closed;
+
+    private final LatencyHistogram fileSyncLatency = new LatencyHistogram("file-fsync");
+    private final LatencyHistogram batchSyncLatency = new LatencyHistogram("batch-fsync");
+
+    public FileSyncService(DurabilityMode mode, long batchIntervalMs) {
+        this.mode = mode;
+        this.dirtyFiles = new ConcurrentLinkedQueue<>();
+
+        if (mode == DurabilityMode.BATCHED) {
+            this.syncDaemon = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "batched-fsync-daemon");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncDaemon.scheduleWithFixedDelay(
+                    this::syncDirtyFiles,
+                    batchIntervalMs,
+                    batchIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.syncDaemon = null;
+        }
+    }
+
+    public DurabilityMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Called with the still-open channel once all bytes are written.
+     * Forces the data in PER_FILE mode; a no-op otherwise.
+     *
+     * @param channel Channel the file was written through
+     * @throws IOException if the fsync fails
+     */
+    public void syncBeforeClose(FileChannel channel) throws IOException {
+        if (mode != DurabilityMode.PER_FILE) {
+            return;
+        }
+        long start = System.nanoTime();
+        channel.force(true);
+        fileSyncLatency.recordSince(start);
+    }
+
+    /**
+     * Same as syncBeforeClose(FileChannel), for files written through
+     * AsyncBlobWriter.
+     *
+     * @param channel Channel the file was written through
+     * @throws IOException if the fsync fails
+     */
+    public void syncBeforeClose(AsynchronousFileChannel channel) throws IOException {
+        if (mode != DurabilityMode.PER_FILE) {
+            return;
+        }
+        long start = System.nanoTime();
+        channel.force(true);
+        fileSyncLatency.recordSince(start);
+    }
+
+    /**
+     * Called once the file is visible under its final name.
+     *
+     * @param file Published file
+     * @return Future completed when the file and its directory entry are
+     *         durable under the configured mode
+     */
+    public CompletableFuture<Void> awaitDurable(Path file) {
+        switch (mode) {
+            case PER_FILE:
+                syncDirectory(file.getParent());
+                return CompletableFuture.completedFuture(null);
+            case BATCHED:
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                dirtyFiles.add(new PendingSync(file, future));
+                if (closed) {
+                    // The daemon is gone and may have missed this file: sync it here
+                    syncDirtyFiles();
+                }
+                return future;
+            default:
+                return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Sync every file queued since the previous run.
+     * Runs on the daemon thread, or on callers after shutdown; never throws
+     * so the schedule keeps running.
+     */
+    private void syncDirtyFiles() {
+        List<PendingSync> batch = new ArrayList<>();
+        PendingSync next;
+        while ((next = dirtyFiles.poll()) != null) {
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long batchStart = System.nanoTime();
+        List<PendingSync> synced = new ArrayList<>(batch.size());
+        Set<Path> directories = new LinkedHashSet<>();
+
+        for (PendingSync pending : batch) {
+            try {
+                long start = System.nanoTime();
+                forceFile(pending.file);
+                fileSyncLatency.recordSince(start);
+                directories.add(pending.file.getParent());
+                synced.add(pending);
+            } catch (IOException | RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+        // Recorded first: a caller woken by its future sees the batch counted
+        batchSyncLatency.recordSince(batchStart);
+        for (PendingSync pending : synced) {
+            pending.future.complete(null);
+        }
+    }
+
+    private static void forceFile(Path file) throws IOException {
+        // WRITE access is needed for the flush on Windows; no truncation
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Sync a directory so a completed rename survives a crash.
+     * Not supported on every platform (e.g. Windows), where the rename is
+     * already durable once the call returns.
+     *
+     * @param directory Directory to sync
+     */
+    public static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directory sync not supported on this platform
+        }
+    }
+
+    // Latency of individual file fsyncs (PER_FILE and BATCHED modes).
+    public LatencyHistogram getFileSyncLatency() {
+        return fileSyncLatency;
+    }
+
+    // Latency of whole batches (BATCHED mode only).
+    public LatencyHistogram getBatchSyncLatency() {
+        return batchSyncLatency;
+    }
+
+    /**
+     * Stop the daemon after syncing everything still queued. Files queued
+     * later are synced by the thread that queues them.
+     */
+    public void shutdown() {
+        if (syncDaemon != null && !syncDaemon.isShutdown()) {
+            // Set before the last drain: a file queued after it sees the flag
+            closed = true;
+            syncDaemon.shutdown();
+            try {
+                if (!syncDaemon.awaitTermination(5, TimeUnit.SECONDS)) {
+                    syncDaemon.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                syncDaemon.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            syncDirtyFiles();
+        }
+    }
+
+    // File waiting for the next batched sync.
+    private static class PendingSync {
+        final Path file;
+        final CompletableFuture<Void> future;
+
+        PendingSync(Path file, CompletableFuture<Void> future) {
+            this.file = file;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.secureapp.storage;
+
+/**
+ * Count-Min sketch of recent access frequencies, the TinyLFU admission
+ * filter of DecryptedContentCache.
+ *
+ * Each key has four 4-bit counters (saturating at 15) spread over a table
+ * of longs, and its frequency is the smallest of them. After SAMPLE_FACTOR
+ * times the table size increments, every counter is halved, so old
+ * popularity fades and keys that were hot once do not stay admitted
+ * forever.
+ *
+ * Not thread-safe: the cache calls it under its lock.
+ */
+final class FrequencySketch {
+
+    private static final int SAMPLE_FACTOR = 10;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param expectedEntries Expected number of distinct entries in the cache
+     */
+    FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(16, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = SAMPLE_FACTOR * length;
+    }
+
+    /**
+     * Estimated recent frequency of a key.
+     *
+     * @param keyHash Key hash code
+     * @return Estimate between 0 and 15
+     */
+    int frequency(int keyHash) {
+        int hash = spread(keyHash);
+        int start = (hash & 3) << 2;
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record one access of a key.
+     *
+     * @param keyHash Key hash code
+     */
+    void increment(int keyHash) {
+        int hash = spread(keyHash);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    // Halve every counter; odd counters lose their remainder.
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long mixed = (hash + SEEDS[i]) * SEEDS[i];
+        mixed += mixed >>> 32;
+        return ((int) mixed) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
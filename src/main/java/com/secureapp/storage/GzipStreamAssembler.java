@@ -0,0 +1,207 @@
+package com.secureapp.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Builds a single-member gzip stream (RFC 1952) from independently
+ * compressed pieces, without decompressing the pieces that are already
+ * Deflate data.
+ *
+ * Every piece must end on a byte boundary without a final block, which is
+ * what a Deflater flushed with SYNC_FLUSH produces, and must not refer back
+ * into earlier pieces. Pieces can then simply be concatenated:
+ * - appendDeflate: stored raw Deflate data, copied as is
+ * - appendStored: plaintext wrapped in Deflate stored blocks (no compression)
+ * - appendCompressed: plaintext compressed on the fly
+ * finish() closes the Deflate stream with an empty final block and writes
+ * the trailer, whose CRC-32 is combined from the CRC-32 of each piece.
+ *
+ * A single member matters: several concatenated gzip members are valid
+ * gzip, but some HTTP clients ignore everything after the first one.
+ */
+public class GzipStreamAssembler {
+
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, // magic
+            8, // CM = deflate
+            0, // FLG
+            0, 0, 0, 0, // MTIME unknown
+            0, // XFL
+            (byte) 0xff // OS unknown
+    };
+    // BFINAL=1, BTYPE=01 (fixed Huffman), end-of-block code
+    private static final byte[] FINAL_EMPTY_BLOCK = { 0x03, 0x00 };
+    private static final int MAX_STORED_BLOCK = 65535;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private long crc;
+    private long length;
+    private boolean started;
+
+    public GzipStreamAssembler(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Append a piece of raw Deflate data ending with a sync flush.
+     *
+     * @param deflate         Raw Deflate data
+     * @param offset          Start of the data
+     * @param count           Data length
+     * @param plaintextCrc    CRC-32 of the piece's plaintext
+     * @param plaintextLength Plaintext length of the piece
+     * @throws IOException if writing fails
+     */
+    public void appendDeflate(byte[] deflate, int offset, int count, long plaintextCrc, long plaintextLength)
+            throws IOException {
+        start();
+        out.write(deflate, offset, count);
+        crc = combineCrc32(crc, plaintextCrc, plaintextLength);
+        length += plaintextLength;
+    }
+
+    /**
+     * Append plaintext as Deflate stored blocks.
+     *
+     * @param plaintext Plaintext piece
+     * @throws IOException if writing fails
+     */
+    public void appendStored(byte[] plaintext) throws IOException {
+        start();
+        for (int position = 0; position < plaintext.length; position += MAX_STORED_BLOCK) {
+            int blockLength = Math.min(MAX_STORED_BLOCK, plaintext.length - position);
+            // BFINAL=0, BTYPE=00, then LEN and its one's complement, little-endian
+            out.write(0);
+            out.write(blockLength & 0xFF);
+            out.write(blockLength >>> 8);
+            out.write(~blockLength & 0xFF);
+            out.write((~blockLength >>> 8) & 0xFF);
+            out.write(plaintext, position, blockLength);
+        }
+        updateCrc(plaintext);
+    }
+
+    /**
+     * Compress plaintext and append it.
+     *
+     * @param plaintext Plaintext piece
+     * @throws IOException if writing fails
+     */
+    public void appendCompressed(byte[] plaintext) throws IOException {
+        start();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(plaintext);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, count);
+            } while (count == buffer.length);
+        } finally {
+            deflater.end();
+        }
+        updateCrc(plaintext);
+    }
+
+    /**
+     * Terminate the Deflate stream and write the gzip trailer.
+     *
+     * @throws IOException if writing fails
+     */
+    public void finish() throws IOException {
+        start();
+        out.write(FINAL_EMPTY_BLOCK);
+        writeIntLittleEndian(crc);
+        writeIntLittleEndian(length);
+        out.flush();
+    }
+
+    private void start() throws IOException {
+        if (!started) {
+            out.write(GZIP_HEADER);
+            started = true;
+        }
+    }
+
+    private void updateCrc(byte[] plaintext) {
+        CRC32 pieceCrc = new CRC32();
+        pieceCrc.update(plaintext, 0, plaintext.length);
+        crc = combineCrc32(crc, pieceCrc.getValue(), plaintext.length);
+        length += plaintext.length;
+    }
+
+    private void writeIntLittleEndian(long value) throws IOException {
+        out.write((int) value & 0xFF);
+        out.write((int) (value >>> 8) & 0xFF);
+        out.write((int) (value >>> 16) & 0xFF);
+        out.write((int) (value >>> 24) & 0xFF);
+    }
+
+    /**
+     * CRC-32 of two concatenated pieces from the CRC-32 of each
+     * (crc32_combine from zlib: the first CRC is advanced over length2 zero
+     * bytes by repeated squaring of the CRC shift operator).
+     *
+     * @param crc1    CRC-32 of the first piece
+     * @param crc2    CRC-32 of the second piece
+     * @param length2 Length of the second piece
+     * @return CRC-32 of the concatenation
+     */
+    static long combineCrc32(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // Operator for one zero bit
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // two zero bits
+        gf2MatrixSquare(odd, even); // four zero bits
+
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return (crc1 ^ crc2) & 0xFFFFFFFFL;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+}
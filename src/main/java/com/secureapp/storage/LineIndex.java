@@ -0,0 +1,150 @@
+package com.secureapp.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Sparse line-offset index of a text blob: the byte offset of every
+ * INTERVAL-th line, so a page of lines can be read by seeking to the
+ * nearest checkpoint and skipping at most INTERVAL - 1 lines.
+ *
+ * Lines are numbered from 1 and end with '\n'; a last line without a
+ * newline still counts. Serialized form (stored encrypted by the BlobCodec):
+ * - varint interval, varint line count, varint checkpoint count
+ * - each checkpoint as a varint delta from the previous one
+ * A few hundred bytes cover a file of a hundred thousand lines.
+ */
+public class LineIndex {
+
+    public static final int DEFAULT_INTERVAL = 256;
+
+    private final int interval;
+    private final long lineCount;
+    private final long[] checkpoints;
+
+    private LineIndex(int interval, long lineCount, long[] checkpoints) {
+        this.interval = interval;
+        this.lineCount = lineCount;
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Index content in a single pass.
+     *
+     * @param content  Plaintext
+     * @param interval Lines between checkpoints
+     * @return Line index
+     */
+    public static LineIndex build(byte[] content, int interval) {
+        long[] checkpoints = new long[16];
+        int count = 0;
+        long lines = 0;
+        // A line starts at 0 and after every newline that is not the last byte
+        for (int position = 0; position < content.length; position++) {
+            if (position == 0 || content[position - 1] == '\n') {
+                if (lines % interval == 0) {
+                    if (count == checkpoints.length) {
+                        long[] grown = new long[count * 2];
+                        System.arraycopy(checkpoints, 0, grown, 0, count);
+                        checkpoints = grown;
+                    }
+                    checkpoints[count++] = position;
+                }
+                lines++;
+            }
+        }
+        long[] trimmed = new long[count];
+        System.arraycopy(checkpoints, 0, trimmed, 0, count);
+        return new LineIndex(interval, lines, trimmed);
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Nearest checkpoint at or before a line.
+     *
+     * @param line Line number (1-based, at most getLineCount())
+     * @return Line number of the checkpoint
+     */
+    public long checkpointLine(long line) {
+        return (line - 1) / interval * interval + 1;
+    }
+
+    /**
+     * Byte offset where a checkpoint line starts.
+     *
+     * @param checkpointLine Value returned by checkpointLine
+     * @return Byte offset
+     */
+    public long offsetOf(long checkpointLine) {
+        return checkpoints[(int) ((checkpointLine - 1) / interval)];
+    }
+
+    /**
+     * @return Serialized index
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + checkpoints.length * 2);
+        writeVarint(out, interval);
+        writeVarint(out, lineCount);
+        writeVarint(out, checkpoints.length);
+        long previous = 0;
+        for (long checkpoint : checkpoints) {
+            writeVarint(out, checkpoint - previous);
+            previous = checkpoint;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param data Serialized index
+     * @return Line index
+     * @throws IOException if the data is malformed
+     */
+    public static LineIndex fromBytes(byte[] data) throws IOException {
+        int[] position = { 0 };
+        long interval = readVarint(data, position);
+        long lineCount = readVarint(data, position);
+        long count = readVarint(data, position);
+        if (interval <= 0 || interval > Integer.MAX_VALUE || count > data.length
+                || count != (lineCount + interval - 1) / interval) {
+            throw new IOException("Malformed line index");
+        }
+        long[] checkpoints = new long[(int) count];
+        long previous = 0;
+        for (int i = 0; i < checkpoints.length; i++) {
+            previous += readVarint(data, position);
+            checkpoints[i] = previous;
+        }
+        return new LineIndex((int) interval, lineCount, checkpoints);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IOException("Truncated line index");
+            }
+            int b = data[position[0]++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed line index");
+    }
+}
@@ -0,0 +1,192 @@
+package com.secureapp.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * One-file-per-blob store on the local filesystem.
+ *
+ * Write path:
+ * - Blob is written to a CREATE_NEW staging file next to its final path
+ * - In PER_FILE durability mode the data is forced before the rename
+ * - Staging file is atomically renamed into the sharded layout
+ * - put() returns once FileSyncService reports the file durable
+ *
+ * putAsync() runs the same steps through an AsyncBlobWriter when one is
+ * configured, and falls back to put() otherwise.
+ *
+ * Blobs written before sharding are still served from the flat layout
+ * while the ShardMigrator moves them.
+ */
+public class LocalFileBlobStore implements BlobStore {
+
+    public static final String STAGING_SUFFIX = ".tmp";
+
+    private final UploadDirectoryLayout layout;
+    private final FileSyncService syncService;
+    private final ShardMigrator shardMigrator;
+    private final AsyncBlobWriter asyncWriter;
+
+    public LocalFileBlobStore(Path root, FileSyncService syncService) throws IOException {
+        this(root, syncService, null);
+    }
+
+    /**
+     * @param asyncWriter Writer for putAsync(), or null to write
+     *                    synchronously (closed with the store)
+     */
+    public LocalFileBlobStore(Path root, FileSyncService syncService, AsyncBlobWriter asyncWriter)
+            throws IOException {
+        Files.createDirectories(root);
+        this.layout = new UploadDirectoryLayout(root);
+        this.syncService = syncService;
+        this.shardMigrator = new ShardMigrator(layout, STAGING_SUFFIX);
+        this.asyncWriter = asyncWriter;
+    }
+
+    /**
+     * Start background migration of flat-layout files.
+     * Called after startup recovery so interrupted uploads are resolved first.
+     */
+    public void startMigration() {
+        shardMigrator.start();
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws IOException {
+        validateKey(key);
+        Path targetPath = layout.resolve(key);
+        Path stagingPath = stagingPathFor(targetPath);
+
+        if (layout.exists(key)) {
+            throw new FileAlreadyExistsException(key);
+        }
+        Files.createDirectories(targetPath.getParent());
+
+        try {
+            try (FileChannel channel = FileChannel.open(stagingPath,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                syncService.syncBeforeClose(channel);
+            }
+
+            Files.move(stagingPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+            awaitDurable(syncService.awaitDurable(targetPath), key);
+
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(stagingPath);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, byte[] data) throws IOException {
+        if (asyncWriter == null) {
+            put(key, data);
+            return CompletableFuture.completedFuture(null);
+        }
+        validateKey(key);
+        Path targetPath = layout.resolve(key);
+
+        if (layout.exists(key)) {
+            throw new FileAlreadyExistsException(key);
+        }
+        Files.createDirectories(targetPath.getParent());
+        return asyncWriter.write(stagingPathFor(targetPath), targetPath, data);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        validateKey(key);
+        return layout.readAllBytes(key);
+    }
+
+    @Override
+    public ByteBuffer getBuffer(String key, DirectBufferPool pool) throws IOException {
+        validateKey(key);
+        return layout.readAll(key, pool);
+    }
+
+    @Override
+    public InputStream stream(String key) throws IOException {
+        validateKey(key);
+        Path path = layout.locate(key);
+        try {
+            return Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            // Migrated between locate() and open
+            return Files.newInputStream(layout.resolve(key));
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        validateKey(key);
+        Files.deleteIfExists(stagingPathFor(layout.resolve(key)));
+        Files.deleteIfExists(stagingPathFor(layout.legacyPath(key)));
+        return layout.delete(key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        validateKey(key);
+        return layout.exists(key);
+    }
+
+    @Override
+    public void close() {
+        shardMigrator.shutdown();
+        if (asyncWriter != null) {
+            asyncWriter.shutdown();
+        }
+    }
+
+    // Writer behind putAsync(), or null if writes are synchronous.
+    public AsyncBlobWriter getAsyncWriter() {
+        return asyncWriter;
+    }
+
+    private static Path stagingPathFor(Path targetPath) {
+        return targetPath.resolveSibling(targetPath.getFileName() + STAGING_SUFFIX);
+    }
+
+    private static void awaitDurable(CompletableFuture<Void> syncFuture, String key) throws IOException {
+        try {
+            syncFuture.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("File sync failed: " + key, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for file sync: " + key, e);
+        }
+    }
+
+    /**
+     * Keys are plain file names; anything that could escape the upload
+     * directory is rejected.
+     */
+    private static void validateKey(String key) {
+        if (key == null || key.isEmpty() || key.equals(".") || key.equals("..")
+                || key.indexOf('/') >= 0 || key.indexOf('\\') >= 0 || key.indexOf('\0') >= 0
+                || key.endsWith(STAGING_SUFFIX)) {
+            throw new IllegalArgumentException("Invalid blob key");
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.secureapp.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fork/join driver that compresses, encrypts or decrypts the chunks of one
+ * large file on several cores.
+ *
+ * Chunks are stored as independent blobs, each with its own IV and tag
+ * (see BlobCodec), so they can be processed in any order. A batch is split
+ * in halves recursively down to single chunks, and idle workers steal the
+ * halves. Batches of fewer than two chunks or below parallelThreshold
+ * bytes run on the calling thread, where fork/join overhead would exceed
+ * the gain.
+ *
+ * The pool is shared by all callers, so several large files together never
+ * use more than its parallelism on top of the calling threads.
+ */
+public class ParallelChunkCodec {
+
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Work on one chunk.
+     */
+    public interface ChunkFunction<T, R> {
+        R apply(T chunk) throws Exception;
+    }
+
+    private final BlobCodec codec;
+    private final ForkJoinPool pool;
+    private final long parallelThreshold;
+
+    private final LongAdder parallelBatches = new LongAdder();
+    private final LongAdder sequentialBatches = new LongAdder();
+
+    /**
+     * @param codec             Codec for the chunks
+     * @param parallelism       Fork/join worker threads
+     * @param parallelThreshold Smallest batch, in bytes, processed in
+     *                          parallel
+     */
+    public ParallelChunkCodec(BlobCodec codec, int parallelism, long parallelThreshold) {
+        this.codec = codec;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("chunk-codec-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Compress (when it pays off) and encrypt chunks.
+     *
+     * @param plaintexts Chunk plaintexts
+     * @return Stored bytes, in the same order
+     * @throws Exception if encryption fails
+     */
+    public List<byte[]> encode(List<byte[]> plaintexts) throws Exception {
+        return map(plaintexts, totalLength(plaintexts), codec::encode);
+    }
+
+    /**
+     * First half of encode(), see BlobCodec.compress().
+     *
+     * @param plaintexts Chunk plaintexts
+     * @return Compressed chunks, in the same order
+     * @throws Exception never in practice; declared for the shared driver
+     */
+    public List<BlobCodec.CompressedBlob> compress(List<byte[]> plaintexts) throws Exception {
+        return map(plaintexts, totalLength(plaintexts), codec::compress);
+    }
+
+    /**
+     * Second half of encode(), see BlobCodec.encrypt().
+     *
+     * @param blobs Compressed chunks
+     * @return Stored bytes, in the same order
+     * @throws Exception if encryption fails
+     */
+    public List<byte[]> encrypt(List<BlobCodec.CompressedBlob> blobs) throws Exception {
+        long total = 0;
+        for (BlobCodec.CompressedBlob blob : blobs) {
+            total += blob.getPayloadLength();
+        }
+        return map(blobs, total, codec::encrypt);
+    }
+
+    /**
+     * Decrypt and decompress chunks.
+     *
+     * @param stored Stored chunks
+     * @return Plaintexts, in the same order
+     * @throws Exception if decryption fails
+     */
+    public List<byte[]> decode(List<byte[]> stored) throws Exception {
+        return map(stored, totalLength(stored), codec::decode);
+    }
+
+    /**
+     * Apply a function to every chunk, in parallel if the batch is large
+     * enough. The first failure is rethrown once all forked work is done.
+     *
+     * @param chunks     Inputs
+     * @param totalBytes Size of the batch, compared with the threshold
+     * @param function   Work on one chunk
+     * @return Results, in input order
+     * @throws Exception the first failure of the function
+     */
+    public <T, R> List<R> map(List<T> chunks, long totalBytes, ChunkFunction<T, R> function) throws Exception {
+        Object[] results = new Object[chunks.size()];
+        if (chunks.size() < 2 || totalBytes < parallelThreshold) {
+            sequentialBatches.increment();
+            for (int i = 0; i < results.length; i++) {
+                results[i] = function.apply(chunks.get(i));
+            }
+            return toList(results);
+        }
+
+        parallelBatches.increment();
+        MapAction<T, R> task = new MapAction<>(chunks, function, results, 0, chunks.size());
+        pool.invoke(task);
+        Throwable failure = task.failure();
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        }
+        if (failure != null) {
+            throw (Error) failure;
+        }
+        return toList(results);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> List<R> toList(Object[] results) {
+        return new ArrayList<>((List<R>) Arrays.asList(results));
+    }
+
+    private static long totalLength(List<byte[]> chunks) {
+        long total = 0;
+        for (byte[] chunk : chunks) {
+            total += chunk.length;
+        }
+        return total;
+    }
+
+    // Splits [from, to) in halves down to single chunks.
+    private static final class MapAction<T, R> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> chunks;
+        private final ChunkFunction<T, R> function;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private volatile Throwable failure;
+        private MapAction<T, R> left;
+        private MapAction<T, R> right;
+
+        MapAction(List<T> chunks, ChunkFunction<T, R> function, Object[] results, int from, int to) {
+            this.chunks = chunks;
+            this.function = function;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    results[from] = function.apply(chunks.get(from));
+                } catch (Exception | Error e) {
+                    failure = e;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            left = new MapAction<>(chunks, function, results, from, middle);
+            right = new MapAction<>(chunks, function, results, middle, to);
+            invokeAll(left, right);
+        }
+
+        // First failure in chunk order.
+        Throwable failure() {
+            if (failure != null) {
+                return failure;
+            }
+            Throwable leftFailure = left != null ? left.failure() : null;
+            return leftFailure != null ? leftFailure : right != null ? right.failure() : null;
+        }
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    // Batches split across the pool.
+    public long getParallelBatches() {
+        return parallelBatches.sum();
+    }
+
+    // Batches run on the calling thread (too small or a single chunk).
+    public long getSequentialBatches() {
+        return sequentialBatches.sum();
+    }
+
+    // Tasks stolen by idle workers since startup.
+    public long getSteals() {
+        return pool.getStealCount();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Parallel chunk codec (%d workers, threshold %d bytes): %d parallel batches, "
+                + "%d sequential, %d steals", getParallelism(), parallelThreshold, getParallelBatches(),
+                getSequentialBatches(), getSteals());
+    }
+}
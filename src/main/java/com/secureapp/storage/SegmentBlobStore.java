@@ -0,0 +1,679 @@
+package com.secureapp.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured blob store that appends many small blobs into large
+ * preallocated, memory-mapped segment files.
+ *
+ * Segment file layout: a sequence of records, zero-filled after the last
+ * one. Record format (big-endian):
+ * [4-byte magic][1-byte type][2-byte key length][key UTF-8]
+ * [4-byte data length][data][4-byte CRC32 of type..data]
+ *
+ * - PUT records carry the blob; DELETE records are tombstones with no data
+ * - An in-memory index maps each key to (segment, offset, length) and is
+ * rebuilt by scanning the segments at startup
+ * - Writes are serialized and appended to the active segment; a new
+ * segment is preallocated when the active one is full
+ * - Reads copy straight out of the mapping without any file open/close
+ *
+ * Durability: with any mode other than NONE, put() and delete() force the
+ * segment before returning. Forces are group-committed: a writer whose
+ * record was already covered by another writer's force does not force again.
+ *
+ * Compaction: deleted blobs keep their bytes until their segment is
+ * compacted. Each sealed segment tracks its live bytes; compact() picks the
+ * sealed segment with the lowest live ratio (below 50%), appends its live
+ * blobs to the active segment, forces them and deletes the old file.
+ * Tombstones are carried forward only while the segment holding the deleted
+ * PUT still exists, so a deleted key can never reappear on replay.
+ *
+ * A compacted segment is retired before its file is deleted: its first
+ * record's magic is zeroed, so it replays as empty. Where a mapped file
+ * cannot be deleted (Windows keeps it until the mapping is collected), the
+ * retired file is deleted by a later compact(), by close(), or at the next
+ * startup before it is mapped.
+ */
+public class SegmentBlobStore implements BlobStore {
+
+    private static final int RECORD_MAGIC = 0x53454731; // "SEG1"
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    // magic + type + key length + data length + crc
+    private static final int RECORD_OVERHEAD = 4 + 1 + 2 + 4 + 4;
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+    // Sealed segments with less live data than this are compacted
+    private static final double COMPACTION_MAX_LIVE_RATIO = 0.5;
+
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final DurabilityMode durabilityMode;
+
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, BlobLocation> index = new ConcurrentHashMap<>();
+    private final Object syncLock = new Object();
+
+    // Guarded by this
+    private Segment activeSegment;
+    // Compacted segment files not deleted yet; guarded by this
+    private final Set<Path> retiredPaths = new LinkedHashSet<>();
+
+    public SegmentBlobStore(Path directory, long segmentSize, DurabilityMode durabilityMode) throws IOException {
+        if (segmentSize <= RECORD_OVERHEAD || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.durabilityMode = durabilityMode;
+
+        Files.createDirectories(directory);
+        loadSegments();
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws IOException {
+        byte[] keyBytes = encodeKey(key);
+        Segment segment;
+        int end;
+
+        synchronized (this) {
+            if (index.containsKey(key)) {
+                throw new FileAlreadyExistsException(key);
+            }
+
+            int recordLength = RECORD_OVERHEAD + keyBytes.length + data.length;
+            segment = segmentWithSpace(recordLength);
+            int dataOffset = appendRecord(segment, TYPE_PUT, keyBytes, data);
+            end = segment.writePosition;
+
+            segment.liveBytes += recordLength;
+            index.put(key, new BlobLocation(segment.id, dataOffset, data.length, recordLength));
+        }
+
+        syncUpTo(segment, end);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        ByteBuffer view = viewOf(key);
+        byte[] data = new byte[view.remaining()];
+        view.get(data);
+        return data;
+    }
+
+    // Zero-copy: a read-only view of the mapped segment, which the pool ignores on release.
+    @Override
+    public ByteBuffer getBuffer(String key, DirectBufferPool pool) throws IOException {
+        return viewOf(key).asReadOnlyBuffer();
+    }
+
+    @Override
+    public InputStream stream(String key) throws IOException {
+        return new ByteBufferInputStream(viewOf(key));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        byte[] keyBytes = encodeKey(key);
+        Segment segment;
+        int end;
+
+        synchronized (this) {
+            BlobLocation removed = index.remove(key);
+            if (removed == null) {
+                return false;
+            }
+            releaseLiveBytes(removed);
+            segment = segmentWithSpace(RECORD_OVERHEAD + keyBytes.length);
+            appendRecord(segment, TYPE_DELETE, keyBytes, new byte[0]);
+            end = segment.writePosition;
+            trackTombstone(segment, key, removed);
+        }
+
+        syncUpTo(segment, end);
+        return true;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        synchronized (syncLock) {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        }
+        deleteRetired();
+    }
+
+    /**
+     * Bytes of dead records (overwritten or deleted blobs and tombstones)
+     * across all segments.
+     */
+    @Override
+    public long getReclaimableBytes() {
+        long reclaimable = 0;
+        for (Segment segment : segments.values()) {
+            reclaimable += segment.writePosition - segment.liveBytes;
+        }
+        return reclaimable;
+    }
+
+    /**
+     * Compact at most one sealed segment.
+     * Live blobs and still-needed tombstones are appended to the active
+     * segment and forced regardless of the durability mode, because the old
+     * segment file is deleted right after. Readers that resolved a blob in
+     * the old segment keep reading from its mapping; readers that look it up
+     * afterwards are sent to the new location.
+     *
+     * @return Dead bytes released, or 0 if no segment needed compaction
+     */
+    @Override
+    public long compact() throws IOException {
+        synchronized (this) {
+            deleteRetired();
+            Segment victim = pickCompactionVictim();
+            if (victim == null) {
+                return 0;
+            }
+            long reclaimed = victim.writePosition - victim.liveBytes;
+            Set<Segment> written = new LinkedHashSet<>();
+
+            for (Map.Entry<String, BlobLocation> entry : index.entrySet()) {
+                BlobLocation location = entry.getValue();
+                if (location.segmentId != victim.id) {
+                    continue;
+                }
+                byte[] data = new byte[location.length];
+                view(location).get(data);
+
+                Segment target = segmentWithSpace(location.recordLength);
+                int dataOffset = appendRecord(target, TYPE_PUT, encodeKey(entry.getKey()), data);
+                target.liveBytes += location.recordLength;
+                index.put(entry.getKey(),
+                        new BlobLocation(target.id, dataOffset, location.length, location.recordLength));
+                written.add(target);
+            }
+
+            for (Map.Entry<String, Integer> tombstone : victim.tombstones.entrySet()) {
+                String key = tombstone.getKey();
+                int deletedSegmentId = tombstone.getValue();
+                // Re-put since, or the deleted PUT is already gone: no longer needed
+                if (index.containsKey(key) || !segments.containsKey(deletedSegmentId)) {
+                    continue;
+                }
+                byte[] keyBytes = encodeKey(key);
+                Segment target = segmentWithSpace(RECORD_OVERHEAD + keyBytes.length);
+                appendRecord(target, TYPE_DELETE, keyBytes, new byte[0]);
+                target.tombstones.put(key, deletedSegmentId);
+                written.add(target);
+            }
+
+            for (Segment segment : written) {
+                forceSegment(segment);
+            }
+
+            // Everything still needed is durable elsewhere: a file left behind replays as empty
+            synchronized (syncLock) {
+                victim.buffer.putInt(0, 0);
+                victim.buffer.force();
+            }
+            segments.remove(victim.id);
+            victim.channel.close();
+            retiredPaths.add(victim.path);
+            deleteRetired();
+            FileSyncService.syncDirectory(directory);
+
+            System.out.println(String.format("Segment store: compacted %s, %d dead bytes reclaimed",
+                    victim.path.getFileName(), reclaimed));
+            return reclaimed;
+        }
+    }
+
+    // Delete retired segment files; ones still mapped are retried later. Caller holds the store monitor.
+    private void deleteRetired() {
+        Iterator<Path> paths = retiredPaths.iterator();
+        while (paths.hasNext()) {
+            Path path = paths.next();
+            try {
+                Files.deleteIfExists(path);
+                paths.remove();
+            } catch (IOException e) {
+                System.err.println("Segment store: cannot delete retired " + path.getFileName() + " yet: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    // Number of live blobs.
+    public int getBlobCount() {
+        return index.size();
+    }
+
+    // Number of segment files.
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private BlobLocation locate(String key) throws NoSuchFileException {
+        BlobLocation location = key == null ? null : index.get(key);
+        if (location == null) {
+            throw new NoSuchFileException(String.valueOf(key));
+        }
+        return location;
+    }
+
+    /**
+     * Resolve a key to a view of its data. If the segment was compacted
+     * away between the index lookup and the view, the key is looked up again.
+     */
+    private ByteBuffer viewOf(String key) throws IOException {
+        BlobLocation location = locate(key);
+        Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            location = locate(key);
+            segment = segments.get(location.segmentId);
+        }
+        if (segment == null) {
+            throw new IOException("Segment " + location.segmentId + " is missing");
+        }
+        return view(segment, location);
+    }
+
+    private ByteBuffer view(BlobLocation location) throws IOException {
+        Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            throw new IOException("Segment " + location.segmentId + " is missing");
+        }
+        return view(segment, location);
+    }
+
+    private static ByteBuffer view(Segment segment, BlobLocation location) {
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position(location.offset);
+        view.limit(location.offset + location.length);
+        return view.slice();
+    }
+
+    /**
+     * Sealed segment with the lowest live ratio below the compaction
+     * threshold, or null. Caller holds the store monitor.
+     */
+    private Segment pickCompactionVictim() {
+        Segment victim = null;
+        double lowestRatio = COMPACTION_MAX_LIVE_RATIO;
+        for (Segment segment : segments.values()) {
+            if (segment == activeSegment) {
+                continue;
+            }
+            double ratio = segment.writePosition == 0 ? 0 : (double) segment.liveBytes / segment.writePosition;
+            if (ratio < lowestRatio) {
+                lowestRatio = ratio;
+                victim = segment;
+            }
+        }
+        return victim;
+    }
+
+    // Account for a PUT record that is no longer live. Caller holds the store monitor.
+    private void releaseLiveBytes(BlobLocation location) {
+        Segment segment = segments.get(location.segmentId);
+        if (segment != null) {
+            segment.liveBytes -= location.recordLength;
+        }
+    }
+
+    /**
+     * Remember which segment a tombstone deletes from. A tombstone in the
+     * same segment as its PUT dies with it and needs no tracking.
+     */
+    private static void trackTombstone(Segment segment, String key, BlobLocation deleted) {
+        if (deleted.segmentId != segment.id) {
+            segment.tombstones.put(key, deleted.segmentId);
+        }
+    }
+
+    /**
+     * Return the active segment, rolling to a new one if the record does
+     * not fit. Blobs larger than the segment size get a dedicated segment.
+     */
+    private Segment segmentWithSpace(int recordLength) throws IOException {
+        if (activeSegment != null && activeSegment.capacity - activeSegment.writePosition >= recordLength) {
+            return activeSegment;
+        }
+
+        int nextId = activeSegment == null ? 1 : activeSegment.id + 1;
+        long size = Math.max(segmentSize, recordLength);
+        if (size > MAX_SEGMENT_SIZE) {
+            throw new IOException("Blob too large for segment store: " + recordLength + " bytes");
+        }
+
+        if (activeSegment != null) {
+            // Seal the previous segment so its tail is durable before moving on
+            syncUpTo(activeSegment, activeSegment.writePosition);
+        }
+        activeSegment = createSegment(nextId, size);
+        return activeSegment;
+    }
+
+    /**
+     * Write one record at the segment's write position.
+     *
+     * @return Offset of the data within the segment
+     */
+    private static int appendRecord(Segment segment, byte type, byte[] keyBytes, byte[] data) {
+        ByteBuffer out = segment.buffer.duplicate();
+        int start = segment.writePosition;
+        out.position(start);
+
+        out.putInt(RECORD_MAGIC);
+        out.put(type);
+        out.putShort((short) keyBytes.length);
+        out.put(keyBytes);
+        out.putInt(data.length);
+        int dataOffset = out.position();
+        out.put(data);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer covered = segment.buffer.duplicate();
+        covered.position(start + 4);
+        covered.limit(out.position());
+        crc.update(covered);
+        out.putInt((int) crc.getValue());
+
+        segment.writePosition = out.position();
+        return dataOffset;
+    }
+
+    /**
+     * Force the segment up to the given write position (group commit).
+     */
+    private void syncUpTo(Segment segment, int end) {
+        if (durabilityMode == DurabilityMode.NONE) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (segment.syncedPosition >= end) {
+                return;
+            }
+            int target = segment.writePosition;
+            segment.buffer.force();
+            segment.syncedPosition = target;
+        }
+    }
+
+    // Force the whole segment regardless of the durability mode.
+    private void forceSegment(Segment segment) {
+        synchronized (syncLock) {
+            int target = segment.writePosition;
+            segment.buffer.force();
+            segment.syncedPosition = target;
+        }
+    }
+
+    private Segment createSegment(int id, long size) throws IOException {
+        Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        FileSyncService.syncDirectory(directory);
+
+        Segment segment = openSegment(id, path);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static Segment openSegment(int id, Path path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        FileChannel channel = file.getChannel();
+        long size = channel.size();
+        if (size > MAX_SEGMENT_SIZE) {
+            channel.close();
+            throw new IOException("Segment too large: " + path.getFileName());
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new Segment(id, path, channel, buffer);
+    }
+
+    /**
+     * Map every segment and rebuild the index by replaying records in order.
+     * The last segment is reused for appends only if it ended cleanly;
+     * after a torn tail a fresh segment is started so stale bytes beyond
+     * the tear can never be read back as records.
+     */
+    private void loadSegments() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(ids);
+
+        boolean cleanTail = true;
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
+            Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+            if (i < ids.size() - 1 && isEmpty(path)) {
+                // Retired by a compaction whose delete failed, or preallocated and never used
+                Files.deleteIfExists(path);
+                continue;
+            }
+            Segment segment = openSegment(id, path);
+            segments.put(id, segment);
+            cleanTail = replay(segment);
+            segment.syncedPosition = segment.writePosition;
+            activeSegment = segment;
+        }
+
+        if (activeSegment != null && !cleanTail) {
+            System.err.println("Segment store: torn record at end of " + activeSegment.path.getFileName()
+                    + ", starting a new segment");
+            activeSegment = createSegment(activeSegment.id + 1, segmentSize);
+        }
+        if (!ids.isEmpty()) {
+            System.out.println(String.format("Segment store: %d segments, %d blobs indexed",
+                    segments.size(), index.size()));
+        }
+    }
+
+    // True if the file does not start with a record; read without mapping so it can still be deleted.
+    private static boolean isEmpty(Path path) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading
+            }
+        }
+        return magic.hasRemaining() || magic.getInt(0) != RECORD_MAGIC;
+    }
+
+    /**
+     * Replay the records of one segment into the index.
+     *
+     * @return true if the segment ended cleanly (zero fill or exactly full)
+     */
+    private boolean replay(Segment segment) {
+        ByteBuffer in = segment.buffer.duplicate();
+        CRC32 crc = new CRC32();
+        int position = 0;
+
+        while (true) {
+            if (segment.capacity - position < RECORD_OVERHEAD) {
+                segment.writePosition = position;
+                return true;
+            }
+            in.limit(segment.capacity);
+            in.position(position);
+
+            int magic = in.getInt();
+            if (magic != RECORD_MAGIC) {
+                segment.writePosition = position;
+                return magic == 0;
+            }
+
+            byte type = in.get();
+            int keyLength = in.getShort() & 0xFFFF;
+            if (in.remaining() < keyLength + 8) {
+                segment.writePosition = position;
+                return false;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            in.get(keyBytes);
+            int dataLength = in.getInt();
+            int dataOffset = in.position();
+            if (dataLength < 0 || segment.capacity - dataOffset - 4 < dataLength) {
+                segment.writePosition = position;
+                return false;
+            }
+
+            ByteBuffer covered = segment.buffer.duplicate();
+            covered.position(position + 4);
+            covered.limit(dataOffset + dataLength);
+            crc.reset();
+            crc.update(covered);
+
+            in.position(dataOffset + dataLength);
+            if (in.getInt() != (int) crc.getValue()) {
+                segment.writePosition = position;
+                return false;
+            }
+
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            int recordLength = in.position() - position;
+            if (type == TYPE_PUT) {
+                // A later copy (left by an interrupted compaction) supersedes the earlier one
+                BlobLocation previous = index.put(key,
+                        new BlobLocation(segment.id, dataOffset, dataLength, recordLength));
+                if (previous != null) {
+                    releaseLiveBytes(previous);
+                }
+                segment.liveBytes += recordLength;
+            } else if (type == TYPE_DELETE) {
+                BlobLocation removed = index.remove(key);
+                if (removed != null) {
+                    releaseLiveBytes(removed);
+                    trackTombstone(segment, key, removed);
+                }
+            }
+            position = in.position();
+        }
+    }
+
+    private static byte[] encodeKey(String key) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("Invalid blob key");
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Blob key too long");
+        }
+        return keyBytes;
+    }
+
+    // One memory-mapped segment file.
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        // Written under the store monitor, read by syncUpTo
+        volatile int writePosition;
+        // Guarded by syncLock
+        int syncedPosition;
+        // Bytes of live PUT records; written under the store monitor
+        volatile long liveBytes;
+        // Tombstoned key -> segment holding the deleted PUT; guarded by the store monitor
+        final Map<String, Integer> tombstones = new HashMap<>();
+
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+    }
+
+    // Position of a live blob's data and the size of its whole record.
+    private static final class BlobLocation {
+        final int segmentId;
+        final int offset;
+        final int length;
+        final int recordLength;
+
+        BlobLocation(int segmentId, int offset, int length, int recordLength) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+    }
+
+    // InputStream over a read-only view of a mapped blob.
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
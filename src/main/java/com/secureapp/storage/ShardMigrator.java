@@ -0,0 +1,165 @@
+package com.secureapp.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online background migration from the flat upload directory to the
+ * sharded UploadDirectoryLayout.
+ *
+ * Migration strategy:
+ * - Files are moved in throttled batches (batch size + pause between batches)
+ * so the migration never competes with uploads for the disk
+ * - Each move is an atomic rename within the same filesystem
+ * - Reads keep falling back to the flat location until no legacy file is
+ * left, then the fallback is switched off and the migrator stops
+ * - Staging files of in-flight uploads are never touched
+ */
+public class ShardMigrator {
+
+    private static final int DEFAULT_BATCH_SIZE = 200;
+    private static final long DEFAULT_BATCH_INTERVAL_MS = 250;
+
+    private final UploadDirectoryLayout layout;
+    private final String stagingSuffix;
+    private final int batchSize;
+    private final long batchIntervalMs;
+    private final ScheduledExecutorService scheduler;
+    private final Set<String> conflicts = new HashSet<>();
+
+    private final AtomicLong migratedFiles = new AtomicLong();
+    private volatile boolean complete;
+
+    public ShardMigrator(UploadDirectoryLayout layout, String stagingSuffix) {
+        this(layout, stagingSuffix, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_INTERVAL_MS);
+    }
+
+    public ShardMigrator(UploadDirectoryLayout layout, String stagingSuffix, int batchSize, long batchIntervalMs) {
+        this.layout = layout;
+        this.stagingSuffix = stagingSuffix;
+        this.batchSize = batchSize;
+        this.batchIntervalMs = batchIntervalMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-shard-migrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start migrating in the background.
+     * If there is nothing to migrate the fallback is disabled immediately.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                migrateBatch();
+                if (complete) {
+                    scheduler.shutdown();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Shard migration batch failed, will retry: " + e.getMessage());
+            }
+        }, 0, batchIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Move one batch of legacy files into their shard directories.
+     *
+     * @return Number of files moved
+     * @throws IOException if the upload directory cannot be listed
+     */
+    public synchronized int migrateBatch() throws IOException {
+        if (complete) {
+            return 0;
+        }
+
+        List<Path> batch = collectLegacyFiles();
+        if (batch.isEmpty()) {
+            finish();
+            return 0;
+        }
+
+        int moved = 0;
+        Set<Path> touchedDirectories = new LinkedHashSet<>();
+        for (Path legacy : batch) {
+            String storedFilename = legacy.getFileName().toString();
+            Path target = layout.resolve(storedFilename);
+
+            Files.createDirectories(target.getParent());
+            if (Files.exists(target)) {
+                System.err.println("Shard migration: " + storedFilename + " exists in both layouts, leaving legacy copy");
+                conflicts.add(storedFilename);
+                continue;
+            }
+
+            Files.move(legacy, target, StandardCopyOption.ATOMIC_MOVE);
+            touchedDirectories.add(target.getParent());
+            moved++;
+        }
+
+        touchedDirectories.add(layout.getRoot());
+        for (Path directory : touchedDirectories) {
+            FileSyncService.syncDirectory(directory);
+        }
+
+        migratedFiles.addAndGet(moved);
+        return moved;
+    }
+
+    private List<Path> collectLegacyFiles() throws IOException {
+        List<Path> batch = new ArrayList<>(batchSize);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(layout.getRoot())) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS)
+                        || name.endsWith(stagingSuffix)
+                        || conflicts.contains(name)) {
+                    continue;
+                }
+                batch.add(entry);
+                if (batch.size() >= batchSize) {
+                    break;
+                }
+            }
+        }
+        return batch;
+    }
+
+    private void finish() {
+        complete = true;
+        if (conflicts.isEmpty()) {
+            layout.disableLegacyFallback();
+        }
+        if (migratedFiles.get() > 0 || !conflicts.isEmpty()) {
+            System.out.println(String.format(
+                    "Shard migration complete: %d files moved, %d conflicts left in flat layout",
+                    migratedFiles.get(), conflicts.size()));
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getMigratedFiles() {
+        return migratedFiles.get();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,195 @@
+package com.secureapp.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashed two-level directory layout for stored upload files.
+ *
+ * A stored filename is placed under two levels of hex prefixes taken from
+ * the SHA-256 of the name, e.g. file_123.txt -> 3f/a9/file_123.txt, which
+ * spreads files over 65,536 directories and keeps each one small.
+ *
+ * Files written before sharding live directly in the root ("legacy" flat
+ * layout). Until the ShardMigrator reports completion, lookups fall back to
+ * that location.
+ */
+public class UploadDirectoryLayout {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path root;
+    private volatile boolean legacyFallback;
+
+    public UploadDirectoryLayout(Path root) {
+        this.root = root;
+        this.legacyFallback = true;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Sharded location of a stored file (where new files are written).
+     *
+     * @param storedFilename Stored filename
+     * @return root/xx/yy/storedFilename
+     */
+    public Path resolve(String storedFilename) {
+        byte[] digest = sha256(storedFilename);
+        String level1 = hex(digest[0]);
+        String level2 = hex(digest[1]);
+        return root.resolve(level1).resolve(level2).resolve(storedFilename);
+    }
+
+    /**
+     * Pre-sharding location of a stored file.
+     */
+    public Path legacyPath(String storedFilename) {
+        return root.resolve(storedFilename);
+    }
+
+    /**
+     * Find the current location of a stored file.
+     *
+     * @param storedFilename Stored filename
+     * @return Existing sharded or legacy path, or the sharded path if the
+     *         file exists in neither
+     */
+    public Path locate(String storedFilename) {
+        Path sharded = resolve(storedFilename);
+        if (!legacyFallback || Files.exists(sharded)) {
+            return sharded;
+        }
+
+        Path legacy = legacyPath(storedFilename);
+        return Files.exists(legacy) ? legacy : sharded;
+    }
+
+    /**
+     * Read a stored file, tolerating a concurrent move by the migrator.
+     * Tries the sharded path, then the legacy path, then the sharded path
+     * again in case the file was migrated between the first two reads.
+     *
+     * @param storedFilename Stored filename
+     * @return File bytes
+     * @throws IOException if the file exists in neither location
+     */
+    public byte[] readAllBytes(String storedFilename) throws IOException {
+        Path sharded = resolve(storedFilename);
+        try {
+            return Files.readAllBytes(sharded);
+        } catch (NoSuchFileException e) {
+            if (!legacyFallback) {
+                throw e;
+            }
+        }
+
+        try {
+            return Files.readAllBytes(legacyPath(storedFilename));
+        } catch (NoSuchFileException e) {
+            return Files.readAllBytes(sharded);
+        }
+    }
+
+    /**
+     * Read a stored file into a pooled direct buffer with a FileChannel,
+     * tolerating a concurrent move like readAllBytes.
+     *
+     * @param storedFilename Stored filename
+     * @param pool           Pool to take the buffer from
+     * @return Buffer holding the file bytes (position 0, limit at the end)
+     * @throws IOException if the file exists in neither location
+     */
+    public ByteBuffer readAll(String storedFilename, DirectBufferPool pool) throws IOException {
+        Path sharded = resolve(storedFilename);
+        try {
+            return readAll(sharded, pool);
+        } catch (NoSuchFileException e) {
+            if (!legacyFallback) {
+                throw e;
+            }
+        }
+
+        try {
+            return readAll(legacyPath(storedFilename), pool);
+        } catch (NoSuchFileException e) {
+            return readAll(sharded, pool);
+        }
+    }
+
+    private static ByteBuffer readAll(Path path, DirectBufferPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Stored file too large: " + path.getFileName());
+            }
+            ByteBuffer buffer = pool.acquire((int) size);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("Stored file truncated while reading: " + path.getFileName());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                pool.release(buffer);
+                throw e;
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Whether a stored file exists in either location.
+     */
+    public boolean exists(String storedFilename) {
+        return Files.exists(resolve(storedFilename))
+                || (legacyFallback && Files.exists(legacyPath(storedFilename)));
+    }
+
+    /**
+     * Delete a stored file from whichever location holds it.
+     *
+     * @return true if a file was deleted
+     */
+    public boolean delete(String storedFilename) throws IOException {
+        boolean deleted = Files.deleteIfExists(resolve(storedFilename));
+        if (legacyFallback) {
+            deleted |= Files.deleteIfExists(legacyPath(storedFilename));
+        }
+        return deleted;
+    }
+
+    public boolean isLegacyFallbackEnabled() {
+        return legacyFallback;
+    }
+
+    /**
+     * Called by the migrator once no legacy files remain.
+     */
+    void disableLegacyFallback() {
+        this.legacyFallback = false;
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String hex(byte b) {
+        return new String(new char[] { HEX[(b >> 4) & 0xF], HEX[b & 0xF] });
+    }
+}
@@ -3,6 +3,7 @@ package com.secureapp.util;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -50,6 +51,19 @@ public class AesEncryptionUtil {
      * @throws Exception if encryption fails
      */
     public static byte[] encrypt(byte[] plaintext) throws Exception {
+        return encrypt(plaintext, null);
+    }
+
+    /**
+     * Encrypt plaintext bytes with AES-256-GCM, authenticating additional
+     * data that is stored next to the ciphertext (e.g. a format header).
+     * 
+     * @param plaintext      Plaintext bytes to encrypt
+     * @param associatedData Authenticated but unencrypted data, or null
+     * @return Encrypted bytes (IV prepended)
+     * @throws Exception if encryption fails
+     */
+    public static byte[] encrypt(byte[] plaintext, byte[] associatedData) throws Exception {
         if (plaintext == null) {
             throw new IllegalArgumentException("Plaintext cannot be null");
         }
@@ -60,6 +74,9 @@ public class AesEncryptionUtil {
         Cipher cipher = Cipher.getInstance(ALGORITHM);
         GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
         cipher.init(Cipher.ENCRYPT_MODE, getAesKey(), parameterSpec);
+        if (associatedData != null) {
+            cipher.updateAAD(associatedData);
+        }
 
         byte[] ciphertext = cipher.doFinal(plaintext);
 
@@ -82,19 +99,70 @@ public class AesEncryptionUtil {
      * @throws Exception if decryption fails (wrong key, tampered data, etc.)
      */
     public static byte[] decrypt(byte[] encryptedData) throws Exception {
-        if (encryptedData == null || encryptedData.length <= GCM_IV_LENGTH) {
+        return decrypt(encryptedData, 0, null);
+    }
+
+    /**
+     * Decrypt AES-256-GCM ciphertext stored after a header.
+     * 
+     * @param encryptedData  Bytes containing [IV][Ciphertext+Tag] from offset
+     * @param offset         Start of the IV
+     * @param associatedData Data authenticated at encryption time, or null
+     * @return Decrypted plaintext bytes
+     * @throws Exception if decryption fails (wrong key, tampered data or
+     *                   associated data, etc.)
+     */
+    public static byte[] decrypt(byte[] encryptedData, int offset, byte[] associatedData) throws Exception {
+        if (encryptedData == null || encryptedData.length - offset <= GCM_IV_LENGTH) {
             throw new IllegalArgumentException("Invalid encrypted data");
         }
 
-        byte[] iv = Arrays.copyOfRange(encryptedData, 0, GCM_IV_LENGTH);
-
-        byte[] ciphertext = Arrays.copyOfRange(encryptedData, GCM_IV_LENGTH, encryptedData.length);
+        byte[] iv = Arrays.copyOfRange(encryptedData, offset, offset + GCM_IV_LENGTH);
 
         Cipher cipher = Cipher.getInstance(ALGORITHM);
         GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
         cipher.init(Cipher.DECRYPT_MODE, getAesKey(), parameterSpec);
+        if (associatedData != null) {
+            cipher.updateAAD(associatedData);
+        }
+
+        int ciphertextOffset = offset + GCM_IV_LENGTH;
+        return cipher.doFinal(encryptedData, ciphertextOffset, encryptedData.length - ciphertextOffset);
+    }
+
+    /**
+     * Decrypt AES-256-GCM ciphertext from one buffer into another, for the
+     * NIO read path: no intermediate arrays besides the IV.
+     * 
+     * @param encrypted      [IV][Ciphertext+Tag] between position and limit;
+     *                       consumed
+     * @param associatedData Data authenticated at encryption time (from
+     *                       position to limit, not consumed), or null
+     * @param target         Receives the plaintext, at least
+     *                       plaintextLength(encrypted.remaining()) bytes
+     * @return Number of plaintext bytes written
+     * @throws Exception if decryption fails (wrong key, tampered data or
+     *                   associated data, etc.)
+     */
+    public static int decrypt(ByteBuffer encrypted, ByteBuffer associatedData, ByteBuffer target) throws Exception {
+        if (encrypted.remaining() <= GCM_IV_LENGTH) {
+            throw new IllegalArgumentException("Invalid encrypted data");
+        }
+
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        encrypted.get(iv);
+
+        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        cipher.init(Cipher.DECRYPT_MODE, getAesKey(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        if (associatedData != null) {
+            cipher.updateAAD(associatedData.duplicate());
+        }
+        return cipher.doFinal(encrypted, target);
+    }
 
-        return cipher.doFinal(ciphertext);
+    // Plaintext length of [IV][Ciphertext+Tag] of the given length.
+    public static int plaintextLength(int encryptedLength) {
+        return Math.max(0, encryptedLength - GCM_IV_LENGTH - GCM_TAG_LENGTH / 8);
     }
 
     // Encrypt string to bytes.
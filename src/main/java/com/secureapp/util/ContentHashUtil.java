@@ -0,0 +1,93 @@
+package com.secureapp.util;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keyed content hashing for deduplication.
+ *
+ * Content is identified by HMAC-SHA256 rather than a bare SHA-256: hashes
+ * are stored in the database and used in blob names, and a plain digest
+ * would let anyone with read access confirm whether a user uploaded a
+ * known file. The HMAC key is derived from the AES key, so hashes are
+ * stable across restarts without a second secret to manage.
+ *
+ * Hashes are 64 lowercase hex characters.
+ */
+public final class ContentHashUtil {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] KEY_LABEL = "secure-app content hash v1".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static volatile SecretKey hashKey;
+
+    private ContentHashUtil() {
+        throw new AssertionError("Utility class should not be instantiated");
+    }
+
+    private static SecretKey getHashKey() throws Exception {
+        if (hashKey == null) {
+            synchronized (ContentHashUtil.class) {
+                if (hashKey == null) {
+                    SecretKey aesKey = KeystoreConfig.getInstance().getAesKey();
+                    Mac derive = Mac.getInstance(HMAC_ALGORITHM);
+                    derive.init(new SecretKeySpec(aesKey.getEncoded(), HMAC_ALGORITHM));
+                    hashKey = new SecretKeySpec(derive.doFinal(KEY_LABEL), HMAC_ALGORITHM);
+                }
+            }
+        }
+        return hashKey;
+    }
+
+    /**
+     * Start an incremental hash, for hashing content while it is read.
+     *
+     * @return New hasher
+     * @throws Exception if the key cannot be loaded
+     */
+    public static Hasher newHasher() throws Exception {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(getHashKey());
+        return new Hasher(mac);
+    }
+
+    /**
+     * Hash a complete byte array.
+     *
+     * @param content Content bytes
+     * @return Hex content hash
+     * @throws Exception if the key cannot be loaded
+     */
+    public static String hash(byte[] content) throws Exception {
+        Hasher hasher = newHasher();
+        hasher.update(content, 0, content.length);
+        return hasher.hexDigest();
+    }
+
+    // Incremental content hash.
+    public static final class Hasher {
+        private final Mac mac;
+
+        private Hasher(Mac mac) {
+            this.mac = mac;
+        }
+
+        public void update(byte[] data, int offset, int length) {
+            mac.update(data, offset, length);
+        }
+
+        // Finish the hash; the hasher cannot be reused afterwards.
+        public String hexDigest() {
+            byte[] digest = mac.doFinal();
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.secureapp.util;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.UUID;
 
 /**
@@ -14,6 +18,9 @@ import java.util.UUID;
  * - Validates incoming requests by comparing request parameter with session
  * token
  * - Tokens are bound to user session, preventing cross-session attacks
+ * - Pages receive the token XOR-masked with a fresh random pad, so the
+ * bytes in the page change on every response and compressed responses
+ * cannot leak the token (BREACH)
  */
 public class CsrfUtil {
 
@@ -32,6 +39,14 @@ public class CsrfUtil {
      */
     public static final String CSRF_TOKEN_REQUEST_ATTR = "csrfToken";
 
+    /**
+     * Header carrying the (masked) token on requests without form
+     * parameters, such as the chunk PUTs of resumable uploads.
+     */
+    public static final String CSRF_TOKEN_HEADER = "X-CSRF-Token";
+
+    private static final SecureRandom secureRandom = new SecureRandom();
+
     /**
      * Generate a new CSRF token using cryptographically strong random UUID.
      * 
@@ -71,7 +86,8 @@ public class CsrfUtil {
      * Validate CSRF token from request against session token.
      * 
      * Validation rules:
-     * - Request must have csrf_token parameter
+     * - Request must have an X-CSRF-Token header or csrf_token parameter
+     * (the header is checked first, so a request body is not parsed for it)
      * - Session must exist and contain csrf_token attribute
      * - Request token must exactly match session token
      * 
@@ -85,14 +101,71 @@ public class CsrfUtil {
             return false;
         }
 
-        String requestToken = request.getParameter(CSRF_TOKEN_PARAM);
+        String requestToken = request.getHeader(CSRF_TOKEN_HEADER);
+        if (requestToken == null) {
+            requestToken = request.getParameter(CSRF_TOKEN_PARAM);
+        }
 
         String sessionToken = getTokenFromSession(session);
         if (requestToken == null || sessionToken == null) {
             return false;
         }
 
-        return requestToken.equals(sessionToken);
+        if (constantTimeEquals(requestToken, sessionToken)) {
+            return true;
+        }
+        String unmasked = unmaskToken(requestToken);
+        return unmasked != null && constantTimeEquals(unmasked, sessionToken);
+    }
+
+    /**
+     * Mask a token for embedding in a page.
+     * Output: Base64url of [random pad][pad XOR token], different on every
+     * call, accepted by validateToken.
+     * 
+     * @param token Session token
+     * @return Masked token
+     */
+    public static String maskToken(String token) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        byte[] masked = new byte[tokenBytes.length * 2];
+        byte[] pad = new byte[tokenBytes.length];
+        secureRandom.nextBytes(pad);
+
+        System.arraycopy(pad, 0, masked, 0, pad.length);
+        for (int i = 0; i < tokenBytes.length; i++) {
+            masked[pad.length + i] = (byte) (pad[i] ^ tokenBytes[i]);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(masked);
+    }
+
+    /**
+     * Recover a token masked by maskToken.
+     * 
+     * @param maskedToken Masked token
+     * @return Session token, or null if the input is not a masked token
+     */
+    public static String unmaskToken(String maskedToken) {
+        byte[] masked;
+        try {
+            masked = Base64.getUrlDecoder().decode(maskedToken);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (masked.length == 0 || masked.length % 2 != 0) {
+            return null;
+        }
+
+        int length = masked.length / 2;
+        byte[] token = new byte[length];
+        for (int i = 0; i < length; i++) {
+            token[i] = (byte) (masked[i] ^ masked[length + i]);
+        }
+        return new String(token, StandardCharsets.UTF_8);
+    }
+
+    private static boolean constantTimeEquals(String a, String b) {
+        return MessageDigest.isEqual(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
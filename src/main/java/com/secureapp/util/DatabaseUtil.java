@@ -14,7 +14,9 @@ import java.sql.Statement;
 public final class DatabaseUtil {
     private static final String DB_DRIVER = "org.h2.Driver";
     private static final String DB_DIR = System.getProperty("user.home") + "/secure-app-db";
-    private static final String DB_URL = "jdbc:h2:" + DB_DIR + "/secure-app-db;AUTO_SERVER=TRUE";
+    // Keep the database open briefly after the last connection closes, so
+    // back-to-back short connections do not each reopen (and compact) it
+    private static final String DB_URL = "jdbc:h2:" + DB_DIR + "/secure-app-db;AUTO_SERVER=TRUE;DB_CLOSE_DELAY=10";
     private static final String DB_USER = "sa";
     private static final String DB_PASSWORD = "";
 
@@ -64,11 +66,92 @@ public final class DatabaseUtil {
                     ")";
             stmt.execute(createFilesTable);
 
+            // Tombstone column: set when a file is deleted, row purged later
+            stmt.execute("ALTER TABLE files ADD COLUMN IF NOT EXISTS deleted_at TIMESTAMP");
+            // Encrypted preview and text statistics, computed at upload
+            stmt.execute("ALTER TABLE files ADD COLUMN IF NOT EXISTS preview VARBINARY");
+
+            // Content-addressed blobs shared by files with identical content
+            String createBlobsTable = "CREATE TABLE IF NOT EXISTS blobs (" +
+                    "content_hash VARCHAR(64) PRIMARY KEY, " +
+                    "ref_count INT NOT NULL, " +
+                    "blob_size BIGINT NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                    ")";
+            stmt.execute(createBlobsTable);
+            stmt.execute("ALTER TABLE files ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64)");
+
+            // Large blobs are stored as content-defined chunks shared across blobs
+            stmt.execute("ALTER TABLE blobs ADD COLUMN IF NOT EXISTS chunk_count INT DEFAULT 0 NOT NULL");
+            String createChunksTable = "CREATE TABLE IF NOT EXISTS chunks (" +
+                    "chunk_hash VARCHAR(64) PRIMARY KEY, " +
+                    "ref_count INT NOT NULL, " +
+                    "chunk_size INT NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                    ")";
+            stmt.execute(createChunksTable);
+            String createBlobChunksTable = "CREATE TABLE IF NOT EXISTS blob_chunks (" +
+                    "content_hash VARCHAR(64) NOT NULL, " +
+                    "seq INT NOT NULL, " +
+                    "chunk_hash VARCHAR(64) NOT NULL, " +
+                    "chunk_offset BIGINT NOT NULL, " +
+                    "chunk_length INT NOT NULL, " +
+                    "PRIMARY KEY (content_hash, seq)" +
+                    ")";
+            stmt.execute(createBlobChunksTable);
+
+            // Encrypted sparse line-offset index of each blob, for paged viewing
+            String createLineIndexesTable = "CREATE TABLE IF NOT EXISTS line_indexes (" +
+                    "content_hash VARCHAR(64) PRIMARY KEY, " +
+                    "index_data VARBINARY NOT NULL" +
+                    ")";
+            stmt.execute(createLineIndexesTable);
+
+            // Full-text index: per-user posting lists keyed by HMAC of the token
+            String createSearchPostingsTable = "CREATE TABLE IF NOT EXISTS search_postings (" +
+                    "user_id INT NOT NULL, " +
+                    "token BINARY(16) NOT NULL, " +
+                    "doc_count INT NOT NULL, " +
+                    "last_id INT NOT NULL, " +
+                    "postings VARBINARY NOT NULL, " +
+                    "PRIMARY KEY (user_id, token)" +
+                    ")";
+            stmt.execute(createSearchPostingsTable);
+
+            // Resumable uploads in progress; chunks live in encrypted staging files
+            String createUploadSessionsTable = "CREATE TABLE IF NOT EXISTS upload_sessions (" +
+                    "id VARCHAR(64) PRIMARY KEY, " +
+                    "user_id INT NOT NULL, " +
+                    "original_filename VARCHAR(255) NOT NULL, " +
+                    "upload_length BIGINT NOT NULL, " +
+                    "upload_offset BIGINT NOT NULL, " +
+                    "stored_bytes BIGINT NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE" +
+                    ")";
+            stmt.execute(createUploadSessionsTable);
+
         } catch (SQLException e) {
             throw new ExceptionInInitializerError("Failed to initialize database: " + e.getMessage());
         }
     }
 
+    /**
+     * Force committed data to stable storage.
+     * H2 writes committed transactions lazily; CHECKPOINT SYNC flushes them
+     * and syncs the database file, so callers can batch many commits behind
+     * a single sync.
+     *
+     * @param conn Open connection (must not be in a pending transaction)
+     * @throws SQLException if the checkpoint fails
+     */
+    public static void syncToDisk(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CHECKPOINT SYNC");
+        }
+    }
+
     /**
      * Close a database connection safely.
      * 
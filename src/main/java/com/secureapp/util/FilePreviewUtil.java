@@ -0,0 +1,254 @@
+package com.secureapp.util;
+
+import com.secureapp.model.FilePreview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class for file previews (see FilePreview).
+ *
+ * compute() makes one pass over the content for the line and word counts;
+ * charset detection looks at:
+ * - a byte order mark (UTF-8, UTF-16BE, UTF-16LE)
+ * - NUL bytes without a BOM: binary, no snippet
+ * - only 7-bit bytes: US-ASCII
+ * - well-formed UTF-8 sequences: UTF-8, otherwise windows-1252
+ *
+ * Previews are stored in the files table encrypted with the application
+ * key. The stored filename is authenticated with them, so a preview copied
+ * onto another row fails to decrypt.
+ */
+public final class FilePreviewUtil {
+
+    public static final int PREVIEW_LINES = 3;
+    public static final int PREVIEW_MAX_CHARS = 160;
+
+    public static final String BINARY = "binary";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int NUL_SCAN_BYTES = 8192;
+    private static final String AAD_PREFIX = "file-preview:";
+
+    private FilePreviewUtil() {
+        throw new AssertionError("Utility class should not be instantiated");
+    }
+
+    /**
+     * Compute the preview and statistics of a file.
+     *
+     * @param content Plaintext content
+     * @return Preview
+     */
+    public static FilePreview compute(byte[] content) {
+        return compute(content, detectCharset(content));
+    }
+
+    /**
+     * Compute the preview and statistics of a file whose charset is already
+     * known (see TextContentSniffer).
+     *
+     * @param content     Plaintext content
+     * @param charsetName Charset name, or BINARY
+     * @return Preview
+     */
+    public static FilePreview compute(byte[] content, String charsetName) {
+        if (BINARY.equals(charsetName)) {
+            return new FilePreview("", 0, 0, BINARY);
+        }
+
+        Charset charset = Charset.forName(charsetName);
+        if (charset.equals(StandardCharsets.UTF_16BE) || charset.equals(StandardCharsets.UTF_16LE)) {
+            // Not ASCII-compatible: count on the decoded text
+            String text = new String(content, 2, content.length - 2, charset);
+            return new FilePreview(snippetOf(text), countLines(text), countWords(text), charsetName);
+        }
+
+        int bomLength = startsWithUtf8Bom(content) ? 3 : 0;
+        long lines = 0;
+        long words = 0;
+        boolean inWord = false;
+        for (int i = bomLength; i < content.length; i++) {
+            byte b = content[i];
+            if (b == '\n') {
+                lines++;
+            }
+            boolean space = b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+            if (!space && !inWord) {
+                words++;
+            }
+            inWord = !space;
+        }
+        if (content.length > bomLength && content[content.length - 1] != '\n') {
+            lines++;
+        }
+
+        // Enough bytes for PREVIEW_MAX_CHARS characters in any of these charsets
+        int head = Math.min(content.length - bomLength, PREVIEW_MAX_CHARS * 4);
+        String text = new String(content, bomLength, head, charset);
+        return new FilePreview(snippetOf(text), lines, words, charsetName);
+    }
+
+    /**
+     * Detect the charset of content.
+     *
+     * @param content Content
+     * @return Charset name, or BINARY
+     */
+    public static String detectCharset(byte[] content) {
+        if (startsWithUtf8Bom(content)) {
+            return "UTF-8";
+        }
+        if (content.length >= 2) {
+            if ((content[0] & 0xFF) == 0xFE && (content[1] & 0xFF) == 0xFF) {
+                return "UTF-16BE";
+            }
+            if ((content[0] & 0xFF) == 0xFF && (content[1] & 0xFF) == 0xFE) {
+                return "UTF-16LE";
+            }
+        }
+        for (int i = 0; i < Math.min(content.length, NUL_SCAN_BYTES); i++) {
+            if (content[i] == 0) {
+                return BINARY;
+            }
+        }
+
+        boolean ascii = true;
+        int i = 0;
+        while (i < content.length) {
+            int b = content[i] & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            ascii = false;
+            int continuation;
+            int minimum;
+            if (b >= 0xC2 && b <= 0xDF) {
+                continuation = 1;
+                minimum = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                continuation = 2;
+                minimum = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                continuation = 3;
+                minimum = 0x10000;
+            } else {
+                return "windows-1252";
+            }
+            if (i + continuation >= content.length) {
+                return "windows-1252";
+            }
+            int codePoint = b & (0x3F >> continuation);
+            for (int k = 1; k <= continuation; k++) {
+                int next = content[i + k] & 0xFF;
+                if ((next & 0xC0) != 0x80) {
+                    return "windows-1252";
+                }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if (codePoint < minimum || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                return "windows-1252";
+            }
+            i += continuation + 1;
+        }
+        return ascii ? "US-ASCII" : "UTF-8";
+    }
+
+    private static boolean startsWithUtf8Bom(byte[] content) {
+        return content.length >= 3 && (content[0] & 0xFF) == 0xEF && (content[1] & 0xFF) == 0xBB
+                && (content[2] & 0xFF) == 0xBF;
+    }
+
+    // First PREVIEW_LINES lines, at most PREVIEW_MAX_CHARS characters
+    private static String snippetOf(String text) {
+        int end = 0;
+        int lines = 0;
+        while (end < text.length() && end < PREVIEW_MAX_CHARS) {
+            if (text.charAt(end) == '\n' && ++lines == PREVIEW_LINES) {
+                break;
+            }
+            end++;
+        }
+        if (end > 0 && end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end).replace("\r", "").trim();
+    }
+
+    private static long countLines(String text) {
+        long lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return text.isEmpty() || text.charAt(text.length() - 1) == '\n' ? lines : lines + 1;
+    }
+
+    private static long countWords(String text) {
+        long words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean space = Character.isWhitespace(text.charAt(i));
+            if (!space && !inWord) {
+                words++;
+            }
+            inWord = !space;
+        }
+        return words;
+    }
+
+    /**
+     * Serialize and encrypt a preview for storage in a file row.
+     *
+     * @param preview        Preview
+     * @param storedFilename Stored filename of the row (authenticated)
+     * @return Encrypted preview
+     * @throws Exception if encryption fails
+     */
+    public static byte[] seal(FilePreview preview, String storedFilename) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(preview.getCharset());
+            out.writeLong(preview.getLineCount());
+            out.writeLong(preview.getWordCount());
+            out.writeUTF(preview.getSnippet());
+        }
+        return AesEncryptionUtil.encrypt(buffer.toByteArray(), associatedData(storedFilename));
+    }
+
+    /**
+     * Decrypt a stored preview.
+     *
+     * @param sealed         Encrypted preview, may be null
+     * @param storedFilename Stored filename of the row
+     * @return Preview, or null if the row has none
+     * @throws Exception if decryption fails or the data is malformed
+     */
+    public static FilePreview open(byte[] sealed, String storedFilename) throws Exception {
+        if (sealed == null) {
+            return null;
+        }
+        byte[] plaintext = AesEncryptionUtil.decrypt(sealed, 0, associatedData(storedFilename));
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext))) {
+            if (in.readByte() != FORMAT_VERSION) {
+                throw new IOException("Unknown preview format");
+            }
+            String charset = in.readUTF();
+            long lines = in.readLong();
+            long words = in.readLong();
+            return new FilePreview(in.readUTF(), lines, words, charset);
+        }
+    }
+
+    private static byte[] associatedData(String storedFilename) {
+        return (AAD_PREFIX + storedFilename).getBytes(StandardCharsets.UTF_8);
+    }
+}
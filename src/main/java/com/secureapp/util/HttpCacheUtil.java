@@ -0,0 +1,186 @@
+package com.secureapp.util;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility class for HTTP conditional requests (RFC 7232).
+ *
+ * Servlets compute a validator from metadata only, call isNotModified
+ * before doing any expensive work and answer 304 when it returns true:
+ * - If-None-Match takes precedence; If-Modified-Since is only evaluated
+ * when the request has no If-None-Match
+ * - If-None-Match uses the weak comparison, so a tag that CompressionFilter
+ * turned weak still matches
+ * - Last-Modified has one-second resolution, so it is truncated before
+ * being compared
+ */
+public final class HttpCacheUtil {
+
+    /**
+     * Policy for authenticated pages: browsers may keep a copy but must
+     * revalidate it on every use, and shared caches must not store it.
+     */
+    public static final String CACHE_CONTROL_PRIVATE_REVALIDATE = "private, no-cache";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int FINGERPRINT_BYTES = 8;
+
+    private HttpCacheUtil() {
+        throw new AssertionError("Utility class should not be instantiated");
+    }
+
+    /**
+     * Build a strong entity tag.
+     *
+     * @param value Tag value (no quotes or backslashes)
+     * @return Quoted tag
+     */
+    public static String strongEtag(String value) {
+        return "\"" + value + "\"";
+    }
+
+    /**
+     * Build a weak entity tag, for responses that are equivalent but not
+     * byte-for-byte identical.
+     *
+     * @param value Tag value (no quotes or backslashes)
+     * @return Weak tag
+     */
+    public static String weakEtag(String value) {
+        return "W/" + strongEtag(value);
+    }
+
+    /**
+     * Short one-way digest of a secret (e.g. a session token), to let a
+     * validator depend on it without revealing it.
+     *
+     * @param value Value to fingerprint
+     * @return 16 hex characters
+     */
+    public static String fingerprint(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[FINGERPRINT_BYTES * 2];
+            for (int i = 0; i < FINGERPRINT_BYTES; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX[digest[i] & 0x0F];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Set ETag, Last-Modified and Cache-Control on a response.
+     *
+     * @param response     HTTP response
+     * @param etag         Entity tag (see strongEtag / weakEtag)
+     * @param lastModified Modification time in milliseconds, or -1 if unknown
+     * @param cacheControl Cache-Control value
+     */
+    public static void setValidators(HttpServletResponse response, String etag, long lastModified,
+            String cacheControl) {
+        response.setHeader("ETag", etag);
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        response.setHeader("Cache-Control", cacheControl);
+    }
+
+    /**
+     * Undo setValidators on a response that turned into an error, so the
+     * error page is neither stored nor revalidated as the representation.
+     *
+     * @param response HTTP response, not yet committed
+     */
+    public static void clearValidators(HttpServletResponse response) {
+        response.setHeader("ETag", null);
+        response.setHeader("Last-Modified", null);
+        response.setHeader("Cache-Control", "no-store");
+    }
+
+    /**
+     * Evaluate If-None-Match / If-Modified-Since for a GET or HEAD request.
+     *
+     * @param request      HTTP request
+     * @param etag         Current entity tag
+     * @param lastModified Current modification time in milliseconds, or -1
+     * @return true if the client's copy is current and 304 can be sent
+     */
+    public static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesAny(ifNoneMatch, etag);
+        }
+
+        if (lastModified < 0) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            // Unparseable date: ignore the header, as RFC 7232 requires
+            return false;
+        }
+        return ifModifiedSince >= 0 && lastModified / 1000 * 1000 <= ifModifiedSince;
+    }
+
+    /**
+     * Evaluate If-Range: a Range header is only honoured if the client's
+     * partial copy is of the current representation. Entity tags use the
+     * strong comparison (a weak tag never matches); dates must be equal.
+     *
+     * @param request      HTTP request
+     * @param etag         Current entity tag
+     * @param lastModified Current modification time in milliseconds, or -1
+     * @return true if there is no If-Range or it matches
+     */
+    public static boolean isRangeCurrent(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return !etag.startsWith("W/") && value.equals(etag);
+        }
+        if (lastModified < 0) {
+            return false;
+        }
+        try {
+            return request.getDateHeader("If-Range") == lastModified / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Weak comparison of a tag against an If-None-Match list.
+     *
+     * @param header If-None-Match header value
+     * @param etag   Current entity tag
+     * @return true if "*" or any listed tag matches
+     */
+    static boolean matchesAny(String header, String etag) {
+        if ("*".equals(header.trim())) {
+            return true;
+        }
+        String opaque = opaqueTag(etag);
+        for (String candidate : header.split(",")) {
+            if (opaqueTag(candidate.trim()).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
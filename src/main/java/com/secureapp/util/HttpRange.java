@@ -0,0 +1,135 @@
+package com.secureapp.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One satisfiable byte range of a representation (RFC 7233), with the
+ * parser for the Range header.
+ *
+ * parse() distinguishes three outcomes:
+ * - null: no usable Range header (absent, not "bytes", malformed or too
+ * many ranges); the full representation is sent with 200
+ * - empty list: syntactically valid but nothing satisfiable; 416
+ * - otherwise the ranges, sorted and with overlapping or adjacent ranges
+ * merged, so a client cannot make the server send the same bytes twice
+ */
+public final class HttpRange {
+
+    /**
+     * Upper bound on the ranges of one request; beyond it the header is
+     * ignored rather than answered with a large multipart body.
+     */
+    public static final int MAX_RANGES = 16;
+
+    private final long start;
+    private final long end;
+
+    public HttpRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return Last byte, inclusive
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param completeLength Length of the whole representation
+     * @return Content-Range value, e.g. "bytes 0-499/1234"
+     */
+    public String toContentRange(long completeLength) {
+        return "bytes " + start + "-" + end + "/" + completeLength;
+    }
+
+    /**
+     * Parse a Range header against a representation of the given length.
+     *
+     * @param header         Range header value, may be null
+     * @param completeLength Length of the whole representation
+     * @return Ranges to send, empty if unsatisfiable, or null to ignore the
+     *         header
+     */
+    public static List<HttpRange> parse(String header, long completeLength) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<HttpRange> ranges = new ArrayList<>();
+        for (String rawSpec : specs) {
+            String spec = rawSpec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // Suffix range: the last N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && completeLength > 0) {
+                        ranges.add(new HttpRange(Math.max(0, completeLength - suffix), completeLength - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < completeLength) {
+                        ranges.add(new HttpRange(start, Math.min(end, completeLength - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return coalesce(ranges);
+    }
+
+    private static List<HttpRange> coalesce(List<HttpRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        Collections.sort(ranges, Comparator.comparingLong(HttpRange::getStart));
+        List<HttpRange> merged = new ArrayList<>();
+        HttpRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            HttpRange next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new HttpRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+}
@@ -0,0 +1,163 @@
+package com.secureapp.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressed posting lists: ascending file ids stored as varint deltas
+ * from the previous id (the first one from 0). Ids of one user's files are
+ * close together, so most entries take one or two bytes.
+ *
+ * Since ids only grow, adding a newer file to a list is an append of one
+ * delta; see appendDelta.
+ */
+public final class PostingListUtil {
+
+    private PostingListUtil() {
+        throw new AssertionError("Utility class should not be instantiated");
+    }
+
+    /**
+     * Encode ascending ids.
+     *
+     * @param ids Strictly ascending ids
+     * @return Encoded list
+     */
+    public static byte[] encode(int[] ids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ids.length * 2);
+        int previous = 0;
+        for (int id : ids) {
+            writeVarint(out, id - previous);
+            previous = id;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Bytes to append to a list whose largest id is lastId.
+     *
+     * @param lastId Largest id in the list
+     * @param id     New id, greater than lastId
+     * @return Encoded delta
+     */
+    public static byte[] appendDelta(int lastId, int id) {
+        if (id <= lastId) {
+            throw new IllegalArgumentException("Ids must be appended in ascending order");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(5);
+        writeVarint(out, id - lastId);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a list.
+     *
+     * @param data Encoded list
+     * @return Ascending ids
+     * @throws IOException if the data is malformed
+     */
+    public static int[] decode(byte[] data) throws IOException {
+        int[] ids = new int[Math.max(4, data.length / 2)];
+        int count = 0;
+        int previous = 0;
+        int position = 0;
+        while (position < data.length) {
+            int delta = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (position >= data.length || shift > 28) {
+                    throw new IOException("Malformed posting list");
+                }
+                b = data[position++] & 0xFF;
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            previous += delta;
+            ids[count++] = previous;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Intersect two ascending lists.
+     *
+     * @param a Ascending ids
+     * @param b Ascending ids
+     * @return Ids in both, ascending
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Insert an id into an ascending list.
+     *
+     * @param ids Ascending ids
+     * @param id  Id to add
+     * @return Ascending ids including id (the same array if already present)
+     */
+    public static int[] insert(int[] ids, int id) {
+        int position = Arrays.binarySearch(ids, id);
+        if (position >= 0) {
+            return ids;
+        }
+        int at = -position - 1;
+        int[] result = new int[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        result[at] = id;
+        System.arraycopy(ids, at, result, at + 1, ids.length - at);
+        return result;
+    }
+
+    /**
+     * Remove ids from an ascending list.
+     *
+     * @param ids     Ascending ids
+     * @param removed Ascending ids to drop
+     * @return Ascending ids not in removed (the same array if none was
+     *         present)
+     */
+    public static int[] remove(int[] ids, int[] removed) {
+        int[] result = new int[ids.length];
+        int count = 0;
+        int j = 0;
+        for (int id : ids) {
+            while (j < removed.length && removed[j] < id) {
+                j++;
+            }
+            if (j < removed.length && removed[j] == id) {
+                continue;
+            }
+            result[count++] = id;
+        }
+        return count == ids.length ? ids : Arrays.copyOf(result, count);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,87 @@
+package com.secureapp.util;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tokenization and keyed token hashing for the full-text search index.
+ *
+ * A token is a run of letters and digits, lower-cased, between
+ * MIN_TOKEN_LENGTH and MAX_TOKEN_LENGTH characters. The index only ever
+ * stores HMAC-SHA256(token) truncated to TOKEN_HASH_BYTES, under a key
+ * derived from the AES key with its own label: without the key, the index
+ * reveals neither the words nor whether a file contains a guessed word.
+ */
+public final class SearchTokenUtil {
+
+    public static final int MIN_TOKEN_LENGTH = 2;
+    public static final int MAX_TOKEN_LENGTH = 64;
+    public static final int TOKEN_HASH_BYTES = 16;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] KEY_LABEL = "secure-app search token v1".getBytes(StandardCharsets.US_ASCII);
+
+    private static volatile SecretKey tokenKey;
+
+    private SearchTokenUtil() {
+        throw new AssertionError("Utility class should not be instantiated");
+    }
+
+    private static SecretKey getTokenKey() throws Exception {
+        if (tokenKey == null) {
+            synchronized (SearchTokenUtil.class) {
+                if (tokenKey == null) {
+                    SecretKey aesKey = KeystoreConfig.getInstance().getAesKey();
+                    Mac derive = Mac.getInstance(HMAC_ALGORITHM);
+                    derive.init(new SecretKeySpec(aesKey.getEncoded(), HMAC_ALGORITHM));
+                    tokenKey = new SecretKeySpec(derive.doFinal(KEY_LABEL), HMAC_ALGORITHM);
+                }
+            }
+        }
+        return tokenKey;
+    }
+
+    /**
+     * Split text into distinct tokens, in order of first appearance.
+     *
+     * @param text Text
+     * @return Distinct tokens
+     */
+    public static Set<String> tokenize(CharSequence text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        while (i <= text.length()) {
+            int codePoint = i < text.length() ? Character.codePointAt(text, i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                current.appendCodePoint(codePoint);
+            } else if (current.length() > 0) {
+                if (current.length() >= MIN_TOKEN_LENGTH && current.length() <= MAX_TOKEN_LENGTH) {
+                    tokens.add(current.toString().toLowerCase(Locale.ROOT));
+                }
+                current.setLength(0);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return tokens;
+    }
+
+    /**
+     * Keyed hash of a token, as stored in the index.
+     *
+     * @param token Token from tokenize
+     * @return TOKEN_HASH_BYTES bytes
+     * @throws Exception if the key cannot be loaded
+     */
+    public static byte[] hashToken(String token) throws Exception {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(getTokenKey());
+        return Arrays.copyOf(mac.doFinal(token.getBytes(StandardCharsets.UTF_8)), TOKEN_HASH_BYTES);
+    }
+}
@@ -0,0 +1,98 @@
+package com.secureapp.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent loads of the same key.
+ *
+ * The first caller for a key runs the loader; callers arriving while it
+ * runs wait for it and get the same result object (or the same exception)
+ * instead of loading again. Nothing is cached: once the load finishes, the
+ * next caller loads afresh. Results are shared by reference, so they must
+ * not be modified by callers.
+ *
+ * @param <K> Key type
+ * @param <V> Result type
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Loads the value for a key.
+     */
+    public interface Loader<V> {
+        V load() throws Exception;
+    }
+
+    private final String name;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Load the value for a key, joining a load already in flight.
+     *
+     * @param key    Key
+     * @param loader Loader, run only if no load of key is in flight
+     * @return Loaded value
+     * @throws Exception the loader's exception (also for joined callers)
+     */
+    public V execute(K key, Loader<V> loader) throws Exception {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return join(existing);
+        }
+
+        loads.increment();
+        try {
+            V value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> flight) throws Exception {
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    // Loads actually run.
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    // Calls answered by joining another caller's load.
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public String toString() {
+        long total = getLoads() + getCoalesced();
+        return String.format("%s: %d requests, %d loads, %d coalesced (%.1f%%)", name, total, getLoads(),
+                getCoalesced(), total == 0 ? 0.0 : 100.0 * getCoalesced() / total);
+    }
+}
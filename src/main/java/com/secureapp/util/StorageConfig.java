@@ -0,0 +1,100 @@
+package com.secureapp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Configuration class for upload storage settings.
+ *
+ * Values are resolved with the same precedence as KeystoreConfig:
+ * 1. Environment variable (highest)
+ * 2. System property with the environment variable name
+ * 3. application.properties (supports ${ENV_VAR:default} placeholders)
+ * 4. Built-in default
+ */
+public class StorageConfig {
+
+    private static final String PROPERTIES_FILE = "application.properties";
+
+    private static volatile StorageConfig instance;
+
+    private final Properties props;
+
+    private StorageConfig() {
+        this.props = loadProperties();
+    }
+
+    public static StorageConfig getInstance() {
+        if (instance == null) {
+            synchronized (StorageConfig.class) {
+                if (instance == null) {
+                    instance = new StorageConfig();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Get a string setting.
+     *
+     * @param propKey      Key in application.properties
+     * @param envKey       Environment variable / system property name
+     * @param defaultValue Value used when nothing is configured
+     * @return Configured value or default
+     */
+    public String getString(String propKey, String envKey, String defaultValue) {
+        String envValue = System.getenv(envKey);
+        if (envValue != null && !envValue.isEmpty()) {
+            return envValue;
+        }
+
+        String sysProp = System.getProperty(envKey);
+        if (sysProp != null && !sysProp.isEmpty()) {
+            return sysProp;
+        }
+
+        String propValue = props.getProperty(propKey);
+        if (propValue == null) {
+            return defaultValue;
+        }
+
+        if (propValue.startsWith("${") && propValue.endsWith("}")) {
+            int colonIndex = propValue.indexOf(':');
+            if (colonIndex < 0) {
+                return defaultValue;
+            }
+            return propValue.substring(colonIndex + 1, propValue.length() - 1);
+        }
+        return propValue.trim();
+    }
+
+    /**
+     * Get a numeric setting. Malformed values fall back to the default.
+     */
+    public long getLong(String propKey, String envKey, long defaultValue) {
+        String value = getString(propKey, envKey, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + propKey + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private Properties loadProperties() {
+        Properties loaded = new Properties();
+        try (InputStream input = getClass().getClassLoader().getResourceAsStream(PROPERTIES_FILE)) {
+            if (input != null) {
+                loaded.load(input);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not load " + PROPERTIES_FILE + ": " + e.getMessage());
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,322 @@
+package com.secureapp.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming check that uploaded content is text, fed chunk by chunk with
+ * update() and closed with finish().
+ *
+ * - The first HEAD_BYTES bytes are matched against the signatures of common
+ * binary formats whose header is printable (PDF, JPEG, class files...)
+ * and checked for a byte order mark; content with a UTF-16 BOM is text
+ * - Every other byte must be printable ASCII, one of \t \n \v \f \r ESC,
+ * or part of a non-ASCII character: NUL, other control bytes and DEL mark
+ * the content as binary
+ * - UTF-8 well-formedness is tracked across chunks to report the charset
+ * the same way as FilePreviewUtil.detectCharset() (US-ASCII, UTF-8, or
+ * windows-1252 when a sequence is malformed)
+ *
+ * Bytes are scanned eight at a time as longs (SWAR): one mask test clears a
+ * word of printable ASCII, and only words with a high or control byte, or
+ * a UTF-8 sequence in progress, go through the byte-by-byte path. Once
+ * binary content is found update() returns false and ignores further
+ * input, so callers can stop reading.
+ *
+ * Not thread-safe: one instance per upload.
+ */
+public final class TextContentSniffer {
+
+    public static final int HEAD_BYTES = 64;
+
+    public static final String OCTET_STREAM = "application/octet-stream";
+
+    private static final int SCALAR_BYTES = 16;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long SPACES = 0x2020202020202020L;
+    private static final long DELETES = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final byte[][] SIGNATURES = {
+            ascii("%PDF-"), ascii("{\\rtf"), ascii("%!PS"), ascii("BZh"),
+            { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF },
+            { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE },
+            ascii("GIF87a"), ascii("GIF89a"), ascii("PK\u0003\u0004"),
+            { (byte) 0x89, 'P', 'N', 'G' }, { 0x1F, (byte) 0x8B }, { 0x7F, 'E', 'L', 'F' } };
+    private static final String[] SIGNATURE_TYPES = {
+            "application/pdf", "application/rtf", "application/postscript", "application/x-bzip2",
+            "image/jpeg", "application/java-vm", "image/gif", "image/gif", "application/zip",
+            "image/png", "application/gzip", "application/x-executable" };
+
+    private final byte[] head = new byte[HEAD_BYTES];
+    private int headLength;
+    private boolean headChecked;
+    private String bomCharset;
+    private boolean utf16;
+
+    private String charset;
+    private String detectedType;
+    private boolean finished;
+
+    // UTF-8 state across chunks
+    private boolean nonAscii;
+    private boolean wellFormedUtf8 = true;
+    private int pendingContinuations;
+    private int codePoint;
+    private int sequenceContinuations;
+
+    /**
+     * Check whole content.
+     *
+     * @param content Content
+     * @return Finished sniffer
+     */
+    public static TextContentSniffer sniff(byte[] content) {
+        TextContentSniffer sniffer = new TextContentSniffer();
+        sniffer.update(content, 0, content.length);
+        sniffer.finish();
+        return sniffer;
+    }
+
+    /**
+     * Scan the next chunk of content.
+     *
+     * @param data   Buffer
+     * @param offset Start of the chunk
+     * @param length Chunk length
+     * @return False once the content is known to be binary
+     */
+    public boolean update(byte[] data, int offset, int length) {
+        if (finished) {
+            throw new IllegalStateException("Sniffer already finished");
+        }
+        if (detectedType != null) {
+            return false;
+        }
+        if (!headChecked) {
+            int copied = Math.min(length, HEAD_BYTES - headLength);
+            System.arraycopy(data, offset, head, headLength, copied);
+            headLength += copied;
+            offset += copied;
+            length -= copied;
+            if (headLength < HEAD_BYTES) {
+                return true;
+            }
+            checkHead();
+        }
+        if (detectedType == null && !utf16) {
+            scan(data, offset, length);
+        }
+        return detectedType == null;
+    }
+
+    /**
+     * Close the scan once all content was passed to update().
+     *
+     * @return True if the content is text
+     */
+    public boolean finish() {
+        if (!finished) {
+            if (!headChecked) {
+                checkHead();
+            }
+            finished = true;
+            if (pendingContinuations > 0) {
+                // Truncated sequence at the end
+                wellFormedUtf8 = false;
+            }
+            if (bomCharset != null) {
+                charset = bomCharset;
+            } else {
+                charset = !nonAscii ? "US-ASCII" : wellFormedUtf8 ? "UTF-8" : "windows-1252";
+            }
+        }
+        return isText();
+    }
+
+    public boolean isText() {
+        return detectedType == null;
+    }
+
+    // Charset of text content after finish(), or null for binary content.
+    public String getCharset() {
+        return isText() ? charset : null;
+    }
+
+    // MIME type of binary content (OCTET_STREAM without a known signature), or null for text.
+    public String getDetectedType() {
+        return detectedType;
+    }
+
+    private void checkHead() {
+        headChecked = true;
+        for (int i = 0; i < SIGNATURES.length; i++) {
+            if (startsWith(SIGNATURES[i])) {
+                detectedType = SIGNATURE_TYPES[i];
+                return;
+            }
+        }
+        if (startsWith(new byte[] { (byte) 0xFE, (byte) 0xFF })) {
+            bomCharset = "UTF-16BE";
+            utf16 = true;
+            return;
+        }
+        if (startsWith(new byte[] { (byte) 0xFF, (byte) 0xFE })) {
+            bomCharset = "UTF-16LE";
+            utf16 = true;
+            return;
+        }
+        int start = 0;
+        if (startsWith(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF })) {
+            bomCharset = "UTF-8";
+            start = 3;
+        }
+        scan(head, start, headLength - start);
+    }
+
+    private boolean startsWith(byte[] signature) {
+        if (headLength < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (head[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scan(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        // Sequence left open by the previous chunk
+        while (pendingContinuations > 0 && i < end) {
+            step(data[i++] & 0xFF);
+        }
+
+        ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        boolean utf8 = wellFormedUtf8;
+        boolean high = nonAscii;
+        int scalarUntil = i;
+        while (i < end) {
+            // Skip runs of printable ASCII a word at a time
+            if (i >= scalarUntil) {
+                while (end - i >= 8 && isPrintableAscii(words.getLong(i))) {
+                    i += 8;
+                }
+                if (i == end) {
+                    break;
+                }
+            }
+            int b = data[i] & 0xFF;
+            if (b < 0x80) {
+                if (b < 0x20 || b == 0x7F) {
+                    if (isControl(b)) {
+                        detectedType = OCTET_STREAM;
+                        return;
+                    }
+                }
+                i++;
+                continue;
+            }
+            high = true;
+            // Text with non-ASCII characters: words would fail for a while
+            scalarUntil = i + SCALAR_BYTES;
+            int continuation = continuations(b);
+            if (!utf8 || continuation == 0) {
+                utf8 = false;
+                i++;
+                continue;
+            }
+            if (i + continuation >= end) {
+                // Sequence crosses into the next chunk
+                wellFormedUtf8 = utf8;
+                nonAscii = high;
+                while (i < end) {
+                    step(data[i++] & 0xFF);
+                }
+                return;
+            }
+            int codePoint = b & (0x3F >> continuation);
+            int k = 1;
+            while (k <= continuation && (data[i + k] & 0xC0) == 0x80) {
+                codePoint = (codePoint << 6) | (data[i + k] & 0x3F);
+                k++;
+            }
+            if (k <= continuation || !validCodePoint(codePoint, continuation)) {
+                // Malformed: the bytes after the lead are checked as usual
+                utf8 = false;
+                i++;
+                continue;
+            }
+            i += continuation + 1;
+        }
+        wellFormedUtf8 = utf8;
+        nonAscii = high;
+    }
+
+    // True if all eight bytes are in 0x20..0x7E.
+    private static boolean isPrintableAscii(long word) {
+        long belowSpace = (word - SPACES) & ~word;
+        long deletes = word ^ DELETES;
+        long delete = (deletes - ONES) & ~deletes;
+        return ((word | belowSpace | delete) & HIGH_BITS) == 0;
+    }
+
+    // Byte-at-a-time form of scan(), for sequences split across chunks.
+    private void step(int b) {
+        if (pendingContinuations > 0) {
+            if ((b & 0xC0) == 0x80) {
+                codePoint = (codePoint << 6) | (b & 0x3F);
+                if (--pendingContinuations == 0 && !validCodePoint(codePoint, sequenceContinuations)) {
+                    wellFormedUtf8 = false;
+                }
+                return;
+            }
+            wellFormedUtf8 = false;
+            pendingContinuations = 0;
+        }
+        if (b < 0x80) {
+            if (isControl(b)) {
+                detectedType = OCTET_STREAM;
+            }
+            return;
+        }
+        nonAscii = true;
+        int continuation = continuations(b);
+        if (!wellFormedUtf8 || continuation == 0) {
+            // windows-1252: any high byte is a character
+            wellFormedUtf8 = false;
+            return;
+        }
+        pendingContinuations = continuation;
+        sequenceContinuations = continuation;
+        codePoint = b & (0x3F >> continuation);
+    }
+
+    private static boolean isControl(int b) {
+        return (b < 0x20 && (b < 0x09 || b > 0x0D) && b != 0x1B) || b == 0x7F;
+    }
+
+    // Continuation bytes after a UTF-8 lead byte, 0 if b cannot start a sequence.
+    private static int continuations(int b) {
+        if (b >= 0xC2 && b <= 0xDF) {
+            return 1;
+        }
+        if (b >= 0xE0 && b <= 0xEF) {
+            return 2;
+        }
+        return b >= 0xF0 && b <= 0xF4 ? 3 : 0;
+    }
+
+    // Rejects overlong forms, surrogates and values above U+10FFFF.
+    private static boolean validCodePoint(int codePoint, int continuations) {
+        int minimum = continuations == 1 ? 0x80 : continuations == 2 ? 0x800 : 0x10000;
+        return codePoint >= minimum && codePoint <= 0x10FFFF && (codePoint < 0xD800 || codePoint > 0xDFFF);
+    }
+
+    private static byte[] ascii(String signature) {
+        return signature.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
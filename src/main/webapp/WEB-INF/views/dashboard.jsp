@@ -170,6 +170,52 @@
                         text-decoration: underline;
                     }
 
+                    .preview-snippet {
+                        max-width: 320px;
+                        max-height: 4.5em;
+                        overflow: hidden;
+                        white-space: pre-wrap;
+                        font-size: 12px;
+                        color: #555;
+                    }
+
+                    .preview-stats {
+                        font-size: 12px;
+                        color: #999;
+                    }
+
+                    .delete-form {
+                        display: inline;
+                        margin-left: 10px;
+                    }
+
+                    .delete-btn {
+                        background: none;
+                        border: none;
+                        color: #dc3545;
+                        font-weight: 500;
+                        cursor: pointer;
+                        padding: 0;
+                    }
+
+                    .delete-btn:hover {
+                        text-decoration: underline;
+                    }
+
+                    .search-form {
+                        display: flex;
+                        align-items: center;
+                        gap: 10px;
+                        margin-bottom: 10px;
+                    }
+
+                    .search-form input[type="text"] {
+                        flex: 1;
+                        padding: 10px;
+                        border: 1px solid #ddd;
+                        border-radius: 5px;
+                    }
+
                     .empty-state {
                         text-align: center;
                         padding: 40px;
@@ -198,6 +244,20 @@
                         </div>
                     </c:if>
 
+                    <c:if test="${param.success eq 'bulk_upload'}">
+                        <div class="alert ${param.uploaded eq '0' ? 'alert-error' : 'alert-success'}">
+                            ${param.uploaded eq '0' ? '✗' : '✓'} ${fn:escapeXml(param.uploaded)} file(s) uploaded,
+                            ${fn:escapeXml(param.rejected)} rejected, ${fn:escapeXml(param.failed)} failed.
+                            <c:if test="${param.limit eq '1'}">Some files were skipped: the upload was too large.</c:if>
+                        </div>
+                    </c:if>
+
+                    <c:if test="${param.success eq 'file_deleted'}">
+                        <div class="alert alert-success">
+                            ✓ File deleted.
+                        </div>
+                    </c:if>
+
                     <c:if test="${param.error eq 'no_file'}">
                         <div class="alert alert-error">✗ Please select a file to upload.</div>
                     </c:if>
@@ -219,6 +279,19 @@
                         <div class="alert alert-error">✗ Upload failed. Please try again.</div>
                     </c:if>
 
+                    <c:if test="${param.error eq 'bulk_upload_failed'}">
+                        <div class="alert alert-error">✗ The archive could not be read;
+                            ${fn:escapeXml(param.uploaded)} file(s) uploaded before the error.</div>
+                    </c:if>
+
+                    <c:if test="${param.error eq 'delete_failed'}">
+                        <div class="alert alert-error">✗ File could not be deleted.</div>
+                    </c:if>
+
+                    <c:if test="${not empty error}">
+                        <div class="alert alert-error">✗ ${fn:escapeXml(error)}</div>
+                    </c:if>
+
                     <c:if test="${param.error eq 'invalid_request'}">
                         <div class="alert alert-error">✗ Invalid or expired request. Please try again.</div>
                     </c:if>
@@ -230,15 +303,40 @@
                             <input type="hidden" name="csrf_token" value="${csrfToken}">
 
                             <div class="form-group">
-                                <label for="file">Select File (.txt only)</label>
-                                <input type="file" id="file" name="file" accept=".txt" required>
+                                <label for="file">Select Files (.txt, or .zip of .txt files)</label>
+                                <input type="file" id="file" name="file" accept=".txt,.zip" multiple required>
                             </div>
                             <button type="submit" class="btn">Upload</button>
                         </form>
                     </div>
 
                     <div class="card">
-                        <h2>📁 Uploaded Files</h2>
+                        <h2>🔍 Search My Files</h2>
+                        <form method="get" action="${pageContext.request.contextPath}/search" class="search-form">
+                            <input type="text" name="q" maxlength="200" value="${fn:escapeXml(searchQuery)}"
+                                placeholder="Words that must all occur" required>
+                            <button type="submit" class="btn">Search</button>
+                        </form>
+                        <form method="get" action="${pageContext.request.contextPath}/grep" class="search-form"
+                            target="_blank">
+                            <input type="text" name="pattern" maxlength="200"
+                                placeholder="Regular expression, matched line by line" required>
+                            <label><input type="checkbox" name="i" value="1"> Ignore case</label>
+                            <button type="submit" class="btn">Grep</button>
+                        </form>
+                    </div>
+
+                    <div class="card">
+                        <c:choose>
+                            <c:when test="${not empty searchQuery}">
+                                <h2>🔍 Results for &quot;${fn:escapeXml(searchQuery)}&quot;
+                                    <a href="${pageContext.request.contextPath}/dashboard" class="view-link">All files</a>
+                                </h2>
+                            </c:when>
+                            <c:otherwise>
+                                <h2>📁 Uploaded Files</h2>
+                            </c:otherwise>
+                        </c:choose>
 
                         <c:choose>
                             <c:when test="${not empty files}">
@@ -249,6 +347,7 @@
                                             <th>Uploaded By (User ID)</th>
                                             <th>Upload Date</th>
                                             <th>Size</th>
+                                            <th>Preview</th>
                                             <th>Action</th>
                                         </tr>
                                     </thead>
@@ -260,8 +359,29 @@
                                                 <td>${file.uploadDate}</td>
                                                 <td>${file.fileSize} bytes</td>
                                                 <td>
-                                                    <a href="${pageContext.request.contextPath}/file-content?file=${file.storedFilename}"
+                                                    <c:set var="preview" value="${previews[file.storedFilename]}" />
+                                                    <c:if test="${not empty preview}">
+                                                        <pre class="preview-snippet">${fn:escapeXml(preview.snippet)}</pre>
+                                                        <span class="preview-stats">${preview.lineCount} lines,
+                                                            ${preview.wordCount} words,
+                                                            ${fn:escapeXml(preview.charset)}</span>
+                                                    </c:if>
+                                                </td>
+                                                <td>
+                                                    <a href="${pageContext.request.contextPath}/file-content?file=${file.storedFilename}&amp;lines=1"
                                                         class="view-link" target="_blank">View</a>
+                                                    <a href="${pageContext.request.contextPath}/file-content?file=${file.storedFilename}&amp;raw=1"
+                                                        class="view-link">Download</a>
+                                                    <c:if test="${file.userId eq sessionScope.userId}">
+                                                        <form method="post"
+                                                            action="${pageContext.request.contextPath}/delete"
+                                                            class="delete-form">
+                                                            <input type="hidden" name="csrf_token" value="${csrfToken}">
+                                                            <input type="hidden" name="file"
+                                                                value="${fn:escapeXml(file.storedFilename)}">
+                                                            <button type="submit" class="delete-btn">Delete</button>
+                                                        </form>
+                                                    </c:if>
                                                 </td>
                                             </tr>
                                         </c:forEach>
@@ -270,7 +390,7 @@
                             </c:when>
                             <c:otherwise>
                                 <div class="empty-state">
-                                    <p>No files uploaded yet.</p>
+                                    <p>${not empty searchQuery ? 'No matching files.' : 'No files uploaded yet.'}</p>
                                 </div>
                             </c:otherwise>
                         </c:choose>
@@ -0,0 +1,182 @@
+package com.secureapp.filter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for CompressionFilter.
+ * Tests Accept-Encoding negotiation and the size threshold.
+ */
+class CompressionFilterTest {
+
+    private HttpServletRequest mockRequest;
+    private HttpServletResponse mockResponse;
+    private ByteArrayOutputStream wire;
+    private CompressionFilter filter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockRequest = mock(HttpServletRequest.class);
+        mockResponse = mock(HttpServletResponse.class);
+        wire = new ByteArrayOutputStream();
+        when(mockRequest.getMethod()).thenReturn("GET");
+        when(mockResponse.getContentType()).thenReturn("text/html;charset=UTF-8");
+        when(mockResponse.getCharacterEncoding()).thenReturn("UTF-8");
+        when(mockResponse.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                wire.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+        filter = new CompressionFilter();
+    }
+
+    private void acceptEncoding(String... values) {
+        when(mockRequest.getHeaders("Accept-Encoding")).thenReturn(Collections.enumeration(Arrays.asList(values)));
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    // ==================== acceptsGzip Tests ====================
+
+    @Test
+    void testAcceptsGzip_Negotiation() {
+        acceptEncoding("gzip, deflate, br");
+        assertTrue(CompressionFilter.acceptsGzip(mockRequest));
+
+        acceptEncoding("deflate;q=1.0, gzip;q=0");
+        assertFalse(CompressionFilter.acceptsGzip(mockRequest));
+
+        acceptEncoding("*;q=0.5");
+        assertTrue(CompressionFilter.acceptsGzip(mockRequest));
+
+        acceptEncoding("*", "gzip;q=0");
+        assertFalse(CompressionFilter.acceptsGzip(mockRequest), "Explicit gzip;q=0 overrides the wildcard");
+
+        acceptEncoding("identity");
+        assertFalse(CompressionFilter.acceptsGzip(mockRequest));
+    }
+
+    // ==================== doFilter Tests ====================
+
+    @Test
+    void testLargeResponse_IsGzipped() throws Exception {
+        acceptEncoding("gzip");
+        String page = repeat("<tr><td>file.txt</td><td>1024 bytes</td></tr>\n", 200);
+        FilterChain chain = (request, response) -> response.getWriter().write(page);
+
+        filter.doFilter(mockRequest, mockResponse, chain);
+
+        verify(mockResponse).setHeader("Content-Encoding", "gzip");
+        assertTrue(wire.size() < page.length() / 5);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(wire.toByteArray()))) {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                plain.write(buffer, 0, read);
+            }
+            assertEquals(page, plain.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    void testSmallResponse_SentAsIs() throws Exception {
+        acceptEncoding("gzip");
+        FilterChain chain = (request, response) -> response.getWriter().write("<p>short</p>");
+
+        filter.doFilter(mockRequest, mockResponse, chain);
+
+        verify(mockResponse, never()).setHeader("Content-Encoding", "gzip");
+        verify(mockResponse).setContentLength(12);
+        assertEquals("<p>short</p>", wire.toString("UTF-8"));
+    }
+
+    @Test
+    void testAlreadyEncodedResponse_PassedThrough() throws Exception {
+        acceptEncoding("gzip");
+        when(mockResponse.getHeader("Content-Encoding")).thenReturn("gzip");
+        byte[] body = repeat("precompressed", 200).getBytes("UTF-8");
+        FilterChain chain = (request, response) -> response.getOutputStream().write(body);
+
+        filter.doFilter(mockRequest, mockResponse, chain);
+
+        verify(mockResponse, never()).setHeader("Content-Encoding", "gzip");
+        assertArrayEquals(body, wire.toByteArray());
+    }
+
+    @Test
+    void testAsyncCapableRequest_NotWrapped() throws Exception {
+        acceptEncoding("gzip");
+        when(mockRequest.isAsyncSupported()).thenReturn(true);
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(mockRequest, mockResponse, chain);
+
+        verify(chain).doFilter(mockRequest, mockResponse);
+    }
+
+    @Test
+    void testWriteListener_SendsPrefixAndDelegates() throws Exception {
+        acceptEncoding("gzip");
+        WriteListener listener = mock(WriteListener.class);
+        ServletOutputStream containerStream = mock(ServletOutputStream.class);
+        when(containerStream.isReady()).thenReturn(false);
+        when(mockResponse.getOutputStream()).thenReturn(containerStream);
+        FilterChain chain = (request, response) -> {
+            ServletOutputStream out = response.getOutputStream();
+            out.write(new byte[] { 'h', 'i' });
+            out.setWriteListener(listener);
+            assertFalse(out.isReady(), "Readiness comes from the container's stream");
+        };
+
+        filter.doFilter(mockRequest, mockResponse, chain);
+
+        verify(containerStream).write(new byte[] { 'h', 'i' });
+        verify(containerStream).setWriteListener(listener);
+        verify(containerStream, never()).flush();
+        verify(mockResponse, never()).setHeader("Content-Encoding", "gzip");
+    }
+
+    @Test
+    void testClientWithoutGzip_NotWrapped() throws Exception {
+        acceptEncoding("identity");
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(mockRequest, mockResponse, chain);
+
+        verify(chain).doFilter(mockRequest, mockResponse);
+        verify(mockResponse, never()).setHeader(any(), any());
+    }
+}
@@ -0,0 +1,46 @@
+package com.secureapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for CompressionDictionaryTrainer.
+ */
+class CompressionDictionaryTrainerTest {
+
+    private static List<byte[]> samples() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String text = "Meeting notes for project review number " + i + "\n"
+                    + "Attendees: engineering, product management and quality assurance\n"
+                    + "Action items are tracked in the shared planning document " + (i * 31) + "\n";
+            samples.add(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return samples;
+    }
+
+    @Test
+    void testTrain_DictionaryImprovesCompression() {
+        List<byte[]> samples = samples();
+
+        byte[] dictionary = CompressionDictionaryTrainer.train(samples, 4096);
+
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096);
+        assertTrue(CompressionDictionaryTrainer.compressedSize(samples, dictionary)
+                < CompressionDictionaryTrainer.compressedSize(samples, null) / 2);
+    }
+
+    @Test
+    void testTrain_NothingSharedGivesEmptyDictionary() {
+        List<byte[]> samples = Collections.singletonList(
+                "a single file cannot be shared with anything else".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(0, CompressionDictionaryTrainer.train(samples, 4096).length);
+    }
+}
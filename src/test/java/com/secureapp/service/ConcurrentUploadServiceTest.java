@@ -1,14 +1,27 @@
 package com.secureapp.service;
 
+import com.secureapp.dao.FileDAO;
+import com.secureapp.dao.UploadSessionDAO;
 import com.secureapp.dao.UserDAO;
+import com.secureapp.model.FileModel;
+import com.secureapp.model.UploadSession;
+import com.secureapp.storage.LineIndex;
 import com.secureapp.util.DatabaseUtil;
 import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test class for ConcurrentUploadService
@@ -64,19 +77,29 @@ class ConcurrentUploadServiceTest {
     }
 
     @BeforeEach
-    void cleanupBeforeTest() {
-        // Clean up upload directory before each test
-        File uploadDir = new File(UPLOAD_DIR);
-        if (uploadDir.exists()) {
-            File[] files = uploadDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    file.delete();
-                }
-            }
+    void cleanupBeforeTest() throws IOException {
+        // Clean up upload directory (including shard subdirectories) before each test
+        for (Path file : listStoredFiles()) {
+            Files.deleteIfExists(file);
         }
     }
 
+    /**
+     * List all stored files in the upload directory, walking the sharded
+     * subdirectories.
+     */
+    private List<Path> listStoredFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path uploadDir = Paths.get(UPLOAD_DIR);
+        if (!Files.exists(uploadDir)) {
+            return files;
+        }
+        try (java.util.stream.Stream<Path> walk = Files.walk(uploadDir)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        return files;
+    }
+
     /**
      * TEST 1: Concurrent Upload - No Race Conditions
      * 
@@ -167,10 +190,9 @@ class ConcurrentUploadServiceTest {
         }
 
         // VERIFICATION 3: All files physically exist on disk
-        File uploadDir = new File(UPLOAD_DIR);
-        File[] filesOnDisk = uploadDir.listFiles();
-        assertNotNull(filesOnDisk, "Upload directory should exist");
-        assertEquals(numThreads, filesOnDisk.length,
+        assertTrue(new File(UPLOAD_DIR).exists(), "Upload directory should exist");
+        List<Path> filesOnDisk = listStoredFiles();
+        assertEquals(numThreads, filesOnDisk.size(),
                 "Number of files on disk should match number of uploads");
 
         executor.shutdown();
@@ -289,10 +311,602 @@ class ConcurrentUploadServiceTest {
         }
 
         // FINAL VERIFICATION: Total file count
-        File uploadDir = new File(UPLOAD_DIR);
-        File[] allFiles = uploadDir.listFiles();
-        assertNotNull(allFiles);
-        assertEquals(numIterations * uploadsPerIteration, allFiles.length,
+        List<Path> allFiles = listStoredFiles();
+        assertEquals(numIterations * uploadsPerIteration, allFiles.size(),
                 "Total number of files should match total uploads across all iterations");
     }
+
+    /**
+     * TEST 4: Delete Tombstones Immediately, Purges Later
+     * 
+     * Verifies that a deleted file is hidden at once, that other users cannot
+     * delete it, and that the background purger removes the ciphertext.
+     */
+    @Test
+    @DisplayName("Deleted files are hidden immediately and purged from storage")
+    void testDeleteFile_TombstoneThenPurge() throws Exception {
+        byte[] content = ("Content to delete " + UUID.randomUUID()).getBytes();
+        String storedFilename = uploadService.processUploadAsync(
+                testUserId, "delete_test.txt", content, content.length).get(30, TimeUnit.SECONDS);
+        assertEquals(1, listStoredFiles().size());
+
+        assertFalse(uploadService.deleteFile(testUserId + 1, storedFilename),
+                "Another user must not be able to delete the file");
+        assertTrue(uploadService.deleteFile(testUserId, storedFilename));
+        assertFalse(uploadService.deleteFile(testUserId, storedFilename), "Second delete is a no-op");
+        assertNull(new com.secureapp.dao.FileDAO().getFileByStoredFilename(storedFilename),
+                "Tombstoned file should be hidden from lookups");
+
+        DeletedFilePurger purger = uploadService.getDeletedFilePurger();
+        while (purger.purgeBatch() > 0) {
+            // drain all tombstones, including any left by earlier runs
+        }
+        assertTrue(listStoredFiles().isEmpty(), "Ciphertext should be removed by the purger");
+        assertTrue(purger.getPurgedFiles() >= 1);
+    }
+
+    /**
+     * TEST 5: Identical Uploads Share One Blob
+     * 
+     * Verifies that uploading the same content twice stores one encrypted
+     * blob, and that the blob survives until the last file using it is
+     * purged.
+     */
+    @Test
+    @DisplayName("Identical uploads are deduplicated and reference counted")
+    void testDuplicateUploads_ShareOneBlob() throws Exception {
+        byte[] content = ("Shared content " + UUID.randomUUID()).getBytes();
+        String first = uploadService.processUploadAsync(
+                testUserId, "copy_1.txt", content, content.length).get(30, TimeUnit.SECONDS);
+        String second = uploadService.processUploadAsync(
+                testUserId, "copy_2.txt", content, content.length).get(30, TimeUnit.SECONDS);
+
+        assertNotEquals(first, second, "Each upload keeps its own file entry");
+        assertEquals(1, listStoredFiles().size(), "Identical content should be stored once");
+        assertEquals(uploadService.getFileContent(first), uploadService.getFileContent(second));
+
+        DeletedFilePurger purger = uploadService.getDeletedFilePurger();
+        assertTrue(uploadService.deleteFile(testUserId, first));
+        while (purger.purgeBatch() > 0) {
+            // drain
+        }
+        assertEquals(1, listStoredFiles().size(), "Blob is still referenced by the second file");
+        assertEquals(new String(content), uploadService.getFileContent(second));
+
+        assertTrue(uploadService.deleteFile(testUserId, second));
+        while (purger.purgeBatch() > 0) {
+            // drain
+        }
+        assertTrue(listStoredFiles().isEmpty(), "Last reference released, blob should be deleted");
+    }
+
+    /**
+     * TEST 6: New Versions Of Large Files Share Chunks
+     * 
+     * Verifies that a large file is stored as content-defined chunks, that
+     * uploading an edited version only writes the chunks around the edit,
+     * and that both versions read back intact.
+     */
+    @Test
+    @DisplayName("Large file versions share content-defined chunks")
+    void testLargeFileVersions_ShareChunks() throws Exception {
+        Random random = new Random(UUID.randomUUID().getMostSignificantBits());
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 300 * 1024) {
+            text.append("line ").append(random.nextLong()).append(' ').append(random.nextInt()).append('\n');
+        }
+        String original = text.toString();
+        String edited = original + "appended line " + UUID.randomUUID() + "\n";
+
+        byte[] v1 = original.getBytes("UTF-8");
+        String first = uploadService.processUploadAsync(
+                testUserId, "version_1.txt", v1, v1.length).get(30, TimeUnit.SECONDS);
+        int chunksOfFirst = listStoredFiles().size();
+        assertTrue(chunksOfFirst > 4, "Large content should be split into chunks");
+
+        byte[] v2 = edited.getBytes("UTF-8");
+        String second = uploadService.processUploadAsync(
+                testUserId, "version_2.txt", v2, v2.length).get(30, TimeUnit.SECONDS);
+        int added = listStoredFiles().size() - chunksOfFirst;
+        assertTrue(added >= 1 && added <= 2, "Only the chunks at the edit should be new, got " + added);
+
+        assertEquals(original, uploadService.getFileContent(first));
+        assertEquals(edited, uploadService.getFileContent(second));
+
+        DeletedFilePurger purger = uploadService.getDeletedFilePurger();
+        assertTrue(uploadService.deleteFile(testUserId, first));
+        while (purger.purgeBatch() > 0) {
+            // drain
+        }
+        assertEquals(edited, uploadService.getFileContent(second), "Shared chunks must survive");
+
+        assertTrue(uploadService.deleteFile(testUserId, second));
+        while (purger.purgeBatch() > 0) {
+            // drain
+        }
+        assertTrue(listStoredFiles().isEmpty(), "All chunks should be released");
+    }
+
+    /**
+     * TEST 7: Byte Ranges Of Chunked Content
+     * 
+     * Verifies that a line index is stored with new content, and that ranges
+     * starting and ending inside chunks, spanning chunk boundaries and
+     * running past the end read back the right bytes, through both the
+     * stream and the NIO read paths.
+     */
+    @Test
+    @DisplayName("Byte ranges of chunked content read back correctly")
+    void testChunkedContent_ByteRanges() throws Exception {
+        Random random = new Random(UUID.randomUUID().getMostSignificantBits());
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 256 * 1024) {
+            text.append("entry ").append(random.nextLong()).append('\n');
+        }
+        byte[] content = text.toString().getBytes("UTF-8");
+        String stored = uploadService.processUploadAsync(
+                testUserId, "ranges.log", content, content.length).get(30, TimeUnit.SECONDS);
+        FileModel fileModel = new FileDAO().getFileByStoredFilename(stored);
+
+        LineIndex index = uploadService.getLineIndex(fileModel);
+        assertNotNull(index, "A line index should be stored with new content");
+        assertEquals(text.toString().split("\n").length, index.getLineCount());
+
+        long[][] ranges = { { 0, 100 }, { 70000, 90000 }, { content.length - 10, 10 },
+                { content.length - 10, 1000 }, { 12345, 0 } };
+        for (long[] range : ranges) {
+            int expected = (int) Math.min(range[1], content.length - range[0]);
+            byte[] read = new byte[expected + 1];
+            int total = 0;
+            try (InputStream in = uploadService.openFileContent(fileModel, range[0], range[1])) {
+                int count;
+                while ((count = in.read(read, total, read.length - total)) != -1) {
+                    total += count;
+                    if (total == read.length) {
+                        break;
+                    }
+                }
+            }
+            assertEquals(expected, total, "Range " + range[0] + "+" + range[1]);
+            assertArrayEquals(Arrays.copyOfRange(content, (int) range[0], (int) range[0] + expected),
+                    Arrays.copyOf(read, total));
+
+            // Same range through the NIO read path
+            ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+            assertEquals(expected, uploadService.transferFileContent(fileModel, range[0], range[1],
+                    Channels.newChannel(transferred)));
+            assertArrayEquals(Arrays.copyOf(read, total), transferred.toByteArray());
+        }
+    }
+
+    /**
+     * TEST 8: Full-Text Search
+     * 
+     * Verifies that an upload is indexed once committed, that every query
+     * word must occur, that other users never see the file, and that
+     * purging the file removes it from the index.
+     */
+    @Test
+    @DisplayName("Uploaded files are found by their words, for their owner only")
+    void testSearchIndex_FindsOwnFiles() throws Exception {
+        String marker = "zq" + UUID.randomUUID().toString().replace("-", "");
+        byte[] content = ("Quarterly report " + marker + "\nrevenue grew\n").getBytes("UTF-8");
+        String stored = uploadService.processUploadAsync(
+                testUserId, "search.txt", content, content.length).get(30, TimeUnit.SECONDS);
+
+        SearchIndexService search = uploadService.getSearchIndex();
+        List<FileModel> found = search.search(testUserId, marker.toUpperCase() + " REVENUE");
+        assertEquals(1, found.size());
+        assertEquals(stored, found.get(0).getStoredFilename());
+
+        assertTrue(search.search(testUserId, marker + " missingword").isEmpty(),
+                "Every query token must occur");
+        assertTrue(search.search(testUserId + 1, marker).isEmpty(),
+                "Other users must not find the file");
+
+        // Purging the file removes it from the posting lists
+        byte[] markerHash = com.secureapp.util.SearchTokenUtil.hashToken(marker);
+        assertNotNull(new com.secureapp.dao.SearchIndexDAO().getPostings(testUserId, markerHash));
+        assertTrue(uploadService.deleteFile(testUserId, stored));
+        for (int i = 0; i < 20 && new FileDAO().getDeletedBytes() > 0; i++) {
+            uploadService.getDeletedFilePurger().purgeBatch();
+        }
+        assertNull(new com.secureapp.dao.SearchIndexDAO().getPostings(testUserId, markerHash),
+                "A list left empty by the purge is deleted");
+    }
+
+    /**
+     * TEST 9: Grep Across A User's Files
+     * 
+     * Verifies that matching lines of every file are returned with their
+     * line numbers, and that a pattern with catastrophic backtracking is
+     * stopped by the time budget.
+     */
+    @Test
+    @DisplayName("Grep finds matching lines and respects its budgets")
+    void testGrep_MatchesAndBudgets() throws Exception {
+        String marker = "grep" + UUID.randomUUID().toString().replace("-", "");
+        byte[] first = ("alpha\nfound " + marker + " here\nomega\n").getBytes("UTF-8");
+        byte[] second = ("one\ntwo\r\nthree " + marker + "\n" + new String(new char[40]).replace('\0', 'a') + "!\n").getBytes("UTF-8");
+        uploadService.processUploadAsync(testUserId, "grep_1.txt", first, first.length).get(30, TimeUnit.SECONDS);
+        uploadService.processUploadAsync(testUserId, "grep_2.txt", second, second.length).get(30, TimeUnit.SECONDS);
+
+        GrepService grep = uploadService.getGrepService();
+        Set<String> found = new HashSet<>();
+        try (GrepService.GrepQuery query = grep.start(testUserId, java.util.regex.Pattern.compile(marker))) {
+            while (!query.isFinished()) {
+                GrepService.GrepMatch match = query.next(100);
+                if (match != null) {
+                    found.add(match.getFilename() + ":" + match.getLineNumber() + ":" + match.getLine());
+                }
+            }
+            assertNull(query.getStopReason());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("grep_1.txt:2:found " + marker + " here",
+                "grep_2.txt:3:three " + marker)), found);
+
+        GrepService budgeted = new GrepService(new FileDAO(), uploadService::openFileContent, 2, 1, 500, 10000, 10);
+        try {
+            long start = System.nanoTime();
+            try (GrepService.GrepQuery query = budgeted.start(testUserId,
+                    java.util.regex.Pattern.compile("(.*a){20}$"))) {
+                while (!query.isFinished()) {
+                    query.next(100);
+                }
+                assertEquals("time budget exhausted", query.getStopReason());
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5),
+                    "Backtracking must be cut off by the budget");
+        } finally {
+            budgeted.shutdown();
+        }
+
+        // A task stuck opening a file cannot check the budget; the reader still stops at the deadline
+        CountDownLatch release = new CountDownLatch(1);
+        GrepService.ContentOpener stuck = file -> {
+            release.await();
+            return uploadService.openFileContent(file);
+        };
+        GrepService blocked = new GrepService(new FileDAO(), stuck, 1, 2, 300, 10000, 10);
+        try {
+            long start = System.nanoTime();
+            try (GrepService.GrepQuery query = blocked.start(testUserId, java.util.regex.Pattern.compile(marker))) {
+                while (!query.isFinished()) {
+                    query.next(100);
+                }
+                assertEquals("time budget exhausted", query.getStopReason());
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+            GrepService.GrepQuery open = blocked.start(testUserId, java.util.regex.Pattern.compile(marker));
+            blocked.shutdown();
+            assertEquals("shut down", open.getStopReason());
+            assertTrue(open.isFinished());
+            open.close();
+        } finally {
+            release.countDown();
+            blocked.shutdown();
+        }
+    }
+
+    /**
+     * TEST 10: Non-Text Content Rejected By The Pipeline
+     * 
+     * Verifies that the detect stage rejects content that is not text and
+     * that nothing is stored for it.
+     */
+    @Test
+    @DisplayName("Upload pipeline rejects non-text content")
+    void testUploadPipeline_RejectsNonText() throws Exception {
+        byte[] png = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R' };
+        int filesBefore = new FileDAO().getFilesByUserId(testUserId).size();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> uploadService.processUploadAsync(
+                testUserId, "image.txt", png, png.length).get(30, TimeUnit.SECONDS));
+
+        assertTrue(e.getCause() instanceof ConcurrentUploadService.UnsupportedContentException);
+        assertEquals(filesBefore, new FileDAO().getFilesByUserId(testUserId).size());
+    }
+
+    private static byte[] zipOf(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (java.util.zip.ZipOutputStream zip = new java.util.zip.ZipOutputStream(archive)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new java.util.zip.ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return archive.toByteArray();
+    }
+
+    /**
+     * TEST 11: Bulk Upload Of Parts And A ZIP Archive
+     * 
+     * Verifies that a bulk upload stores every text file, from plain parts
+     * and from a ZIP, rejects the others with their reason, and never has
+     * more files in the pipeline than its cap.
+     */
+    @Test
+    @DisplayName("Bulk upload stores text files from parts and ZIP entries")
+    void testBulkUpload_PartsAndZip() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 12; i++) {
+            entries.put("dir/bulk_" + i + ".txt", ("Bulk entry " + i + "\n").getBytes("UTF-8"));
+        }
+        entries.put("dir/", new byte[0]);
+        entries.put("image.png", new byte[] { (byte) 0x89, 'P', 'N', 'G' });
+        entries.put("fake.txt", new byte[] { 'P', 'K', 3, 4, 0, 0 });
+        int filesBefore = new FileDAO().getFilesByUserId(testUserId).size();
+
+        // Real pipeline behind a probe of how many files are in it at once
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peakInFlight = new AtomicInteger();
+        ConcurrentUploadService probe = org.mockito.Mockito.mock(ConcurrentUploadService.class);
+        org.mockito.Mockito.when(probe.processUploadAsync(org.mockito.ArgumentMatchers.anyInt(),
+                org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(byte[].class),
+                org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyString()))
+                .thenAnswer(inv -> {
+                    peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return uploadService.processUploadAsync(inv.getArgument(0), inv.getArgument(1),
+                            inv.getArgument(2), inv.getArgument(3), inv.getArgument(4))
+                            .whenComplete((stored, error) -> inFlight.decrementAndGet());
+                });
+
+        BulkUpload bulkUpload = new BulkUpload(probe, testUserId, 3, 100, 1024 * 1024);
+        assertTrue(bulkUpload.addFile("single.txt", new java.io.ByteArrayInputStream("Single part\n".getBytes("UTF-8"))));
+        assertTrue(bulkUpload.addFile("notes.md", new java.io.ByteArrayInputStream(new byte[] { 'x' })));
+        assertTrue(bulkUpload.addZip(new java.io.ByteArrayInputStream(zipOf(entries))));
+        BulkUpload.Result result = bulkUpload.finish();
+
+        assertEquals(13, result.getUploaded());
+        assertEquals(2, result.count(BulkUpload.Outcome.INVALID_EXTENSION));
+        assertEquals(1, result.count(BulkUpload.Outcome.INVALID_CONTENT_TYPE));
+        assertEquals(0, result.getFailed());
+        assertFalse(result.isLimitExceeded());
+        assertTrue(peakInFlight.get() >= 1 && peakInFlight.get() <= 3,
+                "At most 3 files in the pipeline at once, saw " + peakInFlight.get());
+
+        List<FileModel> files = new FileDAO().getFilesByUserId(testUserId);
+        assertEquals(filesBefore + 13, files.size());
+        assertTrue(files.stream().anyMatch(f -> f.getOriginalFilename().equals("bulk_7.txt")),
+                "ZIP entries are stored under their base name");
+    }
+
+    /**
+     * TEST 12: ZIP Bomb Limits
+     * 
+     * Verifies that a bulk upload stops expanding an archive once the
+     * expanded bytes or the number of files exceed the request limits.
+     */
+    @Test
+    @DisplayName("Bulk upload stops at the expanded size and file count limits")
+    void testBulkUpload_ZipBombLimits() throws Exception {
+        // 8 MB of zeros compresses to a few KB
+        Map<String, byte[]> bomb = new LinkedHashMap<>();
+        bomb.put("zeros.txt", new byte[8 * 1024 * 1024]);
+        bomb.put("after.txt", "never read\n".getBytes("UTF-8"));
+        byte[] archive = zipOf(bomb);
+        assertTrue(archive.length < 64 * 1024);
+
+        BulkUpload sizeLimited = new BulkUpload(uploadService, testUserId, 2, 100, 1024 * 1024);
+        assertFalse(sizeLimited.addZip(new java.io.ByteArrayInputStream(archive)));
+        BulkUpload.Result result = sizeLimited.finish();
+        assertTrue(result.isLimitExceeded());
+        assertEquals(0, result.getUploaded());
+
+        Map<String, byte[]> many = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            many.put("many_" + i + ".txt", ("Many " + i + "\n").getBytes("UTF-8"));
+        }
+        BulkUpload countLimited = new BulkUpload(uploadService, testUserId, 2, 3, 1024 * 1024);
+        assertFalse(countLimited.addZip(new java.io.ByteArrayInputStream(zipOf(many))));
+        result = countLimited.finish();
+        assertTrue(result.isLimitExceeded());
+        assertEquals(3, result.getUploaded());
+    }
+
+    /**
+     * TEST 13: Resumable Upload Survives A Restart
+     * 
+     * Verifies that chunks appended at the session offset are staged, that
+     * an append at any other offset is refused with the current offset, that
+     * a new service over the same staging directory resumes where the old
+     * one stopped, and that the finalized file matches what was sent.
+     */
+    @Test
+    @DisplayName("Resumable upload resumes after a restart and stores the assembled file")
+    void testResumableUpload_ResumeAndFinalize() throws Exception {
+        Path stagingDir = Files.createTempDirectory("resumable-test");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 700 * 1024; i++) {
+            text.append("resumable line ").append(i).append('\n');
+        }
+        byte[] content = text.toString().getBytes("UTF-8");
+        int firstChunk = 400 * 1024;
+
+        ResumableUploadService before = new ResumableUploadService(new UploadSessionDAO(), uploadService,
+                stagingDir, 1024 * 1024, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        String id;
+        try {
+            id = before.createSession(testUserId, "resumed.txt", content.length).getId();
+            assertEquals(firstChunk, before.appendChunk(id, testUserId, 0,
+                    new java.io.ByteArrayInputStream(content, 0, firstChunk)));
+            assertTrue(before.getRecordsAppended() >= 2, "Chunks are split into records");
+
+            ResumableUploadService.OffsetMismatchException e = assertThrows(
+                    ResumableUploadService.OffsetMismatchException.class,
+                    () -> before.appendChunk(id, testUserId, 0, new java.io.ByteArrayInputStream(content)));
+            assertEquals(firstChunk, e.getCurrentOffset());
+            assertThrows(ResumableUploadService.SessionNotFoundException.class,
+                    () -> before.getSession(id, testUserId + 1));
+        } finally {
+            before.shutdown();
+        }
+
+        ResumableUploadService after = new ResumableUploadService(new UploadSessionDAO(), uploadService,
+                stagingDir, 1024 * 1024, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        try {
+            UploadSession session = after.getSession(id, testUserId);
+            assertEquals(firstChunk, session.getUploadOffset());
+            assertThrows(ResumableUploadService.OffsetMismatchException.class,
+                    () -> after.finalizeUpload(id, testUserId));
+
+            assertEquals(content.length, after.appendChunk(id, testUserId, firstChunk,
+                    new java.io.ByteArrayInputStream(content, firstChunk, content.length - firstChunk)));
+            String stored = after.finalizeUpload(id, testUserId);
+
+            FileModel fileModel = new FileDAO().getFileByStoredFilename(stored);
+            assertEquals("resumed.txt", fileModel.getOriginalFilename());
+            assertEquals(text.toString(), uploadService.getFileContent(fileModel));
+            assertThrows(ResumableUploadService.SessionNotFoundException.class,
+                    () -> after.getSession(id, testUserId));
+            assertFalse(Files.exists(stagingDir.resolve(id + ".part")), "Staging file is removed");
+        } finally {
+            after.shutdown();
+        }
+    }
+
+    /**
+     * TEST 14: Abandoned Resumable Uploads Are Collected
+     * 
+     * Verifies that garbage collection deletes sessions without progress for
+     * the expiry time, together with their staging files and staging files
+     * left without a session.
+     */
+    @Test
+    @DisplayName("Resumable upload GC deletes expired sessions and orphan staging files")
+    void testResumableUpload_GarbageCollection() throws Exception {
+        Path stagingDir = Files.createTempDirectory("resumable-gc-test");
+        ResumableUploadService resumable = new ResumableUploadService(new UploadSessionDAO(), uploadService,
+                stagingDir, 1024 * 1024, 1, TimeUnit.HOURS.toMillis(1));
+        try {
+            String id = resumable.createSession(testUserId, "abandoned.txt", 100).getId();
+            resumable.appendChunk(id, testUserId, 0, new java.io.ByteArrayInputStream(new byte[] { 'a', 'b' }));
+            Path orphan = Files.write(stagingDir.resolve("0123456789abcdef0123456789abcdef.part"), new byte[8]);
+            Thread.sleep(50);
+
+            assertTrue(resumable.collectExpired() >= 1);
+            assertNull(new UploadSessionDAO().getSession(id));
+            assertFalse(Files.exists(stagingDir.resolve(id + ".part")));
+            assertFalse(Files.exists(orphan));
+        } finally {
+            resumable.shutdown();
+        }
+    }
+
+    /**
+     * TEST 15: Finalize Can Be Retried After A Pipeline Failure
+     * 
+     * Verifies that a failed finalize keeps the session and its staging file
+     * unless the content was rejected, so the client can finalize again.
+     */
+    @Test
+    @DisplayName("Resumable upload keeps the session when finalize fails")
+    void testResumableUpload_FinalizeRetry() throws Exception {
+        byte[] content = "retried finalize\n".getBytes("UTF-8");
+        CompletableFuture<String> transientFailure = new CompletableFuture<>();
+        transientFailure.completeExceptionally(new SQLException("database busy"));
+        ConcurrentUploadService flakyService = org.mockito.Mockito.mock(ConcurrentUploadService.class);
+        org.mockito.Mockito.when(flakyService.processUploadAsync(org.mockito.ArgumentMatchers.anyInt(),
+                org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(byte[].class),
+                org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyString()))
+                .thenReturn(transientFailure)
+                .thenAnswer(inv -> uploadService.processUploadAsync(inv.getArgument(0), inv.getArgument(1),
+                        inv.getArgument(2), inv.getArgument(3), inv.getArgument(4)));
+
+        Path stagingDir = Files.createTempDirectory("resumable-retry-test");
+        ResumableUploadService resumable = new ResumableUploadService(new UploadSessionDAO(), flakyService,
+                stagingDir, 1024 * 1024, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        try {
+            String id = resumable.createSession(testUserId, "retried.txt", content.length).getId();
+            resumable.appendChunk(id, testUserId, 0, new java.io.ByteArrayInputStream(content));
+
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> resumable.finalizeUpload(id, testUserId));
+            assertTrue(e.getCause() instanceof SQLException);
+            assertEquals(content.length, resumable.getSession(id, testUserId).getUploadOffset());
+            assertTrue(Files.exists(stagingDir.resolve(id + ".part")), "Staging file is kept for a retry");
+
+            String stored = resumable.finalizeUpload(id, testUserId);
+            assertEquals("retried.txt", new FileDAO().getFileByStoredFilename(stored).getOriginalFilename());
+            assertThrows(ResumableUploadService.SessionNotFoundException.class,
+                    () -> resumable.getSession(id, testUserId));
+
+            // Rejected content removes the session: finalizing again cannot help
+            byte[] png = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+            String rejected = resumable.createSession(testUserId, "image.txt", png.length).getId();
+            resumable.appendChunk(rejected, testUserId, 0, new java.io.ByteArrayInputStream(png));
+            e = assertThrows(ExecutionException.class, () -> resumable.finalizeUpload(rejected, testUserId));
+            assertTrue(e.getCause() instanceof ConcurrentUploadService.UnsupportedContentException);
+            assertThrows(ResumableUploadService.SessionNotFoundException.class,
+                    () -> resumable.getSession(rejected, testUserId));
+        } finally {
+            resumable.shutdown();
+        }
+    }
+
+    /**
+     * TEST 16: Finalize Waits For The Pipeline Without The Session Lock
+     * 
+     * Verifies that a session being stored can be neither finalized again
+     * nor cancelled, that those requests are answered at once instead of
+     * queueing behind the pipeline, and that a corrupt record length in the
+     * staging file fails the finalize instead of allocating it.
+     */
+    @Test
+    @DisplayName("Resumable finalize releases the lock and rejects corrupt records")
+    void testResumableUpload_FinalizeConcurrencyAndCorruption() throws Exception {
+        byte[] content = "slow pipeline\n".getBytes("UTF-8");
+        CompletableFuture<String> stored = new CompletableFuture<>();
+        ConcurrentUploadService slowService = org.mockito.Mockito.mock(ConcurrentUploadService.class);
+        org.mockito.Mockito.when(slowService.processUploadAsync(org.mockito.ArgumentMatchers.anyInt(),
+                org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(byte[].class),
+                org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyString()))
+                .thenReturn(stored);
+
+        Path stagingDir = Files.createTempDirectory("resumable-finalize-test");
+        ResumableUploadService resumable = new ResumableUploadService(new UploadSessionDAO(), slowService,
+                stagingDir, 1024 * 1024, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        ExecutorService finalizer = Executors.newSingleThreadExecutor();
+        try {
+            String id = resumable.createSession(testUserId, "slow.txt", content.length).getId();
+            resumable.appendChunk(id, testUserId, 0, new java.io.ByteArrayInputStream(content));
+            Future<String> first = finalizer.submit(() -> resumable.finalizeUpload(id, testUserId));
+            org.mockito.Mockito.verify(slowService, org.mockito.Mockito.timeout(5000))
+                    .processUploadAsync(org.mockito.ArgumentMatchers.anyInt(),
+                            org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(byte[].class),
+                            org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyString());
+
+            assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> {
+                assertThrows(ResumableUploadService.OffsetMismatchException.class,
+                        () -> resumable.finalizeUpload(id, testUserId));
+                assertThrows(ResumableUploadService.OffsetMismatchException.class,
+                        () -> resumable.cancelSession(id, testUserId));
+            });
+
+            stored.complete("file_slow.txt");
+            assertEquals("file_slow.txt", first.get(5, TimeUnit.SECONDS));
+            assertThrows(ResumableUploadService.SessionNotFoundException.class,
+                    () -> resumable.getSession(id, testUserId));
+
+            String corrupt = resumable.createSession(testUserId, "corrupt.txt", content.length).getId();
+            resumable.appendChunk(corrupt, testUserId, 0, new java.io.ByteArrayInputStream(content));
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(
+                    stagingDir.resolve(corrupt + ".part"), java.nio.file.StandardOpenOption.WRITE)) {
+                channel.write(java.nio.ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE));
+            }
+            IOException e = assertThrows(IOException.class, () -> resumable.finalizeUpload(corrupt, testUserId));
+            assertTrue(e.getMessage().contains("Corrupt record length"));
+            org.mockito.Mockito.verify(slowService, org.mockito.Mockito.times(1))
+                    .processUploadAsync(org.mockito.ArgumentMatchers.anyInt(),
+                            org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(byte[].class),
+                            org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyString());
+            resumable.cancelSession(corrupt, testUserId);
+        } finally {
+            stored.complete("file_slow.txt");
+            finalizer.shutdownNow();
+            resumable.shutdown();
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.model.FileModel;
+import com.secureapp.storage.BlobStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for DeletedFilePurger.
+ * Tests batch purging, blob reference release, compaction steps and
+ * reclaimable byte reporting, using a mocked FileDAO and stores.
+ */
+class DeletedFilePurgerTest {
+
+    private FileDAO mockFileDAO;
+    private BlobStore mockBlobStore;
+    private ContentAddressedStore mockContentStore;
+    private DeletedFilePurger purger;
+
+    @BeforeEach
+    void setUp() {
+        mockFileDAO = mock(FileDAO.class);
+        mockBlobStore = mock(BlobStore.class);
+        mockContentStore = mock(ContentAddressedStore.class);
+        purger = new DeletedFilePurger(mockFileDAO, mockBlobStore, mockContentStore, 2, 1000);
+    }
+
+    @Test
+    void testPurgeBatch_DeletesBlobBeforeRow() throws Exception {
+        FileModel first = deletedFile(1, "file_1.txt", 100);
+        FileModel second = deletedFile(2, "file_2.txt", 50);
+        when(mockFileDAO.getDeletedFiles(2)).thenReturn(Arrays.asList(first, second));
+        when(mockFileDAO.purgeFile(anyInt())).thenReturn(true);
+        when(mockBlobStore.compact()).thenReturn(4096L);
+
+        assertEquals(2, purger.purgeBatch());
+
+        verify(mockBlobStore).delete("file_1.txt");
+        verify(mockBlobStore).delete("file_2.txt");
+        verify(mockFileDAO).purgeFile(1);
+        verify(mockFileDAO).purgeFile(2);
+        assertEquals(2, purger.getPurgedFiles());
+        assertEquals(150, purger.getPurgedBytes());
+        assertEquals(4096, purger.getCompactedBytes());
+    }
+
+    @Test
+    void testPurgeBatch_ReleasesSharedBlobAfterRow() throws Exception {
+        FileModel file = deletedFile(1, "file_1.txt", 100);
+        file.setContentHash("abc123");
+        when(mockFileDAO.getDeletedFiles(2)).thenReturn(Collections.singletonList(file));
+        when(mockFileDAO.purgeFile(1)).thenReturn(true);
+
+        assertEquals(1, purger.purgeBatch());
+
+        // Shared blob is never deleted by name; only released once unreferenced
+        verify(mockBlobStore, never()).delete(anyString());
+        org.mockito.InOrder order = inOrder(mockFileDAO, mockContentStore);
+        order.verify(mockFileDAO).purgeFile(1);
+        order.verify(mockContentStore).releaseIfUnreferenced("abc123");
+        verify(mockContentStore).sweepUnreferenced(2);
+    }
+
+    @Test
+    void testPurgeBatch_BlobFailureKeepsTombstone() throws Exception {
+        FileModel file = deletedFile(1, "file_1.txt", 100);
+        when(mockFileDAO.getDeletedFiles(2)).thenReturn(Collections.singletonList(file));
+        when(mockBlobStore.delete("file_1.txt")).thenThrow(new IOException("disk error"));
+
+        assertThrows(IOException.class, () -> purger.purgeBatch());
+
+        // Row stays tombstoned so the next batch retries
+        verify(mockFileDAO, never()).purgeFile(anyInt());
+        assertEquals(0, purger.getPurgedFiles());
+    }
+
+    @Test
+    void testPurgeBatch_NothingDeletedStillCompacts() throws Exception {
+        when(mockFileDAO.getDeletedFiles(2)).thenReturn(Collections.emptyList());
+
+        assertEquals(0, purger.purgeBatch());
+
+        verify(mockBlobStore).compact();
+    }
+
+    @Test
+    void testGetReclaimableBytes_CombinesPendingAndStoreBytes() throws Exception {
+        when(mockFileDAO.getDeletedBytes()).thenReturn(300L);
+        when(mockBlobStore.getReclaimableBytes()).thenReturn(1000L);
+
+        assertEquals(1300, purger.getReclaimableBytes());
+    }
+
+    @Test
+    void testPurgeBatch_RemovesFromSearchIndexBeforeRow() throws Exception {
+        SearchIndexService mockSearchIndex = mock(SearchIndexService.class);
+        purger = new DeletedFilePurger(mockFileDAO, mockBlobStore, mockContentStore, mockSearchIndex, 2, 1000);
+        FileModel first = deletedFile(1, "file_1.txt", 100);
+        FileModel second = deletedFile(2, "file_2.txt", 50);
+        when(mockFileDAO.getDeletedFiles(2)).thenReturn(Arrays.asList(first, second));
+        when(mockFileDAO.purgeFile(anyInt())).thenReturn(true);
+
+        assertEquals(2, purger.purgeBatch());
+
+        org.mockito.InOrder order = inOrder(mockSearchIndex, mockFileDAO);
+        order.verify(mockSearchIndex).removeFiles(1, new int[] { 1, 2 });
+        order.verify(mockFileDAO).purgeFile(1);
+    }
+
+    @Test
+    void testPurgeBatch_SearchIndexFailureKeepsTombstone() throws Exception {
+        SearchIndexService mockSearchIndex = mock(SearchIndexService.class);
+        purger = new DeletedFilePurger(mockFileDAO, mockBlobStore, mockContentStore, mockSearchIndex, 2, 1000);
+        when(mockFileDAO.getDeletedFiles(2)).thenReturn(Collections.singletonList(deletedFile(1, "file_1.txt", 100)));
+        doThrow(new java.sql.SQLException("index locked")).when(mockSearchIndex).removeFiles(anyInt(), any());
+
+        assertEquals(0, purger.purgeBatch());
+
+        verify(mockFileDAO, never()).purgeFile(anyInt());
+        verify(mockBlobStore, never()).delete(anyString());
+    }
+
+    private static FileModel deletedFile(int id, String storedFilename, long size) {
+        return new FileModel(id, 1, "original.txt", storedFilename, size, new Timestamp(0));
+    }
+}
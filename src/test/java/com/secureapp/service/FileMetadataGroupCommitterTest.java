@@ -0,0 +1,177 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.model.FileModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for FileMetadataGroupCommitter.
+ * Tests batching of concurrent inserts and the per-row fallback on batch
+ * failure, using a mocked FileDAO.
+ */
+class FileMetadataGroupCommitterTest {
+
+    private FileDAO mockFileDAO;
+    private FileMetadataGroupCommitter committer;
+
+    @BeforeEach
+    void setUp() {
+        mockFileDAO = mock(FileDAO.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (committer != null) {
+            committer.shutdown();
+        }
+    }
+
+    @Test
+    void testSubmit_CompletesAfterBatchCommit() throws Exception {
+        when(mockFileDAO.saveFiles(anyList())).thenAnswer(inv -> {
+            List<?> files = inv.getArgument(0);
+            int[] results = new int[files.size()];
+            java.util.Arrays.fill(results, 1);
+            return results;
+        });
+        committer = new FileMetadataGroupCommitter(mockFileDAO);
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(committer.submit(new FileModel(1, "f" + i + ".txt", "file_" + i + ".txt", 10)));
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS), "Every row should be reported as saved");
+        }
+        assertEquals(20, committer.getRowsCommitted());
+        assertTrue(committer.getBatchesCommitted() <= 20, "Rows should be grouped into batches");
+        verify(mockFileDAO, never()).saveFile(any());
+    }
+
+    @Test
+    void testSubmit_BatchFailure_FallsBackToSingleInserts() throws Exception {
+        FileModel good = new FileModel(1, "good.txt", "file_good.txt", 10);
+        FileModel bad = new FileModel(1, "bad.txt", "file_bad.txt", 10);
+
+        when(mockFileDAO.saveFiles(anyList())).thenThrow(new SQLException("duplicate key"));
+        when(mockFileDAO.saveFile(good)).thenReturn(true);
+        when(mockFileDAO.saveFile(bad)).thenThrow(new SQLException("duplicate key"));
+        committer = new FileMetadataGroupCommitter(mockFileDAO);
+
+        CompletableFuture<Boolean> goodFuture = committer.submit(good);
+        CompletableFuture<Boolean> badFuture = committer.submit(bad);
+
+        assertTrue(goodFuture.get(5, TimeUnit.SECONDS), "Valid row should survive a failed batch");
+        ExecutionException e = assertThrows(ExecutionException.class, () -> badFuture.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof SQLException);
+    }
+
+    @Test
+    void testSubmit_BatchFailure_SyncsRetriedRowsOnce() throws Exception {
+        FileModel first = new FileModel(1, "first.txt", "file_first.txt", 10);
+        FileModel second = new FileModel(1, "second.txt", "file_second.txt", 10);
+
+        when(mockFileDAO.saveFiles(anyList())).thenThrow(new SQLException("duplicate key"));
+        when(mockFileDAO.saveFile(any())).thenReturn(true);
+        committer = new FileMetadataGroupCommitter(mockFileDAO);
+
+        CompletableFuture<Boolean> firstFuture = committer.submit(first);
+        CompletableFuture<Boolean> secondFuture = committer.submit(second);
+
+        assertTrue(firstFuture.get(5, TimeUnit.SECONDS));
+        assertTrue(secondFuture.get(5, TimeUnit.SECONDS));
+        verify(mockFileDAO, atLeastOnce()).syncToDisk();
+        verify(mockFileDAO, atMost(2)).syncToDisk();
+    }
+
+    @Test
+    void testSubmit_SyncFailureAfterCommit_RetriesSyncNotInserts() throws Exception {
+        FileModel file = new FileModel(1, "synced.txt", "file_synced.txt", 10);
+
+        when(mockFileDAO.saveFiles(anyList())).thenThrow(
+                new FileDAO.SyncFailedException(new SQLException("checkpoint failed"), new int[] { 1 }));
+        committer = new FileMetadataGroupCommitter(mockFileDAO);
+
+        assertTrue(committer.submit(file).get(5, TimeUnit.SECONDS), "Committed row should survive a sync retry");
+        verify(mockFileDAO).syncToDisk();
+        verify(mockFileDAO, never()).saveFile(any());
+    }
+
+    @Test
+    void testSubmit_SyncFailsAgain_DeletesCommittedRow() throws Exception {
+        FileModel file = new FileModel(1, "unsynced.txt", "file_unsynced.txt", 10);
+
+        when(mockFileDAO.saveFiles(anyList())).thenThrow(
+                new FileDAO.SyncFailedException(new SQLException("checkpoint failed"), new int[] { 1 }));
+        doThrow(new SQLException("checkpoint failed")).when(mockFileDAO).syncToDisk();
+        committer = new FileMetadataGroupCommitter(mockFileDAO);
+
+        CompletableFuture<Boolean> future = committer.submit(file);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof SQLException);
+        verify(mockFileDAO).deleteFileByStoredFilename("file_unsynced.txt");
+        verify(mockFileDAO, never()).saveFile(any());
+    }
+
+    @Test
+    void testSubmit_AfterShutdown_FailsFast() {
+        committer = new FileMetadataGroupCommitter(mockFileDAO);
+        committer.shutdown();
+
+        CompletableFuture<Boolean> future = committer.submit(new FileModel(1, "a.txt", "file_a.txt", 1));
+
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    void testSubmit_RacingShutdown_EveryFutureCompletes() throws Exception {
+        when(mockFileDAO.saveFiles(anyList())).thenAnswer(inv -> {
+            int[] results = new int[((List<?>) inv.getArgument(0)).size()];
+            java.util.Arrays.fill(results, 1);
+            return results;
+        });
+        committer = new FileMetadataGroupCommitter(mockFileDAO);
+
+        List<CompletableFuture<Boolean>> futures = java.util.Collections.synchronizedList(new ArrayList<>());
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    futures.add(committer.submit(new FileModel(1, "r.txt", "file_" + thread + "_" + i + ".txt", 1)));
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        Thread.sleep(5);
+        committer.shutdown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.secureapp.service;
+
+import com.secureapp.dao.FileDAO;
+import com.secureapp.dao.SearchIndexDAO;
+import com.secureapp.model.FileModel;
+import com.secureapp.util.PostingListUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for SearchIndexService.
+ * Tests result paging over deleted files, using mocked DAOs.
+ */
+class SearchIndexServiceTest {
+
+    private SearchIndexDAO mockSearchIndexDAO;
+    private FileDAO mockFileDAO;
+    private SearchIndexService searchIndex;
+
+    @BeforeEach
+    void setUp() {
+        mockSearchIndexDAO = mock(SearchIndexDAO.class);
+        mockFileDAO = mock(FileDAO.class);
+        searchIndex = new SearchIndexService(mockSearchIndexDAO, mockFileDAO);
+    }
+
+    @Test
+    void testSearch_NewestMatchesDeleted_ReturnsOlderLiveFiles() throws Exception {
+        int[] ids = new int[250];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        when(mockSearchIndexDAO.getPostings(eq(7), any())).thenReturn(PostingListUtil.encode(ids));
+        // Only files 1..120 are live: the newest 130 matches were deleted
+        when(mockFileDAO.getLiveFilesByIds(eq(7), anyList())).thenAnswer(inv -> {
+            List<Integer> requested = inv.getArgument(1);
+            List<FileModel> live = new ArrayList<>();
+            for (int i = requested.size() - 1; i >= 0; i--) {
+                if (requested.get(i) <= 120) {
+                    live.add(new FileModel(requested.get(i), 7, "f.txt", "file_" + requested.get(i), 1, null));
+                }
+            }
+            return live;
+        });
+
+        List<FileModel> found = searchIndex.search(7, "report");
+
+        assertEquals(SearchIndexService.MAX_RESULTS, found.size());
+        assertEquals(120, found.get(0).getId(), "Newest live file first");
+        assertEquals(21, found.get(found.size() - 1).getId());
+        verify(mockFileDAO, times(3)).getLiveFilesByIds(anyInt(), anyList());
+    }
+}
@@ -0,0 +1,78 @@
+package com.secureapp.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UploadJournal.
+ * Tests intent tracking, torn-tail handling and compaction.
+ */
+class UploadJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testReadUnresolvedIntents_ReturnsOnlyOpenIntents() throws Exception {
+        Path journalPath = tempDir.resolve("upload.journal");
+        UploadJournal journal = new UploadJournal(journalPath);
+
+        journal.logIntent("file_1.txt");
+        journal.logIntent("file_2.txt");
+        journal.logIntent("file_3.txt");
+        journal.logCommit("file_1.txt");
+        journal.logAbort("file_3.txt");
+        journal.close();
+
+        Set<String> unresolved = new UploadJournal(journalPath).readUnresolvedIntents();
+
+        assertEquals(1, unresolved.size());
+        assertTrue(unresolved.contains("file_2.txt"));
+    }
+
+    @Test
+    void testReadUnresolvedIntents_IgnoresTornTail() throws Exception {
+        Path journalPath = tempDir.resolve("upload.journal");
+        UploadJournal journal = new UploadJournal(journalPath);
+        journal.logIntent("file_1.txt");
+        journal.close();
+
+        // Simulate a crash in the middle of appending the next record
+        Files.write(journalPath, new byte[] { 1, 0, 10, 'f', 'i' }, StandardOpenOption.APPEND);
+
+        Set<String> unresolved = new UploadJournal(journalPath).readUnresolvedIntents();
+
+        assertEquals(1, unresolved.size());
+        assertTrue(unresolved.contains("file_1.txt"));
+    }
+
+    @Test
+    void testCompact_KeepsOnlyInFlightIntents() throws Exception {
+        Path journalPath = tempDir.resolve("upload.journal");
+        UploadJournal journal = new UploadJournal(journalPath);
+
+        journal.logIntent("file_1.txt");
+        journal.logCommit("file_1.txt");
+        journal.logIntent("file_2.txt");
+        long sizeBefore = Files.size(journalPath);
+
+        journal.compact();
+
+        assertTrue(Files.size(journalPath) < sizeBefore, "Compaction should drop resolved records");
+        Set<String> unresolved = journal.readUnresolvedIntents();
+        assertEquals(1, unresolved.size());
+        assertTrue(unresolved.contains("file_2.txt"));
+
+        // Journal stays appendable after compaction
+        journal.logCommit("file_2.txt");
+        assertTrue(journal.readUnresolvedIntents().isEmpty());
+        journal.close();
+    }
+}
@@ -0,0 +1,115 @@
+package com.secureapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UploadPipeline.
+ * Tests stage order, failure handling, backpressure and metrics.
+ */
+class UploadPipelineTest {
+
+    @Test
+    void testJobs_PassEveryStageInOrder() throws Exception {
+        UploadPipeline<List<String>> pipeline = new UploadPipeline<List<String>>("test")
+                .addStage("first", 2, 4, job -> job.add("first"))
+                .addStage("second", 1, 4, job -> job.add("second"))
+                .addStage("third", 3, 4, job -> job.add("third"));
+        try {
+            List<CompletableFuture<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(pipeline.submit(new CopyOnWriteArrayList<>()));
+            }
+            for (CompletableFuture<List<String>> result : results) {
+                List<String> visited = result.get(5, TimeUnit.SECONDS);
+                assertEquals(3, visited.size());
+                assertEquals("first", visited.get(0));
+                assertEquals("second", visited.get(1));
+                assertEquals("third", visited.get(2));
+            }
+            for (UploadPipeline<List<String>>.Stage stage : pipeline.getStages()) {
+                assertEquals(20, stage.getProcessed());
+                assertEquals(20, stage.getServiceTime().getCount());
+            }
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    void testFailure_CompletesExceptionallyAndSkipsLaterStages() {
+        AtomicInteger reachedLast = new AtomicInteger();
+        UploadPipeline<String> pipeline = new UploadPipeline<String>("test")
+                .addStage("check", 1, 4, job -> {
+                    throw new IOException("rejected " + job);
+                })
+                .addStage("last", 1, 4, job -> reachedLast.incrementAndGet());
+        try {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> pipeline.submit("a").get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("rejected a", e.getCause().getMessage());
+            assertEquals(0, reachedLast.get());
+            assertEquals(1, pipeline.getStages().get(0).getFailed());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    void testSlowStage_BlocksUpstreamWithinQueueBounds() throws Exception {
+        UploadPipeline<Integer> pipeline = new UploadPipeline<Integer>("test")
+                .addStage("fast", 2, 2, job -> {
+                })
+                .addStage("slow", 1, 2, job -> Thread.sleep(5));
+        try {
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                results.add(pipeline.submit(i));
+            }
+            for (CompletableFuture<Integer> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+            UploadPipeline<Integer>.Stage slow = pipeline.getStages().get(1);
+            assertEquals(30, slow.getProcessed());
+            assertTrue(slow.getBlockedHandOffs() > 0, "Hand-offs to a full queue should wait");
+            assertTrue(slow.getPeakQueueDepth() <= slow.getQueueCapacity());
+            assertTrue(slow.getQueueWait().getCount() == 30);
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    void testShutdown_FailsJobsItDrops() throws Exception {
+        java.util.concurrent.CountDownLatch never = new java.util.concurrent.CountDownLatch(1);
+        UploadPipeline<Integer> pipeline = new UploadPipeline<Integer>("test")
+                .addStage("stuck", 1, 4, job -> never.await());
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(pipeline.submit(i));
+        }
+
+        // Interrupting shutdown() cuts its wait short, like the timeout does
+        Thread stopper = new Thread(pipeline::shutdown);
+        stopper.start();
+        Thread.sleep(100);
+        stopper.interrupt();
+        stopper.join(5000);
+
+        for (CompletableFuture<Integer> result : results) {
+            assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS),
+                    "Running and queued jobs must fail, not hang");
+        }
+    }
+}
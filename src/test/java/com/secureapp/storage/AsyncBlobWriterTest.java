@@ -0,0 +1,88 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AsyncBlobWriter and LocalFileBlobStore.putAsync.
+ * Tests publication by rename, the in-flight budget and failure cleanup.
+ */
+class AsyncBlobWriterTest {
+
+    @TempDir
+    Path root;
+
+    private FileSyncService syncService;
+    private AsyncBlobWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        syncService = new FileSyncService(DurabilityMode.PER_FILE, 0);
+        writer = new AsyncBlobWriter(syncService, 64 * 1024, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown();
+        syncService.shutdown();
+    }
+
+    private static byte[] blob(int size, int seed) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+
+    @Test
+    void testPutAsync_PublishesBlobsWithinBudget() throws Exception {
+        LocalFileBlobStore store = new LocalFileBlobStore(root, syncService, writer);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            writes.add(store.putAsync("blob_" + i, blob(16 * 1024, i)));
+        }
+        // Larger than the whole budget: takes all of it
+        writes.add(store.putAsync("blob_large", blob(256 * 1024, 99)));
+        for (CompletableFuture<Void> write : writes) {
+            write.get(10, TimeUnit.SECONDS);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(blob(16 * 1024, i), store.get("blob_" + i));
+        }
+        assertArrayEquals(blob(256 * 1024, 99), store.get("blob_large"));
+        assertEquals(21, writer.getWritesCompleted());
+        assertEquals(20 * 16 * 1024 + 256 * 1024, writer.getBytesWritten());
+        assertTrue(writer.getPeakInFlightBytes() <= writer.getMaxInFlightBytes());
+        assertEquals(0, writer.getInFlightBytes());
+        assertThrows(FileAlreadyExistsException.class, () -> store.putAsync("blob_0", blob(10, 0)));
+    }
+
+    @Test
+    void testFailedWrite_DeletesStagingAndReleasesBudget() throws Exception {
+        Path staging = root.resolve("blob.tmp");
+        Path target = root.resolve("missing").resolve("blob");
+
+        CompletableFuture<Void> write = writer.write(staging, target, blob(1024, 1));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> write.get(10, TimeUnit.SECONDS));
+        assertNotNull(e.getCause());
+        assertFalse(Files.exists(staging), "Staging file must be deleted after a failure");
+        assertFalse(Files.exists(target));
+        assertEquals(1, writer.getWritesFailed());
+        assertEquals(0, writer.getInFlightBytes());
+    }
+}
@@ -0,0 +1,141 @@
+package com.secureapp.storage;
+
+import com.secureapp.util.AesEncryptionUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BlobCodec: compressed and stored round trips, reading the
+ * pre-compression format, preset dictionaries and the ByteBuffer decode.
+ */
+class BlobCodecTest {
+
+    private static final byte[] TEXT = repeat("The quick brown fox jumps over the lazy dog.\n", 200);
+
+    private static byte[] repeat(String line, int times) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            text.append(i).append(' ').append(line);
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testCompressibleText_RoundTripAndShrinks() throws Exception {
+        BlobCodec codec = new BlobCodec();
+
+        byte[] stored = codec.encode(TEXT);
+
+        assertTrue(stored.length < TEXT.length / 4, "Repetitive text should compress well");
+        assertArrayEquals(TEXT, codec.decode(stored));
+        assertEquals(1, codec.getCompressedBlobs());
+        assertTrue(codec.getCompressionRatio() > 4.0);
+    }
+
+    @Test
+    void testIncompressibleData_StoredUncompressed() throws Exception {
+        BlobCodec codec = new BlobCodec();
+        byte[] random = new byte[4096];
+        new Random(7).nextBytes(random);
+
+        byte[] stored = codec.encode(random);
+
+        assertArrayEquals(random, codec.decode(stored));
+        assertEquals(0, codec.getCompressedBlobs());
+        assertEquals(1, codec.getUncompressedBlobs());
+    }
+
+    @Test
+    void testLegacyFormat_StillReadable() throws Exception {
+        byte[] legacy = AesEncryptionUtil.encrypt(TEXT);
+
+        assertArrayEquals(TEXT, new BlobCodec().decode(legacy));
+    }
+
+    @Test
+    void testTamperedHeader_FailsDecryption() throws Exception {
+        byte[] stored = new BlobCodec().encode(TEXT);
+        stored[3] = BlobCodec.CODEC_STORED;
+
+        assertThrows(Exception.class, () -> new BlobCodec().decode(stored));
+    }
+
+    @Test
+    void testDictionary_HelpsSmallFilesAndIsRequiredToRead() throws Exception {
+        byte[] dictionary = repeat("Invoice total due amount customer reference number\n", 20);
+        int id = DictionaryStore.idOf(dictionary);
+        BlobCodec withDictionary = new BlobCodec(CompressionMode.DEFLATE, Collections.singletonMap(id, dictionary), id);
+        byte[] small = "Invoice total due 42, amount customer reference number 7, customer reference number 9\n"
+                .getBytes(StandardCharsets.UTF_8);
+
+        byte[] stored = withDictionary.encode(small);
+
+        assertTrue(stored.length < new BlobCodec().encode(small).length, "Dictionary should shrink small files");
+        assertArrayEquals(small, withDictionary.decode(stored));
+        IOException e = assertThrows(IOException.class, () -> new BlobCodec().decode(stored));
+        assertTrue(e.getMessage().contains(DictionaryStore.hex(id)));
+    }
+
+    @Test
+    void testGzipMode_PassedThroughWithoutRecompression() throws Exception {
+        BlobCodec codec = new BlobCodec(CompressionMode.GZIP, Collections.<Integer, byte[]>emptyMap(), null);
+        byte[] stored = codec.encode(TEXT);
+        assertArrayEquals(TEXT, codec.decode(stored));
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        GzipStreamAssembler assembler = new GzipStreamAssembler(gzip);
+        codec.appendTo(assembler, stored);
+        codec.appendTo(assembler, new BlobCodec().encode(TEXT));
+        assembler.finish();
+
+        assertEquals(1, codec.getGzipPassthroughParts());
+        assertEquals(1, codec.getGzipRecompressedParts());
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                plain.write(buffer, 0, read);
+            }
+        }
+        assertEquals(new String(TEXT, StandardCharsets.UTF_8) + new String(TEXT, StandardCharsets.UTF_8),
+                plain.toString("UTF-8"));
+    }
+
+    @Test
+    void testBufferDecode_MatchesArrayDecodeForEveryFormat() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.DEFAULT_MAX_RETAINED_BYTES);
+        byte[] random = new byte[4096];
+        new Random(11).nextBytes(random);
+        BlobCodec deflate = new BlobCodec();
+        BlobCodec gzip = new BlobCodec(CompressionMode.GZIP, Collections.<Integer, byte[]>emptyMap(), null);
+        byte[][] stored = {
+                deflate.encode(TEXT), gzip.encode(TEXT), deflate.encode(random), AesEncryptionUtil.encrypt(TEXT) };
+
+        try (BlobCodec.DecodeScratch scratch = new BlobCodec.DecodeScratch()) {
+            for (byte[] blob : stored) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(blob.length);
+                direct.put(blob).flip();
+
+                ByteBuffer plaintext = deflate.decode(direct, pool, scratch);
+                byte[] copy = new byte[plaintext.remaining()];
+                plaintext.get(copy);
+                pool.release(plaintext);
+
+                assertArrayEquals(deflate.decode(blob), copy);
+            }
+        }
+        assertTrue(pool.getReuses() > 0, "Decrypted payloads should go back to the pool");
+    }
+}
@@ -0,0 +1,87 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for ContentDefinedChunker: size bounds, determinism and stability of
+ * cut points when content is edited.
+ */
+class ContentDefinedChunkerTest {
+
+    private final ContentDefinedChunker chunker = new ContentDefinedChunker();
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    @DisplayName("Chunks respect the size bounds and cover the whole input")
+    void testChunkBounds() {
+        byte[] data = randomBytes(1024 * 1024, 1);
+        int[] lengths = chunker.chunk(data, 0, data.length);
+
+        assertEquals(data.length, Arrays.stream(lengths).sum());
+        for (int i = 0; i < lengths.length - 1; i++) {
+            assertTrue(lengths[i] >= chunker.getMinSize(), "Chunk below minimum: " + lengths[i]);
+            assertTrue(lengths[i] <= chunker.getMaxSize(), "Chunk above maximum: " + lengths[i]);
+        }
+        assertTrue(lengths.length > 8, "1 MB should produce many chunks");
+    }
+
+    @Test
+    @DisplayName("Chunking is deterministic and honours the offset")
+    void testDeterministic() {
+        byte[] data = randomBytes(200 * 1024, 2);
+        byte[] shifted = new byte[data.length + 100];
+        System.arraycopy(data, 0, shifted, 100, data.length);
+
+        assertArrayEquals(chunker.chunk(data, 0, data.length), chunker.chunk(data, 0, data.length));
+        assertArrayEquals(chunker.chunk(data, 0, data.length), chunker.chunk(shifted, 100, data.length));
+    }
+
+    @Test
+    @DisplayName("Inserting bytes only changes the chunks around the insertion")
+    void testInsertKeepsMostChunks() {
+        byte[] original = randomBytes(512 * 1024, 3);
+        byte[] edited = new byte[original.length + 10];
+        int insertAt = 200 * 1024;
+        System.arraycopy(original, 0, edited, 0, insertAt);
+        System.arraycopy(original, insertAt, edited, insertAt + 10, original.length - insertAt);
+
+        Set<String> before = chunkSet(original);
+        Set<String> after = chunkSet(edited);
+        after.retainAll(before);
+
+        assertTrue(after.size() >= before.size() - 3,
+                "Expected most chunks to be shared, shared " + after.size() + " of " + before.size());
+    }
+
+    @Test
+    @DisplayName("Small and empty inputs")
+    void testSmallInputs() {
+        assertEquals(0, chunker.chunk(new byte[0], 0, 0).length);
+        assertArrayEquals(new int[] { 100 }, chunker.chunk(new byte[100], 0, 100));
+        assertThrows(IllegalArgumentException.class, () -> new ContentDefinedChunker(4096, 3000, 8192));
+    }
+
+    // Chunk identities as offset-independent content strings
+    private Set<String> chunkSet(byte[] data) {
+        Set<String> chunks = new HashSet<>();
+        int offset = 0;
+        for (int length : chunker.chunk(data, 0, data.length)) {
+            chunks.add(Arrays.toString(Arrays.copyOfRange(data, offset, offset + length)));
+            offset += length;
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,99 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for DecryptedContentCache.
+ * Tests sealing round trips, the byte budget, TTL and TinyLFU admission.
+ */
+class DecryptedContentCacheTest {
+
+    private static final int ENTRY_SIZE = 1024;
+
+    private static byte[] content(int seed) {
+        byte[] content = new byte[ENTRY_SIZE];
+        Arrays.fill(content, (byte) seed);
+        return content;
+    }
+
+    @Test
+    void testPutGet_ReturnsCopies() {
+        DecryptedContentCache cache = new DecryptedContentCache(1024 * 1024, 60);
+        byte[] plaintext = "hello cache".getBytes(StandardCharsets.UTF_8);
+
+        cache.put("chunk_a", plaintext);
+        plaintext[0] = 'X';
+        byte[] first = cache.get("chunk_a");
+        first[1] = 'Y';
+
+        assertEquals("hello cache", new String(cache.get("chunk_a"), StandardCharsets.UTF_8));
+        assertNull(cache.get("chunk_b"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertTrue(cache.getOccupiedBytes() > plaintext.length, "Sealed size includes IV and tag");
+
+        cache.invalidate("chunk_a");
+        assertNull(cache.get("chunk_a"));
+        assertEquals(0, cache.getOccupiedBytes());
+    }
+
+    @Test
+    void testTtl_EntriesExpire() throws InterruptedException {
+        DecryptedContentCache cache = new DecryptedContentCache(1024 * 1024, 60);
+
+        cache.put("short", content(1), 1, TimeUnit.MILLISECONDS);
+        cache.put("long", content(2));
+        Thread.sleep(20);
+
+        assertNull(cache.get("short"));
+        assertNotNull(cache.get("long"));
+        assertEquals(1, cache.getExpirations());
+    }
+
+    @Test
+    void testByteBudget_NeverExceeded() {
+        long budget = 64 * 1024;
+        DecryptedContentCache cache = new DecryptedContentCache(budget, 60);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("chunk_" + i, content(i));
+            assertTrue(cache.getOccupiedBytes() <= budget);
+        }
+        assertTrue(cache.getEntryCount() > 0);
+        assertTrue(cache.getEvictions() + cache.getRejections() > 0);
+
+        cache.put("huge", new byte[(int) budget]);
+        assertNull(cache.get("huge"), "Entries larger than the main region are not cached");
+    }
+
+    @Test
+    void testAdmission_HotEntriesSurviveScan() {
+        DecryptedContentCache cache = new DecryptedContentCache(64 * 1024, 60);
+        for (int hot = 0; hot < 10; hot++) {
+            cache.put("hot_" + hot, content(hot));
+        }
+        // Make the hot entries frequent
+        for (int round = 0; round < 5; round++) {
+            for (int hot = 0; hot < 10; hot++) {
+                assertNotNull(cache.get("hot_" + hot));
+            }
+        }
+
+        // A scan of one-off reads, each missed then cached
+        for (int i = 0; i < 2000; i++) {
+            String key = "scan_" + i;
+            assertNull(cache.get(key));
+            cache.put(key, content(i));
+        }
+
+        for (int hot = 0; hot < 10; hot++) {
+            assertArrayEquals(content(hot), cache.get("hot_" + hot), "Hot entry " + hot + " was evicted");
+        }
+    }
+}
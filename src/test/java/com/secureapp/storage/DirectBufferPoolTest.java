@@ -0,0 +1,53 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for DirectBufferPool.
+ * Tests size classes, reuse, the retained budget and foreign buffers.
+ */
+class DirectBufferPoolTest {
+
+    @Test
+    void testAcquire_RoundsUpToSizeClassAndReuses() {
+        DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.DEFAULT_MAX_RETAINED_BYTES);
+
+        ByteBuffer first = pool.acquire(5000);
+        assertTrue(first.isDirect());
+        assertEquals(8192, first.capacity());
+        assertEquals(0, first.position());
+        assertEquals(5000, first.limit());
+
+        first.put((byte) 1);
+        pool.release(first);
+        assertEquals(8192, pool.getRetainedBytes());
+
+        ByteBuffer second = pool.acquire(6000);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(6000, second.limit());
+        assertEquals(1, pool.getAllocations());
+        assertEquals(1, pool.getReuses());
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    void testRelease_KeepsBudgetAndIgnoresForeignBuffers() {
+        DirectBufferPool pool = new DirectBufferPool(16 * 1024);
+
+        pool.release(pool.acquire(16 * 1024));
+        pool.release(pool.acquire(16 * 1024 + 1));
+        assertEquals(16 * 1024, pool.getRetainedBytes(), "Budget must not be exceeded");
+
+        pool.release(ByteBuffer.allocate(8192));
+        pool.release(ByteBuffer.allocateDirect(8192).asReadOnlyBuffer());
+        pool.release(ByteBuffer.allocateDirect(5000));
+        pool.release(pool.acquire(DirectBufferPool.MAX_POOLED_BYTES + 1));
+        pool.release(null);
+        assertEquals(16 * 1024, pool.getRetainedBytes());
+    }
+}
@@ -0,0 +1,47 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FileSyncService.
+ * Tests the BATCHED mode before and after shutdown.
+ */
+class FileSyncServiceTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testAwaitDurable_Batched_CompletesAfterNextBatch() throws Exception {
+        FileSyncService syncService = new FileSyncService(DurabilityMode.BATCHED, 10);
+        try {
+            Path file = Files.write(root.resolve("queued.bin"), new byte[] { 1, 2, 3 });
+
+            syncService.awaitDurable(file).get(5, TimeUnit.SECONDS);
+
+            assertTrue(syncService.getBatchSyncLatency().getCount() >= 1);
+        } finally {
+            syncService.shutdown();
+        }
+    }
+
+    @Test
+    void testAwaitDurable_Batched_AfterShutdown_SyncsInline() throws Exception {
+        FileSyncService syncService = new FileSyncService(DurabilityMode.BATCHED, 60_000);
+        syncService.shutdown();
+        Path file = Files.write(root.resolve("late.bin"), new byte[] { 4, 5, 6 });
+
+        CompletableFuture<Void> durable = syncService.awaitDurable(file);
+
+        assertTrue(durable.isDone(), "A file queued after shutdown must not wait for the stopped daemon");
+        durable.get();
+    }
+}
@@ -0,0 +1,121 @@
+package com.secureapp.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Manual benchmark of file download strategies: bytes on the wire and CPU
+ * per request for a chunked text file stored with the gzip codec.
+ * - identity: decrypt and send plaintext
+ * - gzip on the fly: decrypt, decompress and recompress with GZIPOutputStream
+ * - passthrough: decrypt and copy the stored Deflate data (GzipStreamAssembler)
+ *
+ * Not a unit test: run its main method after mvn test-compile, with
+ * target/classes, target/test-classes and the dependency classpath (it
+ * needs the keystore, like the application).
+ */
+public class GzipPassthroughBenchmark {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final int WARMUP = 50;
+    private static final int REQUESTS = 200;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private interface Strategy {
+        void write(List<byte[]> storedParts, OutputStream out) throws Exception;
+    }
+
+    // Counts bytes instead of keeping them, like a socket would.
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        byte[] file = sampleText(FILE_SIZE);
+        BlobCodec codec = new BlobCodec(CompressionMode.GZIP, Collections.<Integer, byte[]>emptyMap(), null);
+        List<byte[]> storedParts = new ArrayList<>();
+        int offset = 0;
+        for (int length : new ContentDefinedChunker().chunk(file, 0, file.length)) {
+            byte[] part = new byte[length];
+            System.arraycopy(file, offset, part, 0, length);
+            storedParts.add(codec.encode(part));
+            offset += length;
+        }
+
+        System.out.println(String.format("File: %d bytes in %d chunks", file.length, storedParts.size()));
+        run("identity", storedParts, (parts, out) -> {
+            for (byte[] part : parts) {
+                out.write(codec.decode(part));
+            }
+        });
+        run("gzip on the fly", storedParts, (parts, out) -> {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+                for (byte[] part : parts) {
+                    gzip.write(codec.decode(part));
+                }
+            }
+        });
+        run("passthrough", storedParts, (parts, out) -> {
+            GzipStreamAssembler gzip = new GzipStreamAssembler(out);
+            for (byte[] part : parts) {
+                codec.appendTo(gzip, part);
+            }
+            gzip.finish();
+        });
+    }
+
+    private static void run(String name, List<byte[]> storedParts, Strategy strategy) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            strategy.write(storedParts, new ByteArrayOutputStream());
+        }
+
+        long bytes = 0;
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            CountingOutputStream out = new CountingOutputStream();
+            strategy.write(storedParts, out);
+            bytes = out.count;
+        }
+        long cpuPerRequest = (THREADS.getCurrentThreadCpuTime() - cpuStart) / REQUESTS;
+
+        System.out.println(String.format("%-16s %9d bytes on the wire, %8.1f us CPU per request",
+                name, bytes, cpuPerRequest / 1000.0));
+    }
+
+    private static byte[] sampleText(int size) throws IOException {
+        String[] words = { "upload", "secure", "file", "storage", "report", "quarterly", "customer", "invoice",
+                "the", "and", "of", "to", "in", "is", "for", "with" };
+        Random random = new Random(42);
+        ByteArrayOutputStream text = new ByteArrayOutputStream(size);
+        while (text.size() < size) {
+            StringBuilder line = new StringBuilder();
+            int count = 5 + random.nextInt(10);
+            for (int i = 0; i < count; i++) {
+                line.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            line.append(random.nextInt(100000)).append('\n');
+            text.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return text.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for GzipStreamAssembler: pieces assembled without
+ * recompression must form one valid gzip stream.
+ */
+class GzipStreamAssemblerTest {
+
+    private static byte[] text(int lines, String word) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append(word).append(' ').append(i).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] syncFlushedDeflate(byte[] plaintext) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(plaintext);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        do {
+            count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            out.write(buffer, 0, count);
+        } while (count == buffer.length);
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    @Test
+    void testMixedPieces_FormOneValidGzipStream() throws IOException {
+        byte[] first = text(2000, "alpha");
+        byte[] second = new byte[70000];
+        new Random(3).nextBytes(second);
+        byte[] third = text(500, "gamma");
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        GzipStreamAssembler assembler = new GzipStreamAssembler(gzip);
+        byte[] deflate = syncFlushedDeflate(first);
+        assembler.appendDeflate(deflate, 0, deflate.length, crc(first), first.length);
+        assembler.appendStored(second);
+        assembler.appendCompressed(third);
+        assembler.finish();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first);
+        expected.write(second);
+        expected.write(third);
+        assertArrayEquals(expected.toByteArray(), gunzip(gzip.toByteArray()));
+    }
+
+    @Test
+    void testEmptyStream_IsValidGzip() throws IOException {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        new GzipStreamAssembler(gzip).finish();
+
+        assertEquals(0, gunzip(gzip.toByteArray()).length);
+    }
+
+    @Test
+    void testCombineCrc32_MatchesDirectCrc() {
+        byte[] a = text(100, "left");
+        byte[] b = text(300, "right");
+        byte[] both = new byte[a.length + b.length];
+        System.arraycopy(a, 0, both, 0, a.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+
+        assertEquals(crc(both), GzipStreamAssembler.combineCrc32(crc(a), crc(b), b.length));
+        assertEquals(crc(a), GzipStreamAssembler.combineCrc32(crc(a), 0, 0));
+    }
+}
@@ -0,0 +1,78 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for LineIndex: checkpoint offsets, line counting and serialization.
+ */
+class LineIndexTest {
+
+    private static byte[] numberedLines(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Offset of a line by scanning, for comparison
+    private static long scanOffset(byte[] content, long line) {
+        long current = 1;
+        for (int i = 0; i < content.length && current < line; i++) {
+            if (content[i] == '\n') {
+                current++;
+                if (current == line) {
+                    return i + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    @DisplayName("Checkpoints point at the start of every interval-th line")
+    void testCheckpointOffsets() throws IOException {
+        byte[] content = numberedLines(1000);
+        LineIndex index = LineIndex.build(content, 64);
+
+        assertEquals(1000, index.getLineCount());
+        for (long line : new long[] { 1, 63, 64, 65, 129, 700, 1000 }) {
+            long checkpoint = index.checkpointLine(line);
+            assertTrue(checkpoint <= line && line - checkpoint < 64);
+            assertEquals(scanOffset(content, checkpoint), index.offsetOf(checkpoint));
+            String text = new String(content, (int) index.offsetOf(checkpoint), 12, StandardCharsets.UTF_8);
+            assertTrue(text.startsWith("line " + checkpoint + "\n"), text);
+        }
+    }
+
+    @Test
+    @DisplayName("Line count handles a missing final newline and empty content")
+    void testLineCount() {
+        assertEquals(3, LineIndex.build("a\nb\nc".getBytes(StandardCharsets.UTF_8), 2).getLineCount());
+        assertEquals(2, LineIndex.build("a\n\n".getBytes(StandardCharsets.UTF_8), 2).getLineCount());
+        assertEquals(0, LineIndex.build(new byte[0], 2).getLineCount());
+    }
+
+    @Test
+    @DisplayName("Serialized index round-trips and is compact")
+    void testSerialization() throws IOException {
+        byte[] content = numberedLines(100000);
+        LineIndex index = LineIndex.build(content, LineIndex.DEFAULT_INTERVAL);
+        byte[] data = index.toBytes();
+
+        assertTrue(data.length < 1024, "Index of 100000 lines took " + data.length + " bytes");
+        LineIndex copy = LineIndex.fromBytes(data);
+        assertEquals(index.getLineCount(), copy.getLineCount());
+        assertEquals(index.getInterval(), copy.getInterval());
+        long checkpoint = copy.checkpointLine(99999);
+        assertEquals(index.offsetOf(checkpoint), copy.offsetOf(checkpoint));
+
+        assertThrows(IOException.class, () -> LineIndex.fromBytes(new byte[] { (byte) 0x80 }));
+    }
+}
@@ -0,0 +1,149 @@
+package com.secureapp.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Manual benchmark of the download read path: CPU and heap allocated per
+ * request for a chunked file in a LocalFileBlobStore, once stored
+ * uncompressed and once with Deflate.
+ * - byte[]: get, decode into a new array, write to the stream
+ * - nio: FileChannel read into a pooled direct buffer, decrypt into
+ * another, write through a channel (ContentAddressedStore.transferContent)
+ *
+ * Not a unit test: run its main method after mvn test-compile, with
+ * target/classes, target/test-classes and the dependency classpath (it
+ * needs the keystore, like the application).
+ */
+public class NioReadPathBenchmark {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final int WARMUP = 50;
+    private static final int REQUESTS = 200;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Strategy {
+        void write(BlobStore store, List<String> keys, OutputStream out) throws Exception;
+    }
+
+    // Counts bytes instead of keeping them, like a socket would.
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("nio-benchmark");
+        FileSyncService syncService = new FileSyncService(DurabilityMode.NONE, 0);
+        try {
+            BlobStore store = new LocalFileBlobStore(root, syncService);
+            benchmark("stored", new BlobCodec(CompressionMode.NONE, Collections.<Integer, byte[]>emptyMap(), null),
+                    store);
+            benchmark("deflate", new BlobCodec(), store);
+        } finally {
+            syncService.shutdown();
+        }
+    }
+
+    private static void benchmark(String codecName, BlobCodec codec, BlobStore store) throws Exception {
+        byte[] file = sampleText(FILE_SIZE);
+        List<String> keys = new ArrayList<>();
+        int offset = 0;
+        for (int length : new ContentDefinedChunker().chunk(file, 0, file.length)) {
+            byte[] part = new byte[length];
+            System.arraycopy(file, offset, part, 0, length);
+            String key = codecName + "_" + keys.size();
+            store.put(key, codec.encode(part));
+            keys.add(key);
+            offset += length;
+        }
+        System.out.println(String.format("%s: %d bytes in %d chunks", codecName, file.length, keys.size()));
+
+        run(codecName + " byte[]", store, keys, (s, k, out) -> {
+            for (String key : k) {
+                out.write(codec.decode(s.get(key)));
+            }
+        });
+        DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.DEFAULT_MAX_RETAINED_BYTES);
+        run(codecName + " nio", store, keys, (s, k, out) -> {
+            WritableByteChannel channel = Channels.newChannel(out);
+            try (BlobCodec.DecodeScratch scratch = new BlobCodec.DecodeScratch()) {
+                for (String key : k) {
+                    ByteBuffer stored = s.getBuffer(key, pool);
+                    ByteBuffer plaintext;
+                    try {
+                        plaintext = codec.decode(stored, pool, scratch);
+                    } finally {
+                        pool.release(stored);
+                    }
+                    while (plaintext.hasRemaining()) {
+                        channel.write(plaintext);
+                    }
+                    pool.release(plaintext);
+                }
+            }
+        });
+        System.out.println(pool);
+    }
+
+    private static void run(String name, BlobStore store, List<String> keys, Strategy strategy) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            strategy.write(store, keys, new ByteArrayOutputStream());
+        }
+
+        long bytes = 0;
+        long allocatedStart = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            CountingOutputStream out = new CountingOutputStream();
+            strategy.write(store, keys, out);
+            bytes = out.count;
+        }
+        long cpuPerRequest = (THREADS.getCurrentThreadCpuTime() - cpuStart) / REQUESTS;
+        long allocatedPerRequest =
+                (THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedStart) / REQUESTS;
+
+        System.out.println(String.format("%-16s %9d bytes sent, %8.1f us CPU, %9d bytes allocated per request",
+                name, bytes, cpuPerRequest / 1000.0, allocatedPerRequest));
+    }
+
+    private static byte[] sampleText(int size) throws IOException {
+        String[] words = { "upload", "secure", "file", "storage", "report", "quarterly", "customer", "invoice",
+                "the", "and", "of", "to", "in", "is", "for", "with" };
+        Random random = new Random(42);
+        ByteArrayOutputStream text = new ByteArrayOutputStream(size);
+        while (text.size() < size) {
+            StringBuilder line = new StringBuilder();
+            int count = 5 + random.nextInt(10);
+            for (int i = 0; i < count; i++) {
+                line.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            line.append(random.nextInt(100000)).append('\n');
+            text.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return text.toByteArray();
+    }
+}
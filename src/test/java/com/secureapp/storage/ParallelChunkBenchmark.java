@@ -0,0 +1,96 @@
+package com.secureapp.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Manual benchmark of single-file latency for chunk encoding and decoding,
+ * sequential (threshold never reached) versus ParallelChunkCodec on every
+ * core, for files of 10 to 500 MB cut by ContentDefinedChunker.
+ *
+ * Not a unit test: run its main method after mvn test-compile, with
+ * target/classes, target/test-classes and the dependency classpath (it
+ * needs the keystore, like the application), and -Xmx4g for the largest
+ * file. Optional arguments: file sizes in MB.
+ */
+public class ParallelChunkBenchmark {
+
+    private static final int[] DEFAULT_SIZES_MB = { 10, 50, 100, 500 };
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES_MB;
+        if (args.length > 0) {
+            sizes = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        BlobCodec codec = new BlobCodec();
+        ParallelChunkCodec sequential = new ParallelChunkCodec(codec, 1, Long.MAX_VALUE);
+        ParallelChunkCodec parallel = new ParallelChunkCodec(codec, cores,
+                ParallelChunkCodec.DEFAULT_PARALLEL_THRESHOLD);
+        System.out.println(cores + " cores");
+        try {
+            for (int sizeMb : sizes) {
+                List<byte[]> chunks = chunk(sampleText(sizeMb * 1024 * 1024));
+                System.out.println(String.format("%d MB in %d chunks", sizeMb, chunks.size()));
+                double[] encode = new double[2];
+                double[] decode = new double[2];
+                ParallelChunkCodec[] codecs = { sequential, parallel };
+                for (int run = 0; run <= RUNS; run++) {
+                    for (int i = 0; i < codecs.length; i++) {
+                        long start = System.nanoTime();
+                        List<byte[]> stored = codecs[i].encode(chunks);
+                        long encoded = System.nanoTime();
+                        codecs[i].decode(stored);
+                        long decoded = System.nanoTime();
+                        // First run warms up
+                        if (run > 0) {
+                            encode[i] += (encoded - start) / 1e6 / RUNS;
+                            decode[i] += (decoded - encoded) / 1e6 / RUNS;
+                        }
+                    }
+                }
+                System.out.println(String.format("  encode: %8.1f ms sequential, %8.1f ms parallel (%.1fx)",
+                        encode[0], encode[1], encode[0] / encode[1]));
+                System.out.println(String.format("  decode: %8.1f ms sequential, %8.1f ms parallel (%.1fx)",
+                        decode[0], decode[1], decode[0] / decode[1]));
+            }
+            System.out.println(parallel);
+        } finally {
+            sequential.shutdown();
+            parallel.shutdown();
+        }
+    }
+
+    private static List<byte[]> chunk(byte[] file) {
+        List<byte[]> chunks = new ArrayList<>();
+        int offset = 0;
+        for (int length : new ContentDefinedChunker().chunk(file, 0, file.length)) {
+            chunks.add(Arrays.copyOfRange(file, offset, offset + length));
+            offset += length;
+        }
+        return chunks;
+    }
+
+    private static byte[] sampleText(int size) throws IOException {
+        String[] words = { "upload", "secure", "file", "storage", "report", "quarterly", "customer", "invoice",
+                "the", "and", "of", "to", "in", "is", "for", "with" };
+        Random random = new Random(42);
+        ByteArrayOutputStream text = new ByteArrayOutputStream(size);
+        while (text.size() < size) {
+            StringBuilder line = new StringBuilder();
+            int count = 5 + random.nextInt(10);
+            for (int i = 0; i < count; i++) {
+                line.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            line.append(random.nextInt(100000)).append('\n');
+            text.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return text.toByteArray();
+    }
+}
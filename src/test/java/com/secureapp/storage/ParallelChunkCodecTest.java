@@ -0,0 +1,96 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ParallelChunkCodec.
+ * Tests order of results, the size threshold and failure propagation.
+ */
+class ParallelChunkCodecTest {
+
+    private final BlobCodec codec = new BlobCodec();
+    private ParallelChunkCodec parallel;
+
+    @AfterEach
+    void tearDown() {
+        if (parallel != null) {
+            parallel.shutdown();
+        }
+    }
+
+    private static List<byte[]> chunks(int count, int size) {
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < size) {
+                text.append("chunk ").append(i).append(" line ").append(text.length()).append('\n');
+            }
+            chunks.add(text.substring(0, size).getBytes(StandardCharsets.UTF_8));
+        }
+        return chunks;
+    }
+
+    @Test
+    void testLargeBatch_RoundTripsInOrderOnWorkers() throws Exception {
+        parallel = new ParallelChunkCodec(codec, 4, 64 * 1024);
+        List<byte[]> plaintexts = chunks(32, 8 * 1024);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        List<byte[]> stored = parallel.encrypt(parallel.compress(plaintexts));
+        List<byte[]> decoded = parallel.map(stored, 32 * 8 * 1024, chunk -> {
+            threads.add(Thread.currentThread().getName());
+            return codec.decode(chunk);
+        });
+
+        assertEquals(plaintexts.size(), decoded.size());
+        for (int i = 0; i < plaintexts.size(); i++) {
+            assertArrayEquals(plaintexts.get(i), decoded.get(i), "Chunk " + i + " out of place");
+        }
+        assertTrue(parallel.getParallelBatches() >= 2, "Compress and decode should be split");
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("chunk-codec-")));
+    }
+
+    @Test
+    void testSmallBatch_RunsOnCallingThread() throws Exception {
+        parallel = new ParallelChunkCodec(codec, 4, 1024 * 1024);
+        String caller = Thread.currentThread().getName();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        List<byte[]> stored = parallel.encode(chunks(4, 1024));
+        parallel.map(stored, 4 * 1024, chunk -> threads.add(Thread.currentThread().getName()));
+        parallel.decode(Arrays.asList(stored.get(0)));
+
+        assertEquals(0, parallel.getParallelBatches());
+        assertEquals(3, parallel.getSequentialBatches());
+        assertEquals(1, threads.size());
+        assertTrue(threads.contains(caller));
+    }
+
+    @Test
+    void testFailure_RethrowsFirstFailureInChunkOrder() {
+        parallel = new ParallelChunkCodec(codec, 4, 0);
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            indexes.add(i);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> parallel.map(indexes, 16, index -> {
+            if (index == 5 || index == 11) {
+                throw new IOException("chunk " + index);
+            }
+            return index;
+        }));
+        assertEquals("chunk 5", e.getMessage());
+    }
+}
@@ -0,0 +1,72 @@
+package com.secureapp.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UploadDirectoryLayout and ShardMigrator.
+ * Tests the two-level hashed layout, legacy read fallback and batched
+ * migration from the flat layout.
+ */
+class ShardMigratorTest {
+
+    @TempDir
+    Path uploadRoot;
+
+    @Test
+    void testResolve_UsesTwoHexLevels() {
+        UploadDirectoryLayout layout = new UploadDirectoryLayout(uploadRoot);
+
+        Path resolved = layout.resolve("file_123.txt");
+
+        Path relative = uploadRoot.relativize(resolved);
+        assertEquals(3, relative.getNameCount());
+        assertTrue(relative.getName(0).toString().matches("[0-9a-f]{2}"));
+        assertTrue(relative.getName(1).toString().matches("[0-9a-f]{2}"));
+        assertEquals("file_123.txt", relative.getName(2).toString());
+        assertEquals(resolved, layout.resolve("file_123.txt"), "Layout must be deterministic");
+    }
+
+    @Test
+    void testReadAllBytes_FallsBackToLegacyLocation() throws Exception {
+        UploadDirectoryLayout layout = new UploadDirectoryLayout(uploadRoot);
+        Files.write(uploadRoot.resolve("file_1.txt"), "legacy".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(layout.exists("file_1.txt"));
+        assertEquals("legacy", new String(layout.readAllBytes("file_1.txt"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testMigrateBatch_MovesFilesInBatchesThenDisablesFallback() throws Exception {
+        UploadDirectoryLayout layout = new UploadDirectoryLayout(uploadRoot);
+        for (int i = 0; i < 5; i++) {
+            Files.write(uploadRoot.resolve("file_" + i + ".txt"), ("content " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(uploadRoot.resolve("file_9.txt.tmp"), new byte[] { 1 });
+
+        ShardMigrator migrator = new ShardMigrator(layout, ".tmp", 2, 10);
+
+        assertEquals(2, migrator.migrateBatch(), "Batch size should throttle each run");
+        assertTrue(layout.isLegacyFallbackEnabled(), "Fallback stays on while legacy files remain");
+
+        assertEquals(2, migrator.migrateBatch());
+        assertEquals(1, migrator.migrateBatch());
+        assertEquals(0, migrator.migrateBatch());
+
+        assertTrue(migrator.isComplete());
+        assertFalse(layout.isLegacyFallbackEnabled());
+        assertEquals(5, migrator.getMigratedFiles());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(Files.exists(layout.resolve("file_" + i + ".txt")));
+            assertEquals("content " + i,
+                    new String(layout.readAllBytes("file_" + i + ".txt"), StandardCharsets.UTF_8));
+        }
+        assertTrue(Files.exists(uploadRoot.resolve("file_9.txt.tmp")), "Staging files must not be migrated");
+    }
+}
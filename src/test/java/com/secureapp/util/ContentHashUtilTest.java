@@ -0,0 +1,48 @@
+package com.secureapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ContentHashUtil.
+ */
+class ContentHashUtilTest {
+
+    @Test
+    void testHash_SameContentSameHash() throws Exception {
+        byte[] content = "identical content".getBytes(StandardCharsets.UTF_8);
+
+        String hash = ContentHashUtil.hash(content);
+
+        assertEquals(hash, ContentHashUtil.hash(content.clone()));
+        assertTrue(hash.matches("[0-9a-f]{64}"), "Hash should be 64 lowercase hex characters");
+    }
+
+    @Test
+    void testHash_DifferentContentDifferentHash() throws Exception {
+        assertNotEquals(ContentHashUtil.hash("a".getBytes(StandardCharsets.UTF_8)),
+                ContentHashUtil.hash("b".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testHash_IsKeyedNotPlainSha256() throws Exception {
+        // SHA-256 of the empty input
+        assertNotEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                ContentHashUtil.hash(new byte[0]));
+    }
+
+    @Test
+    void testHasher_IncrementalMatchesOneShot() throws Exception {
+        byte[] content = "streamed in several pieces".getBytes(StandardCharsets.UTF_8);
+
+        ContentHashUtil.Hasher hasher = ContentHashUtil.newHasher();
+        hasher.update(content, 0, 5);
+        hasher.update(content, 5, 10);
+        hasher.update(content, 15, content.length - 15);
+
+        assertEquals(ContentHashUtil.hash(content), hasher.hexDigest());
+    }
+}
@@ -151,6 +151,54 @@ class CsrfUtilTest {
         verify(mockSession).setAttribute(CsrfUtil.CSRF_TOKEN_SESSION_ATTR, token);
     }
 
+    // ==================== maskToken Tests ====================
+
+    @Test
+    void testMaskToken_DiffersEveryTimeAndUnmasks() {
+        String token = CsrfUtil.generateToken();
+
+        String first = CsrfUtil.maskToken(token);
+        String second = CsrfUtil.maskToken(token);
+
+        assertNotEquals(first, second, "Masked tokens must not repeat (BREACH)");
+        assertFalse(first.contains(token));
+        assertEquals(token, CsrfUtil.unmaskToken(first));
+        assertEquals(token, CsrfUtil.unmaskToken(second));
+    }
+
+    @Test
+    void testValidateToken_WithMaskedToken_ReturnsTrue() {
+        String token = CsrfUtil.generateToken();
+
+        when(mockRequest.getSession(false)).thenReturn(mockSession);
+        when(mockRequest.getParameter(CsrfUtil.CSRF_TOKEN_PARAM)).thenReturn(CsrfUtil.maskToken(token));
+        when(mockSession.getAttribute(CsrfUtil.CSRF_TOKEN_SESSION_ATTR)).thenReturn(token);
+
+        assertTrue(CsrfUtil.validateToken(mockRequest));
+    }
+
+    @Test
+    void testValidateToken_WithMaskOfOtherToken_ReturnsFalse() {
+        when(mockRequest.getSession(false)).thenReturn(mockSession);
+        when(mockRequest.getParameter(CsrfUtil.CSRF_TOKEN_PARAM))
+                .thenReturn(CsrfUtil.maskToken(CsrfUtil.generateToken()));
+        when(mockSession.getAttribute(CsrfUtil.CSRF_TOKEN_SESSION_ATTR)).thenReturn(CsrfUtil.generateToken());
+
+        assertFalse(CsrfUtil.validateToken(mockRequest));
+    }
+
+    @Test
+    void testValidateToken_WithMaskedTokenInHeader_ReturnsTrue() {
+        String token = CsrfUtil.generateToken();
+
+        when(mockRequest.getSession(false)).thenReturn(mockSession);
+        when(mockRequest.getHeader(CsrfUtil.CSRF_TOKEN_HEADER)).thenReturn(CsrfUtil.maskToken(token));
+        when(mockSession.getAttribute(CsrfUtil.CSRF_TOKEN_SESSION_ATTR)).thenReturn(token);
+
+        assertTrue(CsrfUtil.validateToken(mockRequest));
+        verify(mockRequest, never()).getParameter(CsrfUtil.CSRF_TOKEN_PARAM);
+    }
+
     // ==================== Security Tests ====================
 
     @Test
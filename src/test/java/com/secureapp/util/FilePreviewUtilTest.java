@@ -0,0 +1,71 @@
+package com.secureapp.util;
+
+import com.secureapp.model.FilePreview;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FilePreviewUtil.
+ * Tests statistics, charset detection and sealed storage.
+ */
+class FilePreviewUtilTest {
+
+    // ==================== compute Tests ====================
+
+    @Test
+    void testCompute_Statistics() {
+        byte[] content = "first line here\nsecond  line\n\nfourth\tline\nfifth".getBytes(StandardCharsets.UTF_8);
+
+        FilePreview preview = FilePreviewUtil.compute(content);
+
+        assertEquals(5, preview.getLineCount());
+        assertEquals(8, preview.getWordCount());
+        assertEquals("US-ASCII", preview.getCharset());
+        assertEquals("first line here\nsecond  line", preview.getSnippet());
+    }
+
+    @Test
+    void testCompute_SnippetIsBounded() {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longLine.append("word ");
+        }
+        FilePreview preview = FilePreviewUtil.compute(longLine.toString().getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(preview.getSnippet().length() <= FilePreviewUtil.PREVIEW_MAX_CHARS);
+        assertEquals(1, preview.getLineCount());
+        assertEquals(1000, preview.getWordCount());
+    }
+
+    // ==================== detectCharset Tests ====================
+
+    @Test
+    void testDetectCharset() {
+        assertEquals("UTF-8", FilePreviewUtil.detectCharset("caffè ☕ 😀".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("windows-1252", FilePreviewUtil.detectCharset("caffè".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals("UTF-16LE", FilePreviewUtil.detectCharset(new byte[] { (byte) 0xFF, (byte) 0xFE, 'a', 0 }));
+        assertEquals(FilePreviewUtil.BINARY, FilePreviewUtil.detectCharset(new byte[] { 'P', 'K', 3, 4, 0, 0 }));
+        // Overlong encoding of '/' and a truncated sequence are not UTF-8
+        assertEquals("windows-1252", FilePreviewUtil.detectCharset(new byte[] { (byte) 0xC0, (byte) 0xAF }));
+        assertEquals("windows-1252", FilePreviewUtil.detectCharset(new byte[] { 'a', (byte) 0xE2, (byte) 0x82 }));
+    }
+
+    // ==================== seal / open Tests ====================
+
+    @Test
+    void testSealOpen_BoundToStoredFilename() throws Exception {
+        FilePreview preview = FilePreviewUtil.compute("hello world\n".getBytes(StandardCharsets.UTF_8));
+
+        byte[] sealed = FilePreviewUtil.seal(preview, "file_1.txt");
+        FilePreview opened = FilePreviewUtil.open(sealed, "file_1.txt");
+
+        assertEquals("hello world", opened.getSnippet());
+        assertEquals(2, opened.getWordCount());
+        assertFalse(new String(sealed, StandardCharsets.ISO_8859_1).contains("hello"));
+        assertThrows(Exception.class, () -> FilePreviewUtil.open(sealed, "file_2.txt"));
+        assertNull(FilePreviewUtil.open(null, "file_1.txt"));
+    }
+}
@@ -0,0 +1,87 @@
+package com.secureapp.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for HttpCacheUtil.
+ * Tests If-None-Match / If-Modified-Since evaluation.
+ */
+class HttpCacheUtilTest {
+
+    private static final String ETAG = "\"f42-view\"";
+    private static final long LAST_MODIFIED = 1700000000123L;
+
+    private HttpServletRequest mockRequest;
+
+    @BeforeEach
+    void setUp() {
+        mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+    }
+
+    // ==================== If-None-Match Tests ====================
+
+    @Test
+    void testIfNoneMatch_MatchingTag() {
+        when(mockRequest.getHeader("If-None-Match")).thenReturn("\"other\", \"f42-view\"");
+        assertTrue(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+
+        when(mockRequest.getHeader("If-None-Match")).thenReturn("*");
+        assertTrue(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+
+        when(mockRequest.getHeader("If-None-Match")).thenReturn("\"f42-raw\"");
+        assertFalse(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfNoneMatch_WeakComparison() {
+        when(mockRequest.getHeader("If-None-Match")).thenReturn("W/\"f42-view\"");
+        assertTrue(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+
+        when(mockRequest.getHeader("If-None-Match")).thenReturn("\"l3-7\"");
+        assertTrue(HttpCacheUtil.isNotModified(mockRequest, HttpCacheUtil.weakEtag("l3-7"), LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfNoneMatch_TakesPrecedenceOverDate() {
+        when(mockRequest.getHeader("If-None-Match")).thenReturn("\"stale\"");
+        when(mockRequest.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED + 60000);
+
+        assertFalse(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+    }
+
+    // ==================== If-Modified-Since Tests ====================
+
+    @Test
+    void testIfModifiedSince_SecondResolution() {
+        // The client only ever saw the time truncated to whole seconds
+        when(mockRequest.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED / 1000 * 1000);
+        assertTrue(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+
+        when(mockRequest.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED - 5000);
+        assertFalse(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void testIfModifiedSince_InvalidOrMissing() {
+        when(mockRequest.getDateHeader("If-Modified-Since")).thenThrow(new IllegalArgumentException());
+        assertFalse(HttpCacheUtil.isNotModified(mockRequest, ETAG, LAST_MODIFIED));
+
+        assertFalse(HttpCacheUtil.isNotModified(mock(HttpServletRequest.class), ETAG, -1));
+    }
+
+    @Test
+    void testFingerprint_StableAndOpaque() {
+        String token = "0f8fad5b-d9cb-469f-a165-70867728950e";
+
+        assertEquals(HttpCacheUtil.fingerprint(token), HttpCacheUtil.fingerprint(token));
+        assertEquals(16, HttpCacheUtil.fingerprint(token).length());
+        assertNotEquals(HttpCacheUtil.fingerprint(token), HttpCacheUtil.fingerprint(token + "x"));
+    }
+}
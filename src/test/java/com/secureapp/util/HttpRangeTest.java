@@ -0,0 +1,65 @@
+package com.secureapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for HttpRange.
+ * Tests Range header parsing, satisfiability and coalescing.
+ */
+class HttpRangeTest {
+
+    private static final long LENGTH = 10000;
+
+    @Test
+    void testParse_SingleRanges() {
+        List<HttpRange> first = HttpRange.parse("bytes=0-499", LENGTH);
+        assertEquals(1, first.size());
+        assertEquals("bytes 0-499/10000", first.get(0).toContentRange(LENGTH));
+
+        HttpRange open = HttpRange.parse("bytes=9500-", LENGTH).get(0);
+        assertEquals(9500, open.getStart());
+        assertEquals(9999, open.getEnd());
+
+        HttpRange suffix = HttpRange.parse("bytes=-500", LENGTH).get(0);
+        assertEquals(9500, suffix.getStart());
+        assertEquals(500, suffix.getLength());
+
+        HttpRange clipped = HttpRange.parse("bytes=9000-20000", LENGTH).get(0);
+        assertEquals(9999, clipped.getEnd());
+    }
+
+    @Test
+    void testParse_MultipleRangesAreSortedAndMerged() {
+        List<HttpRange> ranges = HttpRange.parse("bytes=5000-5999, 0-99, 50-199, 200-299", LENGTH);
+
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(299, ranges.get(0).getEnd());
+        assertEquals(5000, ranges.get(1).getStart());
+    }
+
+    @Test
+    void testParse_Unsatisfiable() {
+        assertTrue(HttpRange.parse("bytes=10000-", LENGTH).isEmpty());
+        assertTrue(HttpRange.parse("bytes=-0", LENGTH).isEmpty());
+        assertTrue(HttpRange.parse("bytes=0-10", 0).isEmpty());
+    }
+
+    @Test
+    void testParse_IgnoredHeaders() {
+        assertNull(HttpRange.parse(null, LENGTH));
+        assertNull(HttpRange.parse("items=0-10", LENGTH));
+        assertNull(HttpRange.parse("bytes=500-100", LENGTH));
+        assertNull(HttpRange.parse("bytes=abc-", LENGTH));
+
+        StringBuilder tooMany = new StringBuilder("bytes=");
+        for (int i = 0; i <= HttpRange.MAX_RANGES; i++) {
+            tooMany.append(i * 10).append('-').append(i * 10 + 1).append(',');
+        }
+        assertNull(HttpRange.parse(tooMany.toString(), LENGTH));
+    }
+}
@@ -0,0 +1,73 @@
+package com.secureapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for PostingListUtil and SearchTokenUtil.
+ * Tests posting list encoding, list operations and tokenization.
+ */
+class PostingListUtilTest {
+
+    // ==================== encode / decode Tests ====================
+
+    @Test
+    void testEncodeDecode_RoundTrip() throws IOException {
+        int[] ids = { 1, 2, 130, 20000, 3000000, Integer.MAX_VALUE };
+
+        assertArrayEquals(ids, PostingListUtil.decode(PostingListUtil.encode(ids)));
+        assertArrayEquals(new int[0], PostingListUtil.decode(new byte[0]));
+    }
+
+    @Test
+    void testAppendDelta_MatchesEncode() throws IOException {
+        byte[] list = PostingListUtil.encode(new int[] { 5, 300 });
+        byte[] delta = PostingListUtil.appendDelta(300, 70000);
+        byte[] appended = new byte[list.length + delta.length];
+        System.arraycopy(list, 0, appended, 0, list.length);
+        System.arraycopy(delta, 0, appended, list.length, delta.length);
+
+        assertArrayEquals(new int[] { 5, 300, 70000 }, PostingListUtil.decode(appended));
+        assertThrows(IllegalArgumentException.class, () -> PostingListUtil.appendDelta(300, 300));
+    }
+
+    @Test
+    void testDecode_Malformed() {
+        assertThrows(IOException.class, () -> PostingListUtil.decode(new byte[] { 5, (byte) 0x80 }));
+    }
+
+    // ==================== intersect / insert / remove Tests ====================
+
+    @Test
+    void testIntersectAndInsert() {
+        assertArrayEquals(new int[] { 3, 9 },
+                PostingListUtil.intersect(new int[] { 1, 3, 5, 9 }, new int[] { 2, 3, 9, 11 }));
+        assertArrayEquals(new int[] { 1, 4, 7 }, PostingListUtil.insert(new int[] { 1, 7 }, 4));
+
+        int[] ids = { 1, 7 };
+        assertSame(ids, PostingListUtil.insert(ids, 7));
+    }
+
+    @Test
+    void testRemove() {
+        assertArrayEquals(new int[] { 1, 9 },
+                PostingListUtil.remove(new int[] { 1, 3, 5, 9 }, new int[] { 2, 3, 5, 11 }));
+        assertArrayEquals(new int[0], PostingListUtil.remove(new int[] { 4 }, new int[] { 4 }));
+
+        int[] ids = { 1, 7 };
+        assertSame(ids, PostingListUtil.remove(ids, new int[] { 3, 8 }));
+    }
+
+    // ==================== tokenize Tests ====================
+
+    @Test
+    void testTokenize() {
+        Set<String> tokens = SearchTokenUtil.tokenize("Caffè, CAFFÈ and a x-ray: 42!");
+
+        assertArrayEquals(new Object[] { "caffè", "and", "ray", "42" }, tokens.toArray());
+    }
+}
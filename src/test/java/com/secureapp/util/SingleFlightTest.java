@@ -0,0 +1,78 @@
+package com.secureapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SingleFlight.
+ * Tests coalescing of concurrent loads and error propagation.
+ */
+class SingleFlightTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    void testConcurrentCallers_ShareOneLoad() throws Exception {
+        SingleFlight<String, byte[]> flight = new SingleFlight<>("test");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> flight.execute("file_1.txt", () -> {
+                    loads.incrementAndGet();
+                    release.await(5, TimeUnit.SECONDS);
+                    return new byte[] { 42 };
+                })));
+            }
+            // Wait until every caller is either loading or joined
+            while (flight.getLoads() + flight.getCoalesced() < THREADS) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            byte[] first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<byte[]> result : results) {
+                assertSame(first, result.get(5, TimeUnit.SECONDS), "Result must be shared by reference");
+            }
+            assertEquals(1, loads.get());
+            assertEquals(1, flight.getLoads());
+            assertEquals(THREADS - 1, flight.getCoalesced());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testSequentialCalls_LoadAgain() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>("test");
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(1, flight.execute("key", loads::incrementAndGet));
+        assertEquals(2, flight.execute("key", loads::incrementAndGet));
+        assertEquals(0, flight.getCoalesced());
+    }
+
+    @Test
+    void testLoaderFailure_PropagatesAndIsNotRemembered() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>("test");
+
+        IOException thrown = assertThrows(IOException.class, () -> flight.execute("key", () -> {
+            throw new IOException("missing");
+        }));
+        assertEquals("missing", thrown.getMessage());
+        assertEquals(7, flight.execute("key", () -> 7));
+    }
+}
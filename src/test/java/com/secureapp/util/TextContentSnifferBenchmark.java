@@ -0,0 +1,93 @@
+package com.secureapp.util;
+
+import org.apache.tika.Tika;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Manual benchmark of upload validation: CPU and heap allocated per upload
+ * for what the detect stage used to do before computing the preview
+ * (Tika.detect() on the whole array, then FilePreviewUtil.detectCharset())
+ * versus TextContentSniffer, which gives both answers in one pass, on ASCII
+ * and on UTF-8 text.
+ *
+ * Not a unit test: run its main method after mvn test-compile, with
+ * target/test-classes, target/classes and the dependency classpath.
+ */
+public class TextContentSnifferBenchmark {
+
+    private static final int[] SIZES = { 64 * 1024, 1024 * 1024, 5 * 1024 * 1024 };
+    private static final int WARMUP = 200;
+    private static final int UPLOADS = 500;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Returns the preview charset, or null to reject the upload.
+    private interface Validator {
+        String validate(byte[] content) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Tika tika = new Tika();
+        Validator tikaValidator = content -> {
+            String type = tika.detect(content);
+            if (!type.equals("application/octet-stream") && !type.startsWith("text/")) {
+                return null;
+            }
+            return FilePreviewUtil.detectCharset(content);
+        };
+        Validator snifferValidator = content -> TextContentSniffer.sniff(content).getCharset();
+
+        for (int size : SIZES) {
+            for (boolean unicode : new boolean[] { false, true }) {
+                byte[] content = sampleText(size, unicode);
+                String name = (unicode ? "utf-8 " : "ascii ") + size / 1024 + " KB";
+                run("tika+charset " + name, tikaValidator, content);
+                run("sniffer      " + name, snifferValidator, content);
+            }
+        }
+    }
+
+    private static void run(String name, Validator validator, byte[] content) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            validator.validate(content);
+        }
+        int accepted = 0;
+        long allocatedStart = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        for (int i = 0; i < UPLOADS; i++) {
+            if (validator.validate(content) != null) {
+                accepted++;
+            }
+        }
+        long cpuPerUpload = (THREADS.getCurrentThreadCpuTime() - cpuStart) / UPLOADS;
+        long allocatedPerUpload =
+                (THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedStart) / UPLOADS;
+
+        System.out.println(String.format("%-33s %4d/%d accepted, %10.1f us CPU, %9d bytes allocated per upload",
+                name, accepted, UPLOADS, cpuPerUpload / 1000.0, allocatedPerUpload));
+    }
+
+    private static byte[] sampleText(int size, boolean unicode) throws IOException {
+        String[] words = unicode
+                ? new String[] { "caffè", "résumé", "naïve", "città", "über", "façade", "€", "☕", "the", "and" }
+                : new String[] { "upload", "secure", "file", "storage", "report", "customer", "the", "and" };
+        Random random = new Random(42);
+        ByteArrayOutputStream text = new ByteArrayOutputStream(size + 256);
+        while (text.size() < size) {
+            StringBuilder line = new StringBuilder();
+            int count = 5 + random.nextInt(10);
+            for (int i = 0; i < count; i++) {
+                line.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            line.append(random.nextInt(100000)).append('\n');
+            text.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return text.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+package com.secureapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TextContentSniffer.
+ * Tests charsets, binary signatures and control bytes, and chunked input.
+ */
+class TextContentSnifferTest {
+
+    private static final String MIXED = "Résumé, naïve café ☕ and 😀 — line one\r\nline\ttwo\n";
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ==================== Charset Tests ====================
+
+    @Test
+    void testTextCharsets_MatchFilePreviewUtil() {
+        byte[][] samples = {
+                utf8("plain ascii text, long enough to cross several words\n"),
+                utf8(MIXED),
+                "caffè latte".getBytes(StandardCharsets.ISO_8859_1),
+                { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'b', 'o', 'm' },
+                { (byte) 0xFF, (byte) 0xFE, 'a', 0, 'b', 0 },
+                { 'a', 'b', (byte) 0xE2, (byte) 0x82 },
+                { (byte) 0xED, (byte) 0xA0, (byte) 0x80, 'x' },
+                new byte[0] };
+        for (byte[] sample : samples) {
+            TextContentSniffer sniffer = TextContentSniffer.sniff(sample);
+            assertTrue(sniffer.isText(), Arrays.toString(sample));
+            assertEquals(FilePreviewUtil.detectCharset(sample), sniffer.getCharset(), Arrays.toString(sample));
+        }
+    }
+
+    // ==================== Binary Tests ====================
+
+    @Test
+    void testBinarySignatures_Rejected() {
+        assertEquals("application/pdf", TextContentSniffer.sniff(utf8("%PDF-1.7\n%text-like header")).getDetectedType());
+        assertEquals("image/jpeg",
+                TextContentSniffer.sniff(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 'J' }).getDetectedType());
+        assertEquals("application/java-vm", TextContentSniffer
+                .sniff(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 'x' }).getDetectedType());
+        assertNull(TextContentSniffer.sniff(utf8("A %PDF- reference later in the text")).getDetectedType());
+    }
+
+    @Test
+    void testControlBytes_RejectedAnywhere() {
+        byte[] content = utf8(repeat("text with a late control byte ", 400));
+        for (byte control : new byte[] { 0, 0x01, 0x08, 0x1A, 0x7F }) {
+            byte[] sample = content.clone();
+            sample[sample.length - 5] = control;
+            TextContentSniffer sniffer = TextContentSniffer.sniff(sample);
+            assertFalse(sniffer.isText(), "Byte " + control);
+            assertEquals(TextContentSniffer.OCTET_STREAM, sniffer.getDetectedType());
+            assertNull(sniffer.getCharset());
+        }
+        assertTrue(TextContentSniffer.sniff(utf8("tab\tvt\u000Bff\fcr\resc\u001B[0m\n")).isText());
+    }
+
+    // ==================== Streaming Tests ====================
+
+    @Test
+    void testChunkedInput_SameResultAsWhole() {
+        byte[] content = utf8(repeat(MIXED, 50));
+        for (int chunkSize : new int[] { 1, 3, 7, 64, 1000 }) {
+            TextContentSniffer sniffer = new TextContentSniffer();
+            for (int offset = 0; offset < content.length; offset += chunkSize) {
+                assertTrue(sniffer.update(content, offset, Math.min(chunkSize, content.length - offset)));
+            }
+            assertTrue(sniffer.finish());
+            assertEquals("UTF-8", sniffer.getCharset(), "Chunks of " + chunkSize);
+        }
+    }
+
+    @Test
+    void testBinaryChunk_StopsFurtherUpdates() {
+        TextContentSniffer sniffer = new TextContentSniffer();
+        byte[] text = utf8(repeat("text ", 20));
+
+        assertTrue(sniffer.update(text, 0, text.length));
+        assertFalse(sniffer.update(new byte[] { 'a', 0, 'b' }, 0, 3));
+        assertFalse(sniffer.update(text, 0, text.length));
+        assertFalse(sniffer.finish());
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+}